@@ -28,8 +28,12 @@ import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.message.BasicHeaderElementIterator;
 import org.apache.http.protocol.HTTP;
 import org.apache.http.protocol.HttpContext;
+import org.springframework.amqp.core.AcknowledgeMode;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.amqp.SimpleRabbitListenerContainerFactoryConfigurer;
 import org.springframework.boot.web.client.RestTemplateCustomizer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.hateoas.MediaTypes;
@@ -55,6 +59,24 @@ public class Application {
     return restTemplate;
   }
 
+  /**
+   * Listener container for the solr indexing queue. Messages are acknowledged by {@link
+   * uk.ac.ebi.biosamples.solr.SolrIndexBuffer} once the batch they are part of has been sent to
+   * solr, so each consumer must be allowed at least a full batch of unacknowledged messages.
+   */
+  @Bean
+  public SimpleRabbitListenerContainerFactory solrListenerContainerFactory(
+      SimpleRabbitListenerContainerFactoryConfigurer configurer,
+      ConnectionFactory connectionFactory,
+      BioSamplesProperties bioSamplesProperties) {
+    SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+    configurer.configure(factory, connectionFactory);
+    factory.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+    factory.setPrefetchCount(bioSamplesProperties.getAgentSolrBatchSize());
+    factory.setTxSize(1);
+    return factory;
+  }
+
   public static void main(String[] args) {
     System.exit(SpringApplication.exit(SpringApplication.run(Application.class, args)));
   }
@@ -10,49 +10,73 @@
 */
 package uk.ac.ebi.biosamples.solr;
 
+import com.rabbitmq.client.Channel;
+import java.io.IOException;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.amqp.support.AmqpHeaders;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.messaging.handler.annotation.Header;
 import org.springframework.stereotype.Service;
 import uk.ac.ebi.biosamples.MessageContent;
 import uk.ac.ebi.biosamples.Messaging;
-import uk.ac.ebi.biosamples.model.Attribute;
 import uk.ac.ebi.biosamples.model.Sample;
-import uk.ac.ebi.biosamples.ols.OlsProcessor;
 import uk.ac.ebi.biosamples.solr.model.SolrSample;
-import uk.ac.ebi.biosamples.solr.repo.SolrSampleRepository;
 import uk.ac.ebi.biosamples.solr.service.SampleToSolrSampleConverter;
 
 @Service
 public class MessageHandlerSolr {
   private static final Logger LOGGER = LoggerFactory.getLogger(MessageHandlerSolr.class);
 
-  @Autowired private SolrSampleRepository repository;
   @Autowired private SampleToSolrSampleConverter sampleToSolrSampleConverter;
-  @Autowired private OlsProcessor olsProcessor;
+  @Autowired private OntologyExpansionService ontologyExpansionService;
+  @Autowired private SolrIndexBuffer solrIndexBuffer;
 
-  @RabbitListener(queues = Messaging.queueToBeIndexedSolr)
-  public void handle(MessageContent messageContent) {
+  /**
+   * Converts the samples of the message and hands them to the {@link SolrIndexBuffer}, which
+   * acknowledges the message once they have been sent to solr.
+   */
+  @RabbitListener(
+      queues = Messaging.queueToBeIndexedSolr,
+      containerFactory = "solrListenerContainerFactory")
+  public void handle(
+      MessageContent messageContent,
+      Channel channel,
+      @Header(AmqpHeaders.DELIVERY_TAG) long deliveryTag)
+      throws IOException {
+    List<SolrSample> toSave = new ArrayList<>();
+    List<String> toDelete = new ArrayList<>();
 
     if (messageContent.getSample() == null) {
       LOGGER.warn("received message without sample");
-      return;
+    } else {
+      try {
+        Sample sample = messageContent.getSample();
+        handleSample(sample, messageContent.getCreationTime(), toSave, toDelete);
+        for (Sample related : messageContent.getRelated()) {
+          handleSample(related, messageContent.getCreationTime(), toSave, toDelete);
+        }
+      } catch (RuntimeException e) {
+        LOGGER.error(
+            String.format("failed to convert %s", messageContent.getSample().getAccession()), e);
+        channel.basicNack(deliveryTag, false, false);
+        return;
+      }
     }
 
-    Sample sample = messageContent.getSample();
-    handleSample(sample, messageContent.getCreationTime());
-    for (Sample related : messageContent.getRelated()) {
-      handleSample(related, messageContent.getCreationTime());
-    }
+    solrIndexBuffer.add(channel, deliveryTag, toSave, toDelete);
   }
 
-  private void handleSample(Sample sample, String modifiedTime) {
+  private void handleSample(
+      Sample sample, String modifiedTime, List<SolrSample> toSave, List<String> toDelete) {
     if (isIndexingCandidate(sample)) {
       SolrSample solrSample = sampleToSolrSampleConverter.convert(sample);
       // add the modified time to the solrSample
@@ -76,36 +100,21 @@ public class MessageHandlerSolr {
               solrSample.getKeywords());
 
       // expand ontology terms from OLS
-      for (List<String> iris : solrSample.getAttributeIris().values()) {
-        for (String iri : iris) {
-          solrSample.getKeywords().addAll(olsProcessor.ancestorsAndSynonyms("efo", iri));
-          solrSample.getKeywords().addAll(olsProcessor.ancestorsAndSynonyms("NCBITaxon", iri));
-        }
+      Set<String> iris = new HashSet<>();
+      for (List<String> attributeIris : solrSample.getAttributeIris().values()) {
+        iris.addAll(attributeIris);
       }
+      solrSample.getKeywords().addAll(ontologyExpansionService.expand(iris));
 
-      repository.saveWithoutCommit(solrSample);
-      LOGGER.info(String.format("added %s to index", sample.getAccession()));
+      toSave.add(solrSample);
+      LOGGER.debug(String.format("converted %s for indexing", sample.getAccession()));
     } else {
-      if (repository.exists(sample.getAccession())) {
-        repository.delete(sample.getAccession());
-        LOGGER.info(String.format("removed %s from index", sample.getAccession()));
-      }
+      toDelete.add(sample.getAccession());
+      LOGGER.info(String.format("removing %s from index", sample.getAccession()));
     }
   }
 
   static boolean isIndexingCandidate(Sample sample) {
-    for (Attribute attribute : sample.getAttributes()) {
-      if (attribute.getType().equals("INSDC status")) {
-        List<String> publicStatuses = Arrays.asList("public", "live");
-        if (!publicStatuses.contains(attribute.getValue())) {
-          LOGGER.debug(
-              String.format(
-                  "not indexing %s as INSDC status is %s",
-                  sample.getAccession(), attribute.getValue()));
-          return false;
-        }
-      }
-    }
-    return true;
+    return SampleToSolrSampleConverter.isIndexingCandidate(sample);
   }
 }
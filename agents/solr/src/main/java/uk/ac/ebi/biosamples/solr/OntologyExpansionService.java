@@ -0,0 +1,253 @@
+/*
+* Copyright 2019 EMBL - European Bioinformatics Institute
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+* file except in compliance with the License. You may obtain a copy of the License at
+* http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the
+* License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+* CONDITIONS OF ANY KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations under the License.
+*/
+package uk.ac.ebi.biosamples.solr;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import uk.ac.ebi.biosamples.BioSamplesProperties;
+import uk.ac.ebi.biosamples.ols.OlsProcessor;
+
+/**
+ * Expands ontology term IRIs into the labels and synonyms of their ancestors, for use as search
+ * keywords.
+ *
+ * <p>Expansions are looked up from OLS on a separate bounded pool, so the distinct IRIs of a sample
+ * are resolved concurrently and concurrent lookups of the same IRI share a single request. Results
+ * are kept for a fixed time and, if a cache file is configured, saved periodically and loaded again
+ * at startup. A cache file from another agent can be used to pre-warm a new one. If OLS fails once
+ * an expansion has expired, the expired expansion is used until OLS recovers.
+ */
+@Service
+public class OntologyExpansionService {
+  private static final Logger LOGGER = LoggerFactory.getLogger(OntologyExpansionService.class);
+
+  static final List<String> ONTOLOGIES = Arrays.asList("efo", "NCBITaxon");
+
+  private final OlsProcessor olsProcessor;
+  private final ExecutorService executorService;
+  private final Cache<String, Expansion> cache;
+  private final ConcurrentMap<String, CompletableFuture<Expansion>> inFlight =
+      new ConcurrentHashMap<>();
+  private final long ttl;
+  private final long timeout;
+  private final Path cacheFile;
+  private final AtomicBoolean modified = new AtomicBoolean(false);
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  @Autowired
+  public OntologyExpansionService(
+      OlsProcessor olsProcessor, BioSamplesProperties bioSamplesProperties) {
+    this(
+        olsProcessor,
+        bioSamplesProperties.getAgentSolrOlsThreads(),
+        bioSamplesProperties.getAgentSolrOlsTimeout(),
+        bioSamplesProperties.getAgentSolrOlsCacheSize(),
+        bioSamplesProperties.getAgentSolrOlsCacheTtl(),
+        bioSamplesProperties.getAgentSolrOlsCacheFile());
+  }
+
+  OntologyExpansionService(
+      OlsProcessor olsProcessor,
+      int threads,
+      long timeout,
+      int cacheSize,
+      long cacheTtl,
+      String cacheFile) {
+    this.olsProcessor = olsProcessor;
+    this.executorService = Executors.newFixedThreadPool(threads);
+    this.cache = Caffeine.newBuilder().maximumSize(cacheSize).build();
+    this.ttl = TimeUnit.SECONDS.toMillis(cacheTtl);
+    this.timeout = timeout;
+    this.cacheFile = cacheFile == null || cacheFile.isEmpty() ? null : Paths.get(cacheFile);
+  }
+
+  /**
+   * Returns the ancestors and synonyms of all the given IRIs, waiting for any that have to be
+   * looked up in OLS.
+   *
+   * @throws RuntimeException if any of the lookups fails or they do not all finish in time
+   */
+  public Set<String> expand(Collection<String> iris) {
+    List<CompletableFuture<Expansion>> futures = new ArrayList<>();
+    for (String iri : new LinkedHashSet<>(iris)) {
+      futures.add(lookup(iri));
+    }
+
+    Set<String> terms = new HashSet<>();
+    try {
+      CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+          .get(timeout, TimeUnit.MILLISECONDS);
+      for (CompletableFuture<Expansion> future : futures) {
+        terms.addAll(future.get().terms);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException("failed to expand ontology terms", e.getCause());
+    } catch (TimeoutException e) {
+      // lookups carry on in the background, so a retry will likely find them cached
+      throw new RuntimeException(
+          String.format("expanding %d ontology terms took more than %dms", iris.size(), timeout));
+    }
+    return terms;
+  }
+
+  private CompletableFuture<Expansion> lookup(String iri) {
+    Expansion cached = cache.getIfPresent(iri);
+    if (cached != null && !cached.isExpired(ttl)) {
+      return CompletableFuture.completedFuture(cached);
+    }
+
+    CompletableFuture<Expansion> created = new CompletableFuture<>();
+    CompletableFuture<Expansion> existing = inFlight.putIfAbsent(iri, created);
+    if (existing != null) {
+      return existing;
+    }
+
+    executorService.execute(
+        () -> {
+          try {
+            Expansion expansion = fetch(iri);
+            cache.put(iri, expansion);
+            modified.set(true);
+            created.complete(expansion);
+          } catch (RuntimeException e) {
+            if (cached != null) {
+              LOGGER.warn("Unable to refresh expansion of " + iri + ", using expired one", e);
+              created.complete(cached);
+            } else {
+              created.completeExceptionally(e);
+            }
+          } finally {
+            inFlight.remove(iri, created);
+          }
+        });
+    return created;
+  }
+
+  private Expansion fetch(String iri) {
+    Set<String> terms = new HashSet<>();
+    for (String ontology : ONTOLOGIES) {
+      terms.addAll(olsProcessor.ancestorsAndSynonyms(ontology, iri));
+    }
+    return new Expansion(iri, System.currentTimeMillis(), terms);
+  }
+
+  @PostConstruct
+  public void load() {
+    if (cacheFile == null || !Files.exists(cacheFile)) {
+      return;
+    }
+    int count = 0;
+    try (BufferedReader reader = Files.newBufferedReader(cacheFile, StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        Expansion expansion = objectMapper.readValue(line, Expansion.class);
+        if (!expansion.isExpired(ttl)) {
+          cache.put(expansion.iri, expansion);
+          count += 1;
+        }
+      }
+    } catch (IOException e) {
+      LOGGER.warn("Unable to load ontology expansions from " + cacheFile, e);
+    }
+    LOGGER.info("Loaded " + count + " ontology expansions from " + cacheFile);
+  }
+
+  // every 5 minutes, if anything has been looked up since
+  @Scheduled(fixedDelay = 5 * 60 * 1000)
+  public void save() {
+    if (cacheFile == null || !modified.getAndSet(false)) {
+      return;
+    }
+    Path tempFile = cacheFile.resolveSibling(cacheFile.getFileName() + ".tmp");
+    try {
+      try (BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+        for (Map.Entry<String, Expansion> entry : cache.asMap().entrySet()) {
+          writer.write(objectMapper.writeValueAsString(entry.getValue()));
+          writer.newLine();
+        }
+      }
+      Files.move(tempFile, cacheFile, StandardCopyOption.REPLACE_EXISTING);
+      LOGGER.info("Saved " + cache.estimatedSize() + " ontology expansions to " + cacheFile);
+    } catch (IOException e) {
+      modified.set(true);
+      LOGGER.warn("Unable to save ontology expansions to " + cacheFile, e);
+    }
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    executorService.shutdownNow();
+    save();
+  }
+
+  static class Expansion {
+    @JsonProperty("iri")
+    final String iri;
+
+    @JsonProperty("fetched")
+    final long fetched;
+
+    @JsonProperty("terms")
+    final Set<String> terms;
+
+    @JsonCreator
+    Expansion(
+        @JsonProperty("iri") String iri,
+        @JsonProperty("fetched") long fetched,
+        @JsonProperty("terms") Set<String> terms) {
+      this.iri = iri;
+      this.fetched = fetched;
+      this.terms = terms;
+    }
+
+    boolean isExpired(long ttl) {
+      return System.currentTimeMillis() - fetched > ttl;
+    }
+  }
+}
@@ -0,0 +1,204 @@
+/*
+* Copyright 2019 EMBL - European Bioinformatics Institute
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+* file except in compliance with the License. You may obtain a copy of the License at
+* http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the
+* License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+* CONDITIONS OF ANY KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations under the License.
+*/
+package uk.ac.ebi.biosamples.solr;
+
+import com.rabbitmq.client.Channel;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.AmqpTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import uk.ac.ebi.biosamples.BioSamplesProperties;
+import uk.ac.ebi.biosamples.Messaging;
+import uk.ac.ebi.biosamples.solr.model.SolrSample;
+import uk.ac.ebi.biosamples.solr.repo.SolrSampleRepository;
+
+/**
+ * Collects the documents produced from the messages of each rabbit channel and sends them to solr
+ * as a single update request, either when enough messages have been buffered or when the oldest
+ * message has waited long enough.
+ *
+ * <p>Messages are only acknowledged once the update containing them has succeeded. If it fails they
+ * are rejected without requeue, so that they go through the dead letter retry queue.
+ *
+ * <p>Updates are not committed here, solr makes them visible with its autoSoftCommit, so searchers
+ * and solr's own caches are not thrown away for every batch. Once the soft commit maxTime has
+ * passed since an update, a message is published to {@link Messaging#exchangeForIndexedSolr} so
+ * that the webapps can drop any search results they have cached. Publishing before the changes are
+ * visible would let a webapp cache the old results again until they expire. Updates are announced
+ * together, at most once per interval, so that the webapp caches are not emptied for every batch
+ * while the agent is busy.
+ */
+@Service
+public class SolrIndexBuffer {
+  private static final Logger LOGGER = LoggerFactory.getLogger(SolrIndexBuffer.class);
+
+  private final SolrSampleRepository repository;
+  private final AmqpTemplate amqpTemplate;
+  private final int batchSize;
+  private final long batchTimeout;
+  private final long softCommitMaxTime;
+
+  // time of the first update that has not been announced, or 0 if they all have
+  private long unannouncedSince = 0;
+  // time of the latest update
+  private long lastUpdate = 0;
+
+  private final ConcurrentMap<Channel, Batch> batches = new ConcurrentHashMap<>();
+
+  public SolrIndexBuffer(
+      SolrSampleRepository repository,
+      AmqpTemplate amqpTemplate,
+      BioSamplesProperties bioSamplesProperties) {
+    this.repository = repository;
+    this.amqpTemplate = amqpTemplate;
+    this.batchSize = bioSamplesProperties.getAgentSolrBatchSize();
+    this.batchTimeout = bioSamplesProperties.getAgentSolrBatchTimeout();
+    this.softCommitMaxTime = bioSamplesProperties.getAgentSolrSoftCommitMaxTime();
+  }
+
+  /**
+   * Adds the outcome of a message to the batch of its channel. Documents replace any earlier
+   * document or deletion of the same accession in the batch.
+   *
+   * @param channel the channel the message was delivered on
+   * @param deliveryTag the delivery tag of the message
+   * @param toSave documents to add to the index
+   * @param toDelete accessions to remove from the index
+   */
+  public void add(
+      Channel channel, long deliveryTag, List<SolrSample> toSave, List<String> toDelete) {
+    Batch batch = batches.computeIfAbsent(channel, Batch::new);
+    synchronized (batch) {
+      for (String accession : toDelete) {
+        batch.documents.put(accession, null);
+      }
+      for (SolrSample solrSample : toSave) {
+        batch.documents.put(solrSample.getAccession(), solrSample);
+      }
+      if (batch.messageCount == 0) {
+        batch.started = System.currentTimeMillis();
+      }
+      batch.messageCount += 1;
+      batch.lastDeliveryTag = Math.max(batch.lastDeliveryTag, deliveryTag);
+
+      if (batch.messageCount >= batchSize || batch.documents.size() >= batchSize) {
+        flush(batch);
+      }
+    }
+  }
+
+  @Scheduled(fixedDelayString = "${biosamples.agent.solr.batch.timeout:1000}")
+  public void flushExpired() {
+    long now = System.currentTimeMillis();
+    for (Batch batch : batches.values()) {
+      synchronized (batch) {
+        if (batch.messageCount > 0 && now - batch.started >= batchTimeout) {
+          flush(batch);
+        }
+      }
+      if (!batch.channel.isOpen()) {
+        // any unacknowledged messages of a closed channel will be redelivered on another one
+        batches.remove(batch.channel);
+      }
+    }
+  }
+
+  private void flush(Batch batch) {
+    List<SolrSample> toSave = new ArrayList<>();
+    List<String> toDelete = new ArrayList<>();
+    for (Map.Entry<String, SolrSample> entry : batch.documents.entrySet()) {
+      if (entry.getValue() == null) {
+        toDelete.add(entry.getKey());
+      } else {
+        toSave.add(entry.getValue());
+      }
+    }
+
+    try {
+      try {
+        repository.deleteAllWithoutCommit(toDelete);
+        repository.saveAllWithoutCommit(toSave);
+      } catch (RuntimeException e) {
+        LOGGER.error(
+            String.format(
+                "failed to index batch of %d messages, rejecting them", batch.messageCount),
+            e);
+        batch.channel.basicNack(batch.lastDeliveryTag, true, false);
+        return;
+      }
+      batch.channel.basicAck(batch.lastDeliveryTag, true);
+      LOGGER.info(
+          String.format(
+              "indexed %d and removed %d samples from %d messages",
+              toSave.size(), toDelete.size(), batch.messageCount));
+      updated(System.currentTimeMillis());
+    } catch (IOException e) {
+      LOGGER.error("failed to acknowledge batch of messages", e);
+    } finally {
+      batch.clear();
+    }
+  }
+
+  private synchronized void updated(long now) {
+    lastUpdate = now;
+    if (unannouncedSince == 0) {
+      unannouncedSince = now;
+    }
+  }
+
+  @Scheduled(fixedDelayString = "${biosamples.agent.solr.indexed.interval:10000}")
+  public void announceIndexed() {
+    announceIndexed(System.currentTimeMillis());
+  }
+
+  /** Announces the updates solr has made visible by now, if there are any. */
+  synchronized void announceIndexed(long now) {
+    long visibleUntil = now - softCommitMaxTime;
+    if (unannouncedSince == 0 || unannouncedSince > visibleUntil) {
+      return;
+    }
+    // later updates may not be visible yet, so are left for the next announcement
+    unannouncedSince = lastUpdate > visibleUntil ? visibleUntil + 1 : 0;
+    try {
+      amqpTemplate.convertAndSend(Messaging.exchangeForIndexedSolr, "", visibleUntil);
+    } catch (AmqpException e) {
+      // cached searches will still expire, so this is not worth retrying
+      LOGGER.warn("failed to announce index update", e);
+    }
+  }
+
+  private static class Batch {
+    private final Channel channel;
+    // a null document means the accession should be removed from the index
+    private final Map<String, SolrSample> documents = new LinkedHashMap<>();
+    private int messageCount = 0;
+    private long lastDeliveryTag = 0;
+    private long started = 0;
+
+    private Batch(Channel channel) {
+      this.channel = channel;
+    }
+
+    private void clear() {
+      documents.clear();
+      messageCount = 0;
+    }
+  }
+}
@@ -0,0 +1,105 @@
+/*
+* Copyright 2019 EMBL - European Bioinformatics Institute
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+* file except in compliance with the License. You may obtain a copy of the License at
+* http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the
+* License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+* CONDITIONS OF ANY KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations under the License.
+*/
+package uk.ac.ebi.biosamples.solr;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import uk.ac.ebi.biosamples.ols.OlsProcessor;
+
+public class OntologyExpansionServiceTest {
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void concurrent_lookups_of_same_iri_share_one_request() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    CountingOlsProcessor olsProcessor = new CountingOlsProcessor(release);
+    OntologyExpansionService service =
+        new OntologyExpansionService(olsProcessor, 4, 10000, 100, 60, null);
+
+    ExecutorService callers = Executors.newFixedThreadPool(2);
+    try {
+      Future<Set<String>> first =
+          callers.submit(() -> service.expand(Collections.singleton("http://x/A")));
+      Future<Set<String>> second =
+          callers.submit(() -> service.expand(Arrays.asList("http://x/A", "http://x/A")));
+      release.countDown();
+
+      Set<String> expected = new HashSet<>(Arrays.asList("efo:http://x/A", "NCBITaxon:http://x/A"));
+      assertEquals(expected, first.get(10, TimeUnit.SECONDS));
+      assertEquals(expected, second.get(10, TimeUnit.SECONDS));
+      assertEquals(OntologyExpansionService.ONTOLOGIES.size(), olsProcessor.calls.get());
+    } finally {
+      callers.shutdownNow();
+      service.shutdown();
+    }
+  }
+
+  @Test
+  public void expansions_are_reloaded_from_cache_file() throws Exception {
+    String cacheFile = new File(folder.getRoot(), "ols.json").getPath();
+    CountingOlsProcessor olsProcessor = new CountingOlsProcessor(new CountDownLatch(0));
+
+    OntologyExpansionService service =
+        new OntologyExpansionService(olsProcessor, 2, 10000, 100, 60, cacheFile);
+    service.expand(Arrays.asList("http://x/A", "http://x/B"));
+    service.shutdown();
+    int calls = olsProcessor.calls.get();
+
+    OntologyExpansionService reloaded =
+        new OntologyExpansionService(olsProcessor, 2, 10000, 100, 60, cacheFile);
+    reloaded.load();
+    try {
+      assertEquals(
+          new HashSet<>(Arrays.asList("efo:http://x/B", "NCBITaxon:http://x/B")),
+          reloaded.expand(Collections.singleton("http://x/B")));
+      assertEquals(calls, olsProcessor.calls.get());
+    } finally {
+      reloaded.shutdown();
+    }
+  }
+
+  private static class CountingOlsProcessor extends OlsProcessor {
+    private final CountDownLatch release;
+    private final AtomicInteger calls = new AtomicInteger();
+
+    private CountingOlsProcessor(CountDownLatch release) {
+      super(null, null);
+      this.release = release;
+    }
+
+    @Override
+    public Collection<String> ancestorsAndSynonyms(String ontology, String iri) {
+      calls.incrementAndGet();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+      return Collections.singleton(ontology + ":" + iri);
+    }
+  }
+}
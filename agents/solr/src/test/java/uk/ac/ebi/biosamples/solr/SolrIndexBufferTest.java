@@ -0,0 +1,135 @@
+/*
+* Copyright 2019 EMBL - European Bioinformatics Institute
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+* file except in compliance with the License. You may obtain a copy of the License at
+* http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the
+* License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+* CONDITIONS OF ANY KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations under the License.
+*/
+package uk.ac.ebi.biosamples.solr;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.rabbitmq.client.Channel;
+import java.util.Collections;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.amqp.core.AmqpTemplate;
+import uk.ac.ebi.biosamples.BioSamplesProperties;
+import uk.ac.ebi.biosamples.Messaging;
+import uk.ac.ebi.biosamples.solr.model.SolrSample;
+import uk.ac.ebi.biosamples.solr.repo.SolrSampleRepository;
+
+@RunWith(MockitoJUnitRunner.class)
+public class SolrIndexBufferTest {
+
+  @Mock SolrSampleRepository repository;
+  @Mock AmqpTemplate amqpTemplate;
+  @Mock BioSamplesProperties bioSamplesProperties;
+  @Mock Channel channel;
+
+  private SolrIndexBuffer solrIndexBuffer;
+
+  private static final long SOFT_COMMIT_MAX_TIME = 5000;
+
+  @Before
+  public void setUp() {
+    when(bioSamplesProperties.getAgentSolrBatchSize()).thenReturn(2);
+    when(bioSamplesProperties.getAgentSolrBatchTimeout()).thenReturn(1000);
+    when(bioSamplesProperties.getAgentSolrSoftCommitMaxTime()).thenReturn(SOFT_COMMIT_MAX_TIME);
+    solrIndexBuffer = new SolrIndexBuffer(repository, amqpTemplate, bioSamplesProperties);
+  }
+
+  @Test
+  public void update_is_acknowledged_without_committing() throws Exception {
+    addTwoMessages();
+
+    InOrder inOrder = inOrder(repository, channel);
+    inOrder.verify(repository).deleteAllWithoutCommit(Collections.singletonList("SAMEA2"));
+    inOrder.verify(repository).saveAllWithoutCommit(anyCollectionOf(SolrSample.class));
+    inOrder.verify(channel).basicAck(2, true);
+    verify(repository, never()).commit(anyString());
+  }
+
+  @Test
+  public void update_is_announced_once_it_is_visible() throws Exception {
+    long before = System.currentTimeMillis();
+    addTwoMessages();
+    long after = System.currentTimeMillis();
+
+    solrIndexBuffer.announceIndexed(before + SOFT_COMMIT_MAX_TIME - 1);
+    verify(amqpTemplate, never()).convertAndSend(anyString(), anyString(), any(Object.class));
+
+    solrIndexBuffer.announceIndexed(after + SOFT_COMMIT_MAX_TIME);
+    verify(amqpTemplate).convertAndSend(Messaging.exchangeForIndexedSolr, "", after);
+  }
+
+  @Test
+  public void updates_are_announced_together() throws Exception {
+    addTwoMessages();
+    addTwoMessages();
+    addTwoMessages();
+    long after = System.currentTimeMillis();
+
+    solrIndexBuffer.announceIndexed(after + SOFT_COMMIT_MAX_TIME);
+    // nothing new
+    solrIndexBuffer.announceIndexed(after + 2 * SOFT_COMMIT_MAX_TIME);
+
+    verify(amqpTemplate, times(1))
+        .convertAndSend(eq(Messaging.exchangeForIndexedSolr), eq(""), any(Object.class));
+  }
+
+  @Test
+  public void updates_that_may_not_be_visible_are_announced_later() throws Exception {
+    addTwoMessages();
+    // one announcement covers the first update, but not the second
+    long visibleUntil = System.currentTimeMillis();
+    Thread.sleep(2);
+    addTwoMessages();
+
+    solrIndexBuffer.announceIndexed(visibleUntil + SOFT_COMMIT_MAX_TIME);
+    verify(amqpTemplate).convertAndSend(Messaging.exchangeForIndexedSolr, "", visibleUntil);
+
+    solrIndexBuffer.announceIndexed(visibleUntil + SOFT_COMMIT_MAX_TIME + 1000);
+    verify(amqpTemplate).convertAndSend(Messaging.exchangeForIndexedSolr, "", visibleUntil + 1000);
+  }
+
+  @Test
+  public void failed_update_is_rejected_and_not_announced() throws Exception {
+    doThrow(new IllegalStateException("solr unavailable"))
+        .when(repository)
+        .saveAllWithoutCommit(anyCollectionOf(SolrSample.class));
+
+    addTwoMessages();
+    solrIndexBuffer.announceIndexed(System.currentTimeMillis() + SOFT_COMMIT_MAX_TIME);
+
+    verify(channel).basicNack(2, true, false);
+    verify(channel, never()).basicAck(anyLong(), anyBoolean());
+    verify(amqpTemplate, never()).convertAndSend(anyString(), anyString(), any(Object.class));
+  }
+
+  private void addTwoMessages() {
+    SolrSample solrSample = mock(SolrSample.class);
+    when(solrSample.getAccession()).thenReturn("SAMEA1");
+    solrIndexBuffer.add(channel, 1, Collections.singletonList(solrSample), Collections.emptyList());
+    solrIndexBuffer.add(channel, 2, Collections.emptyList(), Collections.singletonList("SAMEA2"));
+  }
+}
@@ -17,6 +17,7 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 import javax.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -113,7 +114,9 @@ public class BioSamplesClient implements AutoCloseable {
             restOperations,
             traverson,
             threadPoolExecutor,
-            bioSamplesProperties.getBiosamplesClientPagesize());
+            bioSamplesProperties.getBiosamplesClientPagesize(),
+            bioSamplesProperties.getBiosamplesClientCursorPartitions(),
+            bioSamplesProperties.getBiosamplesClientCursorReadAhead());
 
     sampleSubmissionService =
         new SampleSubmissionService(restOperations, traverson, threadPoolExecutor);
@@ -218,6 +221,21 @@ public class BioSamplesClient implements AutoCloseable {
     return sampleCursorRetrievalService.fetchAll(text, filters);
   }
 
+  /** @return the samples in the same order as fetchSampleResourceAll, by accession */
+  public Stream<Resource<Sample>> fetchSampleResourceStream(
+      String text, Collection<Filter> filters) {
+    return sampleCursorRetrievalService.fetchAll(text, filters).stream();
+  }
+
+  /**
+   * @return the samples in the order their pages arrive, so that no cursor waits for another to be
+   *     read. This can be made parallel to process the samples on more than one thread.
+   */
+  public Stream<Resource<Sample>> fetchSampleResourceStreamUnordered(
+      String text, Collection<Filter> filters) {
+    return sampleCursorRetrievalService.fetchAll(text, filters).unorderedStream();
+  }
+
   public Iterable<Optional<Resource<Sample>>> fetchSampleResourceAll(Iterable<String> accessions)
       throws RestClientException {
     return sampleRetrievalService.fetchAll(accessions);
@@ -11,7 +11,10 @@
 package uk.ac.ebi.biosamples.client.service;
 
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
@@ -28,6 +31,7 @@ import uk.ac.ebi.biosamples.client.utils.IterableResourceFetchAll;
 import uk.ac.ebi.biosamples.model.Sample;
 import uk.ac.ebi.biosamples.model.StaticViewWrapper;
 import uk.ac.ebi.biosamples.model.filter.Filter;
+import uk.ac.ebi.biosamples.service.FilterBuilder;
 
 public class SampleCursorRetrievalService {
 
@@ -42,55 +46,105 @@ public class SampleCursorRetrievalService {
 
   private final Traverson traverson;
   private final ExecutorService executor;
+  // the cursors are sorted by accession, so partitions can be merged back into the same order
+  private static final Comparator<Resource<Sample>> accessionOrder =
+      Comparator.comparing(resource -> resource.getContent().getAccession());
+
   private final RestOperations restOperations;
   private final int pageSize;
+  private final int partitions;
+  private final int readAhead;
 
   public SampleCursorRetrievalService(
       RestOperations restOperations, Traverson traverson, ExecutorService executor, int pageSize) {
+    this(restOperations, traverson, executor, pageSize, 1, 1);
+  }
+
+  /**
+   * @param partitions number of cursors to read samples with at the same time, from 1 to 10
+   * @param readAhead number of pages each cursor fetches ahead of the page being read
+   */
+  public SampleCursorRetrievalService(
+      RestOperations restOperations,
+      Traverson traverson,
+      ExecutorService executor,
+      int pageSize,
+      int partitions,
+      int readAhead) {
+    if (partitions < 1 || partitions > 10) {
+      throw new IllegalArgumentException("Partitions must be from 1 to 10, not " + partitions);
+    }
     this.restOperations = restOperations;
     this.traverson = traverson;
     this.executor = executor;
     this.pageSize = pageSize;
+    this.partitions = partitions;
+    this.readAhead = readAhead;
   }
 
-  public Iterable<Resource<Sample>> fetchAll(String text, Collection<Filter> filterCollection) {
+  public IterableResourceFetchAll<Sample> fetchAll(
+      String text, Collection<Filter> filterCollection) {
     return fetchAll(text, filterCollection, null);
   }
 
-  public Iterable<Resource<Sample>> fetchAll(
+  public IterableResourceFetchAll<Sample> fetchAll(
       String text, Collection<Filter> filterCollection, String jwt) {
     return fetchAll(text, filterCollection, jwt, null);
   }
 
-  public Iterable<Resource<Sample>> fetchAll(
+  public IterableResourceFetchAll<Sample> fetchAll(
       String text,
       Collection<Filter> filterCollection,
       String jwt,
       StaticViewWrapper.StaticView staticView) {
 
-    MultiValueMap<String, String> params = new LinkedMultiValueMap<>();
-    params.add("text", text);
-    for (Filter filter : filterCollection) {
-      params.add("filter", filter.getSerialization());
-    }
-    params.add("size", Integer.toString(pageSize));
-    if (staticView != null) {
-      params.add("curationrepo", staticView.getCurationRepositoryName());
+    List<MultiValueMap<String, String>> partitionParams = new ArrayList<>();
+    for (Filter partitionFilter : getAccessionPartitions()) {
+      MultiValueMap<String, String> params = new LinkedMultiValueMap<>();
+      params.add("text", text);
+      for (Filter filter : filterCollection) {
+        params.add("filter", filter.getSerialization());
+      }
+      if (partitionFilter != null) {
+        params.add("filter", partitionFilter.getSerialization());
+      }
+      params.add("size", Integer.toString(pageSize));
+      if (staticView != null) {
+        params.add("curationrepo", staticView.getCurationRepositoryName());
+      }
+      partitionParams.add(encodePlusInQueryParameters(params));
     }
 
-    params = encodePlusInQueryParameters(params);
-
     return new IterableResourceFetchAll<Sample>(
         executor,
         traverson,
         restOperations,
         parameterizedTypeReferencePagedResourcesSample,
         jwt,
-        params,
+        partitionParams,
+        accessionOrder,
+        readAhead,
         "samples",
         "cursor");
   }
 
+  // accessions end in a number, so the last digit splits them into partitions of about the same
+  // size that all cursors can be read from at once
+  private List<Filter> getAccessionPartitions() {
+    if (partitions == 1) {
+      return Collections.singletonList(null);
+    }
+    List<Filter> filters = new ArrayList<>();
+    for (int i = 0; i < partitions; i++) {
+      StringBuilder digits = new StringBuilder();
+      for (int digit = i; digit < 10; digit += partitions) {
+        digits.append(digit);
+      }
+      filters.add(FilterBuilder.create().onAccession(".*[" + digits + "]").build());
+    }
+    return filters;
+  }
+
   // TODO to keep the + in a (not encoded) query parameter is to force encoding
   private MultiValueMap<String, String> encodePlusInQueryParameters(
       MultiValueMap<String, String> queryParameters) {
@@ -11,14 +11,24 @@
 package uk.ac.ebi.biosamples.client.utils;
 
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.function.IntFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.core.ParameterizedTypeReference;
@@ -49,7 +59,9 @@ public class IterableResourceFetchAll<T> implements Iterable<Resource<T>> {
   private final RestOperations restOperations;
   private final Hop[] hops;
   private final ParameterizedTypeReference<PagedResources<Resource<T>>> parameterizedTypeReference;
-  private final MultiValueMap<String, String> params;
+  private final List<MultiValueMap<String, String>> partitions;
+  private final Comparator<Resource<T>> order;
+  private final int readAhead;
   private final ExecutorService executor;
   private final String jwt;
 
@@ -104,13 +116,16 @@ public class IterableResourceFetchAll<T> implements Iterable<Resource<T>> {
       ParameterizedTypeReference<PagedResources<Resource<T>>> parameterizedTypeReference,
       MultiValueMap<String, String> params,
       Hop... hops) {
-    this.executor = executor;
-    this.traverson = traverson;
-    this.restOperations = restOperations;
-    this.hops = hops;
-    this.parameterizedTypeReference = parameterizedTypeReference;
-    this.params = params;
-    this.jwt = null;
+    this(
+        executor,
+        traverson,
+        restOperations,
+        parameterizedTypeReference,
+        null,
+        Collections.singletonList(params),
+        null,
+        1,
+        hops);
   }
 
   public IterableResourceFetchAll(
@@ -147,17 +162,129 @@ public class IterableResourceFetchAll<T> implements Iterable<Resource<T>> {
       String jwt,
       MultiValueMap<String, String> params,
       Hop... hops) {
+    this(
+        executor,
+        traverson,
+        restOperations,
+        parameterizedTypeReference,
+        jwt,
+        Collections.singletonList(params),
+        null,
+        1,
+        hops);
+  }
+
+  /**
+   * Reads each partition with a cursor of its own, all of them at the same time. A cursor can only
+   * ask for a page once it has the one before, as that holds the link to it, so partitions are the
+   * only way to have more than one page of the same search in flight.
+   *
+   * @param partitions query parameters of each cursor, which must not return the same resources
+   * @param order order each partition returns its resources in, to merge them into, or null to read
+   *     the partitions one after another
+   * @param readAhead number of pages each cursor fetches ahead of the page being read
+   */
+  public IterableResourceFetchAll(
+      ExecutorService executor,
+      Traverson traverson,
+      RestOperations restOperations,
+      ParameterizedTypeReference<PagedResources<Resource<T>>> parameterizedTypeReference,
+      String jwt,
+      List<MultiValueMap<String, String>> partitions,
+      Comparator<Resource<T>> order,
+      int readAhead,
+      String... rels) {
+    this(
+        executor,
+        traverson,
+        restOperations,
+        parameterizedTypeReference,
+        jwt,
+        partitions,
+        order,
+        readAhead,
+        Arrays.stream(rels).map(Hop::rel).toArray(Hop[]::new));
+  }
+
+  public IterableResourceFetchAll(
+      ExecutorService executor,
+      Traverson traverson,
+      RestOperations restOperations,
+      ParameterizedTypeReference<PagedResources<Resource<T>>> parameterizedTypeReference,
+      String jwt,
+      List<MultiValueMap<String, String>> partitions,
+      Comparator<Resource<T>> order,
+      int readAhead,
+      Hop... hops) {
+    if (partitions.isEmpty()) {
+      throw new IllegalArgumentException("At least one partition is needed");
+    }
     this.executor = executor;
     this.traverson = traverson;
     this.restOperations = restOperations;
     this.hops = hops;
     this.parameterizedTypeReference = parameterizedTypeReference;
-    this.params = params;
+    this.partitions = partitions;
+    this.order = order;
+    this.readAhead = Math.max(1, readAhead);
     this.jwt = jwt;
   }
 
+  /**
+   * Iterates over the resources of all the partitions, merged in order if there is one. Each cursor
+   * keeps fetching pages while they are read, up to the read ahead.
+   */
+  @Override
   public Iterator<Resource<T>> iterator() {
+    List<Iterator<Resource<T>>> iterators = new ArrayList<>();
+    for (URI uri : getFirstPageUris()) {
+      BlockingQueue<Page<T>> pages = new LinkedBlockingQueue<>();
+      new Cursor<>(pages, this).request(uri);
+      iterators.add(new PageIterator<>(pages, 1));
+    }
+    if (iterators.size() == 1) {
+      return iterators.get(0);
+    }
+    return new MergingIterator<>(iterators, order);
+  }
+
+  /**
+   * Iterates over the resources of all the partitions in the order their pages arrive, so that no
+   * cursor waits for another to be read.
+   */
+  public Iterator<Resource<T>> unorderedIterator() {
+    BlockingQueue<Page<T>> pages = new LinkedBlockingQueue<>();
+    List<URI> uris = getFirstPageUris();
+    for (URI uri : uris) {
+      new Cursor<>(pages, this).request(uri);
+    }
+    return new PageIterator<>(pages, uris.size());
+  }
 
+  @Override
+  public Spliterator<Resource<T>> spliterator() {
+    return Spliterators.spliteratorUnknownSize(
+        iterator(), Spliterator.ORDERED | Spliterator.NONNULL);
+  }
+
+  /** @return the resources in the order of {@link #iterator()}, fetched once the stream is used */
+  public Stream<Resource<T>> stream() {
+    return StreamSupport.stream(
+        this::spliterator, Spliterator.ORDERED | Spliterator.NONNULL, false);
+  }
+
+  /**
+   * @return the resources in the order of {@link #unorderedIterator()}, fetched once the stream is
+   *     used. It can be made parallel to process the resources on more than one thread.
+   */
+  public Stream<Resource<T>> unorderedStream() {
+    return StreamSupport.stream(
+        () -> Spliterators.spliteratorUnknownSize(unorderedIterator(), Spliterator.NONNULL),
+        Spliterator.NONNULL,
+        false);
+  }
+
+  private List<URI> getFirstPageUris() {
     TraversalBuilder traversonBuilder = null;
     for (Hop hop : hops) {
       if (traversonBuilder == null) {
@@ -166,171 +293,266 @@ public class IterableResourceFetchAll<T> implements Iterable<Resource<T>> {
         traversonBuilder.follow(hop);
       }
     }
+    String href = traversonBuilder.asLink().getHref();
 
-    // get the first page
-    URI uri =
-        UriComponentsBuilder.fromHttpUrl(traversonBuilder.asLink().getHref())
-            .queryParams(params)
-            .build()
-            .toUri();
-
-    MultiValueMap<String, String> headers = new LinkedMultiValueMap<>();
-    headers.add(HttpHeaders.CONTENT_TYPE, MediaTypes.HAL_JSON.toString());
-    if (jwt != null) {
-      headers.set(HttpHeaders.AUTHORIZATION, "Bearer " + jwt);
+    List<URI> uris = new ArrayList<>();
+    for (MultiValueMap<String, String> params : partitions) {
+      uris.add(UriComponentsBuilder.fromHttpUrl(href).queryParams(params).build().toUri());
     }
-    RequestEntity<Void> requestEntity = new RequestEntity<>(headers, HttpMethod.GET, uri);
-
-    ResponseEntity<PagedResources<Resource<T>>> responseEntity =
-        restOperations.exchange(requestEntity, parameterizedTypeReference);
-    return new IteratorResourceFetchAll<T>(
-        responseEntity.getBody(), restOperations, parameterizedTypeReference, executor, jwt);
+    return uris;
   }
 
-  private static class IteratorResourceFetchAll<U> implements Iterator<Resource<U>> {
+  /**
+   * Follows the next links from a first page, putting each page in a queue for an iterator to read.
+   * Fetching a page does not wait for anything else, so cursors can share an executor with other
+   * jobs of the client. Once the read ahead is reached, the next page is fetched when a page is
+   * read, so a cursor that is no longer read stops after the read ahead.
+   */
+  private static class Cursor<U> {
 
     private Logger log = LoggerFactory.getLogger(getClass());
 
-    private final RestOperations restOperations;
-    private final ExecutorService executor;
-    private final ParameterizedTypeReference<PagedResources<Resource<U>>>
-        parameterizedTypeReference;
-    private PagedResources<Resource<U>> page;
-    private Iterator<Resource<U>> pageIterator;
-    private Future<PagedResources<Resource<U>>> nextPageFuture;
-    private final String jwt;
+    private final BlockingQueue<Page<U>> pages;
+    private final IterableResourceFetchAll<U> fetchAll;
+    // pages in the queue that have not been read yet
+    private int unread = 0;
+    // next page to fetch when a page is read, if the read ahead was reached
+    private URI waiting = null;
 
-    public IteratorResourceFetchAll(
-        PagedResources<Resource<U>> page,
-        RestOperations restOperations,
-        ParameterizedTypeReference<PagedResources<Resource<U>>> parameterizedTypeReference,
-        ExecutorService executor) {
-      this(page, restOperations, parameterizedTypeReference, executor, null);
+    private Cursor(BlockingQueue<Page<U>> pages, IterableResourceFetchAll<U> fetchAll) {
+      this.pages = pages;
+      this.fetchAll = fetchAll;
     }
 
-    public IteratorResourceFetchAll(
-        PagedResources<Resource<U>> page,
-        RestOperations restOperations,
-        ParameterizedTypeReference<PagedResources<Resource<U>>> parameterizedTypeReference,
-        ExecutorService executor,
-        String jwt) {
-
-      this.page = page;
-      this.pageIterator = page.iterator();
-      this.restOperations = restOperations;
-      this.executor = executor;
-      this.parameterizedTypeReference = parameterizedTypeReference;
-      this.jwt = jwt;
+    private void request(URI uri) {
+      log.trace("getting page uri " + uri);
+      try {
+        fetchAll.executor.execute(() -> fetch(uri));
+      } catch (RejectedExecutionException e) {
+        pages.add(new Page<>(this, e));
+      }
     }
 
-    @Override
-    public synchronized boolean hasNext() {
-      // pre-emptively grab the next page as a future
-      if (nextPageFuture == null && page.hasLink(Link.REL_NEXT)) {
-
-        Link nextLink = page.getLink(Link.REL_NEXT);
-        URI uri;
-        if (nextLink.isTemplated()) {
-          UriTemplate uriTemplate = new UriTemplate(nextLink.getHref());
-          uri = uriTemplate.expand();
-        } else {
-          uri = URI.create(nextLink.getHref());
-        }
-        log.trace("getting next page uri " + uri);
-
-        nextPageFuture =
-            executor.submit(
-                new NextPageCallable<U>(restOperations, parameterizedTypeReference, uri, jwt));
+    private void fetch(URI uri) {
+      PagedResources<Resource<U>> page;
+      try {
+        page =
+            new NextPageCallable<U>(
+                    fetchAll.restOperations, fetchAll.parameterizedTypeReference, uri, fetchAll.jwt)
+                .call();
+      } catch (RuntimeException e) {
+        pages.add(new Page<>(this, e));
+        return;
+      } catch (Exception e) {
+        pages.add(new Page<>(this, new RuntimeException(e)));
+        return;
       }
 
-      if (pageIterator.hasNext()) {
-        return true;
+      URI nextUri = getNextUri(page);
+      boolean fetchNext;
+      synchronized (this) {
+        unread++;
+        fetchNext = nextUri != null && unread < fetchAll.readAhead;
+        if (nextUri != null && !fetchNext) {
+          waiting = nextUri;
+        }
       }
-      // at the end of this page, move to next
-      if (nextPageFuture != null) {
-        try {
-          page = nextPageFuture.get();
-          nextPageFuture = null;
-        } catch (InterruptedException e) {
-          throw new RuntimeException(e);
-        } catch (ExecutionException e) {
-          throw new RuntimeException(e);
+      pages.add(new Page<>(this, page, nextUri == null));
+      if (fetchNext) {
+        request(nextUri);
+      }
+    }
+
+    private void read() {
+      URI nextUri;
+      synchronized (this) {
+        unread--;
+        if (waiting == null || unread >= fetchAll.readAhead) {
+          return;
         }
-        pageIterator = page.iterator();
-        return hasNext();
+        nextUri = waiting;
+        waiting = null;
       }
-      return false;
+      request(nextUri);
     }
 
-    @Override
-    public Resource<U> next() {
-      if (pageIterator.hasNext()) {
-        return pageIterator.next();
+    private static URI getNextUri(PagedResources<?> page) {
+      if (!page.hasLink(Link.REL_NEXT)) {
+        return null;
       }
+      Link nextLink = page.getLink(Link.REL_NEXT);
+      if (nextLink.isTemplated()) {
+        UriTemplate uriTemplate = new UriTemplate(nextLink.getHref());
+        return uriTemplate.expand();
+      } else {
+        return URI.create(nextLink.getHref());
+      }
+    }
+  }
+
+  /** A page fetched by a cursor, or why it could not be fetched. */
+  private static class Page<U> {
+    private final Cursor<U> cursor;
+    private final PagedResources<Resource<U>> resources;
+    private final boolean last;
+    private final RuntimeException failure;
+
+    private Page(Cursor<U> cursor, PagedResources<Resource<U>> resources, boolean last) {
+      this.cursor = cursor;
+      this.resources = resources;
+      this.last = last;
+      this.failure = null;
+    }
+
+    private Page(Cursor<U> cursor, RuntimeException failure) {
+      this.cursor = cursor;
+      this.resources = null;
+      this.last = true;
+      this.failure = failure;
+    }
+  }
 
-      // at the end of this page, move to next
-      if (nextPageFuture != null) {
+  /** Reads the pages of one or more cursors from their queue, until each had its last page. */
+  private static class PageIterator<U> implements Iterator<Resource<U>> {
+
+    private final BlockingQueue<Page<U>> pages;
+    private int cursors;
+    private Iterator<Resource<U>> pageIterator = Collections.emptyIterator();
+    private RuntimeException failure = null;
+
+    private PageIterator(BlockingQueue<Page<U>> pages, int cursors) {
+      this.pages = pages;
+      this.cursors = cursors;
+    }
+
+    @Override
+    public synchronized boolean hasNext() {
+      while (!pageIterator.hasNext() && cursors > 0) {
+        if (failure != null) {
+          throw failure;
+        }
+        Page<U> page;
         try {
-          page = nextPageFuture.get();
-          pageIterator = page.iterator();
-          nextPageFuture = null;
+          page = pages.take();
         } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
           throw new RuntimeException(e);
-        } catch (ExecutionException e) {
-          throw new RuntimeException(e);
         }
-        if (pageIterator.hasNext()) {
-          return pageIterator.next();
+        if (page.failure != null) {
+          failure = page.failure;
+          throw failure;
+        }
+        page.cursor.read();
+        if (page.last) {
+          cursors--;
         }
+        pageIterator = page.resources.iterator();
       }
-      // no more in this iterator and no more pages, so end
-      throw new NoSuchElementException();
+      return pageIterator.hasNext();
     }
 
-    private static class NextPageCallable<V> implements Callable<PagedResources<Resource<V>>> {
+    @Override
+    public synchronized Resource<U> next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      return pageIterator.next();
+    }
+  }
 
-      private Logger log = LoggerFactory.getLogger(getClass());
+  /**
+   * Merges iterators that are each in order into one in the same order, or when there is no order
+   * reads them one after another.
+   */
+  private static class MergingIterator<U> implements Iterator<Resource<U>> {
+
+    private final List<Iterator<Resource<U>>> iterators;
+    private final PriorityQueue<Head<U>> heads;
+    private boolean started = false;
+
+    private MergingIterator(List<Iterator<Resource<U>>> iterators, Comparator<Resource<U>> order) {
+      this.iterators = iterators;
+      Comparator<Head<U>> headOrder = Comparator.comparingInt(head -> head.index);
+      if (order != null) {
+        headOrder =
+            Comparator.comparing((Head<U> head) -> head.next, order).thenComparing(headOrder);
+      }
+      this.heads = new PriorityQueue<>(iterators.size(), headOrder);
+    }
 
-      private final RestOperations restOperations;
-      private final URI uri;
-      private final ParameterizedTypeReference<PagedResources<Resource<V>>>
-          parameterizedTypeReference;
-      private final String jwt;
+    @Override
+    public synchronized boolean hasNext() {
+      // the first page of every iterator is needed to know which comes first
+      if (!started) {
+        started = true;
+        for (int i = 0; i < iterators.size(); i++) {
+          if (iterators.get(i).hasNext()) {
+            heads.add(new Head<>(i, iterators.get(i)));
+          }
+        }
+      }
+      return !heads.isEmpty();
+    }
 
-      public NextPageCallable(
-          RestOperations restOperations,
-          ParameterizedTypeReference<PagedResources<Resource<V>>> parameterizedTypeReference,
-          URI uri) {
-        this.restOperations = restOperations;
-        this.uri = uri;
-        this.parameterizedTypeReference = parameterizedTypeReference;
-        this.jwt = null;
+    @Override
+    public synchronized Resource<U> next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
       }
+      Head<U> head = heads.poll();
+      Resource<U> next = head.next;
+      if (head.iterator.hasNext()) {
+        heads.add(new Head<>(head.index, head.iterator));
+      }
+      return next;
+    }
 
-      public NextPageCallable(
-          RestOperations restOperations,
-          ParameterizedTypeReference<PagedResources<Resource<V>>> parameterizedTypeReference,
-          URI uri,
-          String jwt) {
-        this.restOperations = restOperations;
-        this.uri = uri;
-        this.parameterizedTypeReference = parameterizedTypeReference;
-        this.jwt = jwt;
+    private static class Head<U> {
+      private final int index;
+      private final Iterator<Resource<U>> iterator;
+      private final Resource<U> next;
+
+      private Head(int index, Iterator<Resource<U>> iterator) {
+        this.index = index;
+        this.iterator = iterator;
+        this.next = iterator.next();
       }
+    }
+  }
 
-      @Override
-      public PagedResources<Resource<V>> call() throws Exception {
-        MultiValueMap<String, String> headers = new LinkedMultiValueMap<>();
-        headers.add(HttpHeaders.CONTENT_TYPE, MediaTypes.HAL_JSON.toString());
-        if (jwt != null) {
-          headers.set(HttpHeaders.AUTHORIZATION, "Bearer " + jwt);
-        }
-        RequestEntity<Void> requestEntity = new RequestEntity<>(headers, HttpMethod.GET, uri);
+  private static class NextPageCallable<V> implements Callable<PagedResources<Resource<V>>> {
 
-        ResponseEntity<PagedResources<Resource<V>>> responseEntity =
-            restOperations.exchange(requestEntity, parameterizedTypeReference);
-        return responseEntity.getBody();
+    private Logger log = LoggerFactory.getLogger(getClass());
+
+    private final RestOperations restOperations;
+    private final URI uri;
+    private final ParameterizedTypeReference<PagedResources<Resource<V>>>
+        parameterizedTypeReference;
+    private final String jwt;
+
+    public NextPageCallable(
+        RestOperations restOperations,
+        ParameterizedTypeReference<PagedResources<Resource<V>>> parameterizedTypeReference,
+        URI uri,
+        String jwt) {
+      this.restOperations = restOperations;
+      this.uri = uri;
+      this.parameterizedTypeReference = parameterizedTypeReference;
+      this.jwt = jwt;
+    }
+
+    @Override
+    public PagedResources<Resource<V>> call() throws Exception {
+      MultiValueMap<String, String> headers = new LinkedMultiValueMap<>();
+      headers.add(HttpHeaders.CONTENT_TYPE, MediaTypes.HAL_JSON.toString());
+      if (jwt != null) {
+        headers.set(HttpHeaders.AUTHORIZATION, "Bearer " + jwt);
       }
+      RequestEntity<Void> requestEntity = new RequestEntity<>(headers, HttpMethod.GET, uri);
+
+      ResponseEntity<PagedResources<Resource<V>>> responseEntity =
+          restOperations.exchange(requestEntity, parameterizedTypeReference);
+      return responseEntity.getBody();
     }
   }
 }
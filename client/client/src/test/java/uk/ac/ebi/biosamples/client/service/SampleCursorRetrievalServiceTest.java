@@ -0,0 +1,202 @@
+/*
+* Copyright 2019 EMBL - European Bioinformatics Institute
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+* file except in compliance with the License. You may obtain a copy of the License at
+* http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the
+* License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+* CONDITIONS OF ANY KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations under the License.
+*/
+package uk.ac.ebi.biosamples.client.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.hateoas.Link;
+import org.springframework.hateoas.PagedResources;
+import org.springframework.hateoas.Resource;
+import org.springframework.hateoas.client.Hop;
+import org.springframework.hateoas.client.Traverson;
+import org.springframework.http.RequestEntity;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.RestOperations;
+import uk.ac.ebi.biosamples.model.Sample;
+
+/**
+ * Reads samples through a stub of the cursor endpoint, which answers each page after a delay and
+ * applies the accession filters of the partitions, to check that partitions and read ahead return
+ * every sample once and keep pages in flight.
+ */
+public class SampleCursorRetrievalServiceTest {
+
+  private static final String CURSOR_URI = "http://localhost/samples/cursor";
+  private static final int SAMPLES = 1000;
+  private static final int PAGE_SIZE = 10;
+  private static final int RESPONSE_TIME = 5;
+  private static final Pattern ACCESSION_FILTER = Pattern.compile("acc:\\.\\*\\[(\\d+)\\]");
+  private static final Pattern DIGITS = Pattern.compile("digits=(\\d+)");
+  private static final Pattern CURSOR = Pattern.compile("cursor=(\\d+)");
+
+  private final List<String> accessions = new ArrayList<>();
+  private final AtomicInteger requests = new AtomicInteger();
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final AtomicInteger maxInFlight = new AtomicInteger();
+  private ExecutorService executor;
+  private Traverson traverson;
+  private RestOperations restOperations;
+
+  @Before
+  @SuppressWarnings("unchecked")
+  public void setUp() {
+    for (int i = 1; i <= SAMPLES; i++) {
+      accessions.add("SAMEA" + i);
+    }
+    Collections.sort(accessions);
+
+    executor = Executors.newFixedThreadPool(16);
+    traverson = mock(Traverson.class, RETURNS_DEEP_STUBS);
+    when(traverson.follow(any(Hop.class)).asLink()).thenReturn(new Link(CURSOR_URI));
+    restOperations = mock(RestOperations.class);
+    when(restOperations.exchange(any(RequestEntity.class), any(ParameterizedTypeReference.class)))
+        .thenAnswer(
+            invocation -> getPage(((RequestEntity<?>) invocation.getArguments()[0]).getUrl()));
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void ordered_merges_partitions_by_accession() {
+    SampleCursorRetrievalService service = createService(4, 2);
+
+    List<String> fetched =
+        service.fetchAll("", Collections.emptyList()).stream()
+            .map(resource -> resource.getContent().getAccession())
+            .collect(Collectors.toList());
+
+    assertEquals(accessions, fetched);
+    assertTrue("max in flight " + maxInFlight.get(), maxInFlight.get() > 1);
+  }
+
+  @Test
+  public void unordered_returns_every_sample_once() {
+    SampleCursorRetrievalService service = createService(10, 2);
+
+    List<String> fetched =
+        service
+            .fetchAll("", Collections.emptyList())
+            .unorderedStream()
+            .parallel()
+            .map(resource -> resource.getContent().getAccession())
+            .collect(Collectors.toList());
+
+    assertEquals(SAMPLES, fetched.size());
+    assertEquals(new HashSet<>(accessions), new HashSet<>(fetched));
+    assertTrue("max in flight " + maxInFlight.get(), maxInFlight.get() > 5);
+  }
+
+  @Test
+  public void one_partition_keeps_the_order_of_the_cursor() {
+    SampleCursorRetrievalService service = createService(1, 1);
+
+    List<String> fetched = new ArrayList<>();
+    for (Resource<Sample> resource : service.fetchAll("", Collections.emptyList())) {
+      fetched.add(resource.getContent().getAccession());
+    }
+
+    assertEquals(accessions, fetched);
+    assertEquals(1, maxInFlight.get());
+  }
+
+  @Test
+  public void cursor_stops_after_the_read_ahead() throws InterruptedException {
+    SampleCursorRetrievalService service = createService(1, 3);
+
+    // read the first page and none after it
+    assertTrue(service.fetchAll("", Collections.emptyList()).iterator().hasNext());
+    Thread.sleep(20 * RESPONSE_TIME);
+
+    assertEquals(4, requests.get());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void more_than_ten_partitions_are_refused() {
+    createService(11, 1);
+  }
+
+  private SampleCursorRetrievalService createService(int partitions, int readAhead) {
+    return new SampleCursorRetrievalService(
+        restOperations, traverson, executor, PAGE_SIZE, partitions, readAhead);
+  }
+
+  // pages of the accessions ending in the digits of the partition, with a link to the next page
+  private ResponseEntity<PagedResources<Resource<Sample>>> getPage(URI uri)
+      throws UnsupportedEncodingException, InterruptedException {
+    requests.incrementAndGet();
+    maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+    try {
+      Thread.sleep(RESPONSE_TIME);
+      String query = URLDecoder.decode(uri.getRawQuery(), "UTF-8");
+      String digits = "0123456789";
+      Matcher accessionFilter = ACCESSION_FILTER.matcher(query);
+      Matcher digitsParam = DIGITS.matcher(query);
+      if (accessionFilter.find()) {
+        digits = accessionFilter.group(1);
+      } else if (digitsParam.find()) {
+        digits = digitsParam.group(1);
+      }
+      Matcher cursorParam = CURSOR.matcher(query);
+      int cursor = cursorParam.find() ? Integer.parseInt(cursorParam.group(1)) : 0;
+
+      Set<Character> lastDigits = new HashSet<>();
+      for (char digit : digits.toCharArray()) {
+        lastDigits.add(digit);
+      }
+      List<String> partition =
+          accessions.stream()
+              .filter(accession -> lastDigits.contains(accession.charAt(accession.length() - 1)))
+              .collect(Collectors.toList());
+
+      List<Resource<Sample>> samples = new ArrayList<>();
+      int end = Math.min(partition.size(), (cursor + 1) * PAGE_SIZE);
+      for (String accession : partition.subList(cursor * PAGE_SIZE, end)) {
+        samples.add(new Resource<>(new Sample.Builder("test", accession).build()));
+      }
+      List<Link> links = new ArrayList<>();
+      if (end < partition.size()) {
+        links.add(
+            new Link(CURSOR_URI + "?digits=" + digits + "&cursor=" + (cursor + 1), Link.REL_NEXT));
+      }
+      return ResponseEntity.ok(
+          new PagedResources<>(
+              samples, new PagedResources.PageMetadata(PAGE_SIZE, cursor, SAMPLES), links));
+    } finally {
+      inFlight.decrementAndGet();
+    }
+  }
+}
@@ -54,6 +54,11 @@ public class MessageConfig {
     return ExchangeBuilder.fanoutExchange(Messaging.exchangeForIndexingSolr).durable(true).build();
   }
 
+  @Bean
+  public Exchange getExchangeForIndexedSolr() {
+    return ExchangeBuilder.fanoutExchange(Messaging.exchangeForIndexedSolr).durable(true).build();
+  }
+
   @Bean
   public Exchange getExchangeDeadLetter() {
     return ExchangeBuilder.directExchange(Messaging.exchangeDeadLetter).durable(true).build();
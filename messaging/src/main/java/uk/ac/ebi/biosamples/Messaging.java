@@ -14,6 +14,8 @@ public class Messaging {
 
   public static final String queueToBeIndexedSolr = "biosamples.tobeindexed.solr";
   public static final String exchangeForIndexingSolr = "biosamples.forindexing.solr";
+  // announces that the solr agent has changed the index, e.g. so webapps can drop cached searches
+  public static final String exchangeForIndexedSolr = "biosamples.indexed.solr";
   public static final String queueRetryDeadLetter = "biosamples.deadletter.retry";
   public static final String exchangeDeadLetter = "biosamples.deadletter";
 }
@@ -31,6 +31,14 @@ public class MongoProperties {
   @Value("${biosamples.accession.queuesize:100}")
   private int accessionQueueSize;
 
+  // number of accessions each node reserves at a time
+  @Value("${biosamples.accession.blocksize:100}")
+  private int accessionBlockSize;
+
+  // number of accessions tried for a sample before giving up
+  @Value("${biosamples.accession.attempts:10}")
+  private int accessionAttempts;
+
   public String getAccessionPrefix() {
     return accessionPrefix;
   }
@@ -43,6 +51,14 @@ public class MongoProperties {
     return accessionQueueSize;
   }
 
+  public int getAccessionBlockSize() {
+    return accessionBlockSize;
+  }
+
+  public int getAccessionAttempts() {
+    return accessionAttempts;
+  }
+
   public String getSampleWriteConcern() {
     return sampleWriteConcern;
   }
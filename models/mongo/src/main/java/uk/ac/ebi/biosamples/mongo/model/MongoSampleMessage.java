@@ -0,0 +1,71 @@
+/*
+* Copyright 2019 EMBL - European Bioinformatics Institute
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+* file except in compliance with the License. You may obtain a copy of the License at
+* http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the
+* License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+* CONDITIONS OF ANY KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations under the License.
+*/
+package uk.ac.ebi.biosamples.mongo.model;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import java.time.Instant;
+import java.util.Objects;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * A sample that was changed but could not be written to the static view or sent to be indexed, so
+ * that the reindex pipeline can pick it up later.
+ */
+@Document
+public class MongoSampleMessage {
+
+  @Id private final String accession;
+  private final Instant update;
+
+  private MongoSampleMessage(String accession, Instant update) {
+    this.accession = accession;
+    this.update = update;
+  }
+
+  @JsonProperty("accession")
+  public String getAccession() {
+    return accession;
+  }
+
+  @JsonProperty("update")
+  public Instant getUpdate() {
+    return update;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(accession, update);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (o == this) return true;
+    if (!(o instanceof MongoSampleMessage)) {
+      return false;
+    }
+    MongoSampleMessage other = (MongoSampleMessage) o;
+    return Objects.equals(this.accession, other.accession)
+        && Objects.equals(this.update, other.update);
+  }
+
+  @Override
+  public String toString() {
+    return "MongoSampleMessage(" + accession + "," + update + ")";
+  }
+
+  @JsonCreator
+  public static MongoSampleMessage build(
+      @JsonProperty("accession") String accession, @JsonProperty("update") Instant update) {
+    return new MongoSampleMessage(accession, update);
+  }
+}
@@ -10,8 +10,11 @@
 */
 package uk.ac.ebi.biosamples.mongo.repo;
 
+import java.util.Collection;
+import java.util.List;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import uk.ac.ebi.biosamples.mongo.model.MongoCurationLink;
 
@@ -19,5 +22,7 @@ public interface MongoCurationLinkRepository extends MongoRepository<MongoCurati
 
   Page<MongoCurationLink> findBySample(String sample, Pageable page);
 
+  List<MongoCurationLink> findBySampleIn(Collection<String> samples, Sort sort);
+
   Page<MongoCurationLink> findByCurationHash(String hash, Pageable page);
 }
@@ -11,10 +11,8 @@
 package uk.ac.ebi.biosamples.mongo.repo;
 
 import java.util.List;
-import java.util.stream.Stream;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
-import org.springframework.data.domain.Sort;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.data.mongodb.repository.Query;
 import uk.ac.ebi.biosamples.mongo.model.MongoSample;
@@ -26,8 +24,4 @@ public interface MongoSampleRepository
 
   @Query("{ $and : [{ 'domain' : ?0 },{'name' : ?1 }]}")
   List<MongoSample> findByDomainAndName(String domain, String name);
-
-  @Query("{ $and : [{ accessionPrefix : ?0 },{accessionNumber : { $gte : ?1 }}]}")
-  Stream<MongoSample> findByAccessionPrefixIsAndAccessionNumberGreaterThanEqual(
-      String accessionPrefix, int accessionNumber, Sort sort);
 }
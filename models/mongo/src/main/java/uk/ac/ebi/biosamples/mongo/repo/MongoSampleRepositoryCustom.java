@@ -10,6 +10,8 @@
 */
 package uk.ac.ebi.biosamples.mongo.repo;
 
+import java.util.Collection;
+import java.util.List;
 import uk.ac.ebi.biosamples.model.StaticViewWrapper;
 import uk.ac.ebi.biosamples.mongo.model.MongoSample;
 
@@ -21,6 +23,12 @@ public interface MongoSampleRepositoryCustom {
   public void insertSampleToCollection(
       MongoSample sample, StaticViewWrapper.StaticView collectionName);
 
+  public void insertSamplesToCollection(
+      Collection<MongoSample> samples, StaticViewWrapper.StaticView collectionName);
+
   public MongoSample findSampleFromCollection(
       String accession, StaticViewWrapper.StaticView collectionName);
+
+  public List<MongoSample> findSamplesFromCollection(
+      Collection<String> accessions, StaticViewWrapper.StaticView collectionName);
 }
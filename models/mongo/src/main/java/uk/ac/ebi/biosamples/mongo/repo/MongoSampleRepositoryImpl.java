@@ -10,7 +10,14 @@
 */
 package uk.ac.ebi.biosamples.mongo.repo;
 
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.DBObject;
+import java.util.Collection;
+import java.util.List;
 import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
 import uk.ac.ebi.biosamples.model.StaticViewWrapper;
 import uk.ac.ebi.biosamples.mongo.model.MongoSample;
 
@@ -38,10 +45,43 @@ public class MongoSampleRepositoryImpl implements MongoSampleRepositoryCustom {
     mongoOperations.save(sample, collectionName.getCollectionName());
   }
 
+  /**
+   * Replaces or inserts all the given samples in the collection with a single unordered bulk write,
+   * rather than one save per sample.
+   */
+  @Override
+  public void insertSamplesToCollection(
+      Collection<MongoSample> samples, StaticViewWrapper.StaticView collectionName) {
+    if (samples.isEmpty()) {
+      return;
+    }
+    mongoOperations.execute(
+        collectionName.getCollectionName(),
+        collection -> {
+          BulkWriteOperation bulk = collection.initializeUnorderedBulkOperation();
+          for (MongoSample sample : samples) {
+            DBObject document = new BasicDBObject();
+            mongoOperations.getConverter().write(sample, document);
+            bulk.find(new BasicDBObject("_id", document.get("_id"))).upsert().replaceOne(document);
+          }
+          return bulk.execute();
+        });
+  }
+
   @Override
   public MongoSample findSampleFromCollection(
       String accession, StaticViewWrapper.StaticView collectionName) {
     return mongoOperations.findById(
         accession, MongoSample.class, collectionName.getCollectionName());
   }
+
+  /** Fetches all the given accessions from the collection with a single $in query. */
+  @Override
+  public List<MongoSample> findSamplesFromCollection(
+      Collection<String> accessions, StaticViewWrapper.StaticView collectionName) {
+    return mongoOperations.find(
+        new Query(Criteria.where("_id").in(accessions)),
+        MongoSample.class,
+        collectionName.getCollectionName());
+  }
 }
@@ -10,26 +10,35 @@
 */
 package uk.ac.ebi.biosamples.mongo.service;
 
-import java.util.Iterator;
-import java.util.NoSuchElementException;
 import java.util.SortedSet;
 import java.util.TreeSet;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.stream.Stream;
-import javax.annotation.PostConstruct;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.dao.DuplicateKeyException;
 import org.springframework.data.domain.Sort;
-import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import uk.ac.ebi.biosamples.model.Sample;
+import uk.ac.ebi.biosamples.mongo.model.MongoAccessionCounter;
 import uk.ac.ebi.biosamples.mongo.model.MongoRelationship;
 import uk.ac.ebi.biosamples.mongo.model.MongoSample;
 import uk.ac.ebi.biosamples.mongo.repo.MongoSampleRepository;
 
-// this needs to be the spring exception, not the mongo one
-
+/**
+ * Assigns new accessions to samples.
+ *
+ * <p>Each node reserves blocks of accession numbers by atomically incrementing a counter document
+ * per prefix, and hands out the numbers of its current block without locking. The counter is seeded
+ * from the highest accession already in use, so accessions are not reused, but an accession can
+ * still be taken by something that does not use the counter. In that case inserting the sample
+ * fails with a duplicate key and the next number is tried, up to a limited number of attempts.
+ */
 public class MongoAccessionService {
 
   private Logger log = LoggerFactory.getLogger(getClass());
@@ -37,23 +46,38 @@ public class MongoAccessionService {
   private final MongoSampleRepository mongoSampleRepository;
   private final SampleToMongoSampleConverter sampleToMongoSampleConverter;
   private final MongoSampleToSampleConverter mongoSampleToSampleConverter;
+  private final MongoOperations mongoOperations;
   private final String prefix;
-  private final BlockingQueue<String> accessionCandidateQueue;
-  private int accessionCandidateCounter;
+  private final int minimumAccession;
+  private final int blockSize;
+  private final int maxAttempts;
+
+  private final AtomicReference<Block> block = new AtomicReference<>(new Block(0, 0));
+  private final Object reserveLock = new Object();
+
+  private final AtomicLong accessioned = new AtomicLong();
+  private final AtomicLong collisions = new AtomicLong();
+  private final AtomicLong failures = new AtomicLong();
+  private final AtomicLong blocksReserved = new AtomicLong();
+  private final AtomicLong accessioningNanos = new AtomicLong();
 
   public MongoAccessionService(
       MongoSampleRepository mongoSampleRepository,
       SampleToMongoSampleConverter sampleToMongoSampleConverter,
       MongoSampleToSampleConverter mongoSampleToSampleConverter,
+      MongoOperations mongoOperations,
       String prefix,
       int minimumAccession,
-      int queueSize) {
+      int blockSize,
+      int maxAttempts) {
     this.mongoSampleRepository = mongoSampleRepository;
     this.sampleToMongoSampleConverter = sampleToMongoSampleConverter;
     this.mongoSampleToSampleConverter = mongoSampleToSampleConverter;
+    this.mongoOperations = mongoOperations;
     this.prefix = prefix;
-    this.accessionCandidateCounter = minimumAccession;
-    this.accessionCandidateQueue = new LinkedBlockingQueue<>(queueSize);
+    this.minimumAccession = minimumAccession;
+    this.blockSize = blockSize;
+    this.maxAttempts = maxAttempts;
   }
 
   public Sample generateAccession(Sample sample) {
@@ -64,29 +88,92 @@ public class MongoAccessionService {
 
   private MongoSample accessionAndInsert(MongoSample sample) {
     log.trace("generating an accession");
-    MongoSample originalSample = sample;
-    // inspired by Optimistic Loops of
-    // https://docs.mongodb.com/v3.0/tutorial/create-an-auto-incrementing-field/
-    boolean success = false;
-    // TODO limit number of tries
-    while (!success) {
-      // TODO add a timeout here
-      try {
-        sample = prepare(sample, accessionCandidateQueue.take());
-      } catch (InterruptedException e) {
-        throw new RuntimeException(e);
+    long startTime = System.nanoTime();
+    try {
+      for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+        MongoSample prepared = prepare(sample, prefix + nextAccessionNumber());
+        try {
+          prepared = mongoSampleRepository.insertNew(prepared);
+          accessioned.incrementAndGet();
+          log.debug("generated accession " + prepared);
+          return prepared;
+        } catch (DuplicateKeyException e) {
+          // this needs to be the spring exception, not the mongo one
+          collisions.incrementAndGet();
+          log.warn("Accession " + prepared.getAccession() + " already in use, trying another");
+        }
       }
+      failures.incrementAndGet();
+      throw new IllegalStateException(
+          "Unable to assign a " + prefix + " accession after " + maxAttempts + " attempts");
+    } finally {
+      accessioningNanos.addAndGet(System.nanoTime() - startTime);
+    }
+  }
 
-      try {
-        sample = mongoSampleRepository.insertNew(sample);
-        success = true;
-      } catch (DuplicateKeyException e) {
-        success = false;
-        sample = originalSample;
+  private long nextAccessionNumber() {
+    while (true) {
+      Block current = block.get();
+      long number = current.next.getAndIncrement();
+      if (number < current.end) {
+        return number;
+      }
+      // only refilling the block needs a lock, once every blockSize accessions
+      synchronized (reserveLock) {
+        if (block.get() == current) {
+          block.set(reserveBlock());
+        }
       }
     }
-    log.debug("generated accession " + sample);
-    return sample;
+  }
+
+  private Block reserveBlock() {
+    Query query = new Query(Criteria.where("_id").is(prefix));
+    Update update = new Update().inc("next", blockSize);
+    for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+      MongoAccessionCounter counter =
+          mongoOperations.findAndModify(
+              query,
+              update,
+              new FindAndModifyOptions().returnNew(true),
+              MongoAccessionCounter.class);
+      if (counter != null) {
+        blocksReserved.incrementAndGet();
+        log.info(
+            "Reserved accessions "
+                + prefix
+                + (counter.getNext() - blockSize)
+                + " to "
+                + prefix
+                + (counter.getNext() - 1));
+        return new Block(counter.getNext() - blockSize, counter.getNext());
+      }
+      seedCounter(query);
+    }
+    failures.incrementAndGet();
+    throw new IllegalStateException("Unable to reserve " + prefix + " accessions");
+  }
+
+  /** Creates the counter of this prefix, starting after the highest accession already in use. */
+  private void seedCounter(Query counterQuery) {
+    Query highestQuery =
+        new Query(Criteria.where("accessionPrefix").is(prefix))
+            .with(new Sort(Sort.Direction.DESC, "accessionNumber"))
+            .limit(1);
+    highestQuery.fields().include("accessionNumber");
+    MongoSample highest = mongoOperations.findOne(highestQuery, MongoSample.class);
+    long next = minimumAccession;
+    if (highest != null && highest.getAccessionNumber() != null) {
+      next = Math.max(next, highest.getAccessionNumber() + 1L);
+    }
+    log.info("Starting " + prefix + " accession counter at " + next);
+    try {
+      // $max so that a counter seeded concurrently by another node is never moved back
+      mongoOperations.upsert(
+          counterQuery, new Update().max("next", next), MongoAccessionCounter.class);
+    } catch (DuplicateKeyException e) {
+      // another node created the counter at the same time, which is fine
+    }
   }
 
   private MongoSample prepare(MongoSample sample, String accession) {
@@ -123,59 +210,34 @@ public class MongoAccessionService {
     return sample;
   }
 
-  @PostConstruct
-  @Scheduled(fixedDelay = 1000)
-  public synchronized void prepareAccessions() {
-    long startTime = System.nanoTime();
+  public long getAccessionedCount() {
+    return accessioned.get();
+  }
 
-    // check that all accessions are still available
-    Iterator<String> itCandidate = accessionCandidateQueue.iterator();
-    while (itCandidate.hasNext()) {
-      String accessionCandidate = itCandidate.next();
-      if (mongoSampleRepository.exists(accessionCandidate)) {
-        log.warn("Removing accession " + accessionCandidate + " from queue because now assigned");
-        itCandidate.remove();
-      }
-    }
+  public long getCollisionCount() {
+    return collisions.get();
+  }
 
-    Sort sort = new Sort(Sort.Direction.ASC, "accessionNumber");
-    try (Stream<MongoSample> stream =
-        mongoSampleRepository.findByAccessionPrefixIsAndAccessionNumberGreaterThanEqual(
-            prefix, accessionCandidateCounter, sort)) {
-      Iterator<MongoSample> streamIt = stream.iterator();
-      Integer streamAccessionNumber = null;
-      if (streamIt.hasNext()) {
-        streamAccessionNumber = streamIt.next().getAccessionNumber();
-      }
-      while (accessionCandidateQueue.remainingCapacity() > 0) {
-
-        if (streamAccessionNumber == null || streamAccessionNumber > accessionCandidateCounter) {
-          String accessionCandidate = prefix + accessionCandidateCounter;
-          if (accessionCandidateQueue.offer(accessionCandidate)) {
-            // successfully added, move to next
-            log.trace("Added to accession pool " + accessionCandidate);
-            accessionCandidateCounter += 1;
-          } else {
-            // failed, queue full
-            break;
-          }
-        } else {
-          // update stream to next accession
-          try {
-            streamAccessionNumber = streamIt.next().getAccessionNumber();
-            accessionCandidateCounter += 1;
-            log.trace("Updating stream to " + prefix + streamAccessionNumber);
-          } catch (NoSuchElementException e) {
-            // end of stream
-            streamAccessionNumber = null;
-            log.trace("Reached end of stream");
-          }
-          // move back and try again
-        }
-      }
-    }
+  public long getFailureCount() {
+    return failures.get();
+  }
+
+  public long getBlocksReservedCount() {
+    return blocksReserved.get();
+  }
 
-    long endTime = System.nanoTime();
-    log.trace("Populated accession pool in " + ((endTime - startTime) / 1000000) + "ms");
+  /** Total time spent assigning accessions, in milliseconds. */
+  public long getAccessioningTime() {
+    return TimeUnit.NANOSECONDS.toMillis(accessioningNanos.get());
+  }
+
+  private static class Block {
+    private final AtomicLong next;
+    private final long end;
+
+    private Block(long start, long end) {
+      this.next = new AtomicLong(start);
+      this.end = end;
+    }
   }
 }
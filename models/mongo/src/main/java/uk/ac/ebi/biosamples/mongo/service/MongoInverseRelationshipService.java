@@ -11,9 +11,11 @@
 package uk.ac.ebi.biosamples.mongo.service;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import org.springframework.data.mongodb.core.MongoTemplate;
-import org.springframework.data.mongodb.core.query.BasicQuery;
+import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.stereotype.Service;
 import uk.ac.ebi.biosamples.mongo.model.MongoRelationship;
@@ -34,9 +36,8 @@ public class MongoInverseRelationshipService {
       return mongoSample;
     }
 
-    Query query =
-        new BasicQuery("{'relationships.target':'" + accession + "'}", "{'relationships.$':1}");
-    for (MongoSample other : mongoTemplate.find(query, MongoSample.class)) {
+    for (MongoSample other :
+        mongoTemplate.find(inverseRelationshipsQuery(accession), MongoSample.class)) {
       for (MongoRelationship relationship : other.getRelationships()) {
         if (relationship.getTarget().equals(accession)) {
           mongoSample.getRelationships().add(relationship);
@@ -46,11 +47,44 @@ public class MongoInverseRelationshipService {
     return mongoSample;
   }
 
+  /**
+   * Adds the inverse relationships to a batch of samples with a single query, instead of one query
+   * per sample as {@link #addInverseRelationships(MongoSample)} does.
+   *
+   * <p>The whole relationships array of each matching sample is projected, as the positional
+   * operator would only return the first relationship that targets any sample of the batch.
+   *
+   * @param mongoSamples
+   * @return the same samples, with their inverse relationships added
+   */
+  public List<MongoSample> addInverseRelationships(List<MongoSample> mongoSamples) {
+    Map<String, MongoSample> samplesByAccession = new HashMap<>();
+    for (MongoSample mongoSample : mongoSamples) {
+      if (mongoSample.getAccession() != null) {
+        samplesByAccession.put(mongoSample.getAccession(), mongoSample);
+      }
+    }
+    if (samplesByAccession.isEmpty()) {
+      return mongoSamples;
+    }
+
+    Query query = new Query(Criteria.where("relationships.target").in(samplesByAccession.keySet()));
+    query.fields().include("relationships");
+    for (MongoSample other : mongoTemplate.find(query, MongoSample.class)) {
+      for (MongoRelationship relationship : other.getRelationships()) {
+        MongoSample mongoSample = samplesByAccession.get(relationship.getTarget());
+        if (mongoSample != null) {
+          mongoSample.getRelationships().add(relationship);
+        }
+      }
+    }
+    return mongoSamples;
+  }
+
   public List<String> getInverseRelationshipsTargets(String accession) {
     List<String> relTargetAccessionList = new ArrayList<>();
-    Query query =
-        new BasicQuery("{'relationships.target':'" + accession + "'}", "{'relationships.$':1}");
-    for (MongoSample other : mongoTemplate.find(query, MongoSample.class)) {
+    for (MongoSample other :
+        mongoTemplate.find(inverseRelationshipsQuery(accession), MongoSample.class)) {
       for (MongoRelationship relationship : other.getRelationships()) {
         if (relationship.getTarget().equals(accession)) {
           relTargetAccessionList.add(relationship.getSource());
@@ -60,4 +94,10 @@ public class MongoInverseRelationshipService {
 
     return relTargetAccessionList;
   }
+
+  private Query inverseRelationshipsQuery(String accession) {
+    Query query = new Query(Criteria.where("relationships.target").is(accession));
+    query.fields().position("relationships", 1);
+    return query;
+  }
 }
@@ -0,0 +1,114 @@
+/*
+* Copyright 2019 EMBL - European Bioinformatics Institute
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+* file except in compliance with the License. You may obtain a copy of the License at
+* http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the
+* License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+* CONDITIONS OF ANY KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations under the License.
+*/
+package uk.ac.ebi.biosamples.mongo.repo;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkUpdateRequestBuilder;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.BulkWriteRequestBuilder;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.data.mongodb.core.CollectionCallback;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+import uk.ac.ebi.biosamples.model.StaticViewWrapper;
+import uk.ac.ebi.biosamples.mongo.model.MongoSample;
+
+@RunWith(MockitoJUnitRunner.class)
+public class MongoSampleRepositoryImplTest {
+
+  private static final StaticViewWrapper.StaticView VIEW =
+      StaticViewWrapper.StaticView.SAMPLES_CURATED;
+
+  @Mock MongoOperations mongoOperations;
+  @Mock MongoConverter mongoConverter;
+  @Mock DBCollection collection;
+  @Mock BulkWriteOperation bulk;
+  @Mock BulkWriteRequestBuilder find;
+  @Mock BulkUpdateRequestBuilder upsert;
+
+  private MongoSampleRepositoryImpl repository;
+
+  @Before
+  public void setUp() {
+    when(mongoOperations.getConverter()).thenReturn(mongoConverter);
+    when(mongoOperations.execute(anyString(), any(CollectionCallback.class)))
+        .thenAnswer(
+            invocation ->
+                ((CollectionCallback<?>) invocation.getArguments()[1]).doInCollection(collection));
+    doAnswer(
+            invocation -> {
+              MongoSample sample = (MongoSample) invocation.getArguments()[0];
+              ((DBObject) invocation.getArguments()[1]).put("_id", sample.getAccession());
+              return null;
+            })
+        .when(mongoConverter)
+        .write(any(MongoSample.class), any(DBObject.class));
+    when(collection.initializeUnorderedBulkOperation()).thenReturn(bulk);
+    when(bulk.find(any(DBObject.class))).thenReturn(find);
+    when(find.upsert()).thenReturn(upsert);
+
+    repository = new MongoSampleRepositoryImpl(mongoOperations);
+  }
+
+  @Test
+  public void samples_are_upserted_with_one_bulk_write() {
+    repository.insertSamplesToCollection(
+        Arrays.asList(sample("SAMEA1"), sample("SAMEA2"), sample("SAMEA3")), VIEW);
+
+    verify(mongoOperations).execute(eq(VIEW.getCollectionName()), any());
+    verify(collection).initializeUnorderedBulkOperation();
+    ArgumentCaptor<DBObject> queries = ArgumentCaptor.forClass(DBObject.class);
+    verify(bulk, times(3)).find(queries.capture());
+    assertEquals(
+        Arrays.asList(
+            new BasicDBObject("_id", "SAMEA1"),
+            new BasicDBObject("_id", "SAMEA2"),
+            new BasicDBObject("_id", "SAMEA3")),
+        queries.getAllValues());
+    ArgumentCaptor<DBObject> documents = ArgumentCaptor.forClass(DBObject.class);
+    verify(upsert, times(3)).replaceOne(documents.capture());
+    assertEquals("SAMEA2", documents.getAllValues().get(1).get("_id"));
+    verify(bulk).execute();
+  }
+
+  @Test
+  public void nothing_is_written_for_no_samples() {
+    repository.insertSamplesToCollection(Collections.emptyList(), VIEW);
+
+    verify(mongoOperations, never()).execute(anyString(), any(CollectionCallback.class));
+  }
+
+  private static MongoSample sample(String accession) {
+    MongoSample sample = mock(MongoSample.class);
+    when(sample.getAccession()).thenReturn(accession);
+    return sample;
+  }
+}
@@ -0,0 +1,194 @@
+/*
+* Copyright 2019 EMBL - European Bioinformatics Institute
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+* file except in compliance with the License. You may obtain a copy of the License at
+* http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the
+* License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+* CONDITIONS OF ANY KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations under the License.
+*/
+package uk.ac.ebi.biosamples.mongo.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import uk.ac.ebi.biosamples.model.Sample;
+import uk.ac.ebi.biosamples.mongo.model.MongoAccessionCounter;
+import uk.ac.ebi.biosamples.mongo.model.MongoSample;
+import uk.ac.ebi.biosamples.mongo.repo.MongoSampleRepository;
+
+/**
+ * Accessions samples from several nodes and threads at once, against a stub of mongo that applies
+ * the $inc and $max of the counter atomically and rejects duplicate accessions like the unique
+ * index, to check that no accession number is handed out twice.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class MongoAccessionServiceTest {
+
+  private static final String PREFIX = "SAMEA";
+  private static final int NODES = 4;
+  private static final int THREADS_PER_NODE = 4;
+  private static final int SAMPLES_PER_THREAD = 250;
+  private static final int BLOCK_SIZE = 10;
+  private static final int HIGHEST_EXISTING = 41;
+
+  @Mock MongoSampleRepository mongoSampleRepository;
+  @Mock SampleToMongoSampleConverter sampleToMongoSampleConverter;
+  @Mock MongoSampleToSampleConverter mongoSampleToSampleConverter;
+  @Mock MongoOperations mongoOperations;
+
+  // next of the counter document, negative until it has been seeded
+  private final AtomicLong counter = new AtomicLong(-1);
+  private final Map<String, MongoSample> inserted = new ConcurrentHashMap<>();
+  private ExecutorService executor;
+
+  @Before
+  public void setUp() {
+    when(sampleToMongoSampleConverter.convert(any(Sample.class))).thenReturn(mongoSample(null));
+    when(mongoOperations.findOne(any(Query.class), eq(MongoSample.class)))
+        .thenReturn(mongoSample(PREFIX + HIGHEST_EXISTING));
+    when(mongoOperations.findAndModify(
+            any(Query.class),
+            any(Update.class),
+            any(FindAndModifyOptions.class),
+            eq(MongoAccessionCounter.class)))
+        .thenAnswer(
+            invocation -> {
+              long next = counter.updateAndGet(value -> value < 0 ? value : value + BLOCK_SIZE);
+              return next < 0 ? null : new Counter(next);
+            });
+    when(mongoOperations.upsert(
+            any(Query.class), any(Update.class), eq(MongoAccessionCounter.class)))
+        .thenAnswer(
+            invocation -> {
+              Update update = (Update) invocation.getArguments()[1];
+              long next = getMax(update);
+              counter.accumulateAndGet(next, Math::max);
+              return null;
+            });
+    when(mongoSampleRepository.insertNew(any(MongoSample.class)))
+        .thenAnswer(
+            invocation -> {
+              MongoSample sample = (MongoSample) invocation.getArguments()[0];
+              if (inserted.putIfAbsent(sample.getAccession(), sample) != null) {
+                throw new DuplicateKeyException(sample.getAccession());
+              }
+              return sample;
+            });
+
+    executor = Executors.newFixedThreadPool(NODES * THREADS_PER_NODE);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void concurrent_reservations_never_hand_out_an_accession_twice() throws Exception {
+    List<MongoAccessionService> nodes = new ArrayList<>();
+    for (int i = 0; i < NODES; i++) {
+      nodes.add(
+          new MongoAccessionService(
+              mongoSampleRepository,
+              sampleToMongoSampleConverter,
+              mongoSampleToSampleConverter,
+              mongoOperations,
+              PREFIX,
+              0,
+              BLOCK_SIZE,
+              10));
+    }
+
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<?>> futures = new ArrayList<>();
+    for (MongoAccessionService node : nodes) {
+      for (int i = 0; i < THREADS_PER_NODE; i++) {
+        futures.add(
+            executor.submit(
+                () -> {
+                  start.await();
+                  for (int j = 0; j < SAMPLES_PER_THREAD; j++) {
+                    node.generateAccession(new Sample.Builder("test").build());
+                  }
+                  return null;
+                }));
+      }
+    }
+    start.countDown();
+    for (Future<?> future : futures) {
+      future.get();
+    }
+
+    int total = NODES * THREADS_PER_NODE * SAMPLES_PER_THREAD;
+    assertEquals(total, inserted.size());
+    long blocks = 0;
+    for (MongoAccessionService node : nodes) {
+      assertEquals(0, node.getCollisionCount());
+      assertEquals(0, node.getFailureCount());
+      blocks += node.getBlocksReservedCount();
+    }
+    for (MongoSample sample : inserted.values()) {
+      assertTrue(sample.getAccession(), sample.getAccessionNumber() > HIGHEST_EXISTING);
+      assertTrue(sample.getAccession(), sample.getAccessionNumber() < counter.get());
+    }
+    // every reserved block came from the counter, and none was reserved twice
+    assertEquals(HIGHEST_EXISTING + 1 + blocks * BLOCK_SIZE, counter.get());
+  }
+
+  private static long getMax(Update update) {
+    Map<?, ?> max = (Map<?, ?>) update.getUpdateObject().get("$max");
+    return ((Number) max.get("next")).longValue();
+  }
+
+  private static MongoSample mongoSample(String accession) {
+    return MongoSample.build(
+        "test",
+        accession,
+        "self.test",
+        null,
+        null,
+        null,
+        null,
+        null,
+        null,
+        null,
+        null,
+        null,
+        null,
+        null,
+        null,
+        null);
+  }
+
+  private static class Counter extends MongoAccessionCounter {
+    private Counter(long next) {
+      this.prefix = PREFIX;
+      this.next = next;
+    }
+  }
+}
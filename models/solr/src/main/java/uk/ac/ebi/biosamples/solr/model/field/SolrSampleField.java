@@ -18,8 +18,8 @@ import uk.ac.ebi.biosamples.solr.service.SolrFieldService;
 
 public abstract class SolrSampleField implements FilterCriteriaBuilder {
 
-  private String readableLabel;
-  private String solrDocumentLabel;
+  private final String readableLabel;
+  private final String solrDocumentLabel;
 
   /** Constructor meant to be used only for reflection purposes */
   protected SolrSampleField() {
@@ -130,14 +130,4 @@ public abstract class SolrSampleField implements FilterCriteriaBuilder {
   public String getSolrLabel() {
     return solrDocumentLabel;
   }
-
-  public SolrSampleField setReadableLabel(String readableLabel) {
-    this.readableLabel = readableLabel;
-    return this;
-  }
-
-  public SolrSampleField setSolrLabel(String solrDocumentLabel) {
-    this.solrDocumentLabel = solrDocumentLabel;
-    return this;
-  }
 }
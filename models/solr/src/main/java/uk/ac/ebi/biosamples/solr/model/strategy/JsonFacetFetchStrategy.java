@@ -0,0 +1,115 @@
+/*
+* Copyright 2019 EMBL - European Bioinformatics Institute
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+* file except in compliance with the License. You may obtain a copy of the License at
+* http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the
+* License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+* CONDITIONS OF ANY KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations under the License.
+*/
+package uk.ac.ebi.biosamples.solr.model.strategy;
+
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import org.apache.solr.common.util.NamedList;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.solr.core.query.FacetQuery;
+import uk.ac.ebi.biosamples.model.facet.Facet;
+import uk.ac.ebi.biosamples.model.facet.content.LabelCountEntry;
+import uk.ac.ebi.biosamples.model.facet.content.LabelCountListContent;
+import uk.ac.ebi.biosamples.solr.model.field.SolrSampleField;
+import uk.ac.ebi.biosamples.solr.repo.SolrSampleRepository;
+
+/**
+ * Fetches the facets of all the fields with a single JSON Facet API request. Each field is counted
+ * and faceted in one nested facet, where the regular strategy needs both a facet.field and a
+ * facet.query per field. The facets built are the same as those of {@link
+ * RegularFacetFetchStrategy}.
+ */
+public class JsonFacetFetchStrategy implements FacetFetchStrategy {
+
+  @Override
+  public List<Optional<Facet>> fetchFacetsUsing(
+      SolrSampleRepository sampleRepository,
+      FacetQuery query,
+      List<Entry<SolrSampleField, Long>> facetFieldCountEntries,
+      Pageable pageable) {
+    return fetchFacetsUsing(
+        sampleRepository, query, facetFieldCountEntries, Collections.emptyList(), pageable);
+  }
+
+  @Override
+  public List<Optional<Facet>> fetchFacetsUsing(
+      SolrSampleRepository sampleRepository,
+      FacetQuery query,
+      List<Entry<SolrSampleField, Long>> facetFieldCountEntries,
+      List<Entry<SolrSampleField, Long>> rangeFieldCountEntries,
+      Pageable pageable) {
+
+    NamedList<Object> facets =
+        sampleRepository.getJsonFacets(
+            query,
+            getSolrLabels(facetFieldCountEntries),
+            getSolrLabels(rangeFieldCountEntries),
+            pageable);
+
+    List<Optional<Facet>> facetResults = new ArrayList<>();
+    if (facets == null) {
+      return facetResults;
+    }
+    List<Entry<SolrSampleField, Long>> allEntries = new ArrayList<>(facetFieldCountEntries);
+    allEntries.addAll(rangeFieldCountEntries);
+    for (Entry<SolrSampleField, Long> entry : allEntries) {
+      SolrSampleField solrSampleField = entry.getKey();
+      NamedList<?> fieldFacet = (NamedList<?>) facets.get(solrSampleField.getSolrLabel());
+      if (fieldFacet == null) {
+        continue;
+      }
+      long fieldCount = ((Number) fieldFacet.get("count")).longValue();
+      NamedList<?> values = (NamedList<?>) fieldFacet.get("values");
+      if (fieldCount == 0 || values == null || values.get("buckets") == null) {
+        continue;
+      }
+
+      List<LabelCountEntry> listFacetContent = new ArrayList<>();
+      for (Object bucketObject : (List<?>) values.get("buckets")) {
+        NamedList<?> bucket = (NamedList<?>) bucketObject;
+        listFacetContent.add(
+            LabelCountEntry.build(
+                getLabel(bucket.get("val")), ((Number) bucket.get("count")).longValue()));
+      }
+
+      if (!listFacetContent.isEmpty()) {
+        Facet facet =
+            solrSampleField
+                .getFacetBuilder(solrSampleField.getReadableLabel(), fieldCount)
+                .withContent(new LabelCountListContent(listFacetContent))
+                .build();
+        facetResults.add(Optional.of(facet));
+      }
+    }
+    return facetResults;
+  }
+
+  private static List<String> getSolrLabels(List<Entry<SolrSampleField, Long>> entries) {
+    return entries.stream()
+        .map(Entry::getKey)
+        .map(SolrSampleField::getSolrLabel)
+        .collect(Collectors.toList());
+  }
+
+  // range buckets are labelled with their start date, formatted as solr does for facet.range
+  private static String getLabel(Object value) {
+    if (value instanceof Date) {
+      return DateTimeFormatter.ISO_INSTANT.format(((Date) value).toInstant());
+    }
+    return String.valueOf(value);
+  }
+}
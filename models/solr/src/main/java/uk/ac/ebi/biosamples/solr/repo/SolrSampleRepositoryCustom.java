@@ -10,7 +10,9 @@
 */
 package uk.ac.ebi.biosamples.solr.repo;
 
+import java.util.Collection;
 import java.util.List;
+import org.apache.solr.common.util.NamedList;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.solr.core.query.FacetQuery;
@@ -58,6 +60,23 @@ public interface SolrSampleRepositoryCustom {
       List<String> rangeFacetFields,
       Pageable facetPageable);
 
+  /**
+   * Return the facets over the provided fields computed with a single JSON Facet API request. Each
+   * field is a query facet counting the samples that have the field, with a nested terms facet, or
+   * a nested yearly date range facet for the range fields, limited by the facet paging information.
+   *
+   * @param query
+   * @param facetFields
+   * @param rangeFacetFields
+   * @param facetPageable
+   * @return the "facets" section of the response, keyed on the field names
+   */
+  public NamedList<Object> getJsonFacets(
+      FacetQuery query,
+      List<String> facetFields,
+      List<String> rangeFacetFields,
+      Pageable facetPageable);
+
   /**
    * Return a results of range facets over the provided fields with the provided facet paging
    * information (offset and count).
@@ -90,6 +109,62 @@ public interface SolrSampleRepositoryCustom {
 
   public SolrSample saveWithoutCommit(SolrSample entity);
 
+  /**
+   * Save all the samples in a single update request, relying on the solr autocommit to make them
+   * visible.
+   *
+   * @param entities
+   */
+  public void saveAllWithoutCommit(Collection<SolrSample> entities);
+
+  /**
+   * Delete all the samples in a single update request, relying on the solr autocommit to make the
+   * deletions visible.
+   *
+   * @param accessions
+   */
+  public void deleteAllWithoutCommit(Collection<String> accessions);
+
+  /**
+   * Save all the samples in a single update request to the given core instead of the one the
+   * samples are normally stored in, without committing.
+   *
+   * @param core
+   * @param entities
+   */
+  public void saveAllWithoutCommit(String core, Collection<SolrSample> entities);
+
+  /**
+   * Commit any pending updates of the given core.
+   *
+   * @param core
+   */
+  public void commit(String core);
+
+  /**
+   * Create a core from a config set, unless a core with that name already exists.
+   *
+   * @param core
+   * @param configSet
+   * @return true if the core was created
+   */
+  public boolean createCoreIfAbsent(String core, String configSet);
+
+  /**
+   * Delete every document of the given core and commit.
+   *
+   * @param core
+   */
+  public void deleteAllAndCommit(String core);
+
+  /**
+   * Swap the names of two cores, so that requests for one are served by the index of the other.
+   *
+   * @param core
+   * @param other
+   */
+  public void swapCores(String core, String other);
+
   public CursorArrayList<SolrSample> findByQueryCursorMark(
       Query query, String cursorMark, int size);
 }
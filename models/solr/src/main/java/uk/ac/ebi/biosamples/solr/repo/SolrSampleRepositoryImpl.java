@@ -10,18 +10,27 @@
 */
 package uk.ac.ebi.biosamples.solr.repo;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import java.io.IOException;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import org.apache.solr.client.solrj.SolrClient;
 import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.request.CoreAdminRequest;
+import org.apache.solr.client.solrj.response.CoreAdminResponse;
 import org.apache.solr.client.solrj.response.QueryResponse;
 import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.CoreAdminParams;
 import org.apache.solr.common.params.CursorMarkParams;
 import org.apache.solr.common.params.FacetParams;
+import org.apache.solr.common.util.NamedList;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.solr.core.QueryParsers;
@@ -41,6 +50,8 @@ public class SolrSampleRepositoryImpl implements SolrSampleRepositoryCustom {
   // this must be SolrTemplate not SolrOperations because we use some of the details
   private SolrTemplate solrTemplate;
 
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
   private final QueryParsers queryParsers = new QueryParsers();
 
   /**
@@ -114,7 +125,8 @@ public class SolrSampleRepositoryImpl implements SolrSampleRepositoryCustom {
       List<String> rangeFacetFields,
       Pageable facetPageable) {
 
-    if (facetFields == null || facetFields.isEmpty()) {
+    if ((facetFields == null || facetFields.isEmpty())
+        && (rangeFacetFields == null || rangeFacetFields.isEmpty())) {
       throw new IllegalArgumentException("Must provide fields to facet on");
     }
 
@@ -137,10 +149,9 @@ public class SolrSampleRepositoryImpl implements SolrSampleRepositoryCustom {
     facetOptions.setPageable(facetPageable);
 
     // todo generalise range facets apart from dates and remove hardcoded date boundaries
+    Date end = getRangeFacetEnd();
+    Date start = getRangeFacetStart(end);
     for (String field : rangeFacetFields) {
-      LocalDateTime dateTime = LocalDateTime.now();
-      Date end = Date.from(dateTime.atZone(ZoneId.systemDefault()).toInstant());
-      Date start = Date.from(dateTime.minusYears(5).atZone(ZoneId.systemDefault()).toInstant());
       facetOptions.addFacetByRange(
           new FacetOptions.FieldWithDateRangeParameters(field, start, end, "+1YEAR")
               .setInclude(FacetParams.FacetRangeInclude.ALL)
@@ -154,6 +165,79 @@ public class SolrSampleRepositoryImpl implements SolrSampleRepositoryCustom {
     return page;
   }
 
+  @Override
+  @SuppressWarnings("unchecked")
+  public NamedList<Object> getJsonFacets(
+      FacetQuery query,
+      List<String> facetFields,
+      List<String> rangeFacetFields,
+      Pageable facetPageable) {
+
+    if (facetFields.isEmpty() && rangeFacetFields.isEmpty()) {
+      throw new IllegalArgumentException("Must provide fields to facet on");
+    }
+
+    ObjectNode facets = OBJECT_MAPPER.createObjectNode();
+    for (String field : facetFields) {
+      ObjectNode values = addFieldFacet(facets, field);
+      values.put("type", "terms");
+      values.put("field", field);
+      values.put("offset", facetPageable.getOffset());
+      values.put("limit", facetPageable.getPageSize());
+    }
+
+    Date end = getRangeFacetEnd();
+    Date start = getRangeFacetStart(end);
+    for (String field : rangeFacetFields) {
+      ObjectNode values = addFieldFacet(facets, field);
+      values.put("type", "range");
+      values.put("field", field);
+      values.put("start", DateTimeFormatter.ISO_INSTANT.format(start.toInstant()));
+      values.put("end", DateTimeFormatter.ISO_INSTANT.format(end.toInstant()));
+      values.put("gap", "+1YEAR");
+    }
+
+    SolrQuery solrQuery = queryParsers.getForClass(query.getClass()).constructSolrQuery(query);
+    solrQuery.setRows(0);
+    solrQuery.set("json.facet", facets.toString());
+
+    QueryResponse response =
+        solrTemplate.execute(
+            new SolrCallback<QueryResponse>() {
+              @Override
+              public QueryResponse doInSolr(SolrClient solrClient)
+                  throws SolrServerException, IOException {
+                return solrClient.query("samples", solrQuery);
+              }
+            });
+    return (NamedList<Object>) response.getResponse().get("facets");
+  }
+
+  /**
+   * Adds a query facet counting the samples that have the field, and returns the nested facet over
+   * the values of the field for the caller to fill in.
+   */
+  private ObjectNode addFieldFacet(ObjectNode facets, String field) {
+    ObjectNode facet = facets.putObject(field);
+    facet.put("type", "query");
+    facet.put("q", field + ":[* TO *]");
+    return facet.putObject("facet").putObject("values");
+  }
+
+  // the boundaries only change once a day, so that solr can reuse its cached range counts
+  private Date getRangeFacetEnd() {
+    LocalDateTime dateTime = LocalDate.now().plusDays(1).atStartOfDay();
+    return Date.from(dateTime.atZone(ZoneId.systemDefault()).toInstant());
+  }
+
+  private Date getRangeFacetStart(Date end) {
+    return Date.from(
+        LocalDateTime.ofInstant(end.toInstant(), ZoneId.systemDefault())
+            .minusYears(5)
+            .atZone(ZoneId.systemDefault())
+            .toInstant());
+  }
+
   @Override
   public FacetPage<?> getRangeFacets(
       FacetQuery query, List<String> facetFields, Pageable facetPageable) {
@@ -205,4 +289,75 @@ public class SolrSampleRepositoryImpl implements SolrSampleRepositoryCustom {
     this.solrTemplate.saveBean(entity);
     return entity;
   }
+
+  @Override
+  public void saveAllWithoutCommit(Collection<SolrSample> entities) {
+    Assert.notNull(entities, "Cannot save 'null' entities.");
+    if (!entities.isEmpty()) {
+      this.solrTemplate.saveBeans(entities);
+    }
+  }
+
+  @Override
+  public void deleteAllWithoutCommit(Collection<String> accessions) {
+    Assert.notNull(accessions, "Cannot delete 'null' accessions.");
+    if (!accessions.isEmpty()) {
+      this.solrTemplate.deleteById(accessions);
+    }
+  }
+
+  @Override
+  public void saveAllWithoutCommit(String core, Collection<SolrSample> entities) {
+    Assert.notNull(entities, "Cannot save 'null' entities.");
+    if (!entities.isEmpty()) {
+      this.solrTemplate.saveBeans(core, entities);
+    }
+  }
+
+  @Override
+  public void commit(String core) {
+    this.solrTemplate.commit(core);
+  }
+
+  @Override
+  public boolean createCoreIfAbsent(String core, String configSet) {
+    return solrTemplate.execute(
+        new SolrCallback<Boolean>() {
+          @Override
+          public Boolean doInSolr(SolrClient solrClient) throws SolrServerException, IOException {
+            CoreAdminResponse status = CoreAdminRequest.getStatus(core, solrClient);
+            if (status.getCoreStatus(core) != null && status.getCoreStatus(core).size() > 0) {
+              return false;
+            }
+            CoreAdminRequest.Create create = new CoreAdminRequest.Create();
+            create.setCoreName(core);
+            create.setInstanceDir(core);
+            create.setConfigSet(configSet);
+            create.process(solrClient);
+            return true;
+          }
+        });
+  }
+
+  @Override
+  public void deleteAllAndCommit(String core) {
+    this.solrTemplate.delete(core, new SimpleQuery("*:*"));
+    this.solrTemplate.commit(core);
+  }
+
+  @Override
+  public void swapCores(String core, String other) {
+    solrTemplate.execute(
+        new SolrCallback<CoreAdminResponse>() {
+          @Override
+          public CoreAdminResponse doInSolr(SolrClient solrClient)
+              throws SolrServerException, IOException {
+            CoreAdminRequest swap = new CoreAdminRequest();
+            swap.setAction(CoreAdminParams.CoreAdminAction.SWAP);
+            swap.setCoreName(core);
+            swap.setOtherCoreName(other);
+            return swap.process(solrClient);
+          }
+        });
+  }
 }
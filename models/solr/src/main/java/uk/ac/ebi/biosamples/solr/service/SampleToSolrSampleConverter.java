@@ -18,6 +18,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.SortedSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.core.convert.converter.Converter;
 import org.springframework.stereotype.Service;
 import uk.ac.ebi.biosamples.model.Attribute;
@@ -30,6 +32,7 @@ import uk.ac.ebi.biosamples.solr.model.SolrSample;
 
 @Service
 public class SampleToSolrSampleConverter implements Converter<Sample, SolrSample> {
+  private static final Logger LOGGER = LoggerFactory.getLogger(SampleToSolrSampleConverter.class);
 
   private final ExternalReferenceService externalReferenceService;
 
@@ -212,4 +215,21 @@ public class SampleToSolrSampleConverter implements Converter<Sample, SolrSample
         externalReferencesData,
         keywords);
   }
+
+  /** Samples with an INSDC status other than public or live are not indexed. */
+  public static boolean isIndexingCandidate(Sample sample) {
+    for (Attribute attribute : sample.getAttributes()) {
+      if (attribute.getType().equals("INSDC status")) {
+        List<String> publicStatuses = Arrays.asList("public", "live");
+        if (!publicStatuses.contains(attribute.getValue())) {
+          LOGGER.debug(
+              String.format(
+                  "not indexing %s as INSDC status is %s",
+                  sample.getAccession(), attribute.getValue()));
+          return false;
+        }
+      }
+    }
+    return true;
+  }
 }
@@ -10,10 +10,23 @@
 */
 package uk.ac.ebi.biosamples.solr.service;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
 import java.util.*;
 import java.util.AbstractMap.SimpleEntry;
 import java.util.Map.Entry;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import javax.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.data.domain.Page;
@@ -26,6 +39,8 @@ import uk.ac.ebi.biosamples.model.facet.Facet;
 import uk.ac.ebi.biosamples.model.facet.FacetHelper;
 import uk.ac.ebi.biosamples.model.filter.Filter;
 import uk.ac.ebi.biosamples.solr.model.field.SolrSampleField;
+import uk.ac.ebi.biosamples.solr.model.strategy.FacetFetchStrategy;
+import uk.ac.ebi.biosamples.solr.model.strategy.JsonFacetFetchStrategy;
 import uk.ac.ebi.biosamples.solr.repo.SolrSampleRepository;
 
 @Service
@@ -37,6 +52,19 @@ public class SolrFacetService {
   private Logger log = LoggerFactory.getLogger(getClass());
   private final SolrFilterService solrFilterService;
 
+  // results of getFacets, keyed on the normalised arguments
+  private final Cache<List<Object>, CachedFacets> facetCache;
+  private final boolean facetCacheEnabled;
+  // incremented on every invalidation, so results computed before one are not cached after it
+  private final AtomicLong facetCacheGeneration = new AtomicLong();
+  private final AtomicLong facetCacheTimeSaved = new AtomicLong();
+
+  // runs the solr requests of each search concurrently, or on the calling thread when busy
+  private final ExecutorService executorService;
+  private final long facetTimeout;
+  // used in place of the strategies of all the fields if set
+  private final FacetFetchStrategy jsonFacetFetchStrategy;
+
   public SolrFacetService(
       SolrSampleRepository solrSampleRepository,
       SolrFieldService solrFieldService,
@@ -45,6 +73,37 @@ public class SolrFacetService {
     this.solrSampleRepository = solrSampleRepository;
     this.solrFieldService = solrFieldService;
     this.solrFilterService = solrFilterService;
+    this.facetCacheEnabled = bioSamplesProperties.getBiosamplesCoreFacetCacheSize() > 0;
+    this.facetCache =
+        Caffeine.newBuilder()
+            .maximumSize(Math.max(bioSamplesProperties.getBiosamplesCoreFacetCacheSize(), 0))
+            .expireAfterWrite(
+                bioSamplesProperties.getBiosamplesCoreFacetCacheTtl(), TimeUnit.SECONDS)
+            .recordStats()
+            .build();
+    int threads = bioSamplesProperties.getBiosamplesCoreFacetThreads();
+    this.executorService =
+        new ThreadPoolExecutor(
+            threads,
+            threads,
+            0L,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(threads * 4),
+            new ThreadPoolExecutor.CallerRunsPolicy());
+    this.facetTimeout = bioSamplesProperties.getBiosamplesCoreFacetTimeout();
+    String facetStrategy = bioSamplesProperties.getBiosamplesCoreFacetStrategy();
+    if ("json".equals(facetStrategy)) {
+      this.jsonFacetFetchStrategy = new JsonFacetFetchStrategy();
+    } else if ("regular".equals(facetStrategy)) {
+      this.jsonFacetFetchStrategy = null;
+    } else {
+      throw new IllegalArgumentException("Unknown facet strategy " + facetStrategy);
+    }
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    executorService.shutdownNow();
   }
 
   public List<Facet> getFacets1(
@@ -58,21 +117,10 @@ public class SolrFacetService {
       searchTerm = "*:*";
     }
 
+    String search = searchTerm;
     List<Facet> facets = new ArrayList<>();
 
-    // build a query out of the users string and any facets
-    FacetQuery query = new SimpleFacetQuery();
-    query.addCriteria(new Criteria().expression(searchTerm));
-    query.setTimeAllowed(TIMEALLOWED * 1000);
-
-    // Add domains and release date filters
-    Optional<FilterQuery> domainAndPublicFilterQuery =
-        solrFilterService.getPublicFilterQuery(domains);
-    domainAndPublicFilterQuery.ifPresent(query::addFilterQuery);
-
-    // Add all the provided filters
-    Optional<FilterQuery> optionalFilter = solrFilterService.getFilterQuery(filters);
-    optionalFilter.ifPresent(query::addFilterQuery);
+    FacetQuery query = buildFacetQuery(search, filters, domains);
 
     // Generate a facet query to get all the available facets for the samples
     Page<FacetFieldEntry> facetFields =
@@ -95,27 +143,13 @@ public class SolrFacetService {
        3. _dt => range facet
     */
 
-    // TODO do this to properly account for different strategies - this is a dirty hack for
-    // performance!
-    /*
-          for (Entry<SolrSampleField, Long> fieldCountEntry: allFacetFields) {
-              FacetFetchStrategy strategy = fieldCountEntry.getKey().getFacetCollectionStrategy();
-              List<Optional<Facet>> optionalFacets = strategy.fetchFacetsUsing(solrSampleRepository,
-                      query,
-                      Collections.singletonList(fieldCountEntry),
-                      facetValuesPageInfo);
-              optionalFacets.forEach(opt -> opt.ifPresent(facets::add));
-          }
-    */
-
-    if (allFacetFields.size() > 0) {
-      allFacetFields
-          .get(0)
-          .getKey()
-          .getFacetCollectionStrategy()
-          .fetchFacetsUsing(solrSampleRepository, query, allFacetFields, facetValuesPageInfo)
-          .forEach(opt -> opt.ifPresent(facets::add));
-    }
+    facets.addAll(
+        fetchFacetsByStrategy(
+                () -> buildFacetQuery(search, filters, domains),
+                allFacetFields,
+                Collections.emptyList(),
+                facetValuesPageInfo)
+            .facets);
 
     // Return the list of facets
     Collections.sort(facets);
@@ -124,12 +158,116 @@ public class SolrFacetService {
     return facets;
   }
 
+  /**
+   * Returns the facets of the samples matching the search. Results are cached on the search term,
+   * filters, domains and page sizes until they expire or {@link #invalidateFacetCache()} is called,
+   * so the same facets are not computed again for popular searches.
+   */
   public List<Facet> getFacets(
       String searchTerm,
       Collection<Filter> filters,
       Collection<String> domains,
       Pageable facetFieldPageInfo,
       Pageable facetValuesPageInfo) {
+    if (!facetCacheEnabled) {
+      return fetchFacetResults(
+              searchTerm, filters, domains, facetFieldPageInfo, facetValuesPageInfo)
+          .facets;
+    }
+
+    List<Object> key =
+        facetCacheKey(searchTerm, filters, domains, facetFieldPageInfo, facetValuesPageInfo);
+    CachedFacets cached = facetCache.getIfPresent(key);
+    if (cached != null) {
+      facetCacheTimeSaved.addAndGet(cached.time);
+      return new ArrayList<>(cached.facets);
+    }
+
+    long generation = facetCacheGeneration.get();
+    long startTime = System.nanoTime();
+    FacetResults results =
+        fetchFacetResults(searchTerm, filters, domains, facetFieldPageInfo, facetValuesPageInfo);
+    long time = System.nanoTime() - startTime;
+    // facets that timed out are left out, and should be tried again by the next search
+    if (results.complete && generation == facetCacheGeneration.get()) {
+      facetCache.put(key, new CachedFacets(new ArrayList<>(results.facets), time));
+    }
+    return results.facets;
+  }
+
+  /** Drops all cached facets, e.g. because the index has changed. */
+  public void invalidateFacetCache() {
+    facetCacheGeneration.incrementAndGet();
+    facetCache.invalidateAll();
+  }
+
+  public long getFacetCacheSize() {
+    return facetCache.estimatedSize();
+  }
+
+  public CacheStats getFacetCacheStats() {
+    return facetCache.stats();
+  }
+
+  /** @return total time in ms that solr would have spent computing the facets served from cache */
+  public long getFacetCacheTimeSaved() {
+    return TimeUnit.NANOSECONDS.toMillis(facetCacheTimeSaved.get());
+  }
+
+  private static List<Object> facetCacheKey(
+      String searchTerm,
+      Collection<Filter> filters,
+      Collection<String> domains,
+      Pageable facetFieldPageInfo,
+      Pageable facetValuesPageInfo) {
+    // "*:*" is not the landing page, which only an empty search term gets, so it has its own key
+    String normalisedSearchTerm =
+        searchTerm == null ? "" : searchTerm.trim().replaceAll("\\s+", " ");
+    List<String> filterKeys =
+        filters.stream()
+            .map(Filter::getSerialization)
+            .distinct()
+            .sorted()
+            .collect(Collectors.toList());
+    List<String> domainKeys =
+        domains == null
+            ? Collections.emptyList()
+            : domains.stream().distinct().sorted().collect(Collectors.toList());
+    return Arrays.asList(
+        normalisedSearchTerm,
+        filterKeys,
+        domainKeys,
+        facetFieldPageInfo.getPageNumber(),
+        facetFieldPageInfo.getPageSize(),
+        facetValuesPageInfo.getPageNumber(),
+        facetValuesPageInfo.getPageSize());
+  }
+
+  /**
+   * Computes the facets of the samples matching the search in solr, without using the cache.
+   *
+   * @throws RuntimeException if not all the facets could be computed in time
+   */
+  public List<Facet> fetchFacets(
+      String searchTerm,
+      Collection<Filter> filters,
+      Collection<String> domains,
+      Pageable facetFieldPageInfo,
+      Pageable facetValuesPageInfo) {
+    FacetResults results =
+        fetchFacetResults(searchTerm, filters, domains, facetFieldPageInfo, facetValuesPageInfo);
+    if (!results.complete) {
+      throw new RuntimeException("Unable to compute all facets of " + searchTerm);
+    }
+    return results.facets;
+  }
+
+  private FacetResults fetchFacetResults(
+      String searchTerm,
+      Collection<Filter> filters,
+      Collection<String> domains,
+      Pageable facetFieldPageInfo,
+      Pageable facetValuesPageInfo) {
     boolean isLandingPage = false;
     // default to search all
     if (searchTerm == null || searchTerm.trim().length() == 0) {
@@ -139,8 +277,40 @@ public class SolrFacetService {
       }
     }
 
-    List<Facet> facets = new ArrayList<>();
+    String search = searchTerm;
+    FacetQuery query = buildFacetQuery(search, filters, domains);
+
+    List<Entry<SolrSampleField, Long>> allFacetFields =
+        getFacetFields(facetFieldPageInfo, query, isLandingPage);
+
+    List<Entry<SolrSampleField, Long>> rangeFacetFields =
+        FacetHelper.RANGE_FACETING_FIELDS.stream()
+            .map(
+                s ->
+                    new SimpleEntry<>(
+                        this.solrFieldService.decodeField(s + FacetHelper.get_encoding_suffix(s)),
+                        0L))
+            .collect(Collectors.toList());
+
+    if (allFacetFields.isEmpty()) {
+      return new FacetResults(new ArrayList<>(), true);
+    }
+    FacetResults results =
+        fetchFacetsByStrategy(
+            () -> buildFacetQuery(search, filters, domains),
+            allFacetFields,
+            rangeFacetFields,
+            facetValuesPageInfo);
 
+    // Return the list of facets
+    Collections.sort(results.facets);
+    Collections.reverse(results.facets);
+
+    return results;
+  }
+
+  private FacetQuery buildFacetQuery(
+      String searchTerm, Collection<Filter> filters, Collection<String> domains) {
     // build a query out of the users string and any facets
     FacetQuery query = new SimpleFacetQuery();
     query.addCriteria(new Criteria().expression(searchTerm));
@@ -155,33 +325,89 @@ public class SolrFacetService {
     Optional<FilterQuery> optionalFilter = solrFilterService.getFilterQuery(filters);
     optionalFilter.ifPresent(query::addFilterQuery);
 
-    List<Entry<SolrSampleField, Long>> allFacetFields =
-        getFacetFields(facetFieldPageInfo, query, isLandingPage);
+    return query;
+  }
 
-    List<Entry<SolrSampleField, Long>> rangeFacetFields =
-        FacetHelper.RANGE_FACETING_FIELDS.stream()
-            .map(
-                s ->
-                    new SimpleEntry<>(
-                        this.solrFieldService.decodeField(s + FacetHelper.get_encoding_suffix(s)),
-                        0L))
-            .collect(Collectors.toList());
+  /**
+   * Fetches the facets of the fields, with one solr request for each facet fetch strategy used by
+   * the fields plus one for the range fields, or a single request if json facets are configured.
+   * The requests run concurrently and are given until the facet timeout to complete, after which
+   * the facets fetched so far are returned.
+   *
+   * @param querySupplier supplies the query of the search, a new one for each request
+   */
+  private FacetResults fetchFacetsByStrategy(
+      Supplier<FacetQuery> querySupplier,
+      List<Entry<SolrSampleField, Long>> facetFields,
+      List<Entry<SolrSampleField, Long>> rangeFields,
+      Pageable facetValuesPageInfo) {
+    List<FacetRequest> requests = new ArrayList<>();
+    if (jsonFacetFetchStrategy != null) {
+      // a single json facet request can compute all the fields together
+      FacetRequest request = new FacetRequest(jsonFacetFetchStrategy);
+      facetFields.stream()
+          .filter(f -> f.getKey().getFacetCollectionStrategy() != null)
+          .forEach(request.facetFields::add);
+      rangeFields.stream()
+          .filter(f -> f.getKey().getFacetCollectionStrategy() != null)
+          .forEach(request.rangeFields::add);
+      requests.add(request);
+    } else {
+      requests.addAll(groupByStrategy(facetFields, false));
+      requests.addAll(groupByStrategy(rangeFields, true));
+    }
 
-    if (!allFacetFields.isEmpty()) {
-      allFacetFields
-          .get(0)
-          .getKey()
-          .getFacetCollectionStrategy()
-          .fetchFacetsUsing(
-              solrSampleRepository, query, allFacetFields, rangeFacetFields, facetValuesPageInfo)
-          .forEach(opt -> opt.ifPresent(facets::add));
+    List<Future<List<Optional<Facet>>>> futures = new ArrayList<>();
+    for (FacetRequest request : requests) {
+      futures.add(
+          executorService.submit(
+              () ->
+                  request.strategy.fetchFacetsUsing(
+                      solrSampleRepository,
+                      querySupplier.get(),
+                      request.facetFields,
+                      request.rangeFields,
+                      facetValuesPageInfo)));
     }
 
-    // Return the list of facets
-    Collections.sort(facets);
-    Collections.reverse(facets);
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(facetTimeout);
+    List<Facet> facets = new ArrayList<>();
+    boolean complete = true;
+    for (int i = 0; i < futures.size(); i++) {
+      Future<List<Optional<Facet>>> future = futures.get(i);
+      try {
+        future
+            .get(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS)
+            .forEach(opt -> opt.ifPresent(facets::add));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        future.cancel(true);
+        complete = false;
+      } catch (ExecutionException e) {
+        log.error("Problem fetching facets of " + requests.get(i), e.getCause());
+        complete = false;
+      } catch (TimeoutException e) {
+        log.warn("Timed out fetching facets of " + requests.get(i));
+        future.cancel(true);
+        complete = false;
+      }
+    }
+    return new FacetResults(facets, complete);
+  }
 
-    return facets;
+  private static List<FacetRequest> groupByStrategy(
+      List<Entry<SolrSampleField, Long>> fields, boolean range) {
+    Map<Class<?>, FacetRequest> requests = new LinkedHashMap<>();
+    for (Entry<SolrSampleField, Long> field : fields) {
+      FacetFetchStrategy strategy = field.getKey().getFacetCollectionStrategy();
+      if (strategy == null) {
+        continue;
+      }
+      FacetRequest request =
+          requests.computeIfAbsent(strategy.getClass(), c -> new FacetRequest(strategy));
+      (range ? request.rangeFields : request.facetFields).add(field);
+    }
+    return new ArrayList<>(requests.values());
   }
 
   private List<Entry<SolrSampleField, Long>> getFacetFields(
@@ -252,22 +478,9 @@ public class SolrFacetService {
       searchTerm = "*:*";
     }
 
+    String search = searchTerm;
     List<Facet> facets = new ArrayList<>();
 
-    // build a query out of the users string and any facets
-    FacetQuery query = new SimpleFacetQuery();
-    query.addCriteria(new Criteria().expression(searchTerm));
-    query.setTimeAllowed(TIMEALLOWED * 1000);
-
-    // Add domains and release date filters
-    Optional<FilterQuery> domainAndPublicFilterQuery =
-        solrFilterService.getPublicFilterQuery(domains);
-    domainAndPublicFilterQuery.ifPresent(query::addFilterQuery);
-
-    // Add all the provided filters
-    Optional<FilterQuery> optionalFilter = solrFilterService.getFilterQuery(filters);
-    optionalFilter.ifPresent(query::addFilterQuery);
-
     List<Entry<SolrSampleField, Long>> allFacetFields =
         FacetHelper.FACETING_FIELDS.stream()
             .map(
@@ -289,13 +502,13 @@ public class SolrFacetService {
             .collect(Collectors.toList());
 
     if (allFacetFields.size() > 0) {
-      allFacetFields
-          .get(0)
-          .getKey()
-          .getFacetCollectionStrategy()
-          .fetchFacetsUsing(
-              solrSampleRepository, query, allFacetFields, rangeFacetFields, facetValuesPageInfo)
-          .forEach(opt -> opt.ifPresent(facets::add));
+      facets.addAll(
+          fetchFacetsByStrategy(
+                  () -> buildFacetQuery(search, filters, domains),
+                  allFacetFields,
+                  rangeFacetFields,
+                  facetValuesPageInfo)
+              .facets);
     }
 
     // Return the list of facets
@@ -315,4 +528,50 @@ public class SolrFacetService {
 
     return limitedFacets;
   }
+
+  private static class CachedFacets {
+    private final List<Facet> facets;
+    // nanoseconds taken to compute the facets
+    private final long time;
+
+    private CachedFacets(List<Facet> facets, long time) {
+      this.facets = facets;
+      this.time = time;
+    }
+  }
+
+  private static class FacetResults {
+    private final List<Facet> facets;
+    // false if the facets of some fields could not be fetched
+    private final boolean complete;
+
+    private FacetResults(List<Facet> facets, boolean complete) {
+      this.facets = facets;
+      this.complete = complete;
+    }
+  }
+
+  /** The fields fetched together in one solr request. */
+  private static class FacetRequest {
+    private final FacetFetchStrategy strategy;
+    private final List<Entry<SolrSampleField, Long>> facetFields = new ArrayList<>();
+    private final List<Entry<SolrSampleField, Long>> rangeFields = new ArrayList<>();
+
+    private FacetRequest(FacetFetchStrategy strategy) {
+      this.strategy = strategy;
+    }
+
+    @Override
+    public String toString() {
+      return strategy.getClass().getSimpleName()
+          + " "
+          + facetFields.stream()
+              .map(e -> e.getKey().getReadableLabel())
+              .collect(Collectors.toList())
+          + " "
+          + rangeFields.stream()
+              .map(e -> e.getKey().getReadableLabel())
+              .collect(Collectors.toList());
+    }
+  }
 }
@@ -0,0 +1,140 @@
+/*
+* Copyright 2019 EMBL - European Bioinformatics Institute
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+* file except in compliance with the License. You may obtain a copy of the License at
+* http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the
+* License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+* CONDITIONS OF ANY KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations under the License.
+*/
+package uk.ac.ebi.biosamples.solr.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Encodes field names into the characters solr allows in field names, as the upper case base32 of
+ * their UTF-8 bytes with the = padding replaced by _, and decodes them back.
+ *
+ * <p>Both directions are done in a single pass over a per-thread buffer. As there are only a few
+ * thousand distinct attribute types, relationship types and so on, results are also kept in caches
+ * of at most {@link #CACHE_SIZE} names, so common names are only encoded or decoded once. Least
+ * used names are evicted, so arbitrary labels from filters cannot fill them up.
+ */
+public final class SolrFieldNameCodec {
+
+  static final int CACHE_SIZE = 10000;
+
+  private static final char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZ234567".toCharArray();
+  private static final char PADDING = '_';
+  private static final int[] DECODE = new int[128];
+
+  static {
+    Arrays.fill(DECODE, -1);
+    for (int i = 0; i < ALPHABET.length; i++) {
+      DECODE[ALPHABET[i]] = i;
+    }
+  }
+
+  private static final Cache<String, String> ENCODED =
+      Caffeine.newBuilder().maximumSize(CACHE_SIZE).build();
+  private static final Cache<String, String> DECODED =
+      Caffeine.newBuilder().maximumSize(CACHE_SIZE).build();
+
+  private static final ThreadLocal<char[]> CHAR_BUFFER =
+      ThreadLocal.withInitial(() -> new char[256]);
+  private static final ThreadLocal<byte[]> BYTE_BUFFER =
+      ThreadLocal.withInitial(() -> new byte[256]);
+
+  private SolrFieldNameCodec() {}
+
+  public static String encode(String field) {
+    return ENCODED.get(field, SolrFieldNameCodec::encodeUncached);
+  }
+
+  /** @throws IllegalArgumentException if the field is not a valid encoded field name */
+  public static String decode(String encodedField) {
+    return DECODED.get(encodedField, SolrFieldNameCodec::decodeUncached);
+  }
+
+  static String encodeUncached(String field) {
+    // ascii characters are their own UTF-8 bytes, so only other fields need converting
+    byte[] bytes = isAscii(field) ? null : field.getBytes(StandardCharsets.UTF_8);
+    int length = bytes == null ? field.length() : bytes.length;
+    // every 5 bytes, or part of, become 8 characters
+    int encodedLength = (length + 4) / 5 * 8;
+    char[] chars = CHAR_BUFFER.get();
+    if (chars.length < encodedLength) {
+      chars = new char[encodedLength];
+      CHAR_BUFFER.set(chars);
+    }
+
+    int out = 0;
+    int buffer = 0;
+    int bits = 0;
+    for (int i = 0; i < length; i++) {
+      buffer = (buffer << 8) | ((bytes == null ? field.charAt(i) : bytes[i]) & 0xff);
+      bits += 8;
+      while (bits >= 5) {
+        bits -= 5;
+        chars[out++] = ALPHABET[(buffer >> bits) & 0x1f];
+      }
+    }
+    if (bits > 0) {
+      chars[out++] = ALPHABET[(buffer << (5 - bits)) & 0x1f];
+    }
+    while (out < encodedLength) {
+      chars[out++] = PADDING;
+    }
+    return new String(chars, 0, encodedLength);
+  }
+
+  static String decodeUncached(String encodedField) {
+    int length = encodedField.length();
+    while (length > 0 && encodedField.charAt(length - 1) == PADDING) {
+      length--;
+    }
+    // the last group of 8 characters can only end after 2, 4, 5, 7 or 8 of them
+    int remainder = length % 8;
+    if (remainder == 1 || remainder == 3 || remainder == 6) {
+      throw new IllegalArgumentException("Invalid length of field name " + encodedField);
+    }
+    int decodedLength = length * 5 / 8;
+    byte[] bytes = BYTE_BUFFER.get();
+    if (bytes.length < decodedLength) {
+      bytes = new byte[decodedLength];
+      BYTE_BUFFER.set(bytes);
+    }
+
+    int out = 0;
+    int buffer = 0;
+    int bits = 0;
+    for (int i = 0; i < length; i++) {
+      char c = encodedField.charAt(i);
+      int value = c < DECODE.length ? DECODE[c] : -1;
+      if (value < 0) {
+        throw new IllegalArgumentException(
+            "Unrecognized character " + c + " in field name " + encodedField);
+      }
+      buffer = (buffer << 5) | value;
+      bits += 5;
+      if (bits >= 8) {
+        bits -= 8;
+        bytes[out++] = (byte) (buffer >> bits);
+      }
+    }
+    return new String(bytes, 0, out, StandardCharsets.UTF_8);
+  }
+
+  private static boolean isAscii(String field) {
+    for (int i = 0; i < field.length(); i++) {
+      if (field.charAt(i) >= 0x80) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -10,12 +10,16 @@
 */
 package uk.ac.ebi.biosamples.solr.service;
 
-import com.google.common.io.BaseEncoding;
-import java.io.UnsupportedEncodingException;
-import java.lang.reflect.InvocationTargetException;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Optional;
 import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import uk.ac.ebi.biosamples.model.filter.Filter;
@@ -24,16 +28,32 @@ import uk.ac.ebi.biosamples.solr.model.field.SolrSampleField;
 /**
  * SolrFieldService is the service that should be able to deal with all field matters - Encode and
  * decode of a field is the main reason behind it
+ *
+ * <p>The same few fields are decoded over and over for facets and filters, so decoded fields are
+ * cached, and new fields are created through constructor handles looked up once for each type of
+ * field rather than by reflection on every call. Fields are immutable, so cached ones are shared.
  */
 @Service
 public class SolrFieldService {
 
+  private static final int FIELD_CACHE_SIZE = 10000;
+
   //    private Logger log = LoggerFactory.getLogger(getClass());
   private List<SolrSampleField> solrFieldList;
+  private final List<FieldType> fieldTypes = new ArrayList<>();
+
+  // decoded fields by encoded label, and fields of filters by filter type and label
+  private final Cache<String, SolrSampleField> decodedFields =
+      Caffeine.newBuilder().maximumSize(FIELD_CACHE_SIZE).build();
+  private final Cache<List<Object>, SolrSampleField> filterFields =
+      Caffeine.newBuilder().maximumSize(FIELD_CACHE_SIZE).build();
 
   @Autowired
   public SolrFieldService(List<SolrSampleField> solrSampleFields) {
     this.solrFieldList = solrSampleFields;
+    for (SolrSampleField solrSampleField : solrSampleFields) {
+      fieldTypes.add(new FieldType(solrSampleField));
+    }
   }
 
   public List<SolrSampleField> getSolrFieldList() {
@@ -41,27 +61,12 @@ public class SolrFieldService {
   }
 
   public static String encodeFieldName(String field) {
-    // solr only allows alphanumeric field types
-    try {
-      field = BaseEncoding.base32().encode(field.getBytes("UTF-8"));
-    } catch (UnsupportedEncodingException e) {
-      throw new RuntimeException(e);
-    }
-    // although its base32 encoded, that include = which solr doesn't allow
-    field = field.replaceAll("=", "_");
-
-    return field;
+    // solr only allows alphanumeric field types, so base32 with _ instead of = as padding
+    return SolrFieldNameCodec.encode(field);
   }
 
   public static String decodeFieldName(String encodedField) {
-    // although its base32 encoded, that include = which solr doesn't allow
-    String decodedField = encodedField.replace("_", "=");
-    try {
-      decodedField = new String(BaseEncoding.base32().decode(decodedField), "UTF-8");
-    } catch (UnsupportedEncodingException e) {
-      throw new RuntimeException(e);
-    }
-    return decodedField;
+    return SolrFieldNameCodec.decode(encodedField);
   }
 
   /**
@@ -71,74 +76,100 @@ public class SolrFieldService {
    * @return the field name decoded
    */
   public SolrSampleField decodeField(String encodedField) {
+    return decodedFields.get(encodedField, this::createDecodedField);
+  }
 
-    Optional<SolrSampleField> optionalType =
-        solrFieldList.stream().filter(solrField -> solrField.matches(encodedField)).findFirst();
-    if (optionalType.isPresent()) {
-      SolrSampleField fieldCandidate = optionalType.get();
-      Matcher m = fieldCandidate.getSolrFieldPattern().matcher(encodedField);
+  private SolrSampleField createDecodedField(String encodedField) {
+    for (FieldType fieldType : fieldTypes) {
+      Matcher m = fieldType.pattern.matcher(encodedField);
       if (m.find()) {
         String baseLabel = m.group("fieldname");
 
-        if (fieldCandidate.isEncodedField()) {
+        if (fieldType.encoded) {
           baseLabel = decodeFieldName(baseLabel);
         }
-        try {
-
-          return getNewFieldInstance(fieldCandidate.getClass(), baseLabel, encodedField);
-
-        } catch (NoSuchMethodException
-            | IllegalAccessException
-            | InvocationTargetException
-            | InstantiationException e) {
-          throw new RuntimeException(
-              "An error occurred while instantiating creating a new instance of class "
-                  + fieldCandidate.getClass());
-        }
+        return fieldType.newInstance(baseLabel, encodedField);
       }
     }
 
     throw new RuntimeException("Provide field " + encodedField + " is unknown");
   }
 
+  /**
+   * Returns the field to filter on. Fields are cached by filter type and label, as the
+   * compatibility of the fields only depends on the type of the filter.
+   *
+   * @param filter the filter to find the field of
+   * @return the field compatible with the filter
+   */
   public SolrSampleField getCompatibleField(Filter filter) {
+    List<Object> key = Arrays.asList(filter.getClass(), filter.getLabel());
+    return filterFields.get(key, k -> createCompatibleField(filter));
+  }
 
-    Optional<SolrSampleField> optionalType =
-        solrFieldList.stream().filter(solrField -> solrField.isCompatibleWith(filter)).findFirst();
-    if (optionalType.isPresent()) {
-      SolrSampleField fieldCandidate = optionalType.get();
-      // TODO implement methods to extract suffix and generate also the encoded label
+  private SolrSampleField createCompatibleField(Filter filter) {
+    for (FieldType fieldType : fieldTypes) {
+      if (fieldType.prototype.isCompatibleWith(filter)) {
+        // TODO implement methods to extract suffix and generate also the encoded label
+        return fieldType.newInstance(filter.getLabel());
+      }
+    }
 
-      try {
+    throw new RuntimeException("Provide filter " + filter + " is unknown");
+  }
 
-        return getNewFieldInstance(fieldCandidate.getClass(), filter.getLabel());
+  /** A type of field, with its pattern and constructors ready to use. */
+  private static class FieldType {
+    private final SolrSampleField prototype;
+    private final Pattern pattern;
+    private final boolean encoded;
+    // (readableLabel, solrDocumentLabel) and (readableLabel) constructors
+    private final MethodHandle decodedConstructor;
+    private final MethodHandle labelConstructor;
+
+    private FieldType(SolrSampleField prototype) {
+      this.prototype = prototype;
+      this.pattern = prototype.getSolrFieldPattern();
+      this.encoded = prototype.isEncodedField();
+      this.decodedConstructor = findConstructor(prototype.getClass(), String.class, String.class);
+      this.labelConstructor = findConstructor(prototype.getClass(), String.class);
+    }
 
-      } catch (NoSuchMethodException
-          | IllegalAccessException
-          | InvocationTargetException
-          | InstantiationException e) {
+    private static MethodHandle findConstructor(Class<?> type, Class<?>... parameterTypes) {
+      try {
+        return MethodHandles.publicLookup()
+            .findConstructor(type, MethodType.methodType(void.class, parameterTypes))
+            .asType(MethodType.methodType(SolrSampleField.class, parameterTypes));
+      } catch (NoSuchMethodException | IllegalAccessException e) {
+        throw new IllegalArgumentException(
+            "An error occurred while looking up the constructors of class " + type, e);
+      }
+    }
+
+    private SolrSampleField newInstance(String baseLabel, String encodedLabel) {
+      try {
+        return (SolrSampleField) decodedConstructor.invokeExact(baseLabel, encodedLabel);
+      } catch (RuntimeException | Error e) {
+        throw e;
+      } catch (Throwable e) {
         throw new RuntimeException(
             "An error occurred while instantiating creating a new instance of class "
-                + fieldCandidate.getClass());
+                + prototype.getClass(),
+            e);
       }
     }
 
-    throw new RuntimeException("Provide filter " + filter + " is unknown");
-  }
-
-  public SolrSampleField getNewFieldInstance(
-      Class<? extends SolrSampleField> prototype, String baseLabel, String encodedLabel)
-      throws NoSuchMethodException, IllegalAccessException, InvocationTargetException,
-          InstantiationException {
-    return prototype
-        .getConstructor(String.class, String.class)
-        .newInstance(baseLabel, encodedLabel);
-  }
-
-  public SolrSampleField getNewFieldInstance(
-      Class<? extends SolrSampleField> prototype, String baseLabel)
-      throws NoSuchMethodException, IllegalAccessException, InvocationTargetException,
-          InstantiationException {
-    return prototype.getConstructor(String.class).newInstance(baseLabel);
+    private SolrSampleField newInstance(String baseLabel) {
+      try {
+        return (SolrSampleField) labelConstructor.invokeExact(baseLabel);
+      } catch (RuntimeException | Error e) {
+        throw e;
+      } catch (Throwable e) {
+        throw new RuntimeException(
+            "An error occurred while instantiating creating a new instance of class "
+                + prototype.getClass(),
+            e);
+      }
+    }
   }
 }
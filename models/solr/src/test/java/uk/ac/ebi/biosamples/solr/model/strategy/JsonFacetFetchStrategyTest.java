@@ -0,0 +1,191 @@
+/*
+* Copyright 2019 EMBL - European Bioinformatics Institute
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+* file except in compliance with the License. You may obtain a copy of the License at
+* http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the
+* License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+* CONDITIONS OF ANY KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations under the License.
+*/
+package uk.ac.ebi.biosamples.solr.model.strategy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.time.Instant;
+import java.util.*;
+import java.util.stream.Collectors;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.solr.core.query.FacetQuery;
+import org.springframework.data.solr.core.query.SimpleFacetQuery;
+import org.springframework.data.solr.core.query.SimpleField;
+import org.springframework.data.solr.core.query.result.FacetFieldEntry;
+import org.springframework.data.solr.core.query.result.FacetPage;
+import org.springframework.data.solr.core.query.result.FacetQueryEntry;
+import org.springframework.data.solr.core.query.result.SimpleFacetFieldEntry;
+import org.springframework.data.solr.core.query.result.SimpleFacetQueryEntry;
+import uk.ac.ebi.biosamples.model.facet.Facet;
+import uk.ac.ebi.biosamples.solr.model.field.SolrSampleAttributeValueField;
+import uk.ac.ebi.biosamples.solr.model.field.SolrSampleDateField;
+import uk.ac.ebi.biosamples.solr.model.field.SolrSampleField;
+import uk.ac.ebi.biosamples.solr.repo.SolrSampleRepository;
+
+/**
+ * Feeds the same canned counts to both strategies, as a facet page for the regular strategy and as
+ * the "facets" section of a JSON Facet API response for this one, and checks that they build the
+ * same facets.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class JsonFacetFetchStrategyTest {
+
+  @Mock SolrSampleRepository solrSampleRepository;
+
+  private final FacetQuery query = new SimpleFacetQuery();
+  private final Pageable pageable = new PageRequest(0, 10);
+
+  private final SolrSampleField organism = new SolrSampleAttributeValueField("organism");
+  private final SolrSampleField tissue = new SolrSampleAttributeValueField("tissue");
+  // in the query, but no sample of the results has it
+  private final SolrSampleField sex = new SolrSampleAttributeValueField("sex");
+  private final SolrSampleField release = new SolrSampleDateField("release");
+
+  private List<Map.Entry<SolrSampleField, Long>> facetFields;
+  private List<Map.Entry<SolrSampleField, Long>> rangeFields;
+
+  @Before
+  public void setUp() {
+    facetFields =
+        Arrays.asList(
+            new AbstractMap.SimpleEntry<>(organism, 100L),
+            new AbstractMap.SimpleEntry<>(tissue, 50L),
+            new AbstractMap.SimpleEntry<>(sex, 10L));
+    rangeFields = Collections.singletonList(new AbstractMap.SimpleEntry<>(release, 100L));
+  }
+
+  @Test
+  public void builds_the_same_facets_as_the_regular_strategy() throws Exception {
+    Map<String, Long> organisms = new LinkedHashMap<>();
+    organisms.put("Homo sapiens", 60L);
+    organisms.put("Mus musculus", 30L);
+    Map<String, Long> tissues = new LinkedHashMap<>();
+    tissues.put("liver", 25L);
+    Map<Instant, Long> releases = new LinkedHashMap<>();
+    releases.put(Instant.parse("2018-01-01T00:00:00Z"), 40L);
+    releases.put(Instant.parse("2019-01-01T00:00:00Z"), 35L);
+
+    NamedList<Object> jsonFacets = new SimpleOrderedMap<>();
+    jsonFacets.add("count", 100L);
+    jsonFacets.add(organism.getSolrLabel(), jsonFacet(90, organisms));
+    jsonFacets.add(tissue.getSolrLabel(), jsonFacet(25, tissues));
+    jsonFacets.add(sex.getSolrLabel(), jsonFacet(0, Collections.emptyMap()));
+    Map<Date, Long> releaseDates = new LinkedHashMap<>();
+    releases.forEach((start, count) -> releaseDates.put(Date.from(start), count));
+    jsonFacets.add(release.getSolrLabel(), jsonFacet(75, releaseDates));
+    when(solrSampleRepository.getJsonFacets(
+            eq(query), any(List.class), any(List.class), eq(pageable)))
+        .thenReturn(jsonFacets);
+
+    FacetPage<?> facetPage = mock(FacetPage.class);
+    when(facetPage.getFacetQueryResult())
+        .thenReturn(
+            new PageImpl<FacetQueryEntry>(
+                Arrays.asList(
+                    new SimpleFacetQueryEntry(organism.getSolrLabel() + ":*", 90),
+                    new SimpleFacetQueryEntry(tissue.getSolrLabel() + ":*", 25),
+                    new SimpleFacetQueryEntry(sex.getSolrLabel() + ":*", 0),
+                    new SimpleFacetQueryEntry(release.getSolrLabel() + ":*", 75))));
+    when(facetPage.getFacetResultPage(anyString()))
+        .thenReturn(new PageImpl<>(Collections.emptyList()));
+    when(facetPage.getFacetResultPage(organism.getSolrLabel()))
+        .thenReturn(fieldEntries(organism, organisms));
+    when(facetPage.getFacetResultPage(tissue.getSolrLabel()))
+        .thenReturn(fieldEntries(tissue, tissues));
+    when(facetPage.getRangeFacetResultPage(anyString()))
+        .thenReturn(new PageImpl<>(Collections.emptyList()));
+    Map<String, Long> releaseLabels = new LinkedHashMap<>();
+    releases.forEach((start, count) -> releaseLabels.put(start.toString(), count));
+    when(facetPage.getRangeFacetResultPage(release.getSolrLabel()))
+        .thenReturn(fieldEntries(release, releaseLabels));
+    stubFacets(facetPage);
+
+    List<Optional<Facet>> regular =
+        new RegularFacetFetchStrategy()
+            .fetchFacetsUsing(solrSampleRepository, query, facetFields, rangeFields, pageable);
+    List<Optional<Facet>> json =
+        new JsonFacetFetchStrategy()
+            .fetchFacetsUsing(solrSampleRepository, query, facetFields, rangeFields, pageable);
+
+    assertEquals(3, regular.size());
+    ObjectMapper objectMapper = new ObjectMapper();
+    String expected = objectMapper.writeValueAsString(present(regular));
+    assertTrue(expected, expected.contains("Homo sapiens") && expected.contains("2018-01-01"));
+    assertEquals(expected, objectMapper.writeValueAsString(present(json)));
+  }
+
+  @Test
+  public void no_facets_without_a_response() {
+    when(solrSampleRepository.getJsonFacets(
+            eq(query), any(List.class), any(List.class), eq(pageable)))
+        .thenReturn(null);
+
+    assertEquals(
+        Collections.emptyList(),
+        new JsonFacetFetchStrategy()
+            .fetchFacetsUsing(solrSampleRepository, query, facetFields, rangeFields, pageable));
+  }
+
+  @SuppressWarnings("unchecked")
+  private void stubFacets(FacetPage<?> facetPage) {
+    when(solrSampleRepository.getFacets(eq(query), any(List.class), any(List.class), eq(pageable)))
+        .thenReturn((FacetPage) facetPage);
+  }
+
+  private static List<Facet> present(List<Optional<Facet>> facets) {
+    return facets.stream().map(Optional::get).collect(Collectors.toList());
+  }
+
+  private static NamedList<Object> jsonFacet(long count, Map<?, Long> buckets) {
+    List<NamedList<Object>> bucketList = new ArrayList<>();
+    for (Map.Entry<?, Long> entry : buckets.entrySet()) {
+      NamedList<Object> bucket = new SimpleOrderedMap<>();
+      bucket.add("val", entry.getKey());
+      bucket.add("count", entry.getValue());
+      bucketList.add(bucket);
+    }
+    NamedList<Object> values = new SimpleOrderedMap<>();
+    values.add("buckets", bucketList);
+    NamedList<Object> facet = new SimpleOrderedMap<>();
+    facet.add("count", count);
+    if (count > 0) {
+      facet.add("values", values);
+    }
+    return facet;
+  }
+
+  private static PageImpl<FacetFieldEntry> fieldEntries(
+      SolrSampleField field, Map<String, Long> counts) {
+    List<FacetFieldEntry> entries = new ArrayList<>();
+    for (Map.Entry<String, Long> entry : counts.entrySet()) {
+      entries.add(
+          new SimpleFacetFieldEntry(
+              new SimpleField(field.getSolrLabel()), entry.getKey(), entry.getValue()));
+    }
+    return new PageImpl<>(entries);
+  }
+}
@@ -0,0 +1,205 @@
+/*
+* Copyright 2019 EMBL - European Bioinformatics Institute
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+* file except in compliance with the License. You may obtain a copy of the License at
+* http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the
+* License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+* CONDITIONS OF ANY KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations under the License.
+*/
+package uk.ac.ebi.biosamples.solr.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.solr.core.query.FacetQuery;
+import org.springframework.data.solr.core.query.SimpleField;
+import org.springframework.data.solr.core.query.result.FacetFieldEntry;
+import org.springframework.data.solr.core.query.result.SimpleFacetFieldEntry;
+import uk.ac.ebi.biosamples.BioSamplesProperties;
+import uk.ac.ebi.biosamples.model.filter.Filter;
+import uk.ac.ebi.biosamples.service.FilterBuilder;
+import uk.ac.ebi.biosamples.solr.model.field.*;
+import uk.ac.ebi.biosamples.solr.repo.SolrSampleRepository;
+
+/**
+ * Counts the searches that reach solr, each of which asks for the facet fields of the search once,
+ * to tell which ones were served from the cache.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class SolrFacetServiceTest {
+
+  @Mock SolrSampleRepository solrSampleRepository;
+  @Mock SolrFilterService solrFilterService;
+  @Mock BioSamplesProperties bioSamplesProperties;
+
+  private final SolrFieldService solrFieldService =
+      new SolrFieldService(
+          Arrays.asList(
+              new SolrSampleAccessionField(),
+              new SolrSampleAttributeValueField(),
+              new SolrSampleDateField(),
+              new SolrSampleDomainField(),
+              new SolrSampleExternalReferenceDataField(),
+              new SolrSampleInverseRelationField(),
+              new SolrSampleNameField(),
+              new SolrSampleRelationField()));
+
+  private final Pageable facetFieldPage = new PageRequest(0, 10);
+  private final Pageable facetValuesPage = new PageRequest(0, 10);
+  private final Filter organism =
+      FilterBuilder.create().onAttribute("organism").withValue("Homo sapiens").build();
+  private final Filter tissue = FilterBuilder.create().onAttribute("tissue").build();
+
+  private SolrFacetService solrFacetService;
+
+  @Before
+  public void setUp() {
+    when(bioSamplesProperties.getBiosamplesCoreFacetCacheSize()).thenReturn(100);
+    when(bioSamplesProperties.getBiosamplesCoreFacetCacheTtl()).thenReturn(60);
+    when(bioSamplesProperties.getBiosamplesCoreFacetThreads()).thenReturn(2);
+    when(bioSamplesProperties.getBiosamplesCoreFacetTimeout()).thenReturn(10000L);
+    when(bioSamplesProperties.getBiosamplesCoreFacetStrategy()).thenReturn("json");
+    when(solrFilterService.getPublicFilterQuery(any())).thenReturn(Optional.empty());
+    when(solrFilterService.getFilterQuery(any())).thenReturn(Optional.empty());
+    when(solrSampleRepository.getFacetFields(any(FacetQuery.class), any(Pageable.class)))
+        .thenReturn(
+            new PageImpl<FacetFieldEntry>(
+                Collections.singletonList(
+                    new SimpleFacetFieldEntry(
+                        new SimpleField("facetfields"),
+                        new SolrSampleAttributeValueField("organism").getSolrLabel(),
+                        100))));
+    solrFacetService =
+        new SolrFacetService(
+            solrSampleRepository, solrFieldService, solrFilterService, bioSamplesProperties);
+  }
+
+  @After
+  public void tearDown() {
+    solrFacetService.shutdown();
+  }
+
+  @Test
+  public void same_search_written_differently_is_served_from_the_cache() {
+    getFacets("liver  cancer", Arrays.asList(organism, tissue), Arrays.asList("self.a", "self.b"));
+    getFacets(
+        " liver cancer ",
+        Arrays.asList(tissue, organism, tissue),
+        Arrays.asList("self.b", "self.a"));
+
+    verify(solrSampleRepository, times(1))
+        .getFacetFields(any(FacetQuery.class), any(Pageable.class));
+    assertEquals(1, solrFacetService.getFacetCacheSize());
+    assertEquals(1, solrFacetService.getFacetCacheStats().hitCount());
+  }
+
+  @Test
+  public void different_searches_are_cached_apart() {
+    getFacets("liver", Collections.emptyList(), Collections.emptyList());
+    getFacets("cancer", Collections.emptyList(), Collections.emptyList());
+    getFacets("liver", Collections.singletonList(organism), Collections.emptyList());
+    getFacets("liver", Collections.emptyList(), Collections.singletonList("self.a"));
+    solrFacetService.getFacets(
+        "liver",
+        Collections.emptyList(),
+        Collections.emptyList(),
+        new PageRequest(0, 20),
+        facetValuesPage);
+    solrFacetService.getFacets(
+        "liver",
+        Collections.emptyList(),
+        Collections.emptyList(),
+        facetFieldPage,
+        new PageRequest(1, 10));
+
+    verify(solrSampleRepository, times(6))
+        .getFacetFields(any(FacetQuery.class), any(Pageable.class));
+    assertEquals(0, solrFacetService.getFacetCacheStats().hitCount());
+  }
+
+  @Test
+  public void landing_page_is_not_cached_with_searches_for_everything() {
+    getFacets(null, Collections.emptyList(), Collections.emptyList());
+    getFacets(" ", Collections.emptyList(), Collections.emptyList());
+    // only the landing page uses the fixed facet fields
+    verify(solrSampleRepository, never())
+        .getFacetFields(any(FacetQuery.class), any(Pageable.class));
+
+    getFacets("*:*", Collections.emptyList(), Collections.emptyList());
+
+    verify(solrSampleRepository, times(1))
+        .getFacetFields(any(FacetQuery.class), any(Pageable.class));
+    assertEquals(2, solrFacetService.getFacetCacheSize());
+  }
+
+  @Test
+  public void invalidation_drops_cached_facets() {
+    getFacets("liver", Collections.emptyList(), Collections.emptyList());
+    solrFacetService.invalidateFacetCache();
+    getFacets("liver", Collections.emptyList(), Collections.emptyList());
+
+    verify(solrSampleRepository, times(2))
+        .getFacetFields(any(FacetQuery.class), any(Pageable.class));
+  }
+
+  @Test
+  public void facets_fetched_across_an_invalidation_are_not_cached() {
+    // the index changes while the facets are being fetched, so they may already be stale
+    when(solrSampleRepository.getJsonFacets(
+            any(FacetQuery.class), any(List.class), any(List.class), any(Pageable.class)))
+        .thenAnswer(
+            invocation -> {
+              solrFacetService.invalidateFacetCache();
+              return null;
+            })
+        .thenReturn(null);
+
+    getFacets("liver", Collections.emptyList(), Collections.emptyList());
+    assertEquals(0, solrFacetService.getFacetCacheSize());
+    getFacets("liver", Collections.emptyList(), Collections.emptyList());
+    getFacets("liver", Collections.emptyList(), Collections.emptyList());
+
+    verify(solrSampleRepository, times(2))
+        .getFacetFields(any(FacetQuery.class), any(Pageable.class));
+  }
+
+  @Test
+  public void incomplete_facets_are_not_cached() {
+    when(solrSampleRepository.getJsonFacets(
+            any(FacetQuery.class), any(List.class), any(List.class), any(Pageable.class)))
+        .thenThrow(new IllegalStateException("unavailable"))
+        .thenReturn(null);
+
+    getFacets("liver", Collections.emptyList(), Collections.emptyList());
+    assertEquals(0, solrFacetService.getFacetCacheSize());
+    getFacets("liver", Collections.emptyList(), Collections.emptyList());
+    getFacets("liver", Collections.emptyList(), Collections.emptyList());
+
+    verify(solrSampleRepository, times(2))
+        .getFacetFields(any(FacetQuery.class), any(Pageable.class));
+  }
+
+  private void getFacets(String searchTerm, Collection<Filter> filters, List<String> domains) {
+    solrFacetService.getFacets(searchTerm, filters, domains, facetFieldPage, facetValuesPage);
+  }
+}
@@ -0,0 +1,115 @@
+/*
+* Copyright 2019 EMBL - European Bioinformatics Institute
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+* file except in compliance with the License. You may obtain a copy of the License at
+* http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the
+* License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+* CONDITIONS OF ANY KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations under the License.
+*/
+package uk.ac.ebi.biosamples.solr.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import com.google.common.io.BaseEncoding;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+
+/** Checks the codec against the Guava base32 encoding that solr field names were made with. */
+public class SolrFieldNameCodecTest {
+
+  private static final List<String> FIELDS =
+      Arrays.asList(
+          // every length modulo 5, so every amount of padding
+          "",
+          "a",
+          "ab",
+          "abc",
+          "abcd",
+          "abcde",
+          "abcdef",
+          "description",
+          "organism part",
+          "INSDC first public",
+          "Submitter Id_(ENA)",
+          // multi-byte UTF-8, including characters outside the basic multilingual plane
+          "température",
+          "Größe",
+          "生物种类",
+          "sample 🧬 type",
+          // long enough to outgrow the per-thread buffers
+          String.join(" ", Collections.nCopies(100, "long attribute")));
+
+  @Test
+  public void encoding_is_the_same_as_guava() {
+    for (String field : FIELDS) {
+      assertEquals(field, guavaEncode(field), SolrFieldNameCodec.encodeUncached(field));
+      assertEquals(field, guavaEncode(field), SolrFieldNameCodec.encode(field));
+    }
+  }
+
+  @Test
+  public void decoding_is_the_same_as_guava() {
+    for (String field : FIELDS) {
+      String encoded = guavaEncode(field);
+      assertEquals(field, guavaDecode(encoded), SolrFieldNameCodec.decodeUncached(encoded));
+      assertEquals(field, guavaDecode(encoded), SolrFieldNameCodec.decode(encoded));
+    }
+  }
+
+  @Test
+  public void fields_survive_a_round_trip() {
+    for (String field : FIELDS) {
+      assertEquals(field, SolrFieldNameCodec.decode(SolrFieldNameCodec.encode(field)));
+    }
+    assertEquals("description", SolrFieldNameCodec.decode("MRSXGY3SNFYHI2LPNY______"));
+  }
+
+  @Test
+  public void invalid_fields_are_refused_as_guava_does() {
+    for (String encoded :
+        Arrays.asList(
+            // not in the upper case alphabet
+            "mzxw6___",
+            "MZXW1___",
+            "MZX!6___",
+            "MZXWÉ___",
+            // ending where no group of 8 characters can end
+            "M",
+            "MZX",
+            "MZXW6Y",
+            "M_______",
+            "MZXW6Y__")) {
+      assertRefused(encoded);
+    }
+  }
+
+  private static void assertRefused(String encoded) {
+    try {
+      guavaDecode(encoded);
+      fail("Guava decoded " + encoded);
+    } catch (IllegalArgumentException expected) {
+    }
+    try {
+      SolrFieldNameCodec.decode(encoded);
+      fail("Decoded " + encoded);
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  private static String guavaEncode(String field) {
+    return BaseEncoding.base32()
+        .encode(field.getBytes(StandardCharsets.UTF_8))
+        .replaceAll("=", "_");
+  }
+
+  private static String guavaDecode(String encodedField) {
+    return new String(
+        BaseEncoding.base32().decode(encodedField.replaceAll("_", "=")), StandardCharsets.UTF_8);
+  }
+}
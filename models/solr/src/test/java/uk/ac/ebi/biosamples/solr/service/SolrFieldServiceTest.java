@@ -0,0 +1,158 @@
+/*
+* Copyright 2019 EMBL - European Bioinformatics Institute
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+* file except in compliance with the License. You may obtain a copy of the License at
+* http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the
+* License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+* CONDITIONS OF ANY KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations under the License.
+*/
+package uk.ac.ebi.biosamples.solr.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import org.junit.Test;
+import uk.ac.ebi.biosamples.model.filter.Filter;
+import uk.ac.ebi.biosamples.service.FilterBuilder;
+import uk.ac.ebi.biosamples.solr.model.field.*;
+
+/**
+ * Checks the fields from the cache and constructor handles against fields created by reflection,
+ * the way they were created before they were cached.
+ */
+public class SolrFieldServiceTest {
+
+  // in the order spring injects them
+  private final List<SolrSampleField> prototypes =
+      Arrays.asList(
+          new SolrSampleAccessionField(),
+          new SolrSampleAttributeValueField(),
+          new SolrSampleDateField(),
+          new SolrSampleDomainField(),
+          new SolrSampleExternalReferenceDataField(),
+          new SolrSampleInverseRelationField(),
+          new SolrSampleNameField(),
+          new SolrSampleRelationField());
+  private final SolrFieldService solrFieldService = new SolrFieldService(prototypes);
+
+  private final List<SolrSampleField> fields =
+      Arrays.asList(
+          new SolrSampleAccessionField("id", "id"),
+          new SolrSampleAttributeValueField("organism"),
+          new SolrSampleAttributeValueField("description"),
+          new SolrSampleAttributeValueField("température de l'échantillon"),
+          new SolrSampleDateField("release"),
+          new SolrSampleDateField("update"),
+          new SolrSampleDomainField("domain"),
+          new SolrSampleExternalReferenceDataField("ENA"),
+          new SolrSampleInverseRelationField("derived from"),
+          new SolrSampleNameField("name"),
+          new SolrSampleRelationField("has member"));
+
+  private final List<Filter> filters =
+      Arrays.asList(
+          FilterBuilder.create().onAttribute("organism").withValue("Homo sapiens").build(),
+          FilterBuilder.create().onAttribute("température").build(),
+          FilterBuilder.create().onRelation("derived from").withValue("SAMEA1").build(),
+          FilterBuilder.create().onInverseRelation("derived from").build(),
+          FilterBuilder.create()
+              .onReleaseDate()
+              .from(Instant.parse("2018-01-01T00:00:00Z"))
+              .build(),
+          FilterBuilder.create().onDomain("self.test").build(),
+          FilterBuilder.create().onName("test").build(),
+          FilterBuilder.create().onAccession("SAMEA1").build(),
+          FilterBuilder.create().onDataFromExternalReference("ENA").build());
+
+  @Test
+  public void decoded_fields_are_the_same_as_before() throws Exception {
+    for (SolrSampleField field : fields) {
+      String encoded = field.getSolrLabel();
+      SolrSampleField expected = decodeByReflection(encoded);
+      SolrSampleField decoded = solrFieldService.decodeField(encoded);
+
+      assertSame(encoded, expected.getClass(), decoded.getClass());
+      assertEquals(encoded, expected.getReadableLabel(), decoded.getReadableLabel());
+      assertEquals(encoded, expected.getSolrLabel(), decoded.getSolrLabel());
+    }
+  }
+
+  @Test
+  public void compatible_fields_are_the_same_as_before() throws Exception {
+    for (Filter filter : filters) {
+      SolrSampleField expected = compatibleByReflection(filter);
+      SolrSampleField compatible = solrFieldService.getCompatibleField(filter);
+
+      assertSame(filter.toString(), expected.getClass(), compatible.getClass());
+      assertEquals(filter.toString(), expected.getReadableLabel(), compatible.getReadableLabel());
+      assertEquals(filter.toString(), expected.getSolrLabel(), compatible.getSolrLabel());
+    }
+  }
+
+  @Test
+  public void decoded_fields_are_reused() {
+    String encoded = new SolrSampleAttributeValueField("organism").getSolrLabel();
+
+    assertSame(solrFieldService.decodeField(encoded), solrFieldService.decodeField(encoded));
+    assertNotSame(solrFieldService.decodeField(encoded), solrFieldService.decodeField("name_s"));
+  }
+
+  @Test
+  public void compatible_fields_are_reused_for_filters_of_the_same_type_and_label() {
+    SolrSampleField field =
+        solrFieldService.getCompatibleField(
+            FilterBuilder.create().onAttribute("organism").withValue("Homo sapiens").build());
+
+    assertSame(
+        field,
+        solrFieldService.getCompatibleField(
+            FilterBuilder.create().onAttribute("organism").withValue("Mus musculus").build()));
+    assertNotSame(
+        field,
+        solrFieldService.getCompatibleField(
+            FilterBuilder.create().onAttribute("sex").withValue("female").build()));
+    assertNotSame(
+        field,
+        solrFieldService.getCompatibleField(
+            FilterBuilder.create().onRelation("organism").withValue("SAMEA1").build()));
+  }
+
+  @Test(expected = RuntimeException.class)
+  public void unknown_field_is_refused() {
+    solrFieldService.decodeField("unknown_field_xyz");
+  }
+
+  private SolrSampleField decodeByReflection(String encodedField) throws Exception {
+    for (SolrSampleField prototype : prototypes) {
+      if (prototype.matches(encodedField)) {
+        Matcher m = prototype.getSolrFieldPattern().matcher(encodedField);
+        m.find();
+        String baseLabel = m.group("fieldname");
+        if (prototype.isEncodedField()) {
+          baseLabel = SolrFieldService.decodeFieldName(baseLabel);
+        }
+        return prototype
+            .getClass()
+            .getConstructor(String.class, String.class)
+            .newInstance(baseLabel, encodedField);
+      }
+    }
+    throw new IllegalArgumentException(encodedField);
+  }
+
+  private SolrSampleField compatibleByReflection(Filter filter) throws Exception {
+    for (SolrSampleField prototype : prototypes) {
+      if (prototype.isCompatibleWith(filter)) {
+        return prototype.getClass().getConstructor(String.class).newInstance(filter.getLabel());
+      }
+    }
+    throw new IllegalArgumentException(filter.toString());
+  }
+}
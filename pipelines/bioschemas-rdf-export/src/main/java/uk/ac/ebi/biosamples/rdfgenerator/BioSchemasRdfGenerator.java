@@ -1,91 +1,87 @@
 package uk.ac.ebi.biosamples.rdfgenerator;
 
-import org.apache.commons.io.FileUtils;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.eclipse.rdf4j.model.Statement;
 import org.eclipse.rdf4j.rio.RDFFormat;
 import org.eclipse.rdf4j.rio.RDFHandlerException;
 import org.eclipse.rdf4j.rio.RDFParser;
 import org.eclipse.rdf4j.rio.Rio;
 import org.eclipse.rdf4j.rio.helpers.StatementCollector;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import uk.ac.ebi.biosamples.model.JsonLDDataRecord;
+import uk.ac.ebi.biosamples.model.JsonLDSample;
+import uk.ac.ebi.biosamples.model.Sample;
+import uk.ac.ebi.biosamples.service.SampleReadService;
+import uk.ac.ebi.biosamples.service.SampleToJsonLDSampleRecordConverter;
 
 import java.io.ByteArrayInputStream;
-import java.io.File;
 import java.io.InputStream;
 import java.io.StringWriter;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.nio.charset.StandardCharsets;
 import java.util.Collection;
-import java.util.Scanner;
+import java.util.List;
+import java.util.Optional;
 import java.util.concurrent.Callable;
 
-public class BioSchemasRdfGenerator implements Callable<Void> {
-    private Logger log = LoggerFactory.getLogger(getClass());
-    private static File file;
-    private static long sampleCount = 0;
-    private final URL url;
-
-    public static void setFilePath(String filePath) {
-        file = new File(filePath);
-    }
-
-    BioSchemasRdfGenerator(final URL url) {
-        log.info("HANDLING " + url.toString() + " and the current sample count is: " + ++sampleCount);
-
-        this.url = url;
+/**
+ * Fetches a batch of samples and converts them to Turtle, the same way as their ld+json pages would be. The prefixes
+ * are used but not written, as they are written once at the top of the file by {@link
+ * BioSchemasRdfWriter}.
+ */
+public class BioSchemasRdfGenerator implements Callable<String> {
+    private static final String BIOSAMPLES_BASE_URI = "https://www.ebi.ac.uk/biosamples/samples/";
+    private static final SampleToJsonLDSampleRecordConverter jsonLDSampleConverter =
+            new SampleToJsonLDSampleRecordConverter();
+    private final List<String> accessions;
+    private final SampleReadService sampleReadService;
+    private final ObjectMapper objectMapper;
+
+    BioSchemasRdfGenerator(final List<String> accessions, final SampleReadService sampleReadService,
+                           final ObjectMapper objectMapper) {
+        this.accessions = accessions;
+        this.sampleReadService = sampleReadService;
+        this.objectMapper = objectMapper;
     }
 
     @Override
-    public Void call() throws Exception {
-        requestHTTPAndHandle(this.url);
-
-        return null;
-    }
-
-    private static void requestHTTPAndHandle(final URL url) throws Exception {
-        final HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        int response;
-
-        try {
-            conn.setRequestMethod("GET");
-            conn.connect();
-            response = conn.getResponseCode();
+    public String call() throws Exception {
+        final StringBuilder sb = new StringBuilder();
 
-            if (response == 200) {
-                handleSuccessResponses(url);
+        for (final Sample sample : sampleReadService.fetchAll(accessions, Optional.empty())) {
+            try (InputStream in = new ByteArrayInputStream(objectMapper.writeValueAsBytes(sampleToJsonLD(sample)))) {
+                sb.append(readRdfToString(in));
             }
-        } catch (final Exception e) {
-            throw new RuntimeException(e);
-        } finally {
-            conn.disconnect();
         }
+
+        return sb.toString();
     }
 
-    private static void handleSuccessResponses(final URL url) {
-        try (Scanner sc = new Scanner(url.openStream())) {
-            final StringBuilder sb = new StringBuilder();
+    // as the ld+json page of the sample, which links to the sample itself
+    private static JsonLDDataRecord sampleToJsonLD(final Sample sample) {
+        final JsonLDDataRecord jsonLDDataRecord = jsonLDSampleConverter.convert(sample);
+        final JsonLDSample jsonLDSample = jsonLDDataRecord.getMainEntity();
+        final String sampleUrl = BIOSAMPLES_BASE_URI + sample.getAccession();
 
-            while (sc.hasNext()) {
-                sb.append(sc.nextLine());
-            }
+        jsonLDSample.setUrl(sampleUrl);
+        jsonLDSample.setId(sampleUrl);
 
-            try (InputStream in = new ByteArrayInputStream(sb.toString().getBytes(StandardCharsets.UTF_8))) {
-                String dataAsRdf = readRdfToString(in);
+        return jsonLDDataRecord.mainEntity(jsonLDSample);
+    }
 
-                write(dataAsRdf);
-            } catch (final Exception e) {
-                throw new RuntimeException(e);
-            }
-        } catch (final Exception e) {
+    /**
+     * @return the prefixes used by every sample, to write once at the top of the file
+     */
+    static String getPrefixes() {
+        final StringWriter out = new StringWriter();
+        final TurtleWriterCustom writer = new TurtleWriterCustom(out);
+
+        try {
+            writer.startRDF();
+            handleNamespaces(writer);
+            writer.endRDF();
+        } catch (final RDFHandlerException e) {
             throw new RuntimeException(e);
         }
-    }
 
-    @SuppressWarnings(value = "deprecation")
-    private static void write(final String sampleData) throws Exception {
-        FileUtils.writeStringToFile(file, sampleData, true);
+        return out.getBuffer().toString();
     }
 
     /**
@@ -129,7 +125,7 @@ public class BioSchemasRdfGenerator implements Callable<Void> {
 
     private static String modifyIdentifier(String rdfString) {
         if (rdfString != null)
-            rdfString = rdfString.replaceAll("biosample:", "");
+            rdfString = rdfString.replace("biosample:", "");
 
         return rdfString;
     }
@@ -137,7 +133,7 @@ public class BioSchemasRdfGenerator implements Callable<Void> {
     private static String writeRdfInTurtleFormat(Collection<Statement> myGraph, StringWriter out, TurtleWriterCustom writer) {
         try {
             writer.startRDF();
-            handleNamespaces(writer);
+            useNamespaces(writer);
 
             for (Statement st : myGraph) {
                 writer.handleStatement(st);
@@ -159,5 +155,11 @@ public class BioSchemasRdfGenerator implements Callable<Void> {
         writer.handleNamespace("ebi-bsd", "https://www.ebi.ac.uk/biosamples/");
         writer.handleNamespace("biosamples", "http://identifiers.org/biosample/");
     }
-}
 
+    private static void useNamespaces(final TurtleWriterCustom writer) {
+        writer.useNamespace("schema", "http://schema.org/");
+        writer.useNamespace("obo", "http://purl.obolibrary.org/obo/");
+        writer.useNamespace("ebi-bsd", "https://www.ebi.ac.uk/biosamples/");
+        writer.useNamespace("biosamples", "http://identifiers.org/biosample/");
+    }
+}
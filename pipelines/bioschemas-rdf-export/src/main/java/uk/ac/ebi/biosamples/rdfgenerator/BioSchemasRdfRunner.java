@@ -1,5 +1,6 @@
 package uk.ac.ebi.biosamples.rdfgenerator;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.mongodb.*;
 import com.mongodb.operation.OrderBy;
 import org.slf4j.Logger;
@@ -8,25 +9,47 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.ApplicationArguments;
 import org.springframework.boot.ApplicationRunner;
 import org.springframework.stereotype.Component;
+import uk.ac.ebi.biosamples.PipelinesProperties;
+import uk.ac.ebi.biosamples.service.SampleReadService;
 import uk.ac.ebi.biosamples.utils.AdaptiveThreadPoolExecutor;
 import uk.ac.ebi.biosamples.utils.MailSender;
 
-import java.net.MalformedURLException;
-import java.net.URL;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Exports all released samples as Turtle to --filePath, compressed with --gzip.
+ *
+ * <p>Accessions are streamed from mongo in release order and handed out in batches of --batchSize
+ * (default 100), which are fetched with their curations and converted to Turtle in parallel. A
+ * single {@link BioSchemasRdfWriter} writes the converted batches in order. The queue between them
+ * is bounded, so conversion waits when the writer falls behind.
+ */
 @Component
 public class BioSchemasRdfRunner implements ApplicationRunner {
     private Logger log = LoggerFactory.getLogger(getClass());
-    private static final String LDJSON = ".ldjson";
-    private static final String BIOSAMPLES_BASE_URI = "https://www.ebi.ac.uk/biosamples/samples/";
     private static final String BIOSAMPLES = "biosamples";
     private static final String MONGO_SAMPLE = "mongoSample";
+    private final SampleReadService sampleReadService;
+    private final ObjectMapper objectMapper;
+    private final PipelinesProperties pipelinesProperties;
     @Value("${spring.data.mongodb.uri}")
     private String mongoUri;
 
+    public BioSchemasRdfRunner(final SampleReadService sampleReadService, final ObjectMapper objectMapper,
+                               final PipelinesProperties pipelinesProperties) {
+        this.sampleReadService = sampleReadService;
+        this.objectMapper = objectMapper;
+        this.pipelinesProperties = pipelinesProperties;
+    }
+
     @SuppressWarnings("deprecation")
 	@Override
     public void run(ApplicationArguments args) {
@@ -34,48 +57,62 @@ public class BioSchemasRdfRunner implements ApplicationRunner {
         final MongoClient mongoClient = new MongoClient(uri);
         final DB db = mongoClient.getDB(BIOSAMPLES);
         final DBCollection coll = db.getCollection(MONGO_SAMPLE);
+        final String filePath = args.getOptionNames().contains("filePath")
+                ? args.getOptionValues("filePath").get(0) : "biosamples.ttl";
+        final boolean gzip = args.containsOption("gzip");
+        final int batchSize = args.containsOption("batchSize")
+                ? Integer.parseInt(args.getOptionValues("batchSize").get(0)) : 100;
+        final int threadCount = pipelinesProperties.getThreadCount();
+        final BlockingQueue<Future<String>> queue = new ArrayBlockingQueue<>(Math.max(1, threadCount) * 4);
+        final ExecutorService writerService = Executors.newSingleThreadExecutor();
+        final long startTime = System.nanoTime();
         boolean isPassed = true;
+        long sampleCount = 0;
 
-        if(args.getOptionNames().contains("filePath")) {
-            String filePath = args.getOptionValues("filePath").stream().findFirst().get();
-            BioSchemasRdfGenerator.setFilePath(filePath);
-        }
+        try (final AdaptiveThreadPoolExecutor executorService = AdaptiveThreadPoolExecutor.create(100, 10000, true,
+                threadCount, pipelinesProperties.getThreadCountMax())) {
+            final Future<Long> writer = writerService.submit(new BioSchemasRdfWriter(filePath, gzip, queue));
+            final DBObject query = QueryBuilder.start().put("release").lessThanEquals(new Date()).get();
 
-        final List<String> listOfAccessions = getAllDocuments(coll);
-        log.info("Total number of samples to be dumped is : " + listOfAccessions.size());
-        mongoClient.close();
+            try (final DBCursor cursor = coll.find(query, new BasicDBObject("_id", 1))
+                    .sort(new BasicDBObject("release", OrderBy.ASC.getIntRepresentation()))) {
+                List<String> accessions = new ArrayList<>(batchSize);
 
-        try (final AdaptiveThreadPoolExecutor executorService = AdaptiveThreadPoolExecutor.create(100, 10000, true,
-                1, 10)) {
-            listOfAccessions.forEach(accession -> {
-                try {
-                    final URL url = fetchUrlFromAccession(accession);
+                while (cursor.hasNext()) {
+                    accessions.add(cursor.next().get("_id").toString());
+
+                    if (accessions.size() >= batchSize || !cursor.hasNext()) {
+                        final List<String> batch = accessions;
 
-                    executorService.submit(new BioSchemasRdfGenerator(url));
-                } catch (final Exception e) {
-                    throw new RuntimeException(e);
+                        put(queue, executorService.submit(
+                                new BioSchemasRdfGenerator(batch, sampleReadService, objectMapper)), writer);
+                        sampleCount += batch.size();
+                        accessions = new ArrayList<>(batchSize);
+                    }
                 }
-            });
+            }
+
+            put(queue, BioSchemasRdfWriter.END, writer);
+            log.info("Written " + writer.get() + " batches of samples to " + filePath);
         } catch (final Exception e) {
             log.error("Something has broken", e);
-            log.error(e.getMessage());
             isPassed = false;
         } finally {
+            writerService.shutdownNow();
+            mongoClient.close();
             MailSender.sendEmail("RDF exporter", null, isPassed);
+            log.info("Exported " + sampleCount + " samples in " + ((System.nanoTime() - startTime) / 1000000000L) + "s");
         }
     }
 
-    private URL fetchUrlFromAccession(final String accession) throws MalformedURLException {
-        return new URL(BIOSAMPLES_BASE_URI + accession + LDJSON);
-    }
-
-    private static List<String> getAllDocuments(final DBCollection col) {
-        final List<String> listOfAccessions = new ArrayList<>();
-        final DBObject query = QueryBuilder.start().put("release").lessThanEquals(new Date()).get();
-        final DBCursor cursor = col.find(query).sort(new BasicDBObject("release", OrderBy.ASC.getIntRepresentation()));
-
-        cursor.forEach(elem -> listOfAccessions.add(elem.get("_id").toString()));
-
-        return listOfAccessions;
+    // waits for space on the queue, unless the writer has stopped and will never make any
+    private static void put(final BlockingQueue<Future<String>> queue, final Future<String> batch,
+                            final Future<Long> writer) throws Exception {
+        while (!queue.offer(batch, 1, TimeUnit.SECONDS)) {
+            if (writer.isDone()) {
+                writer.get();
+                throw new IllegalStateException("RDF writer stopped before the end of the samples");
+            }
+        }
     }
 }
@@ -0,0 +1,66 @@
+package uk.ac.ebi.biosamples.rdfgenerator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The only writer of the output file. It takes the Turtle of each batch from the queue in the order
+ * the batches were submitted, waiting for each to be converted, and streams it to the file after
+ * the shared prefixes, until it takes {@link #END}.
+ */
+public class BioSchemasRdfWriter implements Callable<Long> {
+    /**
+     * Put on the queue once every batch has been put on it.
+     */
+    static final Future<String> END = CompletableFuture.completedFuture(null);
+
+    private Logger log = LoggerFactory.getLogger(getClass());
+    private final String filePath;
+    private final boolean gzip;
+    private final BlockingQueue<Future<String>> queue;
+
+    BioSchemasRdfWriter(final String filePath, final boolean gzip, final BlockingQueue<Future<String>> queue) {
+        this.filePath = filePath;
+        this.gzip = gzip;
+        this.queue = queue;
+    }
+
+    @Override
+    public Long call() throws Exception {
+        long batchCount = 0;
+        OutputStream out = new FileOutputStream(filePath);
+
+        if (gzip) {
+            out = new GZIPOutputStream(out, 65536);
+        }
+
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 65536)) {
+            writer.write(BioSchemasRdfGenerator.getPrefixes());
+
+            Future<String> batch;
+
+            while ((batch = queue.take()) != END) {
+                writer.write(batch.get());
+                batchCount++;
+
+                if (batchCount % 100 == 0) {
+                    log.info("Written " + batchCount + " batches to " + filePath);
+                }
+            }
+        }
+
+        return batchCount;
+    }
+}
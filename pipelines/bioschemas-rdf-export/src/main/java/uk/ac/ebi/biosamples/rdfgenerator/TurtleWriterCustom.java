@@ -18,4 +18,11 @@ public class TurtleWriterCustom extends TurtleWriter {
     public void writeNameSpace(String prefix, String name) throws IOException {
         super.writeNamespace(prefix, name);
     }
+
+    /**
+     * Shorten the IRIs of a namespace with its prefix, without writing the prefix declaration.
+     */
+    public void useNamespace(String prefix, String name) {
+        namespaceTable.put(name, prefix);
+    }
 }
@@ -12,13 +12,12 @@ package uk.ac.ebi.biosamples.curatedview;
 
 import java.time.Duration;
 import java.time.Instant;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.Future;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.boot.ApplicationArguments;
@@ -32,13 +31,19 @@ import uk.ac.ebi.biosamples.client.BioSamplesClient;
 import uk.ac.ebi.biosamples.mongo.model.MongoSample;
 import uk.ac.ebi.biosamples.mongo.repo.MongoSampleRepository;
 import uk.ac.ebi.biosamples.mongo.service.SampleToMongoSampleConverter;
-import uk.ac.ebi.biosamples.utils.AdaptiveThreadPoolExecutor;
+import uk.ac.ebi.biosamples.utils.CloseableExecutorService;
+import uk.ac.ebi.biosamples.utils.ExecutorFactory;
 import uk.ac.ebi.biosamples.utils.MailSender;
-import uk.ac.ebi.biosamples.utils.ThreadUtils;
+import uk.ac.ebi.biosamples.utils.RetryingCompletionService;
 
 @Component
 public class CuratedViewApplicationRunner implements ApplicationRunner {
   private static final Logger LOG = LoggerFactory.getLogger(CuratedViewApplicationRunner.class);
+  // samples being copied or waiting to be, beyond this the runner waits for some to finish
+  private static final int MAX_PENDING = 10000;
+  private static final int MAX_RETRIES = 3;
+  // in milliseconds, doubled for each further retry of a sample
+  private static final long RETRY_BACKOFF = 1000;
 
   private final BioSamplesClient bioSamplesClient;
   private final PipelinesProperties pipelinesProperties;
@@ -61,19 +66,20 @@ public class CuratedViewApplicationRunner implements ApplicationRunner {
 
   @Override
   public void run(ApplicationArguments args) throws Exception {
-    Map<String, Future<Void>> futures = new HashMap<>();
     Instant startTime = Instant.now();
     LOG.info("Pipeline started at {}", startTime);
     long sampleCount = 0;
     boolean isPassed = true;
+    Map<String, Throwable> deadLetters = Collections.emptyMap();
 
-    try (AdaptiveThreadPoolExecutor executorService =
-        AdaptiveThreadPoolExecutor.create(
-            100,
-            10000,
-            true,
-            pipelinesProperties.getThreadCount(),
-            pipelinesProperties.getThreadCountMax())) {
+    try (CloseableExecutorService executorService =
+            ExecutorFactory.create(
+                pipelinesProperties.getExecutor(),
+                pipelinesProperties.getThreadCount(),
+                pipelinesProperties.getThreadCountMax(),
+                pipelinesProperties.getConcurrencyMax());
+        RetryingCompletionService<String, Void> completionService =
+            new RetryingCompletionService<>(executorService, MAX_RETRIES, RETRY_BACKOFF, v -> {})) {
 
       try (CloseableIterator<MongoSample> it =
           mongoOperations.stream(new Query(), MongoSample.class)) {
@@ -85,14 +91,16 @@ public class CuratedViewApplicationRunner implements ApplicationRunner {
           Callable<Void> task =
               new CuratedViewCallable(
                   accession, repository, sampleToMongoSampleConverter, bioSamplesClient);
-          futures.put(accession, executorService.submit(task));
+          completionService.submit(accession, task);
+          completionService.drain(MAX_PENDING);
 
           if (++sampleCount % 5000 == 0) {
             LOG.info("Scheduled {} samples for processing", sampleCount);
           }
         }
         LOG.info("Waiting for all scheduled tasks to finish");
-        ThreadUtils.checkFutures(futures, 0);
+        completionService.drain(0);
+        deadLetters = completionService.getDeadLetters();
       }
 
     } catch (final Exception e) {
@@ -106,8 +114,8 @@ public class CuratedViewApplicationRunner implements ApplicationRunner {
       throw e;
     } finally {
       final ConcurrentLinkedQueue<String> failureQueue = CuratedViewCallable.failedQueue;
-      if (failureQueue.size() > 0) {
-        final List<String> fails = new LinkedList<>();
+      if (failureQueue.size() > 0 || !deadLetters.isEmpty()) {
+        final List<String> fails = new LinkedList<>(deadLetters.keySet());
 
         while (failureQueue.peek() != null) {
           fails.add(failureQueue.poll());
@@ -12,18 +12,12 @@ package uk.ac.ebi.biosamples.ebeye.base;
 
 import com.mongodb.*;
 import com.mongodb.operation.OrderBy;
-import java.io.File;
-import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.time.LocalDate;
 import java.time.ZoneId;
-import java.time.format.DateTimeFormatter;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicReference;
-import java.util.stream.Collectors;
-import javax.xml.bind.JAXBContext;
-import javax.xml.bind.JAXBException;
-import javax.xml.bind.Marshaller;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -32,11 +26,19 @@ import org.springframework.boot.ApplicationArguments;
 import org.springframework.boot.ApplicationRunner;
 import org.springframework.hateoas.Resource;
 import org.springframework.stereotype.Component;
+import uk.ac.ebi.biosamples.PipelinesProperties;
 import uk.ac.ebi.biosamples.client.BioSamplesClient;
 import uk.ac.ebi.biosamples.ebeye.gen.*;
 import uk.ac.ebi.biosamples.ebeye.util.LoadAttributeSet;
 import uk.ac.ebi.biosamples.model.Sample;
-
+import uk.ac.ebi.biosamples.utils.AdaptiveThreadPoolExecutor;
+
+/**
+ * Dumps the samples released since --startDate into EB-eye XML files. Samples are read from mongo
+ * in release order and fetched from the API in parallel batches of --batchSize (default 1000), and
+ * each entry is written as soon as its batch is fetched. A new file is started once a file is over
+ * --maxFileSize megabytes (default 1000).
+ */
 @Component
 public class EbEyeBioSamplesDataDumpRunner implements ApplicationRunner {
   private static Logger log = LoggerFactory.getLogger(EbEyeBioSamplesDataDumpRunner.class);
@@ -44,9 +46,9 @@ public class EbEyeBioSamplesDataDumpRunner implements ApplicationRunner {
   private static final String MONGO_SAMPLE = "mongoSample";
   private static final String ENA_LC = "ena";
   private static final String ENA_UC = "ENA";
-  private final RefType taxonomyRefType = new RefType();
   @Autowired BioSamplesClient bioSamplesClient;
   @Autowired LoadAttributeSet loadAttributeSet;
+  @Autowired PipelinesProperties pipelinesProperties;
 
   @Value("${spring.data.mongodb.uri}")
   private String mongoUri;
@@ -56,133 +58,112 @@ public class EbEyeBioSamplesDataDumpRunner implements ApplicationRunner {
   @Override
   public void run(ApplicationArguments args) throws Exception {
     final SimpleDateFormat formatter = new SimpleDateFormat("yyyy-MM-dd", Locale.ENGLISH);
-    final DateTimeFormatter dtFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
     final MongoClientURI uri = new MongoClientURI(mongoUri);
     final MongoClient mongoClient = new MongoClient(uri);
     final DB db = mongoClient.getDB(BIOSAMPLES);
     final DBCollection coll = db.getCollection(MONGO_SAMPLE);
-    final AtomicReference<String> startDate = new AtomicReference<>("");
     final String filePath = "";
 
     attributeSet = loadAttributeSet.getAllAttributes();
 
-    final List<String> programArguments =
-        args.getOptionNames().stream()
-            .filter(optionName -> optionName.equals("startDate"))
-            .collect(Collectors.toList());
-
-    programArguments.forEach(
-        programArgument -> {
-          if (programArgument.equals("startDate"))
-            startDate.set(args.getOptionValues("startDate").get(0));
-        });
-
-    Date startDateFormatted = formatter.parse(String.valueOf(startDate));
-
-    int fileCounter = 1;
-    LocalDate startLocalDate = convertToLocalDateViaInstant(startDateFormatted);
-    LocalDate endLocalDate = startLocalDate.plusMonths(1).minusDays(1);
-
-    while (endLocalDate.isBefore(LocalDate.now())) {
-      File newFile = new File(filePath + "biosd_dump" + fileCounter++ + ".xml");
-
-      log.info(
-          "Running for samples with release date starting "
-              + startLocalDate.toString()
-              + " ending "
-              + endLocalDate.toString()
-              + " and writing to file "
-              + newFile.getPath());
-
-      fetchQueryAndDump(
-          coll, startLocalDate.format(dtFormatter), endLocalDate.format(dtFormatter), newFile);
-
-      startLocalDate = startLocalDate.plusMonths(1);
-      endLocalDate = startLocalDate.plusMonths(1).minusDays(1);
-
-      // if (fileCounter == 1) break;
+    final Date startDate = formatter.parse(args.getOptionValues("startDate").get(0));
+    // up to the start of today, as the monthly files used to only cover complete days
+    final Date endDate =
+        Date.from(LocalDate.now().atStartOfDay(ZoneId.systemDefault()).toInstant());
+    final int batchSize = Integer.parseInt(getOption(args, "batchSize", "1000"));
+    final long maxFileSize = Long.parseLong(getOption(args, "maxFileSize", "1000")) * 1024 * 1024;
+
+    log.info(
+        "Running for samples with release date starting "
+            + formatter.format(startDate)
+            + " ending "
+            + formatter.format(endDate));
+
+    try (final EbEyeXmlWriter writer = new EbEyeXmlWriter(filePath + "biosd_dump", maxFileSize);
+        final AdaptiveThreadPoolExecutor executorService =
+            AdaptiveThreadPoolExecutor.create(
+                100,
+                10000,
+                false,
+                pipelinesProperties.getThreadCount(),
+                pipelinesProperties.getThreadCountMax())) {
+      fetchQueryAndDump(coll, startDate, endDate, batchSize, executorService, writer);
+    } finally {
+      mongoClient.close();
     }
   }
 
-  public LocalDate convertToLocalDateViaInstant(Date dateToConvert) {
-    return dateToConvert.toInstant().atZone(ZoneId.systemDefault()).toLocalDate();
-  }
-
   private void fetchQueryAndDump(
-      final DBCollection coll, final String from, final String until, final File file)
-      throws ParseException, JAXBException {
-    final List<String> listOfAccessions = getAllDocuments(coll, from, until);
-
-    log.info("Total number of samples to be dumped is : " + listOfAccessions.size());
-
-    List<Sample> samplesList =
-        listOfAccessions.stream().map(this::fetchSample).collect(Collectors.toList());
-
-    convertSampleToXml(samplesList, file);
-  }
-
-  private static List<String> getAllDocuments(
-      final DBCollection col, final String from, final String until) throws ParseException {
-    final List<String> listOfAccessions = new ArrayList<>();
-    final SimpleDateFormat simpleDateFormat = new SimpleDateFormat("yyyy-MM-dd");
-    final Date startDate = simpleDateFormat.parse(from);
-    final Date endDate = simpleDateFormat.parse(until);
-
+      final DBCollection coll,
+      final Date from,
+      final Date until,
+      final int batchSize,
+      final ExecutorService executorService,
+      final EbEyeXmlWriter writer)
+      throws Exception {
     final BasicDBObject query =
-        new BasicDBObject("release", new BasicDBObject("$gte", startDate).append("$lt", endDate));
+        new BasicDBObject("release", new BasicDBObject("$gte", from).append("$lt", until));
     final DBCursor cursor =
-        col.find(query).sort(new BasicDBObject("release", OrderBy.ASC.getIntRepresentation()));
-
-    cursor.forEach(
-        elem -> {
-          final String accession = elem.get("_id").toString();
-
-          log.info("Accession " + accession);
-          listOfAccessions.add(elem.get("_id").toString());
-        });
+        coll.find(query, new BasicDBObject("_id", 1))
+            .sort(new BasicDBObject("release", OrderBy.ASC.getIntRepresentation()));
+
+    long count = 0;
+    try {
+      List<String> accessions = new ArrayList<>(batchSize);
+      while (cursor.hasNext()) {
+        accessions.add(cursor.next().get("_id").toString());
+        if (accessions.size() >= batchSize || !cursor.hasNext()) {
+          count += dumpBatch(accessions, executorService, writer);
+          accessions = new ArrayList<>(batchSize);
+          log.info("Dumped " + count + " samples");
+        }
+      }
+    } finally {
+      cursor.close();
+    }
 
-    return listOfAccessions;
+    log.info("Total number of samples dumped is : " + count);
   }
 
-  public Sample fetchSample(final String accession) {
-    Optional<Resource<Sample>> sampleResource = bioSamplesClient.fetchSampleResource(accession);
+  // fetches and converts the batch in parallel, then writes the entries in release order
+  private int dumpBatch(
+      final List<String> accessions,
+      final ExecutorService executorService,
+      final EbEyeXmlWriter writer)
+      throws Exception {
+    final List<Future<Optional<EntryType>>> futures = new ArrayList<>(accessions.size());
+    for (final String accession : accessions) {
+      futures.add(executorService.submit(() -> fetchSample(accession).map(this::getEntry)));
+    }
 
-    return sampleResource.map(Resource::getContent).orElse(null);
+    int count = 0;
+    for (final Future<Optional<EntryType>> future : futures) {
+      final Optional<EntryType> entry = future.get();
+      if (entry.isPresent()) {
+        writer.write(entry.get());
+        count++;
+      }
+    }
+    return count;
   }
 
-  public void convertSampleToXml(final List<Sample> samples, final File file) throws JAXBException {
-    DatabaseType databaseType = new DatabaseType();
-
-    databaseType.setName("BioSamples");
-    databaseType.setDescription("EBI BioSamples Database");
-    databaseType.setEntryCount(samples.size());
-    databaseType.setRelease("BioSamples Full Samples Release");
-    databaseType.setReleaseDate(new Date().toString());
-
-    AtomicReference<EntriesType> entriesType = new AtomicReference<>(new EntriesType());
-
-    samples.forEach(
-        sample -> {
-          entriesType.set(getEntries(sample, entriesType.get()));
-          databaseType.setEntries(entriesType.get());
-        });
-
-    JAXBContext context = JAXBContext.newInstance(DatabaseType.class);
+  private static String getOption(ApplicationArguments args, String name, String defaultValue) {
+    final List<String> values = args.getOptionValues(name);
+    return values == null || values.isEmpty() ? defaultValue : values.get(0);
+  }
 
-    Marshaller jaxbMarshaller = context.createMarshaller();
-    jaxbMarshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+  public Optional<Sample> fetchSample(final String accession) {
+    Optional<Resource<Sample>> sampleResource = bioSamplesClient.fetchSampleResource(accession);
 
-    jaxbMarshaller.marshal(databaseType, file);
-    // jaxbMarshaller.marshal(databaseType, System.out);
+    return sampleResource.map(Resource::getContent);
   }
 
-  private EntriesType getEntries(final Sample sample, final EntriesType entriesType) {
+  private EntryType getEntry(final Sample sample) {
     final EntryType entryType = new EntryType();
 
     getEntry(sample, entryType);
-    entriesType.getEntry().add(entryType);
 
-    return entriesType;
+    return entryType;
   }
 
   private void getEntry(final Sample sample, final EntryType entryType) {
@@ -217,7 +198,13 @@ public class EbEyeBioSamplesDataDumpRunner implements ApplicationRunner {
               crossReferencesType.getRef().add(refType);
             });
 
-    crossReferencesType.getRef().add(taxonomyRefType);
+    if (sample.getTaxId() != null && sample.getTaxId() != 0) {
+      final RefType taxonomyRefType = new RefType();
+
+      taxonomyRefType.setDbname("TAXONOMY");
+      taxonomyRefType.setDbkey(sample.getTaxId().toString());
+      crossReferencesType.getRef().add(taxonomyRefType);
+    }
 
     return crossReferencesType;
   }
@@ -257,11 +244,6 @@ public class EbEyeBioSamplesDataDumpRunner implements ApplicationRunner {
               if (attribute.getType().equals("description")) {
                 entryType.setDescription(attribute.getValue());
               } else {
-                if (sample.getTaxId() != 0) {
-                  taxonomyRefType.setDbname("TAXONOMY");
-                  taxonomyRefType.setDbkey(sample.getTaxId().toString());
-                }
-
                 if (attributeSet.contains(attribute.getType())) {
                   fieldType.setName(
                       removeOtherSpecialCharactersFromAttributeNames(
@@ -0,0 +1,152 @@
+/*
+* Copyright 2019 EMBL - European Bioinformatics Institute
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+* file except in compliance with the License. You may obtain a copy of the License at
+* http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the
+* License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+* CONDITIONS OF ANY KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations under the License.
+*/
+package uk.ac.ebi.biosamples.ebeye.base;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Date;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.ac.ebi.biosamples.ebeye.gen.EntryType;
+
+/**
+ * Writes EB-eye dump files one entry at a time, so that no more than one entry is held in memory.
+ *
+ * <p>The database header is written with StAX and each entry is marshalled into it as a fragment.
+ * Once a file has grown past the maximum size it is finished and the next entry starts a new file,
+ * named with the next number. The entry count is written after the entries, which the schema allows
+ * as the database elements can be in any order.
+ */
+public class EbEyeXmlWriter implements Closeable {
+  private static Logger log = LoggerFactory.getLogger(EbEyeXmlWriter.class);
+
+  private final String filePrefix;
+  private final long maxFileSize;
+  private final Marshaller marshaller;
+  private final XMLOutputFactory xmlOutputFactory = XMLOutputFactory.newInstance();
+
+  private int fileCounter = 0;
+  private File file;
+  private CountingOutputStream outputStream;
+  private XMLStreamWriter xmlWriter;
+  private int entryCount;
+
+  /**
+   * @param filePrefix files are named with this prefix, a number and .xml
+   * @param maxFileSize size in bytes after which a new file is started
+   */
+  public EbEyeXmlWriter(String filePrefix, long maxFileSize) throws JAXBException {
+    this.filePrefix = filePrefix;
+    this.maxFileSize = maxFileSize;
+    marshaller = JAXBContext.newInstance(EntryType.class).createMarshaller();
+    marshaller.setProperty(Marshaller.JAXB_FRAGMENT, true);
+  }
+
+  public void write(EntryType entry) throws IOException, XMLStreamException, JAXBException {
+    if (xmlWriter == null) {
+      open();
+    }
+    marshaller.marshal(entry, xmlWriter);
+    xmlWriter.writeCharacters("\n");
+    entryCount++;
+    xmlWriter.flush();
+    if (outputStream.getCount() >= maxFileSize) {
+      finish();
+    }
+  }
+
+  private void open() throws IOException, XMLStreamException {
+    file = new File(filePrefix + ++fileCounter + ".xml");
+    outputStream = new CountingOutputStream(new FileOutputStream(file));
+    xmlWriter = xmlOutputFactory.createXMLStreamWriter(outputStream, "UTF-8");
+    entryCount = 0;
+
+    xmlWriter.writeStartDocument("UTF-8", "1.0");
+    xmlWriter.writeCharacters("\n");
+    xmlWriter.writeStartElement("database");
+    writeElement("name", "BioSamples");
+    writeElement("description", "EBI BioSamples Database");
+    writeElement("release", "BioSamples Full Samples Release");
+    writeElement("release_date", new Date().toString());
+    xmlWriter.writeCharacters("\n");
+    xmlWriter.writeStartElement("entries");
+    xmlWriter.writeCharacters("\n");
+  }
+
+  private void finish() throws IOException, XMLStreamException {
+    xmlWriter.writeEndElement();
+    writeElement("entry_count", String.valueOf(entryCount));
+    xmlWriter.writeCharacters("\n");
+    xmlWriter.writeEndElement();
+    xmlWriter.writeEndDocument();
+    xmlWriter.close();
+    outputStream.close();
+    log.info("Wrote " + entryCount + " entries to " + file.getPath());
+    xmlWriter = null;
+  }
+
+  private void writeElement(String name, String value) throws XMLStreamException {
+    xmlWriter.writeCharacters("\n");
+    xmlWriter.writeStartElement(name);
+    xmlWriter.writeCharacters(value);
+    xmlWriter.writeEndElement();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (xmlWriter != null) {
+      try {
+        finish();
+      } catch (XMLStreamException e) {
+        throw new IOException(e);
+      }
+    }
+  }
+
+  private static class CountingOutputStream extends FilterOutputStream {
+    private long count = 0;
+
+    private CountingOutputStream(OutputStream out) {
+      super(new BufferedOutputStream(out, 65536));
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      count += len;
+    }
+
+    // entries are flushed to be counted, the buffer is only written out when full or closed
+    @Override
+    public void flush() {}
+
+    private long getCount() {
+      return count;
+    }
+  }
+}
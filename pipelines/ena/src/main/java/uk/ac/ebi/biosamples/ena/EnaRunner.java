@@ -30,7 +30,8 @@ import org.springframework.web.client.HttpClientErrorException;
 import uk.ac.ebi.biosamples.PipelinesProperties;
 import uk.ac.ebi.biosamples.model.structured.AbstractData;
 import uk.ac.ebi.biosamples.service.AmrDataLoaderService;
-import uk.ac.ebi.biosamples.utils.AdaptiveThreadPoolExecutor;
+import uk.ac.ebi.biosamples.utils.CloseableExecutorService;
+import uk.ac.ebi.biosamples.utils.ExecutorFactory;
 import uk.ac.ebi.biosamples.utils.MailSender;
 import uk.ac.ebi.biosamples.utils.ThreadUtils;
 
@@ -144,13 +145,13 @@ public class EnaRunner implements ApplicationRunner {
       eraProDao.doSampleCallbackBsdAuthoritySamples(
           fromDate, toDate, eraRowBsdSamplesCallbackHandler);
     } else {
-      try (final AdaptiveThreadPoolExecutor executorService =
-          AdaptiveThreadPoolExecutor.create(
-              100,
-              10000,
+      try (final CloseableExecutorService executorService =
+          ExecutorFactory.create(
+              pipelinesProperties.getExecutor(),
               false,
               pipelinesProperties.getThreadCount(),
-              pipelinesProperties.getThreadCountMax())) {
+              pipelinesProperties.getThreadCountMax(),
+              pipelinesProperties.getConcurrencyMax())) {
         final EraRowBsdSamplesCallbackHandler eraRowBsdSamplesCallbackHandler =
             new EraRowBsdSamplesCallbackHandler(executorService, enaCallableFactory, futures);
 
@@ -181,13 +182,13 @@ public class EnaRunner implements ApplicationRunner {
 
       eraProDao.getNcbiCallback(fromDate, toDate, ncbiRowCallbackHandler);
     } else {
-      try (final AdaptiveThreadPoolExecutor executorService =
-          AdaptiveThreadPoolExecutor.create(
-              100,
-              10000,
+      try (final CloseableExecutorService executorService =
+          ExecutorFactory.create(
+              pipelinesProperties.getExecutor(),
               false,
               pipelinesProperties.getThreadCount(),
-              pipelinesProperties.getThreadCountMax())) {
+              pipelinesProperties.getThreadCountMax(),
+              pipelinesProperties.getConcurrencyMax())) {
 
         final EraRowCallbackHandler eraRowCallbackHandler =
             new EraRowCallbackHandler(executorService, enaCallableFactory, futures, sampleToAmrMap);
@@ -216,13 +217,13 @@ public class EnaRunner implements ApplicationRunner {
         "Fetching all suppressed ENA samples. "
             + "If they exist in BioSamples with different status, their status will be updated. If the sample don't exist at all it will be POSTed to BioSamples client");
 
-    try (final AdaptiveThreadPoolExecutor executorService =
-        AdaptiveThreadPoolExecutor.create(
-            100,
-            10000,
+    try (final CloseableExecutorService executorService =
+        ExecutorFactory.create(
+            pipelinesProperties.getExecutor(),
             false,
             pipelinesProperties.getThreadCount(),
-            pipelinesProperties.getThreadCountMax())) {
+            pipelinesProperties.getThreadCountMax(),
+            pipelinesProperties.getConcurrencyMax())) {
 
       final EnaSuppressedSamplesCallbackHandler enaSuppressedSamplesCallbackHandler =
           new EnaSuppressedSamplesCallbackHandler(executorService, enaCallableFactory, futures);
@@ -244,13 +245,13 @@ public class EnaRunner implements ApplicationRunner {
         "Fetching all killed ENA samples. "
             + "If they exist in BioSamples with different status, their status will be updated. If the sample don't exist at all it will be POSTed to BioSamples client");
 
-    try (final AdaptiveThreadPoolExecutor executorService =
-        AdaptiveThreadPoolExecutor.create(
-            100,
-            10000,
+    try (final CloseableExecutorService executorService =
+        ExecutorFactory.create(
+            pipelinesProperties.getExecutor(),
             false,
             pipelinesProperties.getThreadCount(),
-            pipelinesProperties.getThreadCountMax())) {
+            pipelinesProperties.getThreadCountMax(),
+            pipelinesProperties.getConcurrencyMax())) {
 
       final EnaKilledSamplesCallbackHandler enaKilledSamplesCallbackHandler =
           new EnaKilledSamplesCallbackHandler(executorService, enaCallableFactory, futures);
@@ -272,13 +273,13 @@ public class EnaRunner implements ApplicationRunner {
         "Fetching all suppressed NCBI/DDBJ samples. "
             + "If they exist in BioSamples with different status, their status will be updated. If the sample don't exist at all it will be POSTed to BioSamples client");
 
-    try (final AdaptiveThreadPoolExecutor executorService =
-        AdaptiveThreadPoolExecutor.create(
-            100,
-            10000,
+    try (final CloseableExecutorService executorService =
+        ExecutorFactory.create(
+            pipelinesProperties.getExecutor(),
             false,
             pipelinesProperties.getThreadCount(),
-            pipelinesProperties.getThreadCountMax())) {
+            pipelinesProperties.getThreadCountMax(),
+            pipelinesProperties.getConcurrencyMax())) {
 
       final NcbiDdbjSuppressedSamplesCallbackHandler ncbiDdbjSuppressedSamplesCallbackHandler =
           new NcbiDdbjSuppressedSamplesCallbackHandler(
@@ -295,12 +296,12 @@ public class EnaRunner implements ApplicationRunner {
    *     <p>{@link RowCallbackHandler} for suppressed ENA samples
    */
   private static class EnaSuppressedSamplesCallbackHandler implements RowCallbackHandler {
-    private final AdaptiveThreadPoolExecutor executorService;
+    private final CloseableExecutorService executorService;
     private final EnaCallableFactory enaCallableFactory;
     private final Map<String, Future<Void>> futures;
 
     public EnaSuppressedSamplesCallbackHandler(
-        final AdaptiveThreadPoolExecutor executorService,
+        final CloseableExecutorService executorService,
         final EnaCallableFactory enaCallableFactory,
         final Map<String, Future<Void>> futures) {
       this.executorService = executorService;
@@ -334,12 +335,12 @@ public class EnaRunner implements ApplicationRunner {
    *     <p>{@link RowCallbackHandler} for killed ENA samples
    */
   private static class EnaKilledSamplesCallbackHandler implements RowCallbackHandler {
-    private final AdaptiveThreadPoolExecutor executorService;
+    private final CloseableExecutorService executorService;
     private final EnaCallableFactory enaCallableFactory;
     private final Map<String, Future<Void>> futures;
 
     public EnaKilledSamplesCallbackHandler(
-        final AdaptiveThreadPoolExecutor executorService,
+        final CloseableExecutorService executorService,
         final EnaCallableFactory enaCallableFactory,
         final Map<String, Future<Void>> futures) {
       this.executorService = executorService;
@@ -373,12 +374,12 @@ public class EnaRunner implements ApplicationRunner {
    *     <p>{@link RowCallbackHandler} for suppressed NCBI/DDBJ samples
    */
   private static class NcbiDdbjSuppressedSamplesCallbackHandler implements RowCallbackHandler {
-    private final AdaptiveThreadPoolExecutor executorService;
+    private final CloseableExecutorService executorService;
     private final NcbiCurationCallableFactory ncbiCurationCallableFactory;
     private final Map<String, Future<Void>> futures;
 
     public NcbiDdbjSuppressedSamplesCallbackHandler(
-        final AdaptiveThreadPoolExecutor executorService,
+        final CloseableExecutorService executorService,
         final NcbiCurationCallableFactory ncbiCurationCallableFactory,
         final Map<String, Future<Void>> futures) {
       this.executorService = executorService;
@@ -407,13 +408,13 @@ public class EnaRunner implements ApplicationRunner {
   }
 
   private static class EraRowCallbackHandler implements RowCallbackHandler {
-    private final AdaptiveThreadPoolExecutor executorService;
+    private final CloseableExecutorService executorService;
     private final EnaCallableFactory enaCallableFactory;
     private final Map<String, Future<Void>> futures;
     private final Map<String, Set<AbstractData>> sampleToAmrMap;
 
     public EraRowCallbackHandler(
-        final AdaptiveThreadPoolExecutor executorService,
+        final CloseableExecutorService executorService,
         final EnaCallableFactory enaCallableFactory,
         final Map<String, Future<Void>> futures,
         final Map<String, Set<AbstractData>> sampleToAmrMap) {
@@ -514,13 +515,13 @@ public class EnaRunner implements ApplicationRunner {
   }
 
   private static class NcbiRowCallbackHandler implements RowCallbackHandler {
-    private final AdaptiveThreadPoolExecutor executorService;
+    private final CloseableExecutorService executorService;
     private final NcbiCurationCallableFactory ncbiCallableFactory;
     private final Map<String, Future<Void>> futures;
     private Logger log = LoggerFactory.getLogger(getClass());
 
     public NcbiRowCallbackHandler(
-        final AdaptiveThreadPoolExecutor executorService,
+        final CloseableExecutorService executorService,
         final NcbiCurationCallableFactory ncbiCallableFactory,
         final Map<String, Future<Void>> futures) {
       this.executorService = executorService;
@@ -557,12 +558,12 @@ public class EnaRunner implements ApplicationRunner {
   }
 
   private static class EraRowBsdSamplesCallbackHandler implements RowCallbackHandler {
-    private final AdaptiveThreadPoolExecutor executorService;
+    private final CloseableExecutorService executorService;
     private final EnaCallableFactory enaCallableFactory;
     private final Map<String, Future<Void>> futures;
 
     public EraRowBsdSamplesCallbackHandler(
-        final AdaptiveThreadPoolExecutor executorService,
+        final CloseableExecutorService executorService,
         final EnaCallableFactory enaCallableFactory,
         final Map<String, Future<Void>> futures) {
       this.executorService = executorService;
@@ -14,6 +14,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import java.io.FileOutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.util.List;
 import java.util.zip.GZIPOutputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -25,14 +26,23 @@ import uk.ac.ebi.biosamples.client.BioSamplesClient;
 import uk.ac.ebi.biosamples.model.Sample;
 import uk.ac.ebi.biosamples.utils.MailSender;
 
+/**
+ * Exports all public samples to a JSON file, optionally compressed with --gzip.
+ *
+ * <p>By default the samples are read through the API. With --mongo they are read directly from
+ * mongo by {@link MongoExporter}, in --threads accession ranges (default 16) of --batchSize samples
+ * (default 1000) at a time.
+ */
 @Component
 public class ExportRunner implements ApplicationRunner {
 
   private final Logger log = LoggerFactory.getLogger(getClass());
   private final BioSamplesClient bioSamplesClient;
   private final ObjectMapper objectMapper;
+  private final MongoExporter mongoExporter;
 
-  public ExportRunner(BioSamplesClient bioSamplesClient, ObjectMapper objectMapper) {
+  public ExportRunner(
+      BioSamplesClient bioSamplesClient, ObjectMapper objectMapper, MongoExporter mongoExporter) {
     // ensure the client is public
     if (bioSamplesClient.getPublicClient().isPresent()) {
       this.bioSamplesClient = bioSamplesClient.getPublicClient().get();
@@ -40,15 +50,25 @@ public class ExportRunner implements ApplicationRunner {
       this.bioSamplesClient = bioSamplesClient;
     }
     this.objectMapper = objectMapper;
+    this.mongoExporter = mongoExporter;
   }
 
   @Override
   public void run(ApplicationArguments args) throws Exception {
     String jsonSampleFilename = args.getNonOptionArgs().get(0);
     long oldTime = System.nanoTime();
-    int sampleCount = 0;
+    long sampleCount = 0;
     boolean isPassed = true;
     try {
+      if (args.containsOption("mongo")) {
+        sampleCount =
+            mongoExporter.export(
+                jsonSampleFilename,
+                args.getOptionValues("gzip") != null,
+                Integer.parseInt(getOption(args, "batchSize", "1000")),
+                Integer.parseInt(getOption(args, "threads", "16")));
+        return;
+      }
       boolean first = true;
       try (Writer jsonSampleWriter =
           args.getOptionValues("gzip") == null
@@ -80,4 +100,9 @@ public class ExportRunner implements ApplicationRunner {
       log.info("Exported " + sampleCount + " samples in " + (elapsed / 1000000000l) + "s");
     }
   }
+
+  private static String getOption(ApplicationArguments args, String name, String defaultValue) {
+    List<String> values = args.getOptionValues(name);
+    return values == null || values.isEmpty() ? defaultValue : values.get(0);
+  }
 }
@@ -0,0 +1,273 @@
+/*
+* Copyright 2019 EMBL - European Bioinformatics Institute
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+* file except in compliance with the License. You may obtain a copy of the License at
+* http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the
+* License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+* CONDITIONS OF ANY KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations under the License.
+*/
+package uk.ac.ebi.biosamples.export;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.stereotype.Component;
+import uk.ac.ebi.biosamples.model.Attribute;
+import uk.ac.ebi.biosamples.model.Sample;
+import uk.ac.ebi.biosamples.mongo.model.MongoSample;
+import uk.ac.ebi.biosamples.service.SampleReadService;
+
+/**
+ * Exports all public samples as a JSON array read directly from mongo, instead of through the API.
+ *
+ * <p>The accessions are split into contiguous ranges, one per thread. Each thread streams the
+ * accessions of its range from mongo, fetches them in batches with their curations and inverse
+ * relationships, and serialises them into its own part file. Once every range is done the parts are
+ * appended to the output in order. Gzip files can be concatenated as they are, so with gzip the
+ * output is a multi-member gzip file that decompresses to the same JSON as a single stream would.
+ */
+@Component
+public class MongoExporter {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(MongoExporter.class);
+  private static final List<String> PUBLIC_INSDC_STATUSES = Arrays.asList("public", "live");
+
+  private final MongoOperations mongoOperations;
+  private final SampleReadService sampleReadService;
+  private final ObjectMapper objectMapper;
+
+  public MongoExporter(
+      MongoOperations mongoOperations,
+      SampleReadService sampleReadService,
+      ObjectMapper objectMapper) {
+    this.mongoOperations = mongoOperations;
+    this.sampleReadService = sampleReadService;
+    this.objectMapper = objectMapper;
+  }
+
+  /**
+   * @param filename file to write the samples to, part files are written next to it
+   * @param gzip whether to compress the output
+   * @param batchSize number of samples fetched from mongo together
+   * @param threads number of accession ranges exported at the same time
+   * @return number of samples exported
+   */
+  public long export(String filename, boolean gzip, int batchSize, int threads)
+      throws IOException, InterruptedException, ExecutionException {
+    Instant now = Instant.now();
+    long startTime = System.nanoTime();
+    List<String> boundaries = getBoundaries(now, threads);
+    LOGGER.info("Exporting samples in " + (boundaries.size() + 1) + " accession ranges");
+
+    AtomicLong exported = new AtomicLong();
+    ScheduledExecutorService progress = Executors.newSingleThreadScheduledExecutor();
+    progress.scheduleAtFixedRate(
+        () -> logRate(exported.get(), startTime), 30, 30, TimeUnit.SECONDS);
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    List<Path> parts = new ArrayList<>();
+    List<Future<Long>> futures = new ArrayList<>();
+    try {
+      for (int i = 0; i <= boundaries.size(); i++) {
+        String from = i == 0 ? null : boundaries.get(i - 1);
+        String to = i == boundaries.size() ? null : boundaries.get(i);
+        Path part = Paths.get(String.format("%s.part-%04d", filename, i));
+        parts.add(part);
+        futures.add(
+            executor.submit(() -> exportRange(from, to, now, part, gzip, batchSize, exported)));
+      }
+      List<Long> counts = new ArrayList<>();
+      for (Future<Long> future : futures) {
+        counts.add(future.get());
+      }
+      concatenate(Paths.get(filename), parts, counts, gzip);
+    } finally {
+      executor.shutdownNow();
+      progress.shutdownNow();
+      for (Path part : parts) {
+        Files.deleteIfExists(part);
+      }
+    }
+    logRate(exported.get(), startTime);
+    return exported.get();
+  }
+
+  /** @return accessions that split the public samples into ranges of about the same size */
+  private List<String> getBoundaries(Instant now, int ranges) {
+    Query countQuery = new Query(getPublicCriteria(null, null, now));
+    long rangeSize = Math.max(1, mongoOperations.count(countQuery, MongoSample.class) / ranges);
+
+    List<String> boundaries = new ArrayList<>();
+    Query query = new Query(getPublicCriteria(null, null, now));
+    query.with(new Sort(Sort.Direction.ASC, "_id"));
+    query.fields().include("_id");
+    long count = 0;
+    try (CloseableIterator<MongoSample> it = mongoOperations.stream(query, MongoSample.class)) {
+      while (it.hasNext()) {
+        String accession = it.next().getAccession();
+        count++;
+        if (count % rangeSize == 0 && boundaries.size() < ranges - 1) {
+          boundaries.add(accession);
+        }
+      }
+    }
+    return boundaries;
+  }
+
+  // samples in [from, to) that have been released, either bound can be null for unbounded
+  private Criteria getPublicCriteria(String from, String to, Instant now) {
+    Criteria criteria = Criteria.where("release").lte(Date.from(now));
+    if (from != null && to != null) {
+      criteria = criteria.and("_id").gte(from).lt(to);
+    } else if (from != null) {
+      criteria = criteria.and("_id").gte(from);
+    } else if (to != null) {
+      criteria = criteria.and("_id").lt(to);
+    }
+    return criteria;
+  }
+
+  private long exportRange(
+      String from,
+      String to,
+      Instant now,
+      Path part,
+      boolean gzip,
+      int batchSize,
+      AtomicLong exported)
+      throws IOException {
+    Query query = new Query(getPublicCriteria(from, to, now));
+    query.with(new Sort(Sort.Direction.ASC, "_id"));
+    query.fields().include("_id");
+
+    long count = 0;
+    try (Writer writer = new OutputStreamWriter(open(part, gzip), StandardCharsets.UTF_8);
+        CloseableIterator<MongoSample> it = mongoOperations.stream(query, MongoSample.class)) {
+      List<String> accessions = new ArrayList<>(batchSize);
+      while (it.hasNext()) {
+        accessions.add(it.next().getAccession());
+        if (accessions.size() >= batchSize || !it.hasNext()) {
+          for (Sample sample : sampleReadService.fetchAll(accessions, Optional.empty())) {
+            if (!isPublic(sample, now)) {
+              continue;
+            }
+            if (count > 0) {
+              writer.write(",\n");
+            }
+            writer.write(objectMapper.writeValueAsString(sample));
+            count++;
+            exported.incrementAndGet();
+          }
+          accessions = new ArrayList<>(batchSize);
+        }
+      }
+    }
+    LOGGER.info("Exported " + count + " samples from " + from + " to " + to);
+    return count;
+  }
+
+  // the same samples as the API returns, checked again as curations can change them
+  private static boolean isPublic(Sample sample, Instant now) {
+    if (sample.getRelease() == null || sample.getRelease().isAfter(now)) {
+      return false;
+    }
+    for (Attribute attribute : sample.getAttributes()) {
+      if (attribute.getType().equals("INSDC status")
+          && !PUBLIC_INSDC_STATUSES.contains(attribute.getValue())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static OutputStream open(Path path, boolean gzip) throws IOException {
+    OutputStream outputStream = Files.newOutputStream(path);
+    return gzip ? new GZIPOutputStream(outputStream, 65536) : outputStream;
+  }
+
+  // wraps the parts in a JSON array, with separators only between the parts that have samples
+  private static void concatenate(Path output, List<Path> parts, List<Long> counts, boolean gzip)
+      throws IOException {
+    try (FileChannel out =
+        FileChannel.open(
+            output,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.WRITE)) {
+      append(out, "[\n", gzip);
+      boolean first = true;
+      for (int i = 0; i < parts.size(); i++) {
+        if (counts.get(i) == 0) {
+          continue;
+        }
+        if (!first) {
+          append(out, ",\n", gzip);
+        }
+        try (FileChannel in = FileChannel.open(parts.get(i), StandardOpenOption.READ)) {
+          long size = in.size();
+          long position = 0;
+          while (position < size) {
+            position += in.transferTo(position, size - position, out);
+          }
+        }
+        first = false;
+      }
+      append(out, "\n]", gzip);
+    }
+  }
+
+  private static void append(FileChannel out, String text, boolean gzip) throws IOException {
+    byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+    if (gzip) {
+      // as a gzip member of its own
+      ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+      try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(compressed)) {
+        gzipOutputStream.write(bytes);
+      }
+      bytes = compressed.toByteArray();
+    }
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    while (buffer.hasRemaining()) {
+      out.write(buffer);
+    }
+  }
+
+  private static void logRate(long exported, long startTime) {
+    double seconds = (System.nanoTime() - startTime) / 1e9;
+    LOGGER.info(
+        String.format(
+            "Exported %d samples in %.0fs, %.1f samples/s", exported, seconds, exported / seconds));
+  }
+}
@@ -0,0 +1,186 @@
+/*
+* Copyright 2019 EMBL - European Bioinformatics Institute
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+* file except in compliance with the License. You may obtain a copy of the License at
+* http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the
+* License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+* CONDITIONS OF ANY KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations under the License.
+*/
+package uk.ac.ebi.biosamples.export;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
+import uk.ac.ebi.biosamples.model.Sample;
+import uk.ac.ebi.biosamples.mongo.model.MongoSample;
+import uk.ac.ebi.biosamples.service.SampleReadService;
+
+/**
+ * Exports eight samples in four accession ranges of two, some of which have no public samples, so
+ * that the parts are joined around empty ones too.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class MongoExporterTest {
+
+  private static final int THREADS = 4;
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Mock MongoOperations mongoOperations;
+  @Mock SampleReadService sampleReadService;
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+  private final List<String> accessions =
+      Arrays.asList("SAMEA1", "SAMEA2", "SAMEA3", "SAMEA4", "SAMEA5", "SAMEA6", "SAMEA7", "SAMEA8");
+  private final Set<String> unreleased = new HashSet<>();
+
+  private MongoExporter mongoExporter;
+
+  @Before
+  @SuppressWarnings("unchecked")
+  public void setUp() {
+    when(mongoOperations.count(any(Query.class), eq(MongoSample.class)))
+        .thenReturn((long) accessions.size());
+    when(mongoOperations.stream(any(Query.class), eq(MongoSample.class)))
+        .thenAnswer(invocation -> iterate(inRange((Query) invocation.getArguments()[0])));
+    when(sampleReadService.fetchAll(anyListOf(String.class), eq(Optional.empty())))
+        .thenAnswer(
+            invocation ->
+                ((List<String>) invocation.getArguments()[0])
+                    .stream().map(this::sample).collect(Collectors.toList()));
+    mongoExporter = new MongoExporter(mongoOperations, sampleReadService, objectMapper);
+  }
+
+  @Test
+  public void parts_are_joined_into_one_array() throws Exception {
+    // the first and third ranges have nothing to export
+    unreleased.addAll(Arrays.asList("SAMEA1", "SAMEA2", "SAMEA5", "SAMEA6"));
+
+    assertEquals(Arrays.asList("SAMEA3", "SAMEA4", "SAMEA7", "SAMEA8"), export(false));
+  }
+
+  @Test
+  public void gzip_parts_are_joined_into_one_array() throws Exception {
+    unreleased.addAll(Arrays.asList("SAMEA1", "SAMEA2", "SAMEA5", "SAMEA6"));
+
+    assertEquals(Arrays.asList("SAMEA3", "SAMEA4", "SAMEA7", "SAMEA8"), export(true));
+  }
+
+  @Test
+  public void only_the_last_range_has_samples() throws Exception {
+    unreleased.addAll(accessions.subList(0, 7));
+
+    assertEquals(Collections.singletonList("SAMEA8"), export(false));
+    assertEquals(Collections.singletonList("SAMEA8"), export(true));
+  }
+
+  @Test
+  public void no_public_samples_is_an_empty_array() throws Exception {
+    unreleased.addAll(accessions);
+
+    assertEquals(Collections.emptyList(), export(false));
+    assertEquals(Collections.emptyList(), export(true));
+  }
+
+  @Test
+  public void every_sample_is_exported_once() throws Exception {
+    assertEquals(accessions, export(false));
+    assertEquals(accessions, export(true));
+  }
+
+  /** @return accessions of the exported samples, read back as a single JSON document */
+  private List<String> export(boolean gzip) throws Exception {
+    Path output =
+        temporaryFolder.getRoot().toPath().resolve(gzip ? "samples.json.gz" : "samples.json");
+    long exported = mongoExporter.export(output.toString(), gzip, 1, THREADS);
+
+    JsonNode array;
+    // a single stream reads every member of a multi-member gzip file
+    try (InputStream in =
+        gzip ? new GZIPInputStream(Files.newInputStream(output)) : Files.newInputStream(output)) {
+      array = objectMapper.readTree(in);
+    }
+    assertTrue(array.isArray());
+    List<String> exportedAccessions = new ArrayList<>();
+    for (JsonNode sample : array) {
+      exportedAccessions.add(sample.get("accession").asText());
+    }
+    assertEquals(exported, exportedAccessions.size());
+    try (Stream<Path> files = Files.list(output.getParent())) {
+      assertEquals(
+          "part files are removed",
+          0,
+          files.filter(file -> file.toString().startsWith(output + ".part")).count());
+    }
+    return exportedAccessions;
+  }
+
+  private Sample sample(String accession) {
+    Instant release =
+        unreleased.contains(accession)
+            ? Instant.now().plusSeconds(3600)
+            : Instant.parse("2018-01-01T00:00:00Z");
+    return new Sample.Builder("test", accession).withRelease(release).build();
+  }
+
+  // the accessions within the _id bounds of the query, if it has any
+  private List<String> inRange(Query query) {
+    Map<?, ?> bounds = (Map<?, ?>) query.getQueryObject().get("_id");
+    if (bounds == null) {
+      return accessions;
+    }
+    String from = (String) bounds.get("$gte");
+    String to = (String) bounds.get("$lt");
+    return accessions.stream()
+        .filter(accession -> from == null || accession.compareTo(from) >= 0)
+        .filter(accession -> to == null || accession.compareTo(to) < 0)
+        .collect(Collectors.toList());
+  }
+
+  private static CloseableIterator<MongoSample> iterate(List<String> accessions) {
+    Iterator<String> it = accessions.iterator();
+    return new CloseableIterator<MongoSample>() {
+      @Override
+      public void close() {}
+
+      @Override
+      public boolean hasNext() {
+        return it.hasNext();
+      }
+
+      @Override
+      public MongoSample next() {
+        MongoSample sample = mock(MongoSample.class);
+        when(sample.getAccession()).thenReturn(it.next());
+        return sample;
+      }
+    };
+  }
+}
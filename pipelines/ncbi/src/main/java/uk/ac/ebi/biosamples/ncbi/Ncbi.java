@@ -39,7 +39,7 @@ import uk.ac.ebi.biosamples.model.Sample;
 import uk.ac.ebi.biosamples.model.structured.AbstractData;
 import uk.ac.ebi.biosamples.service.AmrDataLoaderService;
 import uk.ac.ebi.biosamples.service.FilterBuilder;
-import uk.ac.ebi.biosamples.utils.AdaptiveThreadPoolExecutor;
+import uk.ac.ebi.biosamples.utils.ExecutorFactory;
 import uk.ac.ebi.biosamples.utils.MailSender;
 import uk.ac.ebi.biosamples.utils.ThreadUtils;
 import uk.ac.ebi.biosamples.utils.XmlFragmenter;
@@ -128,12 +128,11 @@ public class Ncbi implements ApplicationRunner {
           ExecutorService executorService = null;
           try {
             executorService =
-                AdaptiveThreadPoolExecutor.create(
-                    100,
-                    10000,
-                    true,
+                ExecutorFactory.create(
+                    pipelinesProperties.getExecutor(),
                     pipelinesProperties.getThreadCount(),
-                    pipelinesProperties.getThreadCountMax());
+                    pipelinesProperties.getThreadCountMax(),
+                    pipelinesProperties.getConcurrencyMax());
             Map<Element, Future<Void>> futures = new LinkedHashMap<>();
 
             sampleCallback.setExecutorService(executorService);
@@ -31,8 +31,9 @@ import uk.ac.ebi.biosamples.model.Sample;
 import uk.ac.ebi.biosamples.model.SampleAnalytics;
 import uk.ac.ebi.biosamples.model.filter.Filter;
 import uk.ac.ebi.biosamples.neo4j.repo.NeoSampleRepository;
-import uk.ac.ebi.biosamples.utils.AdaptiveThreadPoolExecutor;
 import uk.ac.ebi.biosamples.utils.ArgUtils;
+import uk.ac.ebi.biosamples.utils.CloseableExecutorService;
+import uk.ac.ebi.biosamples.utils.ExecutorFactory;
 import uk.ac.ebi.biosamples.utils.MailSender;
 import uk.ac.ebi.biosamples.utils.ThreadUtils;
 
@@ -77,13 +78,12 @@ public class NeoExportRunner implements ApplicationRunner {
       LOG.info("Directly exporting to neo4j instance");
     }
 
-    try (AdaptiveThreadPoolExecutor executorService =
-        AdaptiveThreadPoolExecutor.create(
-            100,
-            10000,
-            true,
+    try (CloseableExecutorService executorService =
+        ExecutorFactory.create(
+            pipelinesProperties.getExecutor(),
             pipelinesProperties.getThreadCount(),
-            pipelinesProperties.getThreadCountMax())) {
+            pipelinesProperties.getThreadCountMax(),
+            pipelinesProperties.getConcurrencyMax())) {
 
       Map<String, Future<PipelineResult>> futures = new HashMap<>();
       for (Resource<Sample> sampleResource : bioSamplesClient.fetchSampleResourceAll("", filters)) {
@@ -12,10 +12,18 @@ package uk.ac.ebi.biosamples;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.annotation.Bean;
+import org.springframework.web.client.RestTemplate;
 
 @SpringBootApplication
 public class Application {
 
+  // used by OlsProcessor for the ontology terms that are not in a local closure index
+  @Bean
+  public RestTemplate restTemplate() {
+    return new RestTemplate();
+  }
+
   public static void main(String[] args) {
     SpringApplication.exit(SpringApplication.run(Application.class, args));
   }
@@ -10,6 +10,12 @@
 */
 package uk.ac.ebi.biosamples;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.*;
 import org.slf4j.Logger;
@@ -18,12 +24,18 @@ import org.springframework.amqp.core.AmqpTemplate;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.ApplicationArguments;
 import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.data.util.CloseableIterator;
 import org.springframework.stereotype.Component;
+import uk.ac.ebi.biosamples.model.Relationship;
 import uk.ac.ebi.biosamples.model.Sample;
+import uk.ac.ebi.biosamples.mongo.model.MongoCurationLink;
+import uk.ac.ebi.biosamples.mongo.model.MongoRelationship;
 import uk.ac.ebi.biosamples.mongo.model.MongoSample;
+import uk.ac.ebi.biosamples.mongo.model.MongoSampleMessage;
 import uk.ac.ebi.biosamples.service.SampleReadService;
 import uk.ac.ebi.biosamples.utils.ThreadUtils;
 
@@ -35,12 +47,22 @@ import uk.ac.ebi.biosamples.utils.ThreadUtils;
  * incorrect (which it will be because why else would you run this) then it won't get the right
  * information from the API.
  *
+ * <p>By default every sample is reindexed. With --since=&lt;instant&gt;, or with
+ * --highWaterMarkFile=&lt;path&gt; once a previous run has recorded its start time there, only the
+ * samples changed since then are reindexed, along with any the webapp recorded as not indexed. With
+ * --checkpointFile=&lt;path&gt; progress is recorded as the run goes, so that an interrupted run
+ * resumes where it stopped.
+ *
+ * <p>With --direct the index is rebuilt from mongo into a separate core first, see {@link
+ * SolrBulkReindexer}, then the samples changed while it was being rebuilt are reindexed as above.
+ *
  * @author faulcon
  */
 @Component
 public class ReindexRunner implements ApplicationRunner {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(ApplicationRunner.class);
+  private static final int BATCH_SIZE = 100;
 
   private final AmqpTemplate amqpTemplate;
 
@@ -48,66 +70,275 @@ public class ReindexRunner implements ApplicationRunner {
 
   private final MongoOperations mongoOperations;
 
+  private final SolrBulkReindexer solrBulkReindexer;
+
   @Autowired
   public ReindexRunner(
       AmqpTemplate amqpTemplate,
       SampleReadService sampleReadService,
-      MongoOperations mongoOperations) {
+      MongoOperations mongoOperations,
+      SolrBulkReindexer solrBulkReindexer) {
     this.amqpTemplate = amqpTemplate;
     this.sampleReadService = sampleReadService;
     this.mongoOperations = mongoOperations;
+    this.solrBulkReindexer = solrBulkReindexer;
   }
 
   @Override
   public void run(ApplicationArguments args) throws Exception {
+    Instant rebuildStart = null;
+    if (args.containsOption("direct")) {
+      rebuildStart =
+          solrBulkReindexer.reindex(
+              getOption(args, "core", "samples_rebuild"),
+              getOption(args, "configSet", "data_driven_schema_configs"),
+              Integer.parseInt(getOption(args, "batchSize", "1000")),
+              Integer.parseInt(getOption(args, "threads", "16")),
+              Integer.parseInt(getOption(args, "maxSkipped", "1000")));
+    }
+
+    Instant startTime = Instant.now();
+    Optional<Path> highWaterMarkFile = getPathOption(args, "highWaterMarkFile");
+    Optional<Path> checkpointFile = getPathOption(args, "checkpointFile");
+
+    // resume an interrupted run after the last accession it completed, keeping its start time so
+    // that the high water mark still covers everything changed since that run started
+    String checkpoint = null;
+    if (rebuildStart == null && checkpointFile.isPresent() && Files.exists(checkpointFile.get())) {
+      List<String> lines = Files.readAllLines(checkpointFile.get(), StandardCharsets.UTF_8);
+      startTime = Instant.parse(lines.get(0));
+      checkpoint = lines.size() > 1 ? lines.get(1) : null;
+      LOGGER.info("Resuming reindex started at " + startTime + " after " + checkpoint);
+    }
+
+    Instant since = null;
+    if (rebuildStart != null) {
+      // the agent updated the core that has just been swapped out, so what it indexed during the
+      // rebuild has to be sent again, the same as --since=<rebuild start> would
+      LOGGER.info("Reindexing samples changed during the rebuild, with --since=" + rebuildStart);
+      since = rebuildStart;
+    } else if (args.containsOption("since")) {
+      since = Instant.parse(args.getOptionValues("since").get(0));
+    } else if (highWaterMarkFile.isPresent() && Files.exists(highWaterMarkFile.get())) {
+      since =
+          Instant.parse(
+              Files.readAllLines(highWaterMarkFile.get(), StandardCharsets.UTF_8).get(0).trim());
+    }
+
     Map<String, Future<Void>> futures = new HashMap<>();
 
     ExecutorService executor = null;
     try {
       executor = Executors.newFixedThreadPool(128);
 
-      try (CloseableIterator<MongoSample> it =
-          mongoOperations.stream(new Query(), MongoSample.class)) {
-        while (it.hasNext()) {
-          MongoSample mongoSample = it.next();
-          String accession = mongoSample.getAccession();
-          LOGGER.info("handling sample " + accession);
-          futures.put(
-              accession,
-              executor.submit(new AccessionCallable(accession, sampleReadService, amqpTemplate)));
-          ThreadUtils.checkFutures(futures, 1000);
+      if (since == null) {
+        LOGGER.info("Reindexing all samples");
+        Query query = new Query();
+        if (checkpoint != null) {
+          query.addCriteria(Criteria.where("_id").gt(checkpoint));
+        }
+        query.with(new Sort(Sort.Direction.ASC, "_id"));
+        query.fields().include("_id");
+        try (CloseableIterator<MongoSample> it = mongoOperations.stream(query, MongoSample.class)) {
+          submitAll(
+              new Iterator<String>() {
+                @Override
+                public boolean hasNext() {
+                  return it.hasNext();
+                }
+
+                @Override
+                public String next() {
+                  return it.next().getAccession();
+                }
+              },
+              executor,
+              futures,
+              startTime,
+              checkpointFile);
+        }
+      } else {
+        LOGGER.info("Reindexing samples changed since " + since);
+        SortedSet<String> accessions = getChangedAccessions(since);
+        if (checkpoint != null) {
+          // strictly after the checkpoint
+          accessions = accessions.tailSet(checkpoint + "\0");
         }
+        LOGGER.info("Found " + accessions.size() + " samples to reindex");
+        submitAll(accessions.iterator(), executor, futures, startTime, checkpointFile);
       }
       ThreadUtils.checkFutures(futures, 0);
     } finally {
       executor.shutdown();
       executor.awaitTermination(24, TimeUnit.HOURS);
     }
+
+    // samples the webapp recorded before this run started have been reindexed by it
+    mongoOperations.remove(
+        new Query(Criteria.where("update").lte(startTime)), MongoSampleMessage.class);
+
+    if (highWaterMarkFile.isPresent()) {
+      Files.write(
+          highWaterMarkFile.get(),
+          Collections.singletonList(startTime.toString()),
+          StandardCharsets.UTF_8);
+    }
+    if (checkpointFile.isPresent()) {
+      Files.deleteIfExists(checkpointFile.get());
+    }
   }
 
-  private static class AccessionCallable implements Callable<Void> {
+  private void submitAll(
+      Iterator<String> it,
+      ExecutorService executor,
+      Map<String, Future<Void>> futures,
+      Instant startTime,
+      Optional<Path> checkpointFile)
+      throws InterruptedException, ExecutionException, IOException {
+    // last accession of each batch not yet known to be complete, in the order they were submitted
+    Deque<Map.Entry<String, Future<Void>>> submitted = new ArrayDeque<>();
+    List<String> accessions = new ArrayList<>(BATCH_SIZE);
+    while (it.hasNext()) {
+      String accession = it.next();
+      LOGGER.info("handling sample " + accession);
+      accessions.add(accession);
+      if (accessions.size() >= BATCH_SIZE) {
+        submitted.add(
+            new AbstractMap.SimpleEntry<>(accession, submitBatch(executor, futures, accessions)));
+        if (checkpointFile.isPresent()) {
+          writeCheckpoint(submitted, startTime, checkpointFile.get());
+        }
+        accessions = new ArrayList<>(BATCH_SIZE);
+      }
+    }
+    if (!accessions.isEmpty()) {
+      submitBatch(executor, futures, accessions);
+    }
+  }
 
-    private final String accession;
+  /**
+   * Records the last accession before which every batch has completed, so batches still running or
+   * failed are done again when resuming.
+   */
+  private void writeCheckpoint(
+      Deque<Map.Entry<String, Future<Void>>> submitted, Instant startTime, Path checkpointFile)
+      throws InterruptedException, IOException {
+    String completed = null;
+    while (!submitted.isEmpty() && submitted.peekFirst().getValue().isDone()) {
+      try {
+        submitted.peekFirst().getValue().get();
+      } catch (ExecutionException e) {
+        // left for checkFutures to report
+        break;
+      }
+      completed = submitted.pollFirst().getKey();
+    }
+    if (completed != null) {
+      Files.write(
+          checkpointFile, Arrays.asList(startTime.toString(), completed), StandardCharsets.UTF_8);
+    }
+  }
+
+  /**
+   * Samples that have been updated or curated since the given time, and the samples they have
+   * relationships to, as the inverse relationships of those will have changed too, and the samples
+   * the webapp recorded as not indexed, whenever that was.
+   *
+   * <p>Relationships removed by an update are not found this way, but the webapp already sends the
+   * previous targets of a sample to be reindexed when it is stored. Curation links that have been
+   * deleted are not found either, as nothing of them is left in mongo, so only a full reindex picks
+   * up the samples they were removed from.
+   */
+  private SortedSet<String> getChangedAccessions(Instant since) {
+    SortedSet<String> accessions = new TreeSet<>();
+
+    Query updated = new Query(Criteria.where("update").gt(since));
+    updated.fields().include("relationships");
+    try (CloseableIterator<MongoSample> it = mongoOperations.stream(updated, MongoSample.class)) {
+      while (it.hasNext()) {
+        MongoSample mongoSample = it.next();
+        accessions.add(mongoSample.getAccession());
+        if (mongoSample.getRelationships() != null) {
+          for (MongoRelationship relationship : mongoSample.getRelationships()) {
+            accessions.add(relationship.getTarget());
+          }
+        }
+      }
+    }
+
+    Query curated = new Query(Criteria.where("created").gt(since));
+    try (CloseableIterator<MongoCurationLink> it =
+        mongoOperations.stream(curated, MongoCurationLink.class)) {
+      while (it.hasNext()) {
+        MongoCurationLink curationLink = it.next();
+        accessions.add(curationLink.getSample());
+        for (Relationship relationship : curationLink.getCuration().getRelationshipsPre()) {
+          accessions.add(relationship.getTarget());
+        }
+        for (Relationship relationship : curationLink.getCuration().getRelationshipsPost()) {
+          accessions.add(relationship.getTarget());
+        }
+      }
+    }
+    for (MongoSampleMessage message : mongoOperations.find(new Query(), MongoSampleMessage.class)) {
+      accessions.add(message.getAccession());
+    }
+    return accessions;
+  }
+
+  private static String getOption(ApplicationArguments args, String name, String defaultValue) {
+    if (!args.containsOption(name)) {
+      return defaultValue;
+    }
+    return args.getOptionValues(name).get(0);
+  }
+
+  private static Optional<Path> getPathOption(ApplicationArguments args, String name) {
+    if (!args.containsOption(name)) {
+      return Optional.empty();
+    }
+    return Optional.of(Paths.get(args.getOptionValues(name).get(0)));
+  }
+
+  private Future<Void> submitBatch(
+      ExecutorService executor, Map<String, Future<Void>> futures, List<String> accessions)
+      throws InterruptedException, ExecutionException {
+    Future<Void> future =
+        executor.submit(new AccessionBatchCallable(accessions, sampleReadService, amqpTemplate));
+    futures.put(accessions.get(0), future);
+    ThreadUtils.checkFutures(futures, 128);
+    return future;
+  }
+
+  /**
+   * Fetches a batch of samples together, so that inverse relationships and curation are resolved
+   * with a few queries for the whole batch rather than several for each sample.
+   */
+  private static class AccessionBatchCallable implements Callable<Void> {
+
+    private final List<String> accessions;
     private final SampleReadService sampleReadService;
     private final AmqpTemplate amqpTemplate;
     private static final List<Sample> related = new ArrayList<>();
 
-    public AccessionCallable(
-        String accession, SampleReadService sampleReadService, AmqpTemplate amqpTemplate) {
-      this.accession = accession;
+    public AccessionBatchCallable(
+        List<String> accessions, SampleReadService sampleReadService, AmqpTemplate amqpTemplate) {
+      this.accessions = accessions;
       this.sampleReadService = sampleReadService;
       this.amqpTemplate = amqpTemplate;
     }
 
     @Override
     public Void call() throws Exception {
-      if (!fetchSampleAndSendMessage(false)) {
-        fetchSampleAndSendMessage(true);
+      List<String> failed = fetchSamplesAndSendMessages(accessions, false);
+      if (!failed.isEmpty()) {
+        fetchSamplesAndSendMessages(failed, true);
       }
       return null;
     }
 
-    private boolean fetchSampleAndSendMessage(boolean isRetry) {
+    /** @return the accessions that could not be fetched or sent */
+    private List<String> fetchSamplesAndSendMessages(List<String> accessions, boolean isRetry) {
       if (isRetry) {
         try {
           TimeUnit.SECONDS.sleep(1);
@@ -115,27 +346,30 @@ public class ReindexRunner implements ApplicationRunner {
           Thread.currentThread().interrupt();
         }
       }
-      Optional<Sample> opt = sampleReadService.fetch(accession, Optional.empty());
-      if (opt.isPresent()) {
+      Set<String> unfetched = new LinkedHashSet<>(accessions);
+      List<String> failed = new ArrayList<>();
+      for (Sample sample : sampleReadService.fetchAll(accessions, Optional.empty())) {
+        unfetched.remove(sample.getAccession());
         try {
-          Sample sample = opt.get();
           MessageContent messageContent = MessageContent.build(sample, null, related, false);
           amqpTemplate.convertAndSend(Messaging.exchangeForIndexingSolr, "", messageContent);
-          return true;
         } catch (Exception e) {
           LOGGER.error(
               String.format(
-                  "failed to convert sample to message and send to queue for %s", accession));
-          return false;
+                  "failed to convert sample to message and send to queue for %s",
+                  sample.getAccession()));
+          failed.add(sample.getAccession());
         }
-      } else {
+      }
+      for (String accession : unfetched) {
         if (isRetry) {
           LOGGER.error(String.format("failed to fetch sample after retrying for %s", accession));
         } else {
           LOGGER.warn(String.format("failed to fetch sample for %s", accession));
         }
-        return false;
+        failed.add(accession);
       }
+      return failed;
     }
   }
 }
@@ -0,0 +1,262 @@
+/*
+* Copyright 2019 EMBL - European Bioinformatics Institute
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+* file except in compliance with the License. You may obtain a copy of the License at
+* http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the
+* License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+* CONDITIONS OF ANY KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations under the License.
+*/
+package uk.ac.ebi.biosamples;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.stereotype.Component;
+import uk.ac.ebi.biosamples.model.Sample;
+import uk.ac.ebi.biosamples.mongo.model.MongoSample;
+import uk.ac.ebi.biosamples.mongo.model.MongoSampleMessage;
+import uk.ac.ebi.biosamples.ols.OlsProcessor;
+import uk.ac.ebi.biosamples.service.SampleReadService;
+import uk.ac.ebi.biosamples.solr.model.SolrSample;
+import uk.ac.ebi.biosamples.solr.repo.SolrSampleRepository;
+import uk.ac.ebi.biosamples.solr.service.SampleToSolrSampleConverter;
+
+/**
+ * Rebuilds the solr index directly from mongo, without going through rabbit and the solr agent.
+ *
+ * <p>Accessions are streamed from mongo in order, and each batch is fetched with its curation and
+ * inverse relationships, converted and sent to a separate core in a single update request, on a
+ * pool of threads. Once every sample has been indexed the separate core is committed and swapped
+ * with the live core, so searches only ever see a complete index. The previous index is left in the
+ * separate core afterwards, so it can be swapped back or unloaded.
+ *
+ * <p>The solr agent keeps updating the live core during the rebuild, and those changes are swapped
+ * out with it, so the samples changed since the rebuild started have to be reindexed afterwards,
+ * see {@link ReindexRunner}.
+ *
+ * <p>A sample that cannot be converted, for example because an ontology lookup fails, is logged and
+ * left out of the index, and recorded for the following reindex to try again. If more samples than
+ * allowed are left out the rebuild fails instead, and the live core is not swapped.
+ */
+@Component
+public class SolrBulkReindexer {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(SolrBulkReindexer.class);
+  static final String LIVE_CORE = "samples";
+  private static final List<String> ONTOLOGIES = Arrays.asList("efo", "NCBITaxon");
+
+  private final MongoOperations mongoOperations;
+  private final SampleReadService sampleReadService;
+  private final SampleToSolrSampleConverter sampleToSolrSampleConverter;
+  private final SolrSampleRepository solrSampleRepository;
+  private final OlsProcessor olsProcessor;
+
+  // expansions are shared by many samples, so only look each one up once per rebuild
+  private final Cache<String, Collection<String>> expansions =
+      Caffeine.newBuilder().maximumSize(1000000).build();
+
+  public SolrBulkReindexer(
+      MongoOperations mongoOperations,
+      SampleReadService sampleReadService,
+      SampleToSolrSampleConverter sampleToSolrSampleConverter,
+      SolrSampleRepository solrSampleRepository,
+      OlsProcessor olsProcessor) {
+    this.mongoOperations = mongoOperations;
+    this.sampleReadService = sampleReadService;
+    this.sampleToSolrSampleConverter = sampleToSolrSampleConverter;
+    this.solrSampleRepository = solrSampleRepository;
+    this.olsProcessor = olsProcessor;
+  }
+
+  /**
+   * @param core name of the core to build the index in, created if it does not exist
+   * @param configSet config set to create the core from, if needed
+   * @param batchSize number of samples fetched and sent to solr together
+   * @param threads number of batches processed at the same time
+   * @param maxSkipped number of samples that may be left out because they cannot be converted
+   * @return when the rebuild started, the samples changed since then are not in the new index
+   * @throws IllegalStateException if more than maxSkipped samples could not be converted
+   */
+  public Instant reindex(String core, String configSet, int batchSize, int threads, int maxSkipped)
+      throws InterruptedException, ExecutionException {
+    Instant rebuildStart = Instant.now();
+    if (solrSampleRepository.createCoreIfAbsent(core, configSet)) {
+      LOGGER.info("Created core " + core + " from config set " + configSet);
+    } else {
+      // most likely the index swapped out by a previous rebuild
+      LOGGER.info("Clearing existing core " + core);
+      solrSampleRepository.deleteAllAndCommit(core);
+    }
+
+    long startTime = System.nanoTime();
+    AtomicLong indexed = new AtomicLong();
+    Set<String> skipped = ConcurrentHashMap.newKeySet();
+    Map<String, Future<Integer>> futures = new LinkedHashMap<>();
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      Query query = new Query().with(new Sort(Sort.Direction.ASC, "_id"));
+      query.fields().include("_id");
+      try (CloseableIterator<MongoSample> it = mongoOperations.stream(query, MongoSample.class)) {
+        List<String> accessions = new ArrayList<>(batchSize);
+        while (it.hasNext()) {
+          accessions.add(it.next().getAccession());
+          if (accessions.size() >= batchSize || !it.hasNext()) {
+            futures.put(
+                accessions.get(0), executor.submit(new BatchCallable(core, accessions, skipped)));
+            accessions = new ArrayList<>(batchSize);
+            // wait for the submitted batches from time to time, to bound memory use
+            if (futures.size() > threads * 2) {
+              for (Future<Integer> future : futures.values()) {
+                indexed.addAndGet(future.get());
+              }
+              futures.clear();
+              logRate(indexed.get(), startTime);
+            }
+          }
+        }
+      }
+      for (Future<Integer> future : futures.values()) {
+        indexed.addAndGet(future.get());
+      }
+      futures.clear();
+    } finally {
+      executor.shutdown();
+      executor.awaitTermination(1, TimeUnit.HOURS);
+    }
+
+    solrSampleRepository.commit(core);
+    logRate(indexed.get(), startTime);
+    if (skipped.size() > maxSkipped) {
+      throw new IllegalStateException(
+          "Unable to convert "
+              + skipped.size()
+              + " samples, more than the "
+              + maxSkipped
+              + " allowed, not swapping "
+              + core
+              + " into "
+              + LIVE_CORE);
+    }
+    if (!skipped.isEmpty()) {
+      List<String> sorted = new ArrayList<>(skipped);
+      Collections.sort(sorted);
+      LOGGER.warn("Skipped " + sorted.size() + " samples that could not be converted: " + sorted);
+      recordSkipped(sorted);
+    }
+    solrSampleRepository.swapCores(LIVE_CORE, core);
+    LOGGER.info("Swapped " + core + " into " + LIVE_CORE + ", the previous index is now " + core);
+    return rebuildStart;
+  }
+
+  /** Records the skipped samples the same way the webapp records samples it could not send. */
+  private void recordSkipped(List<String> accessions) {
+    Instant now = Instant.now();
+    for (String accession : accessions) {
+      mongoOperations.save(MongoSampleMessage.build(accession, now));
+    }
+  }
+
+  private void logRate(long indexed, long startTime) {
+    double seconds = (System.nanoTime() - startTime) / 1e9;
+    LOGGER.info(
+        String.format(
+            "Indexed %d samples in %.0fs, %.1f samples/s", indexed, seconds, indexed / seconds));
+  }
+
+  private class BatchCallable implements Callable<Integer> {
+    private final String core;
+    private final List<String> accessions;
+    private final Set<String> skipped;
+
+    private BatchCallable(String core, List<String> accessions, Set<String> skipped) {
+      this.core = core;
+      this.accessions = accessions;
+      this.skipped = skipped;
+    }
+
+    @Override
+    public Integer call() {
+      String indexedTime = ZonedDateTime.now(ZoneOffset.UTC).format(DateTimeFormatter.ISO_INSTANT);
+      List<SolrSample> solrSamples = new ArrayList<>(accessions.size());
+      for (Sample sample : sampleReadService.fetchAll(accessions, Optional.empty())) {
+        if (SampleToSolrSampleConverter.isIndexingCandidate(sample)) {
+          try {
+            solrSamples.add(convert(sample, indexedTime));
+          } catch (RuntimeException e) {
+            LOGGER.error("Unable to convert sample " + sample.getAccession() + ", skipping it", e);
+            skipped.add(sample.getAccession());
+          }
+        }
+      }
+      solrSampleRepository.saveAllWithoutCommit(core, solrSamples);
+      return solrSamples.size();
+    }
+
+    private SolrSample convert(Sample sample, String indexedTime) {
+      SolrSample solrSample = sampleToSolrSampleConverter.convert(sample);
+      solrSample =
+          SolrSample.build(
+              solrSample.getName(),
+              solrSample.getAccession(),
+              solrSample.getDomain(),
+              solrSample.getRelease(),
+              solrSample.getUpdate(),
+              indexedTime,
+              indexedTime,
+              solrSample.getAttributeValues(),
+              solrSample.getAttributeIris(),
+              solrSample.getAttributeUnits(),
+              solrSample.getOutgoingRelationships(),
+              solrSample.getIncomingRelationships(),
+              solrSample.getExternalReferencesData(),
+              solrSample.getKeywords());
+
+      // expand ontology terms the same way as the solr agent
+      Set<String> iris = new HashSet<>();
+      for (List<String> attributeIris : solrSample.getAttributeIris().values()) {
+        iris.addAll(attributeIris);
+      }
+      for (String iri : iris) {
+        solrSample.getKeywords().addAll(expansions.get(iri, this::expand));
+      }
+      return solrSample;
+    }
+
+    private Collection<String> expand(String iri) {
+      Set<String> terms = new HashSet<>();
+      for (String ontology : ONTOLOGIES) {
+        terms.addAll(olsProcessor.ancestorsAndSynonyms(ontology, iri));
+      }
+      return terms;
+    }
+  }
+}
@@ -10,30 +10,59 @@
 */
 package uk.ac.ebi.biosamples;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 import org.springframework.amqp.core.AmqpTemplate;
 import org.springframework.boot.ApplicationArguments;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.data.util.CloseableIterator;
+import uk.ac.ebi.biosamples.model.Attribute;
+import uk.ac.ebi.biosamples.model.Curation;
 import uk.ac.ebi.biosamples.model.Sample;
+import uk.ac.ebi.biosamples.mongo.model.MongoCurationLink;
+import uk.ac.ebi.biosamples.mongo.model.MongoRelationship;
 import uk.ac.ebi.biosamples.mongo.model.MongoSample;
+import uk.ac.ebi.biosamples.mongo.model.MongoSampleMessage;
 import uk.ac.ebi.biosamples.service.SampleReadService;
 
 @RunWith(MockitoJUnitRunner.class)
 public class ReindexRunnerTest {
 
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
   @Mock ApplicationArguments applicationArguments;
   @Mock AmqpTemplate amqpTemplate;
   @Mock MongoOperations mongoOperations;
   @Mock SampleReadService sampleReadService;
+  @Mock SolrBulkReindexer solrBulkReindexer;
 
   private List<String> accessions = Arrays.asList("ACCESSION1", "ACCESSION2", "ACCESSION3");
 
@@ -86,14 +115,226 @@ public class ReindexRunnerTest {
             null,
             Collections.EMPTY_SET,
             Collections.EMPTY_SET);
-    when(mongoOperations.stream(new Query(), MongoSample.class)).thenReturn(samples);
-    when(sampleReadService.fetch("ACCESSION1", Optional.empty())).thenReturn(Optional.of(sample1));
-    when(sampleReadService.fetch("ACCESSION2", Optional.empty())).thenReturn(Optional.empty());
-    when(sampleReadService.fetch("ACCESSION3", Optional.empty()))
-        .thenReturn(Optional.empty())
-        .thenReturn(Optional.of(sample3));
+    Query query = new Query().with(new Sort(Sort.Direction.ASC, "_id"));
+    query.fields().include("_id");
+    when(mongoOperations.stream(query, MongoSample.class)).thenReturn(samples);
+    when(sampleReadService.fetchAll(accessions, Optional.empty()))
+        .thenReturn(Collections.singletonList(sample1));
+    when(sampleReadService.fetchAll(Arrays.asList("ACCESSION2", "ACCESSION3"), Optional.empty()))
+        .thenReturn(Collections.singletonList(sample3));
+    ReindexRunner reindexRunner =
+        new ReindexRunner(amqpTemplate, sampleReadService, mongoOperations, solrBulkReindexer);
+    reindexRunner.run(applicationArguments);
+  }
+
+  @Test
+  public void test_only_changed_samples_are_reindexed_since_given_time() throws Exception {
+    Instant since = Instant.parse("2020-01-01T00:00:00Z");
+    when(applicationArguments.containsOption("since")).thenReturn(true);
+    when(applicationArguments.getOptionValues("since"))
+        .thenReturn(Collections.singletonList(since.toString()));
+
+    MongoSample updated = mock(MongoSample.class);
+    when(updated.getAccession()).thenReturn("ACCESSION2");
+    when(updated.getRelationships())
+        .thenReturn(
+            new TreeSet<>(
+                Collections.singleton(
+                    MongoRelationship.build("ACCESSION2", "derived from", "ACCESSION1"))));
+    Query updatedQuery = new Query(Criteria.where("update").gt(since));
+    updatedQuery.fields().include("relationships");
+    when(mongoOperations.stream(updatedQuery, MongoSample.class))
+        .thenReturn(iterate(Collections.singletonList(updated)));
+
+    MongoCurationLink curated =
+        MongoCurationLink.build(
+            "ACCESSION5",
+            Curation.build(
+                Collections.emptyList(), Collections.singletonList(Attribute.build("a", "b"))),
+            null,
+            since.plusSeconds(1));
+    when(mongoOperations.stream(
+            new Query(Criteria.where("created").gt(since)), MongoCurationLink.class))
+        .thenReturn(iterate(Collections.singletonList(curated)));
+
+    // recorded by the webapp before the given time, but not indexed since
+    when(mongoOperations.find(new Query(), MongoSampleMessage.class))
+        .thenReturn(
+            Collections.singletonList(
+                MongoSampleMessage.build("ACCESSION7", since.minusSeconds(1))));
+
+    Instant start = Instant.now();
     ReindexRunner reindexRunner =
-        new ReindexRunner(amqpTemplate, sampleReadService, mongoOperations);
+        new ReindexRunner(amqpTemplate, sampleReadService, mongoOperations, solrBulkReindexer);
     reindexRunner.run(applicationArguments);
+
+    verify(sampleReadService, atLeastOnce())
+        .fetchAll(
+            Arrays.asList("ACCESSION1", "ACCESSION2", "ACCESSION5", "ACCESSION7"),
+            Optional.empty());
+    verify(mongoOperations, never()).stream(new Query(), MongoSample.class);
+    ArgumentCaptor<Query> removed = ArgumentCaptor.forClass(Query.class);
+    verify(mongoOperations).remove(removed.capture(), eq(MongoSampleMessage.class));
+    Instant before =
+        (Instant) ((Map<?, ?>) removed.getValue().getQueryObject().get("update")).get("$lte");
+    assertFalse(before.isBefore(start));
+  }
+
+  @Test
+  public void direct_rebuild_is_followed_by_the_changes_made_during_it() throws Exception {
+    Instant rebuildStart = Instant.parse("2020-01-01T00:00:00Z");
+    when(applicationArguments.containsOption("direct")).thenReturn(true);
+    when(solrBulkReindexer.reindex("samples_rebuild", "data_driven_schema_configs", 1000, 16, 1000))
+        .thenReturn(rebuildStart);
+
+    // indexed by the agent into the core that was swapped out
+    MongoSample updated = mock(MongoSample.class);
+    when(updated.getAccession()).thenReturn("ACCESSION3");
+    Query updatedQuery = new Query(Criteria.where("update").gt(rebuildStart));
+    updatedQuery.fields().include("relationships");
+    when(mongoOperations.stream(updatedQuery, MongoSample.class))
+        .thenReturn(iterate(Collections.singletonList(updated)));
+    when(mongoOperations.stream(
+            new Query(Criteria.where("created").gt(rebuildStart)), MongoCurationLink.class))
+        .thenReturn(iterate(Collections.emptyList()));
+
+    ReindexRunner reindexRunner =
+        new ReindexRunner(amqpTemplate, sampleReadService, mongoOperations, solrBulkReindexer);
+    reindexRunner.run(applicationArguments);
+
+    verify(sampleReadService, atLeastOnce())
+        .fetchAll(Collections.singletonList("ACCESSION3"), Optional.empty());
+    verify(mongoOperations, never()).stream(new Query(), MongoSample.class);
+  }
+
+  @Test
+  public void interrupted_run_resumes_after_the_last_completed_batch() throws Exception {
+    Path checkpointFile = temporaryFolder.getRoot().toPath().resolve("checkpoint");
+    when(applicationArguments.containsOption("checkpointFile")).thenReturn(true);
+    when(applicationArguments.getOptionValues("checkpointFile"))
+        .thenReturn(Collections.singletonList(checkpointFile.toString()));
+
+    List<String> all = new ArrayList<>();
+    for (int i = 1; i <= 1000; i++) {
+      all.add(String.format("SAMEA%04d", i));
+    }
+    List<String> fetched = Collections.synchronizedList(new ArrayList<>());
+    AtomicBoolean interrupted = new AtomicBoolean(true);
+    when(sampleReadService.fetchAll(anyListOf(String.class), eq(Optional.empty())))
+        .thenAnswer(
+            invocation -> {
+              @SuppressWarnings("unchecked")
+              List<String> batch = (List<String>) invocation.getArguments()[0];
+              // the fifth batch is still running when the first run stops
+              if (interrupted.get() && batch.contains("SAMEA0500")) {
+                TimeUnit.MILLISECONDS.sleep(200);
+              }
+              fetched.addAll(batch);
+              return batch.stream()
+                  .map(accession -> new Sample.Builder("test", accession).build())
+                  .collect(Collectors.toList());
+            });
+    when(mongoOperations.stream(any(Query.class), eq(MongoSample.class)))
+        .thenAnswer(
+            invocation -> {
+              Query query = (Query) invocation.getArguments()[0];
+              Object after = query.getQueryObject().get("_id");
+              List<String> remaining =
+                  after == null
+                      ? all
+                      : all.stream()
+                          .filter(accession -> accession.compareTo(checkpoint(after)) > 0)
+                          .collect(Collectors.toList());
+              return stopAfter(remaining, interrupted.get() ? 500 : remaining.size(), fetched);
+            });
+
+    ReindexRunner reindexRunner =
+        new ReindexRunner(amqpTemplate, sampleReadService, mongoOperations, solrBulkReindexer);
+    try {
+      reindexRunner.run(applicationArguments);
+      fail("expected the run to stop");
+    } catch (IllegalStateException e) {
+      // stopped after five batches
+    }
+    List<String> lines = Files.readAllLines(checkpointFile, StandardCharsets.UTF_8);
+    assertEquals(2, lines.size());
+    Instant.parse(lines.get(0));
+    assertEquals("SAMEA0400", lines.get(1));
+    assertEquals(all.subList(0, 500), sorted(fetched));
+
+    interrupted.set(false);
+    fetched.clear();
+    reindexRunner.run(applicationArguments);
+
+    // the batch that had not completed is sent again, nothing before it is
+    assertEquals(all.subList(400, 1000), sorted(fetched));
+    assertFalse(Files.exists(checkpointFile));
+  }
+
+  private static String checkpoint(Object criteria) {
+    return (String) ((Map<?, ?>) criteria).get("$gt");
+  }
+
+  private static List<String> sorted(List<String> accessions) {
+    synchronized (accessions) {
+      List<String> sorted = new ArrayList<>(accessions);
+      Collections.sort(sorted);
+      return sorted;
+    }
+  }
+
+  /**
+   * Streams the given accessions, but fails after the first stop of them. Before failing it waits
+   * for the first four batches to be fetched, so that the checkpoint can move past them.
+   */
+  private static CloseableIterator<MongoSample> stopAfter(
+      List<String> accessions, int stop, List<String> fetched) {
+    Iterator<String> it = accessions.iterator();
+    return new CloseableIterator<MongoSample>() {
+      private int count = 0;
+
+      @Override
+      public void close() {}
+
+      @Override
+      public boolean hasNext() {
+        if (count == 400 && stop < accessions.size()) {
+          long deadline = System.currentTimeMillis() + 10000;
+          while (fetched.size() < 400 && System.currentTimeMillis() < deadline) {
+            Thread.yield();
+          }
+        }
+        if (count == stop && it.hasNext()) {
+          throw new IllegalStateException("cursor lost");
+        }
+        return it.hasNext();
+      }
+
+      @Override
+      public MongoSample next() {
+        count++;
+        MongoSample sample = mock(MongoSample.class);
+        when(sample.getAccession()).thenReturn(it.next());
+        return sample;
+      }
+    };
+  }
+
+  private static <T> CloseableIterator<T> iterate(List<T> items) {
+    Iterator<T> it = items.iterator();
+    return new CloseableIterator<T>() {
+      @Override
+      public void close() {}
+
+      @Override
+      public boolean hasNext() {
+        return it.hasNext();
+      }
+
+      @Override
+      public T next() {
+        return it.next();
+      }
+    };
   }
 }
@@ -0,0 +1,231 @@
+/*
+* Copyright 2019 EMBL - European Bioinformatics Institute
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+* file except in compliance with the License. You may obtain a copy of the License at
+* http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the
+* License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+* CONDITIONS OF ANY KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations under the License.
+*/
+package uk.ac.ebi.biosamples;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.stream.Collectors;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
+import uk.ac.ebi.biosamples.model.Sample;
+import uk.ac.ebi.biosamples.mongo.model.MongoSample;
+import uk.ac.ebi.biosamples.mongo.model.MongoSampleMessage;
+import uk.ac.ebi.biosamples.ols.OlsProcessor;
+import uk.ac.ebi.biosamples.service.SampleReadService;
+import uk.ac.ebi.biosamples.solr.model.SolrSample;
+import uk.ac.ebi.biosamples.solr.repo.SolrSampleRepository;
+import uk.ac.ebi.biosamples.solr.service.SampleToSolrSampleConverter;
+
+@RunWith(MockitoJUnitRunner.class)
+public class SolrBulkReindexerTest {
+
+  private static final String CORE = "samples_rebuild";
+  private static final String CONFIG_SET = "data_driven_schema_configs";
+  private static final String BAD_IRI = "http://purl.obolibrary.org/obo/BAD_1";
+
+  @Mock MongoOperations mongoOperations;
+  @Mock SampleReadService sampleReadService;
+  @Mock SampleToSolrSampleConverter sampleToSolrSampleConverter;
+  @Mock SolrSampleRepository solrSampleRepository;
+  @Mock OlsProcessor olsProcessor;
+
+  private final List<String> accessions = Arrays.asList("SAMEA1", "SAMEA2", "SAMEA3");
+  private final List<String> saved = Collections.synchronizedList(new ArrayList<>());
+
+  // accession of a sample with a term that cannot be looked up in OLS
+  private String unexpandable;
+
+  private SolrBulkReindexer solrBulkReindexer;
+
+  @Before
+  @SuppressWarnings("unchecked")
+  public void setUp() {
+    when(mongoOperations.stream(any(Query.class), eq(MongoSample.class)))
+        .thenAnswer(invocation -> iterate(accessions));
+    when(sampleReadService.fetchAll(anyListOf(String.class), eq(Optional.empty())))
+        .thenAnswer(
+            invocation ->
+                ((List<String>) invocation.getArguments()[0])
+                    .stream()
+                        .map(accession -> new Sample.Builder("test", accession).build())
+                        .collect(Collectors.toList()));
+    when(sampleToSolrSampleConverter.convert(any(Sample.class)))
+        .thenAnswer(invocation -> solrSample((Sample) invocation.getArguments()[0]));
+    when(olsProcessor.ancestorsAndSynonyms(anyString(), anyString()))
+        .thenReturn(Collections.singletonList("term"));
+    when(olsProcessor.ancestorsAndSynonyms(anyString(), eq(BAD_IRI)))
+        .thenThrow(new IllegalStateException("OLS unavailable"));
+    doAnswer(
+            invocation -> {
+              for (SolrSample solrSample : (Collection<SolrSample>) invocation.getArguments()[1]) {
+                saved.add(solrSample.getAccession());
+              }
+              return null;
+            })
+        .when(solrSampleRepository)
+        .saveAllWithoutCommit(eq(CORE), anyCollectionOf(SolrSample.class));
+
+    solrBulkReindexer =
+        new SolrBulkReindexer(
+            mongoOperations,
+            sampleReadService,
+            sampleToSolrSampleConverter,
+            solrSampleRepository,
+            olsProcessor);
+  }
+
+  @Test
+  public void new_core_is_filled_then_committed_then_swapped() throws Exception {
+    when(solrSampleRepository.createCoreIfAbsent(CORE, CONFIG_SET)).thenReturn(true);
+
+    solrBulkReindexer.reindex(CORE, CONFIG_SET, 2, 2, 0);
+
+    InOrder inOrder = inOrder(solrSampleRepository);
+    inOrder.verify(solrSampleRepository).createCoreIfAbsent(CORE, CONFIG_SET);
+    inOrder
+        .verify(solrSampleRepository, times(2))
+        .saveAllWithoutCommit(eq(CORE), anyCollectionOf(SolrSample.class));
+    inOrder.verify(solrSampleRepository).commit(CORE);
+    inOrder.verify(solrSampleRepository).swapCores(SolrBulkReindexer.LIVE_CORE, CORE);
+    verify(solrSampleRepository, never()).deleteAllAndCommit(anyString());
+    verify(mongoOperations, never()).save(any(MongoSampleMessage.class));
+    assertEquals(accessions, sorted(saved));
+  }
+
+  @Test
+  public void rebuild_start_is_returned_for_the_changes_made_meanwhile() throws Exception {
+    Instant before = Instant.now();
+    Instant rebuildStart = solrBulkReindexer.reindex(CORE, CONFIG_SET, 10, 1, 0);
+
+    assertFalse(rebuildStart.isBefore(before));
+    assertFalse(rebuildStart.isAfter(Instant.now()));
+  }
+
+  @Test
+  public void existing_core_is_cleared_before_it_is_filled() throws Exception {
+    when(solrSampleRepository.createCoreIfAbsent(CORE, CONFIG_SET)).thenReturn(false);
+
+    solrBulkReindexer.reindex(CORE, CONFIG_SET, 10, 1, 0);
+
+    InOrder inOrder = inOrder(solrSampleRepository);
+    inOrder.verify(solrSampleRepository).deleteAllAndCommit(CORE);
+    inOrder
+        .verify(solrSampleRepository)
+        .saveAllWithoutCommit(eq(CORE), anyCollectionOf(SolrSample.class));
+    inOrder.verify(solrSampleRepository).commit(CORE);
+    inOrder.verify(solrSampleRepository).swapCores(SolrBulkReindexer.LIVE_CORE, CORE);
+  }
+
+  @Test
+  public void sample_that_cannot_be_converted_is_skipped_and_recorded() throws Exception {
+    unexpandable = "SAMEA2";
+
+    solrBulkReindexer.reindex(CORE, CONFIG_SET, 10, 1, 1);
+
+    assertEquals(Arrays.asList("SAMEA1", "SAMEA3"), sorted(saved));
+    ArgumentCaptor<MongoSampleMessage> recorded = ArgumentCaptor.forClass(MongoSampleMessage.class);
+    verify(mongoOperations).save(recorded.capture());
+    assertEquals("SAMEA2", recorded.getValue().getAccession());
+    verify(solrSampleRepository).commit(CORE);
+    verify(solrSampleRepository).swapCores(SolrBulkReindexer.LIVE_CORE, CORE);
+  }
+
+  @Test
+  public void rebuild_fails_when_too_many_samples_are_skipped() throws Exception {
+    unexpandable = "SAMEA2";
+
+    try {
+      solrBulkReindexer.reindex(CORE, CONFIG_SET, 10, 1, 0);
+      fail();
+    } catch (IllegalStateException expected) {
+    }
+
+    verify(solrSampleRepository, never()).swapCores(anyString(), anyString());
+    verify(mongoOperations, never()).save(any(MongoSampleMessage.class));
+  }
+
+  private SolrSample solrSample(Sample sample) {
+    Map<String, List<String>> attributeIris = new HashMap<>();
+    attributeIris.put(
+        "organism",
+        Collections.singletonList(
+            sample.getAccession().equals(unexpandable)
+                ? BAD_IRI
+                : "http://purl.obolibrary.org/obo/NCBITaxon_9606"));
+    return SolrSample.build(
+        sample.getName(),
+        sample.getAccession(),
+        null,
+        null,
+        null,
+        null,
+        null,
+        null,
+        attributeIris,
+        null,
+        null,
+        null,
+        null,
+        new ArrayList<>());
+  }
+
+  private static List<String> sorted(List<String> accessions) {
+    synchronized (accessions) {
+      List<String> sorted = new ArrayList<>(accessions);
+      Collections.sort(sorted);
+      return sorted;
+    }
+  }
+
+  private static CloseableIterator<MongoSample> iterate(List<String> accessions) {
+    Iterator<String> it = accessions.iterator();
+    return new CloseableIterator<MongoSample>() {
+      @Override
+      public void close() {}
+
+      @Override
+      public boolean hasNext() {
+        return it.hasNext();
+      }
+
+      @Override
+      public MongoSample next() {
+        MongoSample sample = mock(MongoSample.class);
+        when(sample.getAccession()).thenReturn(it.next());
+        return sample;
+      }
+    };
+  }
+}
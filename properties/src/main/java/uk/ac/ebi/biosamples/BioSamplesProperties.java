@@ -20,6 +20,43 @@ public class BioSamplesProperties {
   @Value("${biosamples.agent.solr.stayalive:false}")
   private Boolean agentSolrStayalive;
 
+  // number of messages (and prefetch count) the solr agent buffers before sending them to solr
+  @Value("${biosamples.agent.solr.batch.size:200}")
+  private int agentSolrBatchSize;
+
+  // in milliseconds, longest time a message is buffered by the solr agent before being sent
+  @Value("${biosamples.agent.solr.batch.timeout:1000}")
+  private int agentSolrBatchTimeout;
+
+  // in milliseconds, at least the autoSoftCommit maxTime of the samples core, so that updates are
+  // only announced to the webapps once solr has made them visible
+  @Value("${biosamples.agent.solr.softcommit.maxtime:5000}")
+  private long agentSolrSoftCommitMaxTime;
+
+  // in milliseconds, least time between announcements that the index has been updated
+  @Value("${biosamples.agent.solr.indexed.interval:10000}")
+  private long agentSolrIndexedInterval;
+
+  // number of concurrent OLS lookups the solr agent makes when expanding ontology terms
+  @Value("${biosamples.agent.solr.ols.threads:8}")
+  private int agentSolrOlsThreads;
+
+  // in milliseconds, how long the solr agent waits for the expansion of a sample's terms
+  @Value("${biosamples.agent.solr.ols.timeout:10000}")
+  private int agentSolrOlsTimeout;
+
+  // maximum number of expanded ontology terms kept by the solr agent
+  @Value("${biosamples.agent.solr.ols.cache.size:100000}")
+  private int agentSolrOlsCacheSize;
+
+  // in seconds, how long an expanded ontology term is used before OLS is asked again
+  @Value("${biosamples.agent.solr.ols.cache.ttl:604800}")
+  private long agentSolrOlsCacheTtl;
+
+  // file the expanded ontology terms are saved to and loaded from at startup, if any
+  @Value("${biosamples.agent.solr.ols.cache.file:#{null}}")
+  private String agentSolrOlsCacheFile;
+
   @Value("${biosamples.client.uri:http://localhost:8081}")
   private URI biosamplesClientUri;
 
@@ -42,6 +79,15 @@ public class BioSamplesProperties {
   @Value("${biosamples.client.threadcount.max:8}")
   private int threadCountMax;
 
+  // number of cursors reading samples at the same time, from 1 to 10
+  // each cursor has a page in flight, so this should be no more than the connection count
+  @Value("${biosamples.client.cursor.partitions:1}")
+  private int cursorPartitions;
+
+  // number of pages each cursor fetches ahead of the page being read
+  @Value("${biosamples.client.cursor.readahead:1}")
+  private int cursorReadAhead;
+
   @Value("${biosamples.client.aap.uri:https://explore.api.aai.ebi.ac.uk/auth}")
   private URI biosamplesClientAapUri;
 
@@ -71,6 +117,10 @@ public class BioSamplesProperties {
   @Value("${biosamples.ols:https://www.ebi.ac.uk/ols}")
   private String ols;
 
+  // comma separated ontology=path pairs of OBO files used instead of OLS for term ancestors
+  @Value("${biosamples.ols.closure.files:#{null}}")
+  private String olsClosureFiles;
+
   @Value("${biosamples.webapp.sampletab.uri:http://localhost:8082/biosamples/sampletab}")
   private URI biosamplesWebappSampletabUri;
 
@@ -94,6 +144,49 @@ public class BioSamplesProperties {
   @Value("${biosamples.webapp.core.facet.cache.maxage:86400}")
   private int webappCoreFacetCacheMaxAge;
 
+  // number of distinct facet searches to keep the results of. 0 disables the cache
+  @Value("${biosamples.webapp.core.facet.cache.size:1000}")
+  private int webappCoreFacetCacheSize;
+
+  // in seconds, results are also dropped whenever the solr agent updates the index
+  @Value("${biosamples.webapp.core.facet.cache.ttl:600}")
+  private int webappCoreFacetCacheTtl;
+
+  // number of facet requests sent to solr at the same time, across all searches
+  @Value("${biosamples.webapp.core.facet.threads:16}")
+  private int webappCoreFacetThreads;
+
+  // in milliseconds, how long a search waits for its facets before returning those it has
+  @Value("${biosamples.webapp.core.facet.timeout:30000}")
+  private long webappCoreFacetTimeout;
+
+  // "regular" to use the facet strategy of each field, "json" to use a single JSON Facet request
+  @Value("${biosamples.webapp.core.facet.strategy:regular}")
+  private String webappCoreFacetStrategy;
+
+  // in seconds, how often the facets and sample count of the search landing page are recomputed
+  @Value("${biosamples.webapp.core.landing.snapshot.interval:300}")
+  private int webappCoreLandingSnapshotInterval;
+
+  // max total weight of the curated sample cache, roughly the number of attributes, relationships
+  // and other sub-elements across all cached samples. 0 disables the cache
+  @Value("${biosamples.webapp.core.sample.cache.maxweight:1000000}")
+  private long webappCoreSampleCacheMaxWeight;
+
+  // in seconds
+  @Value("${biosamples.webapp.core.sample.cache.ttl:60}")
+  private int webappCoreSampleCacheTtl;
+
+  // how long changes to samples are collected before updating the static view and indexing them,
+  // in milliseconds
+  @Value("${biosamples.webapp.core.messaging.window:500}")
+  private long webappCoreMessagingWindow;
+
+  // most changed samples waiting to be processed, including those waiting to be retried, beyond
+  // which further changes are recorded in mongo for the reindex pipeline instead
+  @Value("${biosamples.webapp.core.messaging.maxpending:100000}")
+  private int webappCoreMessagingMaxPending;
+
   @Value("${biosamples.schema.validator.uri:http://localhost:8085/validate}")
   private URI biosamplesSchemaValidatorServiceUri;
 
@@ -121,6 +214,14 @@ public class BioSamplesProperties {
     return threadCountMax;
   }
 
+  public int getBiosamplesClientCursorPartitions() {
+    return cursorPartitions;
+  }
+
+  public int getBiosamplesClientCursorReadAhead() {
+    return cursorReadAhead;
+  }
+
   public int getBiosamplesClientConnectionCountDefault() {
     return connectionCountDefault;
   }
@@ -157,10 +258,50 @@ public class BioSamplesProperties {
     return agentSolrStayalive;
   }
 
+  public int getAgentSolrBatchSize() {
+    return agentSolrBatchSize;
+  }
+
+  public int getAgentSolrBatchTimeout() {
+    return agentSolrBatchTimeout;
+  }
+
+  public long getAgentSolrSoftCommitMaxTime() {
+    return agentSolrSoftCommitMaxTime;
+  }
+
+  public long getAgentSolrIndexedInterval() {
+    return agentSolrIndexedInterval;
+  }
+
+  public int getAgentSolrOlsThreads() {
+    return agentSolrOlsThreads;
+  }
+
+  public int getAgentSolrOlsTimeout() {
+    return agentSolrOlsTimeout;
+  }
+
+  public int getAgentSolrOlsCacheSize() {
+    return agentSolrOlsCacheSize;
+  }
+
+  public long getAgentSolrOlsCacheTtl() {
+    return agentSolrOlsCacheTtl;
+  }
+
+  public String getAgentSolrOlsCacheFile() {
+    return agentSolrOlsCacheFile;
+  }
+
   public String getOls() {
     return ols;
   }
 
+  public String getOlsClosureFiles() {
+    return olsClosureFiles;
+  }
+
   public int getBiosamplesCorePageThreadCount() {
     return webappCorePageThreadCount;
   }
@@ -177,6 +318,46 @@ public class BioSamplesProperties {
     return webappCoreFacetCacheMaxAge;
   }
 
+  public int getBiosamplesCoreFacetCacheSize() {
+    return webappCoreFacetCacheSize;
+  }
+
+  public int getBiosamplesCoreFacetCacheTtl() {
+    return webappCoreFacetCacheTtl;
+  }
+
+  public int getBiosamplesCoreFacetThreads() {
+    return webappCoreFacetThreads;
+  }
+
+  public long getBiosamplesCoreFacetTimeout() {
+    return webappCoreFacetTimeout;
+  }
+
+  public String getBiosamplesCoreFacetStrategy() {
+    return webappCoreFacetStrategy;
+  }
+
+  public int getBiosamplesCoreLandingSnapshotInterval() {
+    return webappCoreLandingSnapshotInterval;
+  }
+
+  public long getBiosamplesCoreSampleCacheMaxWeight() {
+    return webappCoreSampleCacheMaxWeight;
+  }
+
+  public int getBiosamplesCoreSampleCacheTtl() {
+    return webappCoreSampleCacheTtl;
+  }
+
+  public long getBiosamplesCoreMessagingWindow() {
+    return webappCoreMessagingWindow;
+  }
+
+  public int getBiosamplesCoreMessagingMaxPending() {
+    return webappCoreMessagingMaxPending;
+  }
+
   public URI getBiosamplesWebappCoreUri() {
     return biosamplesWebappCoreUri;
   }
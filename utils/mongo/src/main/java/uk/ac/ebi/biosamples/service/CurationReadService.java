@@ -167,19 +167,70 @@ public class CurationReadService {
       Pageable pageable = new PageRequest(pageNo, 1000, Sort.Direction.ASC, "created");
       page = getCurationLinksForSample(sample.getAccession(), pageable);
       for (CurationLink curationLink : page) {
-        if (curationDomains.isPresent()) {
-          // curation domains restricted, curation must be part of that domain
-          if (curationDomains.get().contains(curationLink.getDomain())) {
-            curationLinks.add(curationLink);
-          }
-        } else {
-          // no curation domain restriction, use all
+        if (isInCurationDomains(curationLink, curationDomains)) {
           curationLinks.add(curationLink);
         }
       }
       pageNo += 1;
     } while (pageNo < page.getTotalPages());
 
+    return applyCurationLinksToSample(sample, curationLinks);
+  }
+
+  /**
+   * Bulk equivalent of {@link #applyAllCurationToSample(Sample, Optional)}. The curation links of
+   * every sample are loaded with a single query and applied in memory, so a whole page of samples
+   * costs one round trip to mongo rather than one per sample.
+   *
+   * @param samples
+   * @param curationDomains
+   * @return the curated samples, in the same order as the input
+   */
+  public List<Sample> applyAllCurationToSamples(
+      Collection<Sample> samples, Optional<List<String>> curationDomains) {
+    // short-circuit if no curation domains specified
+    if (samples.isEmpty() || (curationDomains.isPresent() && curationDomains.get().isEmpty())) {
+      return new ArrayList<>(samples);
+    }
+
+    Map<String, Set<CurationLink>> curationLinksBySample = new HashMap<>();
+    Set<String> accessions = new HashSet<>();
+    for (Sample sample : samples) {
+      accessions.add(sample.getAccession());
+    }
+    // sorted by creation date so each sample gets its curations applied in order
+    for (MongoCurationLink mongoCurationLink :
+        mongoCurationLinkRepository.findBySampleIn(
+            accessions, new Sort(Sort.Direction.ASC, "created"))) {
+      CurationLink curationLink =
+          mongoCurationLinkToCurationLinkConverter.convert(mongoCurationLink);
+      if (isInCurationDomains(curationLink, curationDomains)) {
+        curationLinksBySample
+            .computeIfAbsent(curationLink.getSample(), k -> new LinkedHashSet<>())
+            .add(curationLink);
+      }
+    }
+
+    List<Sample> curatedSamples = new ArrayList<>(samples.size());
+    for (Sample sample : samples) {
+      Set<CurationLink> curationLinks = curationLinksBySample.get(sample.getAccession());
+      if (curationLinks == null) {
+        curatedSamples.add(sample);
+      } else {
+        curatedSamples.add(applyCurationLinksToSample(sample, curationLinks));
+      }
+    }
+    return curatedSamples;
+  }
+
+  private boolean isInCurationDomains(
+      CurationLink curationLink, Optional<List<String>> curationDomains) {
+    // no curation domain restriction, use all
+    // otherwise curation domains restricted, curation must be part of that domain
+    return !curationDomains.isPresent() || curationDomains.get().contains(curationLink.getDomain());
+  }
+
+  private Sample applyCurationLinksToSample(Sample sample, Collection<CurationLink> curationLinks) {
     boolean failedCuration = false;
     for (CurationLink curation : curationLinks) {
       try {
@@ -10,7 +10,11 @@
 */
 package uk.ac.ebi.biosamples.service;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
@@ -140,6 +144,84 @@ public class SampleReadService {
     return sample == null ? Optional.empty() : Optional.of(sample);
   }
 
+  /**
+   * Fetches a batch of samples at once. The mongo samples, their inverse relationships and the
+   * curation links of the whole batch are each loaded with a single query, rather than a round trip
+   * of each per sample.
+   *
+   * @param accessions
+   * @param curationDomains
+   * @param staticViews
+   * @return the samples that exist, in the same order as the accessions
+   */
+  public List<Sample> fetchAll(
+      Collection<String> accessions,
+      Optional<List<String>> curationDomains,
+      StaticViewWrapper.StaticView staticViews) {
+    long startTime, endTime;
+
+    startTime = System.nanoTime();
+    Map<String, MongoSample> mongoSamples = new HashMap<>();
+    for (MongoSample mongoSample :
+        mongoSampleRepository.findSamplesFromCollection(accessions, staticViews)) {
+      mongoSamples.put(mongoSample.getAccession(), mongoSample);
+    }
+    endTime = System.nanoTime();
+    LOGGER.trace(
+        "Got "
+            + mongoSamples.size()
+            + " mongo originals in "
+            + ((endTime - startTime) / 1000000)
+            + "ms");
+
+    List<MongoSample> orderedMongoSamples = new ArrayList<>(mongoSamples.size());
+    for (String accession : accessions) {
+      MongoSample mongoSample = mongoSamples.get(accession);
+      if (mongoSample == null) {
+        LOGGER.warn("failed to retrieve sample with accession {}", accession);
+      } else {
+        orderedMongoSamples.add(mongoSample);
+      }
+    }
+
+    if (staticViews.equals(StaticViewWrapper.StaticView.SAMPLES_DYNAMIC)) {
+      startTime = System.nanoTime();
+      orderedMongoSamples =
+          mongoInverseRelationshipService.addInverseRelationships(orderedMongoSamples);
+      endTime = System.nanoTime();
+      LOGGER.trace(
+          "Got inverse relationships of "
+              + orderedMongoSamples.size()
+              + " samples in "
+              + ((endTime - startTime) / 1000000)
+              + "ms");
+    }
+
+    List<Sample> samples = new ArrayList<>(orderedMongoSamples.size());
+    for (MongoSample mongoSample : orderedMongoSamples) {
+      samples.add(mongoSampleToSampleConverter.convert(mongoSample));
+    }
+
+    if (staticViews.equals(StaticViewWrapper.StaticView.SAMPLES_DYNAMIC)) {
+      startTime = System.nanoTime();
+      samples = curationReadService.applyAllCurationToSamples(samples, curationDomains);
+      endTime = System.nanoTime();
+      LOGGER.trace(
+          "Applied curation to "
+              + samples.size()
+              + " samples in "
+              + ((endTime - startTime) / 1000000)
+              + "ms");
+    }
+
+    return samples;
+  }
+
+  public List<Sample> fetchAll(
+      Collection<String> accessions, Optional<List<String>> curationDomains) {
+    return fetchAll(accessions, curationDomains, StaticViewWrapper.StaticView.SAMPLES_DYNAMIC);
+  }
+
   public Future<Optional<Sample>> fetchAsync(
       String accession, Optional<List<String>> curationDomains) {
     return executorService.submit(new FetchCallable(accession, this, curationDomains));
@@ -17,6 +17,7 @@ import java.net.URI;
 import java.util.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.cache.annotation.Cacheable;
 import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.HttpStatus;
@@ -41,9 +42,20 @@ public class OlsProcessor {
 
   private final BioSamplesProperties bioSamplesProperties;
 
+  private final OntologyClosureIndex ontologyClosureIndex;
+
   public OlsProcessor(RestTemplate restTemplate, BioSamplesProperties bioSamplesProperties) {
+    this(restTemplate, bioSamplesProperties, null);
+  }
+
+  @Autowired
+  public OlsProcessor(
+      RestTemplate restTemplate,
+      BioSamplesProperties bioSamplesProperties,
+      OntologyClosureIndex ontologyClosureIndex) {
     this.restTemplate = restTemplate;
     this.bioSamplesProperties = bioSamplesProperties;
+    this.ontologyClosureIndex = ontologyClosureIndex;
   }
 
   /**
@@ -71,6 +83,15 @@ public class OlsProcessor {
       return synonyms;
     }
 
+    // use the local index if the ontology has been loaded, only asking OLS about unknown terms
+    if (ontologyClosureIndex != null) {
+      Optional<Collection<String>> indexed =
+          ontologyClosureIndex.ancestorsAndSynonyms(ontology, iri);
+      if (indexed.isPresent()) {
+        return indexed.get();
+      }
+    }
+
     // TODO do more by hal links, needs OLS to support
     // build has to flag this iri as having already been encoded
     UriComponents uriComponents =
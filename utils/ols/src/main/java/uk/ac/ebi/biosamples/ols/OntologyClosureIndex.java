@@ -0,0 +1,288 @@
+/*
+* Copyright 2019 EMBL - European Bioinformatics Institute
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+* file except in compliance with the License. You may obtain a copy of the License at
+* http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the
+* License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+* CONDITIONS OF ANY KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations under the License.
+*/
+package uk.ac.ebi.biosamples.ols;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import javax.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Service;
+import uk.ac.ebi.biosamples.BioSamplesProperties;
+
+/**
+ * Local index of the ancestors of ontology terms, built from OBO files on disk, so that the
+ * ancestors and synonyms of a term can be found without asking OLS.
+ *
+ * <p>The files are configured as a comma separated list of ontology=path pairs, e.g.
+ * "efo=/data/efo.obo,NCBITaxon=/data/ncbitaxon.obo". Ancestors follow is_a and part_of
+ * relationships, as the OLS hierarchicalAncestors endpoint does. The index can be rebuilt from the
+ * same files while running through the JMX "reload" operation.
+ */
+@Service
+@ManagedResource
+public class OntologyClosureIndex {
+
+  private static final String EFO_PREFIX = "http://www.ebi.ac.uk/efo/";
+  private static final String OBO_PREFIX = "http://purl.obolibrary.org/obo/";
+
+  private Logger log = LoggerFactory.getLogger(getClass());
+
+  private final String closureFiles;
+
+  private volatile Map<String, Closure> closures = Collections.emptyMap();
+
+  public OntologyClosureIndex(BioSamplesProperties bioSamplesProperties) {
+    this.closureFiles = bioSamplesProperties.getOlsClosureFiles();
+  }
+
+  /**
+   * @param ontology ontology name, as passed to OLS
+   * @param iri unencoded iri of the term
+   * @return labels and exact synonyms of the ancestors of the term, or empty if the ontology is not
+   *     indexed or does not contain the term
+   */
+  public Optional<Collection<String>> ancestorsAndSynonyms(String ontology, String iri) {
+    Closure closure = closures.get(ontology);
+    if (closure == null) {
+      return Optional.empty();
+    }
+    return closure.ancestorsAndSynonyms(iri);
+  }
+
+  @PostConstruct
+  @ManagedOperation(description = "Rebuild the ontology closure index from the configured files")
+  public void reload() throws IOException {
+    if (closureFiles == null || closureFiles.trim().isEmpty()) {
+      return;
+    }
+    Map<String, Closure> loaded = new HashMap<>();
+    for (String entry : closureFiles.split(",")) {
+      String[] parts = entry.split("=", 2);
+      if (parts.length != 2) {
+        throw new IllegalArgumentException("Invalid ontology closure file " + entry);
+      }
+      String ontology = parts[0].trim();
+      String path = parts[1].trim();
+      log.info("Loading " + ontology + " closure index from " + path);
+      try (BufferedReader reader =
+          Files.newBufferedReader(Paths.get(path), StandardCharsets.UTF_8)) {
+        Closure closure = Closure.fromObo(reader);
+        log.info("Loaded " + closure.size() + " " + ontology + " terms");
+        loaded.put(ontology, closure);
+      }
+    }
+    closures = loaded;
+  }
+
+  /** Ancestors of the terms of one ontology, stored as arrays indexed by term number. */
+  static class Closure {
+    private final Map<String, Integer> termsByIri;
+    private final int[][] parents;
+    private final String[][] names;
+
+    private Closure(Map<String, Integer> termsByIri, int[][] parents, String[][] names) {
+      this.termsByIri = termsByIri;
+      this.parents = parents;
+      this.names = names;
+    }
+
+    int size() {
+      return parents.length;
+    }
+
+    Optional<Collection<String>> ancestorsAndSynonyms(String iri) {
+      Integer term = termsByIri.get(iri);
+      if (term == null) {
+        return Optional.empty();
+      }
+      Set<String> synonyms = new HashSet<>();
+      Set<Integer> visited = new HashSet<>();
+      List<Integer> queue = new ArrayList<>();
+      queue.add(term);
+      for (int i = 0; i < queue.size(); i++) {
+        for (int parent : parents[queue.get(i)]) {
+          if (visited.add(parent)) {
+            queue.add(parent);
+            Collections.addAll(synonyms, names[parent]);
+          }
+        }
+      }
+      return Optional.of(synonyms);
+    }
+
+    static Closure fromObo(Reader reader) throws IOException {
+      Map<String, String> idspaces = new HashMap<>();
+      Map<String, Integer> termsByIri = new HashMap<>();
+      List<Set<String>> parentIris = new ArrayList<>();
+      List<String[]> names = new ArrayList<>();
+
+      BufferedReader lines = new BufferedReader(reader);
+      boolean inHeader = true;
+      boolean inTerm = false;
+      String id = null;
+      Set<String> termParents = new LinkedHashSet<>();
+      Set<String> termNames = new LinkedHashSet<>();
+
+      String line;
+      while ((line = lines.readLine()) != null) {
+        line = line.trim();
+        if (line.startsWith("[")) {
+          if (inTerm && id != null) {
+            addTerm(termsByIri, parentIris, names, id, idspaces, termParents, termNames);
+          }
+          inHeader = false;
+          inTerm = line.equals("[Term]");
+          id = null;
+          termParents = new LinkedHashSet<>();
+          termNames = new LinkedHashSet<>();
+          continue;
+        }
+        int colon = line.indexOf(':');
+        if (colon < 0) {
+          continue;
+        }
+        String tag = line.substring(0, colon);
+        String value = line.substring(colon + 1).trim();
+        if (inHeader) {
+          if (tag.equals("idspace")) {
+            String[] parts = value.split("\\s+");
+            if (parts.length >= 2) {
+              idspaces.put(parts[0], parts[1]);
+            }
+          }
+        } else if (inTerm) {
+          switch (tag) {
+            case "id":
+              id = firstToken(value);
+              break;
+            case "name":
+              termNames.add(value);
+              break;
+            case "synonym":
+              parseExactSynonym(value).ifPresent(termNames::add);
+              break;
+            case "is_a":
+              termParents.add(firstToken(value));
+              break;
+            case "relationship":
+              String[] parts = value.split("\\s+");
+              if (parts.length >= 2 && parts[0].equals("part_of")) {
+                termParents.add(parts[1]);
+              }
+              break;
+            default:
+              break;
+          }
+        }
+      }
+      if (inTerm && id != null) {
+        addTerm(termsByIri, parentIris, names, id, idspaces, termParents, termNames);
+      }
+
+      // parents have to be resolved once every term is known, as they can be defined later
+      int[][] parents = new int[parentIris.size()][];
+      for (int i = 0; i < parents.length; i++) {
+        parents[i] =
+            parentIris.get(i).stream()
+                .map(termsByIri::get)
+                .filter(parent -> parent != null)
+                .mapToInt(Integer::intValue)
+                .toArray();
+      }
+      return new Closure(termsByIri, parents, names.toArray(new String[0][]));
+    }
+
+    private static void addTerm(
+        Map<String, Integer> termsByIri,
+        List<Set<String>> parentIris,
+        List<String[]> names,
+        String id,
+        Map<String, String> idspaces,
+        Set<String> termParents,
+        Set<String> termNames) {
+      Set<String> iris = new LinkedHashSet<>();
+      for (String parent : termParents) {
+        iris.add(toIri(parent, idspaces));
+      }
+      termsByIri.put(toIri(id, idspaces), parentIris.size());
+      parentIris.add(iris);
+      names.add(termNames.toArray(new String[0]));
+    }
+
+    static String toIri(String id, Map<String, String> idspaces) {
+      if (id.contains("://")) {
+        return id;
+      }
+      int colon = id.indexOf(':');
+      if (colon < 0) {
+        return id;
+      }
+      String prefix = id.substring(0, colon);
+      String local = id.substring(colon + 1);
+      if (idspaces.containsKey(prefix)) {
+        return idspaces.get(prefix) + local;
+      }
+      if (prefix.equals("EFO")) {
+        return EFO_PREFIX + prefix + "_" + local;
+      }
+      return OBO_PREFIX + prefix + "_" + local;
+    }
+
+    private static String firstToken(String value) {
+      int end = 0;
+      while (end < value.length() && !Character.isWhitespace(value.charAt(end))) {
+        end++;
+      }
+      return value.substring(0, end);
+    }
+
+    // e.g. "Homo sapiens" EXACT [] returns Homo sapiens
+    private static Optional<String> parseExactSynonym(String value) {
+      if (!value.startsWith("\"")) {
+        return Optional.empty();
+      }
+      StringBuilder synonym = new StringBuilder();
+      int i = 1;
+      for (; i < value.length(); i++) {
+        char c = value.charAt(i);
+        if (c == '\\' && i + 1 < value.length()) {
+          synonym.append(value.charAt(++i));
+        } else if (c == '"') {
+          break;
+        } else {
+          synonym.append(c);
+        }
+      }
+      String scope = firstToken(value.substring(Math.min(i + 1, value.length())).trim());
+      if (!scope.equals("EXACT") || synonym.length() == 0) {
+        return Optional.empty();
+      }
+      return Optional.of(synonym.toString());
+    }
+  }
+}
@@ -0,0 +1,66 @@
+/*
+* Copyright 2019 EMBL - European Bioinformatics Institute
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+* file except in compliance with the License. You may obtain a copy of the License at
+* http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the
+* License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+* CONDITIONS OF ANY KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations under the License.
+*/
+package uk.ac.ebi.biosamples.ols;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import org.junit.Before;
+import org.junit.Test;
+
+public class OntologyClosureIndexTest {
+
+  private OntologyClosureIndex.Closure closure;
+
+  @Before
+  public void setUp() throws IOException {
+    try (Reader reader =
+        new InputStreamReader(
+            getClass().getResourceAsStream("/examples/obo/test.obo"), StandardCharsets.UTF_8)) {
+      closure = OntologyClosureIndex.Closure.fromObo(reader);
+    }
+  }
+
+  @Test
+  public void ancestors_follow_is_a_and_part_of() {
+    assertEquals(
+        new HashSet<>(Arrays.asList("material entity", "material", "experimental factor", "head")),
+        new HashSet<>(
+            closure.ancestorsAndSynonyms("http://purl.obolibrary.org/obo/UBERON_0000955").get()));
+  }
+
+  @Test
+  public void root_term_has_no_ancestors() {
+    assertEquals(
+        Collections.emptySet(),
+        closure.ancestorsAndSynonyms("http://www.ebi.ac.uk/efo/EFO_0000001").get());
+  }
+
+  @Test
+  public void unknown_term_is_not_found() {
+    assertFalse(closure.ancestorsAndSynonyms("http://www.ebi.ac.uk/efo/EFO_9999999").isPresent());
+    assertEquals(4, closure.size());
+  }
+
+  @Test
+  public void ids_use_declared_idspaces() {
+    assertEquals(
+        Collections.singleton("experimental factor"),
+        new HashSet<>(closure.ancestorsAndSynonyms("http://example.org/test/TEST_1").get()));
+  }
+}
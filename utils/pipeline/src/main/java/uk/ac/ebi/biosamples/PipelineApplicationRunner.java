@@ -13,10 +13,10 @@ package uk.ac.ebi.biosamples;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.Future;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -27,10 +27,10 @@ import uk.ac.ebi.biosamples.client.BioSamplesClient;
 import uk.ac.ebi.biosamples.model.PipelineAnalytics;
 import uk.ac.ebi.biosamples.model.Sample;
 import uk.ac.ebi.biosamples.model.filter.Filter;
-import uk.ac.ebi.biosamples.utils.AdaptiveThreadPoolExecutor;
 import uk.ac.ebi.biosamples.utils.ArgUtils;
+import uk.ac.ebi.biosamples.utils.CloseableExecutorService;
+import uk.ac.ebi.biosamples.utils.ExecutorFactory;
 import uk.ac.ebi.biosamples.utils.MailSender;
-import uk.ac.ebi.biosamples.utils.ThreadUtils;
 
 public abstract class PipelineApplicationRunner implements ApplicationRunner {
   protected final Logger LOG = LoggerFactory.getLogger(getClass());
@@ -59,15 +59,19 @@ public abstract class PipelineApplicationRunner implements ApplicationRunner {
 
     loadPreConfiguration();
 
-    try (AdaptiveThreadPoolExecutor executorService =
-        AdaptiveThreadPoolExecutor.create(
-            100,
-            10000,
-            true,
+    try (CloseableExecutorService executorService =
+        ExecutorFactory.create(
+            pipelinesProperties.getExecutor(),
             pipelinesProperties.getThreadCount(),
-            pipelinesProperties.getThreadCountMax())) {
+            pipelinesProperties.getThreadCountMax(),
+            pipelinesProperties.getConcurrencyMax())) {
 
-      Map<String, Future<PipelineResult>> futures = new HashMap<>();
+      // results are handled as soon as their sample is processed, and no more than the maximum
+      // number of samples are waited on at once, so memory use does not grow with the database
+      CompletionService<PipelineResult> completionService =
+          new ExecutorCompletionService<>(executorService);
+      int inFlightMax = Math.max(1, pipelinesProperties.getInFlightMax());
+      int inFlight = 0;
       for (Resource<Sample> sampleResource : bioSamplesClient.fetchSampleResourceAll("", filters)) {
         Sample sample = Objects.requireNonNull(sampleResource.getContent());
         LOG.trace("Handling {}", sample);
@@ -77,11 +81,22 @@ public abstract class PipelineApplicationRunner implements ApplicationRunner {
         if (sampleCount % 10000 == 0) {
           LOG.info("{} samples scheduled for processing", sampleCount);
         }
-        futures.put(sample.getAccession(), executorService.submit(task));
+        completionService.submit(task);
+        inFlight++;
+
+        Future<PipelineResult> future;
+        while ((future =
+                inFlight >= inFlightMax ? completionService.take() : completionService.poll())
+            != null) {
+          pipelineFutureCallback.call(future.get());
+          inFlight--;
+        }
       }
 
       LOG.info("waiting for futures to finish");
-      ThreadUtils.checkAndCallbackFutures(futures, 0, pipelineFutureCallback);
+      for (; inFlight > 0; inFlight--) {
+        pipelineFutureCallback.call(completionService.take().get());
+      }
     } catch (final Exception e) {
       LOG.error("Pipeline failed to finish successfully", e);
       MailSender.sendEmail(
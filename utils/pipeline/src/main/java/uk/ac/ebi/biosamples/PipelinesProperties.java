@@ -25,6 +25,20 @@ public class PipelinesProperties {
   @Value("${biosamples.pipelines.threadcount.max:8}")
   private int threadCountMax;
 
+  // executor samples are processed on: "adaptive", "gradient" (adaptive, sized from the run time of
+  // jobs) or "bounded" (a thread per job, up to the concurrency below)
+  @Value("${biosamples.pipelines.executor:adaptive}")
+  private String executor;
+
+  // most jobs running at once on the "bounded" executor. Requests to BioSamples are also limited by
+  // the connection count, so that may need raising too
+  @Value("${biosamples.pipelines.concurrency.max:256}")
+  private int concurrencyMax;
+
+  // maximum number of samples submitted for processing but not yet completed
+  @Value("${biosamples.pipelines.inflight.max:1000}")
+  private int inFlightMax;
+
   @Value("${biosamples.pipelines.connectioncount.max:8}")
   private int connectionCountMax;
 
@@ -104,6 +118,18 @@ public class PipelinesProperties {
     return threadCountMax;
   }
 
+  public String getExecutor() {
+    return executor;
+  }
+
+  public int getConcurrencyMax() {
+    return concurrencyMax;
+  }
+
+  public int getInFlightMax() {
+    return inFlightMax;
+  }
+
   public int getConnectionCountMax() {
     return connectionCountMax;
   }
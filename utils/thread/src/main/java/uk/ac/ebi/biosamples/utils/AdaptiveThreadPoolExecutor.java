@@ -10,21 +10,30 @@
 */
 package uk.ac.ebi.biosamples.utils;
 
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class AdaptiveThreadPoolExecutor extends ThreadPoolExecutor implements AutoCloseable {
+/**
+ * A thread pool that resizes itself while it runs, as decided by a {@link PoolSizingPolicy} from
+ * the jobs completed each poll interval. By default this is a {@link HillClimbingPolicy}.
+ *
+ * <p>The queue depth, and the throughput and mean run time of the jobs over the last poll interval,
+ * are available as metrics alongside those of {@link ThreadPoolExecutor}.
+ */
+public class AdaptiveThreadPoolExecutor extends ThreadPoolExecutor
+    implements CloseableExecutorService {
   private Logger log = LoggerFactory.getLogger(this.getClass());
   private AtomicInteger completedJobs = new AtomicInteger(0);
+  private AtomicLong completedJobsLatency = new AtomicLong(0);
+  private final ThreadLocal<Long> jobStart = new ThreadLocal<>();
+  private volatile PoolSizingPolicy.Sample lastSample;
 
   private AdaptiveThreadPoolExecutor(
       int corePoolSize,
@@ -37,12 +46,34 @@ public class AdaptiveThreadPoolExecutor extends ThreadPoolExecutor implements Au
     super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue, rejectedExecutionHandler);
   }
 
+  protected void beforeExecute(Thread t, Runnable r) {
+    jobStart.set(System.nanoTime());
+  }
+
   protected void afterExecute(Runnable r, Throwable t) {
     if (t != null) return;
 
+    completedJobsLatency.addAndGet(System.nanoTime() - jobStart.get());
     completedJobs.incrementAndGet();
   }
 
+  /** @return number of jobs waiting for a thread */
+  public int getQueueDepth() {
+    return getQueue().size();
+  }
+
+  /** @return jobs completed per second over the last poll interval */
+  public double getThroughput() {
+    PoolSizingPolicy.Sample sample = lastSample;
+    return sample == null ? 0 : sample.getThroughput();
+  }
+
+  /** @return mean run time in milliseconds of the jobs completed over the last poll interval */
+  public double getMeanLatencyMillis() {
+    PoolSizingPolicy.Sample sample = lastSample;
+    return sample == null ? 0 : sample.getMeanLatencyNanos() / 1000000.0d;
+  }
+
   /**
    * This is required to implement the AutoClosable interface. It will stop accepting new jobs and
    * wait up to 24h before termination;
@@ -75,6 +106,22 @@ public class AdaptiveThreadPoolExecutor extends ThreadPoolExecutor implements Au
 
   public static AdaptiveThreadPoolExecutor create(
       int maxQueueSize, int pollInterval, boolean fairness, int initialPoolSize, int maxThreads) {
+    return create(
+        maxQueueSize,
+        pollInterval,
+        fairness,
+        initialPoolSize,
+        maxThreads,
+        new HillClimbingPolicy(pollInterval));
+  }
+
+  public static AdaptiveThreadPoolExecutor create(
+      int maxQueueSize,
+      int pollInterval,
+      boolean fairness,
+      int initialPoolSize,
+      int maxThreads,
+      PoolSizingPolicy policy) {
     // default to the number of processors
     int corePoolSize = initialPoolSize;
     int maximumPoolSize = corePoolSize;
@@ -99,7 +146,8 @@ public class AdaptiveThreadPoolExecutor extends ThreadPoolExecutor implements Au
             unit,
             workQueue,
             rejectedExecutionHandler);
-    Thread monitorThread = new Thread(new PoolMonitor(threadPool, pollInterval, maxThreads));
+    Thread monitorThread =
+        new Thread(new PoolMonitor(threadPool, pollInterval, maxThreads, policy));
 
     monitorThread.setDaemon(true);
     monitorThread.start();
@@ -109,7 +157,7 @@ public class AdaptiveThreadPoolExecutor extends ThreadPoolExecutor implements Au
 
   /**
    * This is a separate thread that monitors a thread pool and increases or decreases the number of
-   * threads within the pool in order to try to maximize the throughput.
+   * threads within the pool as its policy decides.
    *
    * @author faulcon
    */
@@ -117,15 +165,18 @@ public class AdaptiveThreadPoolExecutor extends ThreadPoolExecutor implements Au
     private Logger log = LoggerFactory.getLogger(this.getClass());
     private final AdaptiveThreadPoolExecutor pool;
     private final int pollInterval;
-    private final Map<Integer, Double> threadsScores = new HashMap<>();
-    private final Map<Integer, Long> threadsTime = new HashMap<>();
-    private final double margin = 1.0;
     private final int maxThreads;
+    private final PoolSizingPolicy policy;
 
-    public PoolMonitor(AdaptiveThreadPoolExecutor pool, int pollInterval, int maxThreads) {
+    public PoolMonitor(
+        AdaptiveThreadPoolExecutor pool,
+        int pollInterval,
+        int maxThreads,
+        PoolSizingPolicy policy) {
       this.pool = pool;
       this.pollInterval = pollInterval;
       this.maxThreads = maxThreads;
+      this.policy = policy;
     }
 
     @Override
@@ -142,83 +193,24 @@ public class AdaptiveThreadPoolExecutor extends ThreadPoolExecutor implements Au
           }
         }
 
-        // test the number of jobs done
-        // get number of threads they were done with
-
         long now = System.nanoTime();
         long interval = now - lastStep;
         lastStep = now;
 
         int currentThreads = pool.getMaximumPoolSize();
+        long latency = pool.completedJobsLatency.getAndSet(0);
         int doneJobs = pool.completedJobs.getAndSet(0);
-        // number of jobs per sec
-        double score = (((double) doneJobs) * 1000000000.0d) / (interval);
-
-        log.trace(
-            "Completed "
-                + doneJobs
-                + " in "
-                + interval
-                + "ns using "
-                + currentThreads
-                + " threads : score = "
-                + score);
-        // store the result of this score
-        threadsScores.put(currentThreads, score);
-        threadsTime.put(currentThreads, now);
-        // remove any scores that are too old
-        Iterator<Integer> iterator = threadsTime.keySet().iterator();
-
-        while (iterator.hasNext()) {
-          int testThreads = iterator.next();
-          long testTime = threadsTime.get(testThreads);
-          // more than 25 pollings ago?
-          if (testTime + (pollInterval * 1000000l * 25) < now) {
-            // too old score, remove it
-            log.trace(
-                "Remove out-of-date score for "
-                    + testThreads
-                    + " of "
-                    + threadsScores.get(testThreads));
-            iterator.remove();
-            threadsScores.remove(testThreads);
-          }
-        }
-
-        // work out what the best number of threads is
-        double bestScore = score;
-        int bestThreads = currentThreads;
-
-        for (int testThreads : threadsScores.keySet()) {
-          double testScore = threadsScores.get(testThreads);
-
-          if (testScore > bestScore) {
-            bestScore = testScore;
-            bestThreads = testThreads;
-          }
-        }
-        log.trace("Best scoring number of threads is " + bestThreads + " with " + bestScore);
-
-        // if we are more than margin below the best, change to the best
-        if (bestThreads != currentThreads && margin * score < bestScore) {
-          log.trace("Adjusting to use " + (bestThreads) + " threads");
-          setPoolSizesCoreFirst(bestThreads);
-        } else {
-          // experiment if we might do better increase or decreasing the threads
-          if ((!threadsScores.containsKey(currentThreads + 1)
-                  || threadsScores.get(currentThreads + 1) > margin * score)
-              && currentThreads < maxThreads) {
-            // increase the number of threads
-            log.trace("Adjusting to try " + (currentThreads + 1) + " threads");
-            setPoolSizesMaxFirst(currentThreads + 1);
-          } else if (currentThreads > 1
-              && (!threadsScores.containsKey(currentThreads - 1)
-                  || threadsScores.get(currentThreads - 1) > margin * score)) {
-            // decrease the number of threads
-            // only decrease threads if there are at least 2 (so we don't drop to zero!)
-            log.trace("Adjusting to try " + (currentThreads - 1) + " threads");
-            setPoolSizesCoreFirst(currentThreads - 1);
-          }
+        PoolSizingPolicy.Sample sample =
+            new PoolSizingPolicy.Sample(
+                now, interval, currentThreads, maxThreads, doneJobs, latency, pool.getQueueDepth());
+        pool.lastSample = sample;
+        log.debug("Thread pool " + sample);
+
+        int nextThreads = Math.max(1, Math.min(maxThreads, policy.nextPoolSize(sample)));
+        if (nextThreads > currentThreads) {
+          setPoolSizesMaxFirst(nextThreads);
+        } else if (nextThreads < currentThreads) {
+          setPoolSizesCoreFirst(nextThreads);
         }
       }
     }
@@ -0,0 +1,104 @@
+/*
+* Copyright 2019 EMBL - European Bioinformatics Institute
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+* file except in compliance with the License. You may obtain a copy of the License at
+* http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the
+* License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+* CONDITIONS OF ANY KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations under the License.
+*/
+package uk.ac.ebi.biosamples.utils;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs each job on a thread of its own, with no more than a fixed number of jobs running at once.
+ * Submitting a job waits until one of the running jobs has finished, so like the caller runs policy
+ * of {@link AdaptiveThreadPoolExecutor} it holds back whatever is producing the jobs.
+ *
+ * <p>This suits jobs that mostly wait on remote services, where the number of requests in flight
+ * matters rather than the number of processors. Threads are reused while there are jobs and stop
+ * after a minute idle.
+ */
+public class BoundedExecutorService extends AbstractExecutorService
+    implements CloseableExecutorService {
+
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+  private final int concurrency;
+  private final Semaphore permits;
+
+  /** @param concurrency most jobs that can run at the same time */
+  public BoundedExecutorService(int concurrency) {
+    this.concurrency = concurrency;
+    this.permits = new Semaphore(concurrency);
+  }
+
+  @Override
+  public void execute(Runnable command) {
+    try {
+      permits.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RejectedExecutionException(e);
+    }
+    try {
+      executor.execute(
+          () -> {
+            try {
+              command.run();
+            } finally {
+              permits.release();
+            }
+          });
+    } catch (RejectedExecutionException e) {
+      permits.release();
+      throw e;
+    }
+  }
+
+  /** @return number of jobs running */
+  public int getActiveCount() {
+    return concurrency - permits.availablePermits();
+  }
+
+  @Override
+  public void shutdown() {
+    executor.shutdown();
+  }
+
+  @Override
+  public List<Runnable> shutdownNow() {
+    // jobs are never queued, so there are none that have not started
+    executor.shutdownNow();
+    return Collections.emptyList();
+  }
+
+  @Override
+  public boolean isShutdown() {
+    return executor.isShutdown();
+  }
+
+  @Override
+  public boolean isTerminated() {
+    return executor.isTerminated();
+  }
+
+  @Override
+  public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    return executor.awaitTermination(timeout, unit);
+  }
+
+  @Override
+  public void close() throws Exception {
+    shutdown();
+    awaitTermination(1, TimeUnit.MINUTES);
+  }
+}
@@ -0,0 +1,60 @@
+/*
+* Copyright 2019 EMBL - European Bioinformatics Institute
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+* file except in compliance with the License. You may obtain a copy of the License at
+* http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the
+* License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+* CONDITIONS OF ANY KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations under the License.
+*/
+package uk.ac.ebi.biosamples.utils;
+
+/**
+ * Creates the executor pipelines run their jobs on, chosen by name so that it can be set in the
+ * pipeline properties.
+ *
+ * <ul>
+ *   <li>"adaptive" is an {@link AdaptiveThreadPoolExecutor} with its default sizing policy
+ *   <li>"gradient" is an {@link AdaptiveThreadPoolExecutor} sized by a {@link GradientPolicy}
+ *   <li>"bounded" is a {@link BoundedExecutorService}, for jobs that mostly wait on remote services
+ * </ul>
+ */
+public final class ExecutorFactory {
+
+  private ExecutorFactory() {}
+
+  /**
+   * Creates an executor whose adaptive pools have a fair queue.
+   *
+   * @see #create(String, boolean, int, int, int)
+   */
+  public static CloseableExecutorService create(
+      String type, int threadCount, int threadCountMax, int concurrency) {
+    return create(type, true, threadCount, threadCountMax, concurrency);
+  }
+
+  /**
+   * @param type "adaptive", "gradient" or "bounded"
+   * @param fairness whether the queue of an adaptive pool hands out jobs in the order they were
+   *     submitted, a bounded executor has no queue
+   * @param threadCount initial number of threads of an adaptive pool
+   * @param threadCountMax most threads of an adaptive pool
+   * @param concurrency most jobs running at once in a bounded executor
+   * @throws IllegalArgumentException if the type is not recognised
+   */
+  public static CloseableExecutorService create(
+      String type, boolean fairness, int threadCount, int threadCountMax, int concurrency) {
+    switch (type) {
+      case "adaptive":
+        return AdaptiveThreadPoolExecutor.create(100, 10000, fairness, threadCount, threadCountMax);
+      case "gradient":
+        return AdaptiveThreadPoolExecutor.create(
+            100, 10000, fairness, threadCount, threadCountMax, new GradientPolicy());
+      case "bounded":
+        return new BoundedExecutorService(concurrency);
+      default:
+        throw new IllegalArgumentException("Unrecognized executor type " + type);
+    }
+  }
+}
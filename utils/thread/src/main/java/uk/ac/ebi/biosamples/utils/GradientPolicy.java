@@ -0,0 +1,127 @@
+/*
+* Copyright 2019 EMBL - European Bioinformatics Institute
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+* file except in compliance with the License. You may obtain a copy of the License at
+* http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the
+* License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+* CONDITIONS OF ANY KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations under the License.
+*/
+package uk.ac.ebi.biosamples.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sizes the pool from the run time of the jobs, for jobs that mostly wait on a remote service.
+ *
+ * <p>While jobs take about as long as the shortest time seen, the remote service is keeping up, so
+ * if jobs are queued the pool grows by the square root of its size. That reaches a hundred threads
+ * in about twenty polls, where adding one thread at a time would take a hundred. By Little's law
+ * the threads needed for a throughput are the throughput times the run time, so the pool grows no
+ * further than the tolerance above the threads the current throughput needs at the shortest time.
+ * That stops it growing soon after the service stops keeping up. Once jobs take longer than the
+ * tolerance allows, the extra threads are only waiting in the service's own queue, so the pool
+ * shrinks by the ratio of the shortest time to the current one. When no jobs are queued, it shrinks
+ * to the threads that were busy on average, throughput times run time.
+ *
+ * <p>Run times are smoothed across polls so that a single noisy poll does not resize the pool. As a
+ * busy pool cannot see the shortest time of the service, every so often, or when jobs have been
+ * slow for a few polls in a row, the pool drops to a quarter of its threads for one poll and the
+ * time measured then is taken as the shortest. That follows a service that has become slower for
+ * good, where shrinking the pool would not make jobs any faster.
+ */
+public class GradientPolicy implements PoolSizingPolicy {
+  private Logger log = LoggerFactory.getLogger(this.getClass());
+
+  // weight of the latest poll in the smoothed run time
+  private static final double SMOOTHING = 0.5;
+  // polls between measuring the shortest run time with a quarter of the threads
+  private static final int PROBE_INTERVAL = 30;
+  // consecutive slow polls after which the shortest run time is measured again
+  private static final int SLOW_POLLS = 3;
+
+  private final double tolerance;
+  private double latency = 0;
+  private double minLatency = 0;
+  private int polls = 0;
+  private int slowPolls = 0;
+  // threads to go back to after measuring the shortest run time, or 0 if not measuring
+  private int probeThreads = 0;
+
+  /** Allows jobs to take up to 1.5 times the shortest run time before shrinking the pool. */
+  public GradientPolicy() {
+    this(1.5);
+  }
+
+  /** @param tolerance multiple of the shortest run time jobs can take before the pool shrinks */
+  public GradientPolicy(double tolerance) {
+    this.tolerance = tolerance;
+  }
+
+  @Override
+  public int nextPoolSize(Sample sample) {
+    int currentThreads = sample.getPoolSize();
+    if (sample.getCompletedJobs() == 0) {
+      // nothing to go on, either there are no jobs or they take longer than a poll
+      return currentThreads;
+    }
+
+    if (probeThreads > 0) {
+      latency = sample.getMeanLatencyNanos();
+      minLatency = latency;
+      int nextThreads = probeThreads;
+      probeThreads = 0;
+      log.trace("Measured shortest run time " + minLatency + "ns, back to " + nextThreads);
+      return nextThreads;
+    }
+
+    if (latency == 0) {
+      latency = sample.getMeanLatencyNanos();
+      minLatency = latency;
+    } else {
+      latency = SMOOTHING * sample.getMeanLatencyNanos() + (1 - SMOOTHING) * latency;
+      minLatency = Math.min(latency, minLatency);
+    }
+
+    boolean slow = latency > tolerance * minLatency;
+    slowPolls = slow ? slowPolls + 1 : 0;
+    if (currentThreads > 1 && (++polls >= PROBE_INTERVAL || slowPolls >= SLOW_POLLS)) {
+      polls = 0;
+      slowPolls = 0;
+      probeThreads = currentThreads;
+      log.trace("Measuring shortest run time with " + Math.max(1, currentThreads / 4) + " threads");
+      return Math.max(1, currentThreads / 4);
+    }
+
+    int nextThreads;
+    if (slow) {
+      nextThreads = (int) Math.floor(currentThreads * tolerance * minLatency / latency);
+    } else if (sample.getQueueDepth() > 0) {
+      double neededThreads = sample.getThroughput() * minLatency / 1000000000.0d;
+      nextThreads =
+          Math.max(
+              currentThreads,
+              Math.min(
+                  currentThreads + (int) Math.ceil(Math.sqrt(currentThreads)),
+                  (int) Math.ceil(neededThreads * tolerance)));
+    } else {
+      double busyThreads = sample.getThroughput() * latency / 1000000000.0d;
+      nextThreads = Math.min(currentThreads, (int) Math.ceil(busyThreads * tolerance));
+    }
+    nextThreads = Math.max(1, Math.min(sample.getMaxPoolSize(), nextThreads));
+
+    log.trace(
+        "Smoothed run time "
+            + latency
+            + "ns, shortest "
+            + minLatency
+            + "ns, adjusting from "
+            + currentThreads
+            + " to "
+            + nextThreads
+            + " threads");
+    return nextThreads;
+  }
+}
@@ -0,0 +1,113 @@
+/*
+* Copyright 2019 EMBL - European Bioinformatics Institute
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+* file except in compliance with the License. You may obtain a copy of the License at
+* http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the
+* License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+* CONDITIONS OF ANY KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations under the License.
+*/
+package uk.ac.ebi.biosamples.utils;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Scores each number of threads by the jobs completed per second, moves to the best scoring number
+ * of threads and otherwise tries one thread more or less. Scores older than 25 poll intervals are
+ * discarded, so the pool follows changes in the jobs.
+ *
+ * <p>This is the default policy of {@link AdaptiveThreadPoolExecutor}.
+ */
+public class HillClimbingPolicy implements PoolSizingPolicy {
+  private Logger log = LoggerFactory.getLogger(this.getClass());
+  private final long pollInterval;
+  private final Map<Integer, Double> threadsScores = new HashMap<>();
+  private final Map<Integer, Long> threadsTime = new HashMap<>();
+  private final double margin = 1.0;
+
+  /** @param pollInterval in milliseconds, interval between samples */
+  public HillClimbingPolicy(long pollInterval) {
+    this.pollInterval = pollInterval;
+  }
+
+  @Override
+  public int nextPoolSize(Sample sample) {
+    long now = sample.getNanoTime();
+    int currentThreads = sample.getPoolSize();
+    // number of jobs per sec
+    double score = sample.getThroughput();
+
+    log.trace(
+        "Completed "
+            + sample.getCompletedJobs()
+            + " in "
+            + sample.getIntervalNanos()
+            + "ns using "
+            + currentThreads
+            + " threads : score = "
+            + score);
+    // store the result of this score
+    threadsScores.put(currentThreads, score);
+    threadsTime.put(currentThreads, now);
+    // remove any scores that are too old
+    Iterator<Integer> iterator = threadsTime.keySet().iterator();
+
+    while (iterator.hasNext()) {
+      int testThreads = iterator.next();
+      long testTime = threadsTime.get(testThreads);
+      // more than 25 pollings ago?
+      if (testTime + (pollInterval * 1000000l * 25) < now) {
+        // too old score, remove it
+        log.trace(
+            "Remove out-of-date score for "
+                + testThreads
+                + " of "
+                + threadsScores.get(testThreads));
+        iterator.remove();
+        threadsScores.remove(testThreads);
+      }
+    }
+
+    // work out what the best number of threads is
+    double bestScore = score;
+    int bestThreads = currentThreads;
+
+    for (int testThreads : threadsScores.keySet()) {
+      double testScore = threadsScores.get(testThreads);
+
+      if (testScore > bestScore) {
+        bestScore = testScore;
+        bestThreads = testThreads;
+      }
+    }
+    log.trace("Best scoring number of threads is " + bestThreads + " with " + bestScore);
+
+    // if we are more than margin below the best, change to the best
+    if (bestThreads != currentThreads && margin * score < bestScore) {
+      log.trace("Adjusting to use " + (bestThreads) + " threads");
+      return bestThreads;
+    }
+    // experiment if we might do better increase or decreasing the threads
+    if ((!threadsScores.containsKey(currentThreads + 1)
+            || threadsScores.get(currentThreads + 1) > margin * score)
+        && currentThreads < sample.getMaxPoolSize()) {
+      // increase the number of threads
+      log.trace("Adjusting to try " + (currentThreads + 1) + " threads");
+      return currentThreads + 1;
+    }
+    if (currentThreads > 1
+        && (!threadsScores.containsKey(currentThreads - 1)
+            || threadsScores.get(currentThreads - 1) > margin * score)) {
+      // decrease the number of threads
+      // only decrease threads if there are at least 2 (so we don't drop to zero!)
+      log.trace("Adjusting to try " + (currentThreads - 1) + " threads");
+      return currentThreads - 1;
+    }
+    return currentThreads;
+  }
+}
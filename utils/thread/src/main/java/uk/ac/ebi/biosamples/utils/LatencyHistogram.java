@@ -0,0 +1,84 @@
+/*
+* Copyright 2019 EMBL - European Bioinformatics Institute
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+* file except in compliance with the License. You may obtain a copy of the License at
+* http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the
+* License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+* CONDITIONS OF ANY KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations under the License.
+*/
+package uk.ac.ebi.biosamples.utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts latencies in power of two buckets of milliseconds, so that percentiles can be reported
+ * without keeping every latency. Bucket 0 counts latencies below 1ms and bucket n those from
+ * 2^(n-1)ms to below 2^n ms, so percentiles are accurate to within a factor of two.
+ */
+public class LatencyHistogram {
+
+  private static final int BUCKETS = 40;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong totalMillis = new AtomicLong();
+  private final AtomicLong maxMillis = new AtomicLong();
+
+  public void record(long nanos) {
+    long millis = TimeUnit.NANOSECONDS.toMillis(Math.max(0, nanos));
+    int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(millis));
+    counts.incrementAndGet(bucket);
+    count.incrementAndGet();
+    totalMillis.addAndGet(millis);
+    maxMillis.accumulateAndGet(millis, Math::max);
+  }
+
+  public long getCount() {
+    return count.get();
+  }
+
+  public long getMaxMillis() {
+    return maxMillis.get();
+  }
+
+  public double getMeanMillis() {
+    long n = count.get();
+    return n == 0 ? 0 : (double) totalMillis.get() / n;
+  }
+
+  /**
+   * @param percentile between 0 and 100
+   * @return upper bound in milliseconds of the bucket the percentile falls in
+   */
+  public long getPercentileMillis(double percentile) {
+    long n = count.get();
+    if (n == 0) {
+      return 0;
+    }
+    long rank = (long) Math.ceil(n * percentile / 100.0);
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts.get(i);
+      if (seen >= rank) {
+        return Math.min(1L << i, maxMillis.get());
+      }
+    }
+    return maxMillis.get();
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "count=%d mean=%.1fms p50<=%dms p90<=%dms p99<=%dms max=%dms",
+        getCount(),
+        getMeanMillis(),
+        getPercentileMillis(50),
+        getPercentileMillis(90),
+        getPercentileMillis(99),
+        getMaxMillis());
+  }
+}
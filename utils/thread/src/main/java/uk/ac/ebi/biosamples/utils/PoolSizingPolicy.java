@@ -0,0 +1,106 @@
+/*
+* Copyright 2019 EMBL - European Bioinformatics Institute
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+* file except in compliance with the License. You may obtain a copy of the License at
+* http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the
+* License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+* CONDITIONS OF ANY KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations under the License.
+*/
+package uk.ac.ebi.biosamples.utils;
+
+/**
+ * Decides how many threads an {@link AdaptiveThreadPoolExecutor} should use, from what the pool did
+ * since it was last asked. Policies are called from a single monitor thread, so they can keep state
+ * between samples without synchronization, and only depend on the samples given to them so that
+ * they can be tested with simulated samples.
+ */
+public interface PoolSizingPolicy {
+
+  /** @return number of threads to use until the next sample, limited by the pool to 1..max */
+  int nextPoolSize(Sample sample);
+
+  /** What a pool did over one poll interval. */
+  final class Sample {
+    private final long nanoTime;
+    private final long intervalNanos;
+    private final int poolSize;
+    private final int maxPoolSize;
+    private final int completedJobs;
+    private final long totalLatencyNanos;
+    private final int queueDepth;
+
+    /**
+     * @param nanoTime when the sample was taken
+     * @param intervalNanos time since the previous sample
+     * @param poolSize number of threads used over the interval
+     * @param maxPoolSize most threads the pool can use
+     * @param completedJobs number of jobs completed over the interval
+     * @param totalLatencyNanos sum of the run times of those jobs
+     * @param queueDepth number of jobs waiting for a thread when the sample was taken
+     */
+    public Sample(
+        long nanoTime,
+        long intervalNanos,
+        int poolSize,
+        int maxPoolSize,
+        int completedJobs,
+        long totalLatencyNanos,
+        int queueDepth) {
+      this.nanoTime = nanoTime;
+      this.intervalNanos = intervalNanos;
+      this.poolSize = poolSize;
+      this.maxPoolSize = maxPoolSize;
+      this.completedJobs = completedJobs;
+      this.totalLatencyNanos = totalLatencyNanos;
+      this.queueDepth = queueDepth;
+    }
+
+    public long getNanoTime() {
+      return nanoTime;
+    }
+
+    public long getIntervalNanos() {
+      return intervalNanos;
+    }
+
+    public int getPoolSize() {
+      return poolSize;
+    }
+
+    public int getMaxPoolSize() {
+      return maxPoolSize;
+    }
+
+    public int getCompletedJobs() {
+      return completedJobs;
+    }
+
+    public int getQueueDepth() {
+      return queueDepth;
+    }
+
+    /** @return jobs completed per second */
+    public double getThroughput() {
+      return intervalNanos == 0 ? 0 : completedJobs * 1000000000.0d / intervalNanos;
+    }
+
+    /** @return mean run time of the completed jobs, or 0 if none completed */
+    public double getMeanLatencyNanos() {
+      return completedJobs == 0 ? 0 : (double) totalLatencyNanos / completedJobs;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "threads=%d/%d queue=%d completed=%d throughput=%.1f/s latency=%.1fms",
+          poolSize,
+          maxPoolSize,
+          queueDepth,
+          completedJobs,
+          getThroughput(),
+          getMeanLatencyNanos() / 1000000.0d);
+    }
+  }
+}
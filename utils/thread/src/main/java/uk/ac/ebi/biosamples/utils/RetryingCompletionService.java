@@ -0,0 +1,195 @@
+/*
+* Copyright 2019 EMBL - European Bioinformatics Institute
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+* file except in compliance with the License. You may obtain a copy of the License at
+* http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the
+* License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+* CONDITIONS OF ANY KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations under the License.
+*/
+package uk.ac.ebi.biosamples.utils;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs keyed tasks on an executor and handles their results in the order they complete, rather than
+ * the order they were submitted, so one slow task does not hold up the handling of the tasks that
+ * have already finished.
+ *
+ * <p>A task that fails is submitted again after a delay that doubles with each attempt, up to a
+ * maximum number of retries. Tasks that still fail are not retried any further and are kept, with
+ * their last exception, as dead letters for the caller to report. The time each successful task
+ * took to run is recorded in a {@link LatencyHistogram}.
+ *
+ * <p>Submitting and draining are expected to be done from a single thread.
+ */
+public class RetryingCompletionService<K, T> implements AutoCloseable {
+
+  private static final Logger log = LoggerFactory.getLogger(RetryingCompletionService.class);
+
+  private final Executor executor;
+  private final int maxRetries;
+  private final long initialBackoff;
+  private final ThreadUtils.Callback<T> callback;
+  private final ScheduledExecutorService retryScheduler;
+  private final BlockingQueue<Task> completed = new LinkedBlockingQueue<>();
+  private final Map<K, Throwable> deadLetters = new LinkedHashMap<>();
+  private final LatencyHistogram latencies = new LatencyHistogram();
+
+  // submitted tasks, including those waiting to be retried, that have not been handled yet
+  private int pending = 0;
+
+  /**
+   * @param executor runs the tasks
+   * @param maxRetries number of times a failed task is submitted again
+   * @param initialBackoff in milliseconds, delay before the first retry, doubled for each retry
+   * @param callback called with the result of each successful task, from the draining thread
+   */
+  public RetryingCompletionService(
+      Executor executor, int maxRetries, long initialBackoff, ThreadUtils.Callback<T> callback) {
+    this(
+        executor,
+        maxRetries,
+        initialBackoff,
+        callback,
+        Executors.newSingleThreadScheduledExecutor(
+            r -> {
+              Thread thread = new Thread(r, "retry-scheduler");
+              thread.setDaemon(true);
+              return thread;
+            }));
+  }
+
+  // the retry scheduler is shut down on close
+  RetryingCompletionService(
+      Executor executor,
+      int maxRetries,
+      long initialBackoff,
+      ThreadUtils.Callback<T> callback,
+      ScheduledExecutorService retryScheduler) {
+    this.executor = executor;
+    this.maxRetries = maxRetries;
+    this.initialBackoff = initialBackoff;
+    this.callback = callback;
+    this.retryScheduler = retryScheduler;
+  }
+
+  public void submit(K key, Callable<T> callable) {
+    pending++;
+    execute(new Task(key, callable, 0));
+  }
+
+  /**
+   * Handles completed tasks until no more than maxPending are left, waiting for tasks to complete
+   * if there are more than that. Tasks that have already completed are always handled.
+   */
+  public void drain(int maxPending) throws InterruptedException {
+    Task task;
+    while ((task = completed.poll()) != null) {
+      handle(task);
+    }
+    while (pending > maxPending) {
+      handle(completed.take());
+    }
+  }
+
+  /** @return keys of the tasks that failed after all their retries, with their last exception */
+  public Map<K, Throwable> getDeadLetters() {
+    return Collections.unmodifiableMap(deadLetters);
+  }
+
+  public LatencyHistogram getLatencies() {
+    return latencies;
+  }
+
+  public int getPending() {
+    return pending;
+  }
+
+  private void handle(Task task) throws InterruptedException {
+    T result;
+    try {
+      result = task.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (task.attempt < maxRetries) {
+        long delay = initialBackoff << task.attempt;
+        log.info("Retrying " + task.key + " in " + delay + "ms after " + cause);
+        Task retry = new Task(task.key, task.callable, task.attempt + 1);
+        retryScheduler.schedule(() -> execute(retry), delay, TimeUnit.MILLISECONDS);
+      } else {
+        log.warn("Giving up on " + task.key + " after " + (task.attempt + 1) + " attempts", cause);
+        deadLetters.put(task.key, cause);
+        pending--;
+      }
+      return;
+    }
+    latencies.record(task.latency);
+    pending--;
+    callback.call(result);
+  }
+
+  private void execute(Task task) {
+    try {
+      executor.execute(task);
+    } catch (RejectedExecutionException e) {
+      // completes the task, so it is handled like any other failure
+      task.reject(e);
+    }
+  }
+
+  @Override
+  public void close() {
+    retryScheduler.shutdownNow();
+    log.info("Task latencies: " + latencies);
+    if (!deadLetters.isEmpty()) {
+      log.warn(deadLetters.size() + " tasks failed after " + maxRetries + " retries");
+    }
+  }
+
+  private class Task extends FutureTask<T> {
+    private final K key;
+    private final Callable<T> callable;
+    private final int attempt;
+    private long start;
+    private long latency;
+
+    private Task(K key, Callable<T> callable, int attempt) {
+      super(callable);
+      this.key = key;
+      this.callable = callable;
+      this.attempt = attempt;
+    }
+
+    @Override
+    public void run() {
+      start = System.nanoTime();
+      super.run();
+    }
+
+    private void reject(RejectedExecutionException e) {
+      setException(e);
+    }
+
+    @Override
+    protected void done() {
+      latency = System.nanoTime() - start;
+      completed.add(this);
+    }
+  }
+}
@@ -11,6 +11,8 @@
 package uk.ac.ebi.biosamples.utils;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -18,54 +20,124 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Helpers for waiting on maps of futures. Futures that have already completed are handled before
+ * waiting on any that have not, so a slow task does not hold up the tasks that finished after it.
+ * Once there are more than the maximum number of futures, all of them are waited for, so an empty
+ * map afterwards means every task submitted so far has completed.
+ *
+ * <p>For tasks that should be retried, see {@link RetryingCompletionService}.
+ */
 public class ThreadUtils {
 
   private static Logger log = LoggerFactory.getLogger(ThreadUtils.class);
 
+  // in milliseconds, how long to wait on one future before checking whether others have completed
+  private static final long POLL_INTERVAL = 100;
+
+  private static final int DEFAULT_MAX_RETRIES = 3;
+
   public static <T> void checkFutures(Map<? extends Object, Future<T>> futures, int maxSize)
       throws InterruptedException, ExecutionException {
-    while (futures.size() > maxSize) {
-      for (Iterator<? extends Object> i = futures.keySet().iterator(); i.hasNext(); ) {
-        Object key = i.next();
-        futures.get(key).get();
-        i.remove();
-      }
-    }
+    checkAndCallbackFutures(futures, maxSize, t -> {});
   }
 
   public static <T> void checkAndCallbackFutures(
       Map<? extends Object, Future<T>> futures, int maxSize, Callback<T> callback)
       throws InterruptedException, ExecutionException {
-    while (futures.size() > maxSize) {
-      for (Iterator<? extends Object> i = futures.keySet().iterator(); i.hasNext(); ) {
-        Object key = i.next();
-        callback.call(futures.get(key).get());
+    if (futures.size() <= maxSize) {
+      return;
+    }
+    while (!futures.isEmpty()) {
+      if (!drainDone(futures, callback)) {
+        awaitAny(futures.values());
+      }
+    }
+  }
+
+  // handles every completed future, returns whether there were any
+  private static <T> boolean drainDone(
+      Map<? extends Object, Future<T>> futures, Callback<T> callback)
+      throws InterruptedException, ExecutionException {
+    boolean drained = false;
+    for (Iterator<Future<T>> i = futures.values().iterator(); i.hasNext(); ) {
+      Future<T> future = i.next();
+      if (future.isDone()) {
+        callback.call(future.get());
         i.remove();
+        drained = true;
       }
     }
+    return drained;
+  }
+
+  // waits a little for the first future, so that others completing meanwhile are noticed
+  private static void awaitAny(Collection<? extends Future<?>> futures)
+      throws InterruptedException {
+    try {
+      futures.iterator().next().get(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+    } catch (ExecutionException | TimeoutException e) {
+      // failures are reported when the future is drained
+    }
   }
 
   public static interface Callback<T> {
     public void call(T t);
   }
 
-  public static <T, U> void checkAndRetryFutures(
+  public static <T, U> List<T> checkAndRetryFutures(
       Map<T, Future<U>> futures,
       Map<T, Callable<U>> callables,
       int maxSize,
       ExecutorService executionService)
       throws InterruptedException {
-    while (futures.size() > maxSize) {
+    return checkAndRetryFutures(
+        futures, callables, maxSize, executionService, new HashMap<>(), DEFAULT_MAX_RETRIES);
+  }
+
+  /**
+   * Waits for the futures as {@link #checkFutures(Map, int)} does, re-executing the callables of
+   * those that failed. Attempts are counted per key in the given map, so that it can be shared
+   * across calls.
+   *
+   * @return keys that still failed after maxRetries re-executions, which are not retried again
+   */
+  public static <T, U> List<T> checkAndRetryFutures(
+      Map<T, Future<U>> futures,
+      Map<T, Callable<U>> callables,
+      int maxSize,
+      ExecutorService executionService,
+      Map<T, Integer> retries,
+      int maxRetries)
+      throws InterruptedException {
+    List<T> failed = new ArrayList<>();
+    if (futures.size() <= maxSize) {
+      return failed;
+    }
+    while (!futures.isEmpty()) {
       List<T> toReRun = new ArrayList<>();
-      for (Iterator<T> i = futures.keySet().iterator(); i.hasNext(); ) {
-        T key = i.next();
+      for (Iterator<Map.Entry<T, Future<U>>> i = futures.entrySet().iterator(); i.hasNext(); ) {
+        Map.Entry<T, Future<U>> entry = i.next();
+        if (!entry.getValue().isDone()) {
+          continue;
+        }
         try {
-          futures.get(key).get();
+          entry.getValue().get();
+          retries.remove(entry.getKey());
         } catch (ExecutionException e) {
-          toReRun.add(key);
+          int attempts = retries.merge(entry.getKey(), 1, Integer::sum);
+          if (attempts <= maxRetries) {
+            toReRun.add(entry.getKey());
+          } else {
+            log.warn("Giving up on " + entry.getKey() + " after " + attempts + " attempts", e);
+            retries.remove(entry.getKey());
+            failed.add(entry.getKey());
+          }
         }
         i.remove();
       }
@@ -73,6 +145,10 @@ public class ThreadUtils {
         log.info("Re-executing " + key);
         futures.put(key, executionService.submit(callables.get(key)));
       }
+      if (toReRun.isEmpty() && !futures.isEmpty()) {
+        awaitAny(futures.values());
+      }
     }
+    return failed;
   }
 }
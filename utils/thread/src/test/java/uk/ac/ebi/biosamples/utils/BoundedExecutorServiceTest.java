@@ -0,0 +1,140 @@
+/*
+* Copyright 2019 EMBL - European Bioinformatics Institute
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+* file except in compliance with the License. You may obtain a copy of the License at
+* http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the
+* License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+* CONDITIONS OF ANY KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations under the License.
+*/
+package uk.ac.ebi.biosamples.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Jobs wait on a latch the test releases, so the number running at any point is known without
+ * depending on timing.
+ */
+public class BoundedExecutorServiceTest {
+
+  private static final int CONCURRENCY = 3;
+
+  private final BoundedExecutorService executor = new BoundedExecutorService(CONCURRENCY);
+  private final CountDownLatch release = new CountDownLatch(1);
+
+  @After
+  public void tearDown() throws Exception {
+    release.countDown();
+    executor.close();
+  }
+
+  @Test(timeout = 10000)
+  public void runs_no_more_than_its_concurrency_at_once() throws Exception {
+    CountDownLatch started = new CountDownLatch(CONCURRENCY);
+    for (int i = 0; i < CONCURRENCY; i++) {
+      executor.execute(blocking(started));
+    }
+    started.await();
+
+    assertEquals(CONCURRENCY, executor.getActiveCount());
+  }
+
+  @Test(timeout = 10000)
+  public void execute_blocks_once_the_cap_is_reached() throws Exception {
+    CountDownLatch started = new CountDownLatch(CONCURRENCY);
+    for (int i = 0; i < CONCURRENCY; i++) {
+      executor.execute(blocking(started));
+    }
+    started.await();
+
+    CountDownLatch extraStarted = new CountDownLatch(1);
+    Thread submitter = new Thread(() -> executor.execute(blocking(extraStarted)));
+    submitter.start();
+    while (submitter.getState() != Thread.State.WAITING) {
+      Thread.yield();
+    }
+    assertEquals(1, extraStarted.getCount());
+    assertEquals(CONCURRENCY, executor.getActiveCount());
+
+    release.countDown();
+    submitter.join();
+    extraStarted.await();
+  }
+
+  @Test(timeout = 10000)
+  public void failed_job_frees_its_place() throws Exception {
+    BoundedExecutorService single = new BoundedExecutorService(1);
+    try {
+      Future<?> failed =
+          single.submit(
+              (Runnable)
+                  () -> {
+                    throw new IllegalStateException("unavailable");
+                  });
+      try {
+        failed.get();
+        fail();
+      } catch (ExecutionException expected) {
+      }
+
+      // would block forever if the failed job had kept its permit
+      assertEquals("SAMEA1", single.submit(() -> "SAMEA1").get());
+    } finally {
+      single.close();
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void interrupted_submitter_is_rejected() throws Exception {
+    CountDownLatch started = new CountDownLatch(CONCURRENCY);
+    for (int i = 0; i < CONCURRENCY; i++) {
+      executor.execute(blocking(started));
+    }
+    started.await();
+
+    Thread.currentThread().interrupt();
+    try {
+      executor.execute(() -> {});
+      fail();
+    } catch (RejectedExecutionException expected) {
+      // the interrupt is kept for the caller, and cleared for the next test
+      assertTrue(Thread.interrupted());
+    }
+  }
+
+  @Test
+  public void factory_creates_executors_by_type() throws Exception {
+    try (CloseableExecutorService bounded = ExecutorFactory.create("bounded", 1, 8, 200)) {
+      assertTrue(bounded instanceof BoundedExecutorService);
+    }
+    try (CloseableExecutorService adaptive = ExecutorFactory.create("adaptive", false, 1, 8, 0)) {
+      assertTrue(adaptive instanceof AdaptiveThreadPoolExecutor);
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void factory_refuses_unknown_types() {
+    ExecutorFactory.create("virtual", 1, 8, 200);
+  }
+
+  private Runnable blocking(CountDownLatch started) {
+    return () -> {
+      started.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    };
+  }
+}
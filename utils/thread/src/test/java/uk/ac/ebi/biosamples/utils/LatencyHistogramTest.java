@@ -0,0 +1,93 @@
+/*
+* Copyright 2019 EMBL - European Bioinformatics Institute
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+* file except in compliance with the License. You may obtain a copy of the License at
+* http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the
+* License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+* CONDITIONS OF ANY KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations under the License.
+*/
+package uk.ac.ebi.biosamples.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+  private final LatencyHistogram histogram = new LatencyHistogram();
+
+  @Test
+  public void percentiles_are_the_upper_bounds_of_their_buckets() {
+    record(90, 3);
+    record(9, 100);
+    record(1, 1000);
+
+    assertEquals(100, histogram.getCount());
+    assertEquals(1000, histogram.getMaxMillis());
+    assertEquals(21.7, histogram.getMeanMillis(), 0.001);
+    // 2 to 3ms
+    assertEquals(4, histogram.getPercentileMillis(50));
+    assertEquals(4, histogram.getPercentileMillis(90));
+    // 64 to 127ms
+    assertEquals(128, histogram.getPercentileMillis(91));
+    assertEquals(128, histogram.getPercentileMillis(99));
+    // 512 to 1023ms, but no more than the maximum
+    assertEquals(1000, histogram.getPercentileMillis(100));
+  }
+
+  @Test
+  public void each_power_of_two_starts_a_new_bucket() {
+    record(1, 1);
+    record(1, 2);
+    record(1, 4);
+    record(1, 8);
+    record(1, 1000);
+
+    assertEquals(2, histogram.getPercentileMillis(20));
+    assertEquals(4, histogram.getPercentileMillis(40));
+    assertEquals(8, histogram.getPercentileMillis(60));
+    assertEquals(16, histogram.getPercentileMillis(80));
+  }
+
+  @Test
+  public void percentiles_are_no_more_than_the_maximum() {
+    record(1, 7);
+
+    assertEquals(7, histogram.getPercentileMillis(100));
+  }
+
+  @Test
+  public void sub_millisecond_and_negative_latencies_are_in_the_first_bucket() {
+    histogram.record(TimeUnit.MICROSECONDS.toNanos(500));
+    histogram.record(-1);
+
+    assertEquals(2, histogram.getCount());
+    assertEquals(0, histogram.getMaxMillis());
+    assertEquals(0, histogram.getPercentileMillis(100));
+  }
+
+  @Test
+  public void huge_latencies_are_in_the_last_bucket() {
+    histogram.record(Long.MAX_VALUE);
+
+    assertEquals(1L << 39, histogram.getPercentileMillis(100));
+    assertEquals(TimeUnit.NANOSECONDS.toMillis(Long.MAX_VALUE), histogram.getMaxMillis());
+  }
+
+  @Test
+  public void empty_histogram_reports_zeros() {
+    assertEquals(0, histogram.getCount());
+    assertEquals(0, histogram.getPercentileMillis(99));
+    assertEquals(0, histogram.getMeanMillis(), 0);
+    assertEquals("count=0 mean=0.0ms p50<=0ms p90<=0ms p99<=0ms max=0ms", histogram.toString());
+  }
+
+  private void record(int times, long millis) {
+    for (int i = 0; i < times; i++) {
+      histogram.record(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+  }
+}
@@ -0,0 +1,154 @@
+/*
+* Copyright 2019 EMBL - European Bioinformatics Institute
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+* file except in compliance with the License. You may obtain a copy of the License at
+* http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the
+* License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+* CONDITIONS OF ANY KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations under the License.
+*/
+package uk.ac.ebi.biosamples.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Runs the sizing policies against a simulated remote service, one poll a second, with a fixed
+ * random seed so that every run sees the same noise.
+ *
+ * <p>The service serves up to capacity requests at once in the base latency. Beyond that requests
+ * wait in its own queue, so latency grows with the number of threads and throughput stays at
+ * capacity / base latency.
+ */
+public class PoolSizingPolicySimulationTest {
+
+  private static final long SECOND = 1000000000L;
+  private static final long BASE_LATENCY = 200000000L;
+  private static final int MAX_THREADS = 256;
+
+  private static class Simulation {
+    private final PoolSizingPolicy policy;
+    private final Random random = new Random(42);
+    private long now = 0;
+    private int threads = 1;
+    private int capacity = 64;
+    private long baseLatency = BASE_LATENCY;
+    // jobs submitted per second, or 0 for a queue that is never empty
+    private double demand = 0;
+    private double noise = 0.2;
+    private double throughput;
+    private int maxThreads;
+
+    private Simulation(PoolSizingPolicy policy) {
+      this.policy = policy;
+    }
+
+    private void run(int polls) {
+      for (int i = 0; i < polls; i++) {
+        double latency =
+            baseLatency
+                * Math.max(1.0, (double) threads / capacity)
+                * (1 + noise * (2 * random.nextDouble() - 1));
+        double possible = threads * SECOND / latency;
+        int completed = (int) (demand > 0 ? Math.min(demand, possible) : possible);
+        int queueDepth = demand > 0 && demand <= possible ? 0 : 1000;
+        now += SECOND;
+        throughput = completed;
+
+        PoolSizingPolicy.Sample sample =
+            new PoolSizingPolicy.Sample(
+                now,
+                SECOND,
+                threads,
+                MAX_THREADS,
+                completed,
+                (long) (latency * completed),
+                queueDepth);
+        threads = Math.max(1, Math.min(MAX_THREADS, policy.nextPoolSize(sample)));
+      }
+    }
+
+    private double maxThroughput() {
+      return capacity * (double) SECOND / baseLatency;
+    }
+
+    /** @return mean throughput over the polls, as a fraction of the most the service can do */
+    private double runForThroughput(int polls) {
+      double total = 0;
+      maxThreads = 0;
+      for (int i = 0; i < polls; i++) {
+        maxThreads = Math.max(maxThreads, threads);
+        run(1);
+        total += throughput / maxThroughput();
+      }
+      return total / polls;
+    }
+  }
+
+  @Test
+  public void hill_climbing_adds_one_thread_per_poll() {
+    Simulation simulation = new Simulation(new HillClimbingPolicy(1000));
+    simulation.noise = 0;
+    simulation.run(20);
+    assertEquals(21, simulation.threads);
+  }
+
+  @Test
+  public void gradient_reaches_capacity_within_twenty_polls() {
+    Simulation simulation = new Simulation(new GradientPolicy());
+    simulation.run(20);
+    assertTrue(
+        "threads " + simulation.threads,
+        simulation.threads >= simulation.capacity && simulation.threads <= 2 * simulation.capacity);
+    assertTrue(simulation.throughput >= 0.75 * simulation.maxThroughput());
+  }
+
+  @Test
+  public void hill_climbing_is_still_far_from_capacity_after_a_hundred_polls() {
+    Simulation simulation = new Simulation(new HillClimbingPolicy(1000));
+    simulation.run(20);
+    assertTrue(simulation.runForThroughput(100) < 0.75);
+  }
+
+  @Test
+  public void gradient_stays_near_capacity_with_noisy_latency() {
+    Simulation simulation = new Simulation(new GradientPolicy());
+    simulation.run(20);
+    assertTrue(simulation.runForThroughput(100) >= 0.85);
+    assertTrue("threads " + simulation.maxThreads, simulation.maxThreads <= 2.5 * 64);
+  }
+
+  @Test
+  public void gradient_shrinks_when_the_service_slows_down() {
+    Simulation simulation = new Simulation(new GradientPolicy());
+    simulation.run(30);
+    simulation.capacity = 16;
+    simulation.run(20);
+    assertTrue(simulation.runForThroughput(50) >= 0.85);
+    assertTrue("threads " + simulation.maxThreads, simulation.maxThreads <= 2.5 * 16);
+  }
+
+  @Test
+  public void gradient_follows_a_service_that_becomes_slower() {
+    Simulation simulation = new Simulation(new GradientPolicy());
+    simulation.run(30);
+    simulation.baseLatency = 2 * BASE_LATENCY;
+    simulation.run(20);
+    assertTrue(simulation.runForThroughput(50) >= 0.85);
+  }
+
+  @Test
+  public void gradient_shrinks_to_busy_threads_when_nothing_is_queued() {
+    Simulation simulation = new Simulation(new GradientPolicy());
+    simulation.run(20);
+    // 50 jobs a second of 200ms need about 10 threads
+    simulation.demand = 50;
+    simulation.run(10);
+    assertTrue("threads " + simulation.threads, simulation.threads <= 20);
+    assertEquals(50, simulation.throughput, 0.0);
+  }
+}
@@ -0,0 +1,155 @@
+/*
+* Copyright 2019 EMBL - European Bioinformatics Institute
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+* file except in compliance with the License. You may obtain a copy of the License at
+* http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the
+* License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+* CONDITIONS OF ANY KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations under the License.
+*/
+package uk.ac.ebi.biosamples.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+/**
+ * Retries are scheduled without their delay, which is recorded instead, and tasks are either run as
+ * soon as they are submitted or queued for the test to run, so nothing depends on timing.
+ */
+public class RetryingCompletionServiceTest {
+
+  private static final int MAX_RETRIES = 3;
+  private static final long BACKOFF = 100;
+
+  // in milliseconds, delays the retries were scheduled with
+  private final List<Long> delays = Collections.synchronizedList(new ArrayList<>());
+  private final List<String> results = new ArrayList<>();
+  private final List<Runnable> queued = new ArrayList<>();
+
+  private final ScheduledThreadPoolExecutor retryScheduler =
+      new ScheduledThreadPoolExecutor(1) {
+        @Override
+        public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+          delays.add(unit.toMillis(delay));
+          return super.schedule(command, 0, unit);
+        }
+      };
+
+  @Test(timeout = 10000)
+  public void failed_task_is_retried_with_a_doubling_backoff() throws Exception {
+    AtomicInteger attempts = new AtomicInteger();
+    try (RetryingCompletionService<String, String> service = service(Runnable::run)) {
+      service.submit(
+          "SAMEA1",
+          () -> {
+            if (attempts.incrementAndGet() < 3) {
+              throw new IllegalStateException("unavailable");
+            }
+            return "SAMEA1";
+          });
+      service.drain(0);
+
+      assertEquals(3, attempts.get());
+      assertEquals(Arrays.asList(BACKOFF, 2 * BACKOFF), delays);
+      assertEquals(Collections.singletonList("SAMEA1"), results);
+      assertTrue(service.getDeadLetters().isEmpty());
+      assertEquals(0, service.getPending());
+      assertEquals(1, service.getLatencies().getCount());
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void task_is_a_dead_letter_after_max_retries() throws Exception {
+    AtomicInteger attempts = new AtomicInteger();
+    try (RetryingCompletionService<String, String> service = service(Runnable::run)) {
+      service.submit(
+          "SAMEA1",
+          () -> {
+            throw new IllegalStateException("attempt " + attempts.incrementAndGet());
+          });
+      service.submit("SAMEA2", () -> "SAMEA2");
+      service.drain(0);
+
+      assertEquals(MAX_RETRIES + 1, attempts.get());
+      assertEquals(Arrays.asList(BACKOFF, 2 * BACKOFF, 4 * BACKOFF), delays);
+      assertEquals(Collections.singleton("SAMEA1"), service.getDeadLetters().keySet());
+      assertEquals(
+          "attempt " + (MAX_RETRIES + 1), service.getDeadLetters().get("SAMEA1").getMessage());
+      assertEquals(Collections.singletonList("SAMEA2"), results);
+      assertEquals(0, service.getPending());
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void drain_waits_until_no_more_than_max_pending_are_left() throws Exception {
+    try (RetryingCompletionService<String, String> service = service(queued::add)) {
+      submit(service, "SAMEA1", "SAMEA2", "SAMEA3");
+      queued.get(0).run();
+
+      service.drain(2);
+      assertEquals(Collections.singletonList("SAMEA1"), results);
+      assertEquals(2, service.getPending());
+
+      // blocks until a task completes, whichever it is
+      Thread thread = new Thread(queued.get(2));
+      thread.start();
+      service.drain(1);
+      thread.join();
+      assertEquals(Arrays.asList("SAMEA1", "SAMEA3"), results);
+      assertEquals(1, service.getPending());
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void completed_tasks_are_handled_when_under_max_pending() throws Exception {
+    try (RetryingCompletionService<String, String> service = service(queued::add)) {
+      submit(service, "SAMEA1", "SAMEA2");
+      queued.get(1).run();
+
+      service.drain(5);
+
+      assertEquals(Collections.singletonList("SAMEA2"), results);
+      assertEquals(1, service.getPending());
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void slow_first_task_does_not_hold_up_the_others() throws Exception {
+    try (RetryingCompletionService<String, String> service = service(queued::add)) {
+      submit(service, "SAMEA1", "SAMEA2", "SAMEA3");
+      queued.get(1).run();
+      queued.get(2).run();
+
+      service.drain(1);
+      assertEquals(Arrays.asList("SAMEA2", "SAMEA3"), results);
+
+      queued.get(0).run();
+      service.drain(0);
+      assertEquals(Arrays.asList("SAMEA2", "SAMEA3", "SAMEA1"), results);
+    }
+  }
+
+  private RetryingCompletionService<String, String> service(Executor executor) {
+    return new RetryingCompletionService<>(
+        executor, MAX_RETRIES, BACKOFF, results::add, retryScheduler);
+  }
+
+  private static void submit(
+      RetryingCompletionService<String, String> service, String... accessions) {
+    for (String accession : accessions) {
+      service.submit(accession, () -> accession);
+    }
+  }
+}
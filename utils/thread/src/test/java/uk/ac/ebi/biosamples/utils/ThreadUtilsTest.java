@@ -0,0 +1,129 @@
+/*
+* Copyright 2019 EMBL - European Bioinformatics Institute
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+* file except in compliance with the License. You may obtain a copy of the License at
+* http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the
+* License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+* CONDITIONS OF ANY KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations under the License.
+*/
+package uk.ac.ebi.biosamples.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+
+public class ThreadUtilsTest {
+
+  private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void futures_are_not_waited_for_up_to_max_size() throws Exception {
+    Map<String, Future<String>> futures = new LinkedHashMap<>();
+    futures.put("SAMEA1", new CompletableFuture<>());
+    futures.put("SAMEA2", CompletableFuture.completedFuture("SAMEA2"));
+
+    ThreadUtils.checkFutures(futures, 2);
+
+    assertEquals(2, futures.size());
+  }
+
+  @Test(timeout = 10000)
+  public void slow_first_future_does_not_hold_up_the_others() throws Exception {
+    CompletableFuture<String> slow = new CompletableFuture<>();
+    Map<String, Future<String>> futures = new LinkedHashMap<>();
+    futures.put("SAMEA1", slow);
+    futures.put("SAMEA2", CompletableFuture.completedFuture("SAMEA2"));
+    futures.put("SAMEA3", CompletableFuture.completedFuture("SAMEA3"));
+    List<String> results = new ArrayList<>();
+
+    // the first future only completes once the others have been handled
+    ThreadUtils.checkAndCallbackFutures(
+        futures,
+        1,
+        result -> {
+          results.add(result);
+          if (results.size() == 2) {
+            slow.complete("SAMEA1");
+          }
+        });
+
+    assertEquals(Arrays.asList("SAMEA2", "SAMEA3", "SAMEA1"), results);
+    assertTrue(futures.isEmpty());
+  }
+
+  @Test(expected = ExecutionException.class)
+  public void failed_future_is_reported() throws Exception {
+    CompletableFuture<String> failed = new CompletableFuture<>();
+    failed.completeExceptionally(new IllegalStateException("unavailable"));
+    Map<String, Future<String>> futures = new LinkedHashMap<>();
+    futures.put("SAMEA1", failed);
+
+    ThreadUtils.checkFutures(futures, 0);
+  }
+
+  @Test(timeout = 10000)
+  public void failed_futures_are_retried_up_to_max_retries() throws Exception {
+    Map<String, AtomicInteger> attempts = new HashMap<>();
+    Map<String, Callable<String>> callables = new LinkedHashMap<>();
+    // fails the given number of times, then succeeds
+    for (Map.Entry<String, Integer> failures : failuresByAccession().entrySet()) {
+      String accession = failures.getKey();
+      AtomicInteger count = new AtomicInteger();
+      attempts.put(accession, count);
+      callables.put(
+          accession,
+          () -> {
+            if (count.incrementAndGet() <= failures.getValue()) {
+              throw new IllegalStateException("unavailable");
+            }
+            return accession;
+          });
+    }
+    Map<String, Future<String>> futures = new LinkedHashMap<>();
+    for (Map.Entry<String, Callable<String>> callable : callables.entrySet()) {
+      futures.put(callable.getKey(), executor.submit(callable.getValue()));
+    }
+    Map<String, Integer> retries = new HashMap<>();
+
+    List<String> failed =
+        ThreadUtils.checkAndRetryFutures(futures, callables, 0, executor, retries, 2);
+
+    assertEquals(Collections.singletonList("SAMEA3"), failed);
+    assertEquals(1, attempts.get("SAMEA1").get());
+    assertEquals(3, attempts.get("SAMEA2").get());
+    assertEquals(3, attempts.get("SAMEA3").get());
+    assertTrue(futures.isEmpty());
+    assertTrue(retries.isEmpty());
+  }
+
+  private static Map<String, Integer> failuresByAccession() {
+    Map<String, Integer> failures = new LinkedHashMap<>();
+    failures.put("SAMEA1", 0);
+    failures.put("SAMEA2", 2);
+    failures.put("SAMEA3", Integer.MAX_VALUE);
+    return failures;
+  }
+}
@@ -18,6 +18,7 @@ import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.web.support.SpringBootServletInitializer;
 import org.springframework.cache.annotation.EnableCaching;
 import org.springframework.context.annotation.Bean;
+import org.springframework.data.mongodb.core.MongoOperations;
 import org.springframework.data.rest.core.mapping.RepositoryDetectionStrategy;
 import org.springframework.http.converter.HttpMessageConverter;
 import org.springframework.http.converter.xml.Jaxb2RootElementHttpMessageConverter;
@@ -92,14 +93,17 @@ public class Application extends SpringBootServletInitializer {
       MongoSampleRepository mongoSampleRepository,
       SampleToMongoSampleConverter sampleToMongoSampleConverter,
       MongoSampleToSampleConverter mongoSampleToSampleConverter,
+      MongoOperations mongoOperations,
       MongoProperties mongoProperties) {
     return new MongoAccessionService(
         mongoSampleRepository,
         sampleToMongoSampleConverter,
         mongoSampleToSampleConverter,
+        mongoOperations,
         mongoProperties.getAccessionPrefix(),
         mongoProperties.getAccessionMinimum(),
-        mongoProperties.getAcessionQueueSize());
+        mongoProperties.getAccessionBlockSize(),
+        mongoProperties.getAccessionAttempts());
   }
 
   @Bean(name = "GroupAccessionService")
@@ -107,14 +111,17 @@ public class Application extends SpringBootServletInitializer {
       MongoSampleRepository mongoSampleRepository,
       SampleToMongoSampleConverter sampleToMongoSampleConverter,
       MongoSampleToSampleConverter mongoSampleToSampleConverter,
+      MongoOperations mongoOperations,
       MongoProperties mongoProperties) {
     return new MongoAccessionService(
         mongoSampleRepository,
         sampleToMongoSampleConverter,
         mongoSampleToSampleConverter,
+        mongoOperations,
         "SAMEG",
         mongoProperties.getAccessionMinimum(),
-        mongoProperties.getAcessionQueueSize());
+        mongoProperties.getAccessionBlockSize(),
+        mongoProperties.getAccessionAttempts());
   }
 
   @Bean
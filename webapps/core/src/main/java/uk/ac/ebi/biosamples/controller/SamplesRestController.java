@@ -10,8 +10,13 @@
 */
 package uk.ac.ebi.biosamples.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URI;
 import java.time.Instant;
 import java.time.LocalDateTime;
@@ -19,6 +24,8 @@ import java.time.ZoneOffset;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
+import javax.servlet.http.HttpServletResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -31,6 +38,7 @@ import org.springframework.hateoas.*;
 import org.springframework.hateoas.PagedResources.PageMetadata;
 import org.springframework.hateoas.mvc.ControllerLinkBuilder;
 import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -67,7 +75,9 @@ public class SamplesRestController {
   private final SampleManipulationService sampleManipulationService;
   private final BioSamplesProperties bioSamplesProperties;
   private final SampleResourceAssembler sampleResourceAssembler;
+  private final ObjectWriter exportWriter;
 
+  private static final String NDJSON_VALUE = "application/x-ndjson";
   private static final String NCBI_IMPORT_DOMAIN = "self.BiosampleImportNCBI";
   private static final String ENA_IMPORT_DOMAIN = "self.BiosampleImportENA";
 
@@ -82,7 +92,8 @@ public class SamplesRestController {
       SampleResourceAssembler sampleResourceAssembler,
       SampleManipulationService sampleManipulationService,
       SampleService sampleService,
-      BioSamplesProperties bioSamplesProperties) {
+      BioSamplesProperties bioSamplesProperties,
+      ObjectMapper objectMapper) {
     this.samplePageService = samplePageService;
     this.filterService = filterService;
     this.bioSamplesAapService = bioSamplesAapService;
@@ -90,6 +101,9 @@ public class SamplesRestController {
     this.sampleManipulationService = sampleManipulationService;
     this.sampleService = sampleService;
     this.bioSamplesProperties = bioSamplesProperties;
+    // flushed once per batch rather than once per sample
+    this.exportWriter =
+        objectMapper.writerFor(Sample.class).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
   }
 
   // must return a ResponseEntity so that cache headers can be set
@@ -201,6 +215,64 @@ public class SamplesRestController {
     }
   }
 
+  /**
+   * Export all the samples of a search as newline delimited JSON, one sample per line, compressed
+   * if the client accepts gzip. Samples are read from a solr cursor and fetched from mongo a batch
+   * at a time, and the next batch is only read once the previous one has been written to the
+   * client, so a slow client slows the export down rather than filling the memory.
+   */
+  @CrossOrigin(methods = RequestMethod.GET)
+  @GetMapping(value = "/export", produces = NDJSON_VALUE)
+  public void exportNdjson(
+      @RequestParam(name = "text", required = false) String text,
+      @RequestParam(name = "filter", required = false) String[] filter,
+      @RequestParam(name = "size", required = false, defaultValue = "1000") final int size,
+      @RequestParam(name = "curationrepo", required = false) final String curationRepo,
+      @RequestHeader(name = HttpHeaders.ACCEPT_ENCODING, required = false)
+          final String acceptEncoding,
+      HttpServletResponse response)
+      throws IOException {
+    String decodedText = LinkUtils.decodeText(text);
+    String[] decodedFilter = LinkUtils.decodeTexts(filter);
+    Collection<Filter> filters = filterService.getFiltersCollection(decodedFilter);
+    Collection<String> domains = bioSamplesAapService.getDomains();
+
+    Iterator<List<Sample>> batches =
+        samplePageService.getSampleBatchesByText(decodedText, filters, domains, size, curationRepo);
+
+    boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+    response.setContentType(NDJSON_VALUE);
+    response.setCharacterEncoding("UTF-8");
+    response.setHeader(HttpHeaders.CACHE_CONTROL, CacheControl.noStore().getHeaderValue());
+    if (gzip) {
+      response.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+      response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+    }
+
+    long startTime = System.nanoTime();
+    long count = 0;
+    OutputStream outputStream = response.getOutputStream();
+    if (gzip) {
+      // sync flush so that each batch reaches the client as soon as it is written
+      outputStream = new GZIPOutputStream(outputStream, 65536, true);
+    }
+    try (JsonGenerator generator = exportWriter.getFactory().createGenerator(outputStream)) {
+      // each sample is followed by a newline instead of separated by spaces
+      generator.setRootValueSeparator(null);
+      while (batches.hasNext()) {
+        for (Sample sample : batches.next()) {
+          exportWriter.writeValue(generator, sample);
+          generator.writeRaw('\n');
+          count++;
+        }
+        // blocks until the client has read enough, before the next batch is fetched
+        generator.flush();
+      }
+    }
+    long endTime = System.nanoTime();
+    log.info("Exported " + count + " samples in " + ((endTime - startTime) / 1000000) + "ms");
+  }
+
   private Resources<Resource<Sample>> populateResources(
       Page<Sample> pageSample,
       int effectiveSize,
@@ -14,7 +14,6 @@ import java.net.MalformedURLException;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
-import java.util.Collection;
 import java.util.Collections;
 import javax.servlet.http.HttpServletRequest;
 import org.slf4j.Logger;
@@ -31,7 +30,7 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.ResponseBody;
 import uk.ac.ebi.biosamples.model.*;
-import uk.ac.ebi.biosamples.model.filter.Filter;
+import uk.ac.ebi.biosamples.service.LandingPageSnapshot;
 import uk.ac.ebi.biosamples.service.SamplePageService;
 import uk.ac.ebi.biosamples.service.SampleService;
 
@@ -46,10 +45,15 @@ public class SitemapController {
 
   private SampleService sampleService;
   private SamplePageService samplePageService;
+  private LandingPageSnapshot landingPageSnapshot;
 
-  public SitemapController(SampleService service, SamplePageService pageService) {
+  public SitemapController(
+      SampleService service,
+      SamplePageService pageService,
+      LandingPageSnapshot landingPageSnapshot) {
     this.sampleService = service;
     this.samplePageService = pageService;
+    this.landingPageSnapshot = landingPageSnapshot;
   }
 
   /**
@@ -130,16 +134,11 @@ public class SitemapController {
   }
 
   /**
-   * Get the total number of samples in the database
+   * Get the total number of public samples, from the periodically refreshed snapshot
    *
    * @return the number of samples
    */
   private long getTotalSamples() {
-    Pageable pageable = new PageRequest(0, 1);
-    Collection<Filter> filters = Collections.emptyList();
-    Collection<String> domains = Collections.emptyList();
-    Page<Sample> samplePage =
-        samplePageService.getSamplesByText("", filters, domains, pageable, null);
-    return samplePage.getTotalElements();
+    return landingPageSnapshot.getSampleCount();
   }
 }
@@ -0,0 +1,59 @@
+/*
+* Copyright 2019 EMBL - European Bioinformatics Institute
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+* file except in compliance with the License. You may obtain a copy of the License at
+* http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the
+* License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+* CONDITIONS OF ANY KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations under the License.
+*/
+package uk.ac.ebi.biosamples.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+import uk.ac.ebi.biosamples.mongo.service.MongoAccessionService;
+
+/** Exposes the accessioning counts and latency through the actuator metrics endpoint. */
+@Component
+public class AccessionMetrics implements PublicMetrics {
+
+  private final MongoAccessionService sampleAccessionService;
+  private final MongoAccessionService groupAccessionService;
+
+  public AccessionMetrics(
+      @Qualifier("SampleAccessionService") MongoAccessionService sampleAccessionService,
+      @Qualifier("GroupAccessionService") MongoAccessionService groupAccessionService) {
+    this.sampleAccessionService = sampleAccessionService;
+    this.groupAccessionService = groupAccessionService;
+  }
+
+  @Override
+  public Collection<Metric<?>> metrics() {
+    List<Metric<?>> metrics = new ArrayList<>();
+    addMetrics(metrics, "accession.samples", sampleAccessionService);
+    addMetrics(metrics, "accession.groups", groupAccessionService);
+    return metrics;
+  }
+
+  private void addMetrics(
+      List<Metric<?>> metrics, String prefix, MongoAccessionService accessionService) {
+    long accessioned = accessionService.getAccessionedCount();
+    metrics.add(new Metric<>(prefix + ".count", accessioned));
+    metrics.add(new Metric<>(prefix + ".collision", accessionService.getCollisionCount()));
+    metrics.add(new Metric<>(prefix + ".failure", accessionService.getFailureCount()));
+    metrics.add(new Metric<>(prefix + ".block", accessionService.getBlocksReservedCount()));
+    metrics.add(new Metric<>(prefix + ".time", accessionService.getAccessioningTime()));
+    if (accessioned > 0) {
+      metrics.add(
+          new Metric<>(
+              prefix + ".time.mean",
+              accessionService.getAccessioningTime() / (double) accessioned));
+    }
+  }
+}
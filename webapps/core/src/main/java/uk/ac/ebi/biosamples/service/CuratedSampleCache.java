@@ -0,0 +1,228 @@
+/*
+* Copyright 2019 EMBL - European Bioinformatics Institute
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+* file except in compliance with the License. You may obtain a copy of the License at
+* http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the
+* License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+* CONDITIONS OF ANY KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations under the License.
+*/
+package uk.ac.ebi.biosamples.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Service;
+import uk.ac.ebi.biosamples.BioSamplesProperties;
+import uk.ac.ebi.biosamples.model.Sample;
+import uk.ac.ebi.biosamples.model.StaticViewWrapper;
+
+/**
+ * Read-through cache of fully curated samples, so that popular samples do not have to be rebuilt
+ * from mongo on every request.
+ *
+ * <p>Entries are keyed by accession, and hold each variant of the sample that was asked for, by
+ * curation domains and static view, so that invalidating a sample only touches its own entry. They
+ * are weighed by the number of attributes, relationships and other sub-elements of the variants so
+ * that the cache is bounded by the approximate size of what it holds rather than by the number of
+ * samples. Anything that changes a sample, its curation or its inverse relationships must call
+ * {@link #invalidate(String)} for the affected accessions. Entries also expire after a fixed time,
+ * which bounds the staleness of changes made through other webapp instances.
+ *
+ * <p>A sample fetched while it is being invalidated may be the version from before the change, so
+ * each invalidation moves on a generation counter for the accession, and a fetched sample is only
+ * cached if the generation is the same as before the fetch.
+ *
+ * <p>Hit, miss and eviction counts are exposed through the actuator metrics endpoint. Hits and
+ * misses are counted here rather than by the cache, which would count a hit for any variant of the
+ * sample when the requested one is missing.
+ */
+@Service
+public class CuratedSampleCache implements PublicMetrics {
+
+  private Logger log = LoggerFactory.getLogger(getClass());
+
+  // generations are shared between accessions that hash to the same stripe, which only means a
+  // fetched sample is sometimes not cached
+  private static final int GENERATION_STRIPES = 1024;
+
+  private final Cache<String, Variants> cache;
+  private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final boolean enabled;
+
+  public CuratedSampleCache(BioSamplesProperties bioSamplesProperties) {
+    enabled = bioSamplesProperties.getBiosamplesCoreSampleCacheMaxWeight() > 0;
+    cache =
+        Caffeine.newBuilder()
+            .maximumWeight(
+                Math.max(bioSamplesProperties.getBiosamplesCoreSampleCacheMaxWeight(), 0))
+            .weigher((String accession, Variants variants) -> variants.weight)
+            .expireAfterWrite(
+                bioSamplesProperties.getBiosamplesCoreSampleCacheTtl(), TimeUnit.SECONDS)
+            .recordStats()
+            .build();
+  }
+
+  /**
+   * Returns the cached version of the sample if there is one, otherwise fetches it with the
+   * supplied function and caches the result. Samples that could not be found are not cached.
+   */
+  public Optional<Sample> get(
+      String accession,
+      Optional<List<String>> curationDomains,
+      StaticViewWrapper.StaticView staticView,
+      Supplier<Optional<Sample>> fetcher) {
+    if (!enabled || accession == null) {
+      return fetcher.get();
+    }
+
+    VariantKey key = new VariantKey(curationDomains, staticView);
+    Variants variants = cache.getIfPresent(accession);
+    Sample cached = variants == null ? null : variants.samples.get(key);
+    if (cached != null) {
+      hits.increment();
+      return Optional.of(cached);
+    }
+    misses.increment();
+
+    int stripe = stripe(accession);
+    long generation = generations.get(stripe);
+    Optional<Sample> fetched = fetcher.get();
+    if (fetched.isPresent()) {
+      // checked inside compute, so an invalidation either comes before and the sample is not
+      // cached, or removes it afterwards
+      cache
+          .asMap()
+          .compute(
+              accession,
+              (k, old) ->
+                  generations.get(stripe) == generation
+                      ? Variants.with(old, key, fetched.get())
+                      : old);
+    }
+    return fetched;
+  }
+
+  /** Removes every cached variant of the given sample. */
+  public void invalidate(String accession) {
+    if (!enabled || accession == null) {
+      return;
+    }
+    log.trace("Invalidating cached sample {}", accession);
+    generations.incrementAndGet(stripe(accession));
+    cache.invalidate(accession);
+  }
+
+  public void invalidateAll(Collection<String> accessions) {
+    if (!enabled || accessions.isEmpty()) {
+      return;
+    }
+    for (String accession : accessions) {
+      generations.incrementAndGet(stripe(accession));
+    }
+    cache.invalidateAll(accessions);
+  }
+
+  @Override
+  public Collection<Metric<?>> metrics() {
+    if (!enabled) {
+      return Collections.emptyList();
+    }
+    CacheStats stats = cache.stats();
+    long hitCount = hits.sum();
+    long missCount = misses.sum();
+    long requestCount = hitCount + missCount;
+    List<Metric<?>> metrics = new ArrayList<>();
+    metrics.add(new Metric<>("cache.samples.size", cache.estimatedSize()));
+    metrics.add(new Metric<>("cache.samples.hit", hitCount));
+    metrics.add(new Metric<>("cache.samples.miss", missCount));
+    // the same as CacheStats.hitRate, which is 1 before any request
+    metrics.add(
+        new Metric<>(
+            "cache.samples.hit.ratio", requestCount == 0 ? 1.0 : (double) hitCount / requestCount));
+    metrics.add(new Metric<>("cache.samples.eviction", stats.evictionCount()));
+    metrics.add(new Metric<>("cache.samples.eviction.weight", stats.evictionWeight()));
+    return metrics;
+  }
+
+  private static int stripe(String accession) {
+    return (accession.hashCode() & Integer.MAX_VALUE) % GENERATION_STRIPES;
+  }
+
+  private static int weigh(Sample sample) {
+    return 1
+        + sample.getAttributes().size()
+        + sample.getRelationships().size()
+        + sample.getExternalReferences().size()
+        + sample.getOrganizations().size()
+        + sample.getContacts().size()
+        + sample.getPublications().size()
+        + sample.getData().size();
+  }
+
+  /** The cached variants of one sample, replaced as a whole when a variant is added. */
+  private static class Variants {
+    private final Map<VariantKey, Sample> samples;
+    private final int weight;
+
+    private Variants(Map<VariantKey, Sample> samples) {
+      this.samples = samples;
+      this.weight = samples.values().stream().mapToInt(CuratedSampleCache::weigh).sum();
+    }
+
+    private static Variants with(Variants old, VariantKey key, Sample sample) {
+      Map<VariantKey, Sample> samples = old == null ? new HashMap<>() : new HashMap<>(old.samples);
+      samples.put(key, sample);
+      return new Variants(samples);
+    }
+  }
+
+  private static class VariantKey {
+    private final SortedSet<String> curationDomains;
+    private final StaticViewWrapper.StaticView staticView;
+
+    private VariantKey(
+        Optional<List<String>> curationDomains, StaticViewWrapper.StaticView staticView) {
+      // null means no restriction on curation domains, which differs from an empty set
+      this.curationDomains = curationDomains.map(TreeSet::new).orElse(null);
+      this.staticView = staticView;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (o == this) return true;
+      if (!(o instanceof VariantKey)) {
+        return false;
+      }
+      VariantKey other = (VariantKey) o;
+      return Objects.equals(this.curationDomains, other.curationDomains)
+          && Objects.equals(this.staticView, other.staticView);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(curationDomains, staticView);
+    }
+  }
+}
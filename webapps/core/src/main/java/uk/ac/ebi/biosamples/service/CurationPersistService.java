@@ -10,6 +10,8 @@
 */
 package uk.ac.ebi.biosamples.service;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import org.slf4j.Logger;
@@ -47,6 +49,7 @@ public class CurationPersistService {
   @Autowired private CurationToMongoCurationConverter curationToMongoCurationConverter;
 
   @Autowired private MessagingService messagingSerivce;
+  @Autowired private CuratedSampleCache curatedSampleCache;
 
   public CurationLink store(CurationLink curationLink) {
     // TODO do this as a trigger on the curation link repo
@@ -78,6 +81,7 @@ public class CurationPersistService {
 
     // for each relationship curation create reverse relationship curation
     createReverseRelationshipCurations(curationLink);
+    invalidateCuratedSamples(curationLink);
 
     messagingSerivce.fetchThenSendMessage(curationLink.getSample());
     return curationLink;
@@ -88,9 +92,22 @@ public class CurationPersistService {
     MongoCurationLink mongoCurationLink =
         curationLinkToMongoCurationLinkConverter.convert(curationLink);
     mongoCurationLinkRepository.delete(mongoCurationLink.getHash());
+    invalidateCuratedSamples(curationLink);
     messagingSerivce.fetchThenSendMessage(curationLink.getSample());
   }
 
+  private void invalidateCuratedSamples(CurationLink curationLink) {
+    List<String> accessions = new ArrayList<>();
+    accessions.add(curationLink.getSample());
+    for (Relationship rel : curationLink.getCuration().getRelationshipsPre()) {
+      accessions.add(rel.getTarget());
+    }
+    for (Relationship rel : curationLink.getCuration().getRelationshipsPost()) {
+      accessions.add(rel.getTarget());
+    }
+    curatedSampleCache.invalidateAll(accessions);
+  }
+
   // sample reverse relationships are dynamically generated, therefore should create for curations
   private void createReverseRelationshipCurations(CurationLink curationLink) {
     SortedSet<Relationship> relationshipsPre = curationLink.getCuration().getRelationshipsPre();
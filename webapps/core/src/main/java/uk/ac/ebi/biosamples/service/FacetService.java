@@ -10,27 +10,44 @@
 */
 package uk.ac.ebi.biosamples.service;
 
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import org.apache.solr.client.solrj.util.ClientUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.ExchangeTypes;
+import org.springframework.amqp.rabbit.annotation.Exchange;
+import org.springframework.amqp.rabbit.annotation.Queue;
+import org.springframework.amqp.rabbit.annotation.QueueBinding;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
+import uk.ac.ebi.biosamples.Messaging;
 import uk.ac.ebi.biosamples.model.facet.Facet;
 import uk.ac.ebi.biosamples.model.filter.Filter;
 import uk.ac.ebi.biosamples.solr.service.SolrFacetService;
 
+/**
+ * Facets of searches, from solr. Results are cached by {@link SolrFacetService} and dropped
+ * whenever the solr agent announces that it has updated the index. Cache hits, misses and the solr
+ * time they saved are exposed through the actuator metrics endpoint.
+ */
 @Service
-public class FacetService {
+public class FacetService implements PublicMetrics {
 
   private Logger log = LoggerFactory.getLogger(getClass());
 
   private final SolrFacetService solrFacetService;
+  private final LandingPageSnapshot landingPageSnapshot;
 
-  public FacetService(SolrFacetService solrSampleService) {
+  public FacetService(SolrFacetService solrSampleService, LandingPageSnapshot landingPageSnapshot) {
     this.solrFacetService = solrSampleService;
+    this.landingPageSnapshot = landingPageSnapshot;
   }
 
   public List<Facet> getFacets(
@@ -44,7 +61,10 @@ public class FacetService {
     // TODO if a facet is enabled as a filter, then that value will be the only filter displayed
     // TODO allow update date range
 
-    // todo if (text == null && filters.isEmpty()) cache results for the search landing page
+    if ((text == null || text.trim().isEmpty()) && filters.isEmpty() && domains.isEmpty()) {
+      return landingPageSnapshot.getFacets(noOfFacets, noOfFacetValues);
+    }
+
     long startTime = System.nanoTime();
     String escapedText = text == null ? null : ClientUtils.escapeQueryChars(text);
     List<Facet> facets =
@@ -55,4 +75,29 @@ public class FacetService {
 
     return facets;
   }
+
+  // each webapp instance has its own temporary queue, so every instance hears about every update
+  @RabbitListener(
+      bindings =
+          @QueueBinding(
+              value = @Queue(autoDelete = "true", exclusive = "true"),
+              exchange =
+                  @Exchange(value = Messaging.exchangeForIndexedSolr, type = ExchangeTypes.FANOUT)))
+  public void indexUpdated(Long indexedTime) {
+    log.trace("Solr index updated up to " + indexedTime + ", dropping cached facets");
+    solrFacetService.invalidateFacetCache();
+  }
+
+  @Override
+  public Collection<Metric<?>> metrics() {
+    CacheStats stats = solrFacetService.getFacetCacheStats();
+    List<Metric<?>> metrics = new ArrayList<>();
+    metrics.add(new Metric<>("cache.facets.size", solrFacetService.getFacetCacheSize()));
+    metrics.add(new Metric<>("cache.facets.hit", stats.hitCount()));
+    metrics.add(new Metric<>("cache.facets.miss", stats.missCount()));
+    metrics.add(new Metric<>("cache.facets.hit.ratio", stats.hitRate()));
+    metrics.add(new Metric<>("cache.facets.eviction", stats.evictionCount()));
+    metrics.add(new Metric<>("cache.facets.time.saved", solrFacetService.getFacetCacheTimeSaved()));
+    return metrics;
+  }
 }
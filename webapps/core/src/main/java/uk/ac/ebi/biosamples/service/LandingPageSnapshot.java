@@ -0,0 +1,147 @@
+/*
+* Copyright 2019 EMBL - European Bioinformatics Institute
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+* file except in compliance with the License. You may obtain a copy of the License at
+* http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the
+* License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+* CONDITIONS OF ANY KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations under the License.
+*/
+package uk.ac.ebi.biosamples.service;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import uk.ac.ebi.biosamples.BioSamplesProperties;
+import uk.ac.ebi.biosamples.model.facet.Facet;
+import uk.ac.ebi.biosamples.solr.service.SolrFacetService;
+import uk.ac.ebi.biosamples.solr.service.SolrSampleService;
+
+/**
+ * Precomputed facets and sample count of the search landing page, i.e. a search of all public
+ * samples without any text or filters, which is both the most requested and one of the slowest
+ * searches.
+ *
+ * <p>The snapshot is recomputed in the background at a fixed interval and replaced as a whole, so
+ * requests never see a partially refreshed one. Facets are kept for every combination of page sizes
+ * that has been requested; a combination requested for the first time is computed on the request
+ * thread and is then included in every refresh.
+ */
+@Service
+public class LandingPageSnapshot {
+  private Logger log = LoggerFactory.getLogger(getClass());
+
+  private final SolrFacetService solrFacetService;
+  private final SolrSampleService solrSampleService;
+
+  // page sizes, as facet count and facet value count, to compute facets for
+  private final Set<List<Integer>> pageSizes = ConcurrentHashMap.newKeySet();
+  private final ScheduledExecutorService executorService =
+      Executors.newSingleThreadScheduledExecutor();
+
+  private volatile Snapshot snapshot = null;
+
+  public LandingPageSnapshot(
+      SolrFacetService solrFacetService,
+      SolrSampleService solrSampleService,
+      BioSamplesProperties bioSamplesProperties) {
+    this.solrFacetService = solrFacetService;
+    this.solrSampleService = solrSampleService;
+
+    long interval = bioSamplesProperties.getBiosamplesCoreLandingSnapshotInterval();
+    executorService.scheduleWithFixedDelay(this::refresh, 0, interval, TimeUnit.SECONDS);
+  }
+
+  /** @return the facets of all public samples */
+  public List<Facet> getFacets(int noOfFacets, int noOfFacetValues) {
+    List<Integer> key = Arrays.asList(noOfFacets, noOfFacetValues);
+    Snapshot current = snapshot;
+    if (current != null && current.facets.containsKey(key)) {
+      return current.facets.get(key);
+    }
+    pageSizes.add(key);
+    List<Facet> facets = computeFacets(key);
+    synchronized (this) {
+      current = snapshot;
+      if (current != null) {
+        Map<List<Integer>, List<Facet>> updated = new HashMap<>(current.facets);
+        updated.put(key, facets);
+        snapshot = new Snapshot(updated, current.sampleCount);
+      }
+    }
+    return facets;
+  }
+
+  /** @return the number of public samples */
+  public long getSampleCount() {
+    Snapshot current = snapshot;
+    if (current != null) {
+      return current.sampleCount;
+    }
+    return computeSampleCount();
+  }
+
+  private void refresh() {
+    try {
+      long startTime = System.nanoTime();
+      Map<List<Integer>, List<Facet>> facets = new HashMap<>();
+      for (List<Integer> key : pageSizes) {
+        facets.put(key, computeFacets(key));
+      }
+      long sampleCount = computeSampleCount();
+      synchronized (this) {
+        snapshot = new Snapshot(facets, sampleCount);
+      }
+      long endTime = System.nanoTime();
+      log.info("Refreshed landing page snapshot in " + ((endTime - startTime) / 1000000) + "ms");
+    } catch (RuntimeException e) {
+      // keep serving the previous snapshot until solr recovers
+      log.error("Problem refreshing landing page snapshot", e);
+    }
+  }
+
+  private List<Facet> computeFacets(List<Integer> key) {
+    return Collections.unmodifiableList(
+        solrFacetService.fetchFacets(
+            null,
+            Collections.emptyList(),
+            Collections.emptyList(),
+            new PageRequest(0, key.get(0)),
+            new PageRequest(0, key.get(1))));
+  }
+
+  private long computeSampleCount() {
+    return solrSampleService
+        .fetchSolrSampleByText(
+            null, Collections.emptyList(), Collections.emptyList(), new PageRequest(0, 1))
+        .getTotalElements();
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    executorService.shutdownNow();
+  }
+
+  private static class Snapshot {
+    private final Map<List<Integer>, List<Facet>> facets;
+    private final long sampleCount;
+
+    private Snapshot(Map<List<Integer>, List<Facet>> facets, long sampleCount) {
+      this.facets = facets;
+      this.sampleCount = sampleCount;
+    }
+  }
+}
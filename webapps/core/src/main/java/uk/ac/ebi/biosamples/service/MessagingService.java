@@ -10,108 +10,332 @@
 */
 package uk.ac.ebi.biosamples.service;
 
+import java.time.Instant;
 import java.util.*;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import javax.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.amqp.core.AmqpTemplate;
 import org.springframework.stereotype.Service;
+import uk.ac.ebi.biosamples.BioSamplesProperties;
 import uk.ac.ebi.biosamples.MessageContent;
 import uk.ac.ebi.biosamples.Messaging;
 import uk.ac.ebi.biosamples.model.CurationLink;
 import uk.ac.ebi.biosamples.model.Relationship;
 import uk.ac.ebi.biosamples.model.Sample;
 import uk.ac.ebi.biosamples.model.StaticViewWrapper;
+import uk.ac.ebi.biosamples.mongo.model.MongoSampleMessage;
+import uk.ac.ebi.biosamples.mongo.repo.MongoSampleMessageRepository;
 import uk.ac.ebi.biosamples.mongo.repo.MongoSampleRepository;
 import uk.ac.ebi.biosamples.mongo.service.SampleToMongoSampleConverter;
 
+/**
+ * Updates the curated static view and sends samples to be indexed once they, or their curation,
+ * have changed.
+ *
+ * <p>This is done in the background, so the request that made the change does not wait for it.
+ * Changed accessions are collected for a short window and then processed together: an accession
+ * changed several times within the window is only processed once, the samples and the targets of
+ * their relationships are fetched with one query each, and the static view is updated with a single
+ * bulk write. A target shared by many changed samples, such as a group, is fetched and written once
+ * per batch instead of once per change.
+ *
+ * <p>If a batch fails, the samples in it that were not yet sent are processed one at a time, so one
+ * bad sample does not hold up the others. A sample that still fails is retried for as long as it
+ * takes, such as until rabbit or mongo are available again, waiting twice as many windows after
+ * each attempt up to {@link #MAX_BACKOFF_WINDOWS}.
+ *
+ * <p>Changes waiting to be processed are held in memory, up to a maximum number of samples. Changes
+ * beyond that, and those still waiting when the application shuts down, are recorded as {@link
+ * MongoSampleMessage}s instead, which the reindex pipeline picks up on its next run. If the
+ * application is killed or crashes the changes of up to one window, or of the samples waiting to be
+ * retried, are neither processed nor recorded, although they are stored. Reindexing the samples
+ * changed since shortly before the crash, with the reindex pipeline, recovers them.
+ */
 @Service
 public class MessagingService {
   private Logger log = LoggerFactory.getLogger(getClass());
 
+  private static final int BATCH_SIZE = 500;
+  // most windows a failing sample waits before it is tried again
+  static final int MAX_BACKOFF_WINDOWS = 1024;
+
   private final SampleReadService sampleReadService;
   private final AmqpTemplate amqpTemplate;
   private final MongoSampleRepository mongoSampleRepository;
   private final SampleToMongoSampleConverter sampleToMongoSampleConverter;
+  private final CuratedSampleCache curatedSampleCache;
+  private final MongoSampleMessageRepository mongoSampleMessageRepository;
+  private final int maxPending;
+
+  // changed accessions waiting to be processed, with the targets of their previous relationships
+  private final ConcurrentMap<String, Set<String>> pending = new ConcurrentHashMap<>();
+  // accessions that failed, waiting for their backoff before being processed again
+  private final ConcurrentMap<String, Retry> retries = new ConcurrentHashMap<>();
+  // number of times in a row processing each accession has failed
+  private final ConcurrentMap<String, Integer> failures = new ConcurrentHashMap<>();
+  private final ScheduledExecutorService executorService =
+      Executors.newSingleThreadScheduledExecutor();
 
   public MessagingService(
       SampleReadService sampleReadService,
       AmqpTemplate amqpTemplate,
       MongoSampleRepository mongoSampleRepository,
-      SampleToMongoSampleConverter sampleToMongoSampleConverter) {
+      SampleToMongoSampleConverter sampleToMongoSampleConverter,
+      CuratedSampleCache curatedSampleCache,
+      MongoSampleMessageRepository mongoSampleMessageRepository,
+      BioSamplesProperties bioSamplesProperties) {
     this.sampleReadService = sampleReadService;
     this.amqpTemplate = amqpTemplate;
     this.mongoSampleRepository = mongoSampleRepository;
     this.sampleToMongoSampleConverter = sampleToMongoSampleConverter;
+    this.curatedSampleCache = curatedSampleCache;
+    this.mongoSampleMessageRepository = mongoSampleMessageRepository;
+    this.maxPending = bioSamplesProperties.getBiosamplesCoreMessagingMaxPending();
+
+    long window = bioSamplesProperties.getBiosamplesCoreMessagingWindow();
+    executorService.scheduleWithFixedDelay(this::flush, window, window, TimeUnit.MILLISECONDS);
   }
 
   public void fetchThenSendMessage(String accession) {
     fetchThenSendMessage(accession, Collections.emptyList());
   }
 
+  /**
+   * Queues the sample to be written to the static view and indexed, along with the samples it has
+   * relationships to so that their inverse relationships are updated.
+   *
+   * @param accession the sample that has changed
+   * @param existingRelationshipTargets targets of the relationships of the sample before the
+   *     change, which may have been removed
+   */
   public void fetchThenSendMessage(String accession, List<String> existingRelationshipTargets) {
     if (accession == null) throw new IllegalArgumentException("accession cannot be null");
     if (accession.trim().length() == 0)
       throw new IllegalArgumentException("accession cannot be empty");
 
-    Optional<Sample> sample = sampleReadService.fetch(accession, Optional.empty());
-    if (sample.isPresent()) {
-      // save sample with curations and relationships in static view collection
-      mongoSampleRepository.insertSampleToCollection(
-          sampleToMongoSampleConverter.convert(sample.get()),
-          StaticViewWrapper.StaticView.SAMPLES_CURATED);
+    Set<String> targets = new HashSet<>(existingRelationshipTargets);
+    // a sample waiting to be retried keeps waiting, with this change merged in
+    if (retries.computeIfPresent(accession, (k, retry) -> retry.with(targets)) != null) {
+      return;
+    }
+    if (!pending.containsKey(accession) && pending.size() + retries.size() >= maxPending) {
+      log.warn("Too many changed samples waiting, recording " + accession + " for reindexing");
+      Set<String> accessions = new HashSet<>(targets);
+      accessions.add(accession);
+      record(accessions);
+      return;
+    }
+    pending.merge(accession, targets, MessagingService::union);
+  }
+
+  private static Set<String> union(Set<String> first, Set<String> second) {
+    Set<String> union = new HashSet<>(first);
+    union.addAll(second);
+    return union;
+  }
 
-      // for each sample we have a relationship to, update it to index this sample as an
-      // inverse
-      // relationship
-      // TODO do this async
-      List<Sample> related = updateInverseRelationships(sample.get(), existingRelationshipTargets);
+  void flush() {
+    // failed samples that have waited long enough are processed again in this window
+    for (String accession : retries.keySet()) {
+      Retry retry = retries.computeIfPresent(accession, (k, r) -> r.waited());
+      if (retry != null && retry.windows <= 0 && retries.remove(accession, retry)) {
+        pending.merge(accession, retry.existingRelationshipTargets, MessagingService::union);
+      }
+    }
 
-      // send the original sample with the extras as related samples
-      amqpTemplate.convertAndSend(
-          Messaging.exchangeForIndexingSolr,
-          "",
-          MessageContent.build(sample.get(), null, related, false));
+    while (!pending.isEmpty()) {
+      Map<String, Set<String>> batch = new LinkedHashMap<>();
+      for (String accession : pending.keySet()) {
+        Set<String> existingRelationshipTargets = pending.remove(accession);
+        if (existingRelationshipTargets != null) {
+          batch.put(accession, existingRelationshipTargets);
+        }
+        if (batch.size() >= BATCH_SIZE) {
+          break;
+        }
+      }
+
+      Set<String> sent = new HashSet<>();
+      try {
+        process(batch, sent);
+        failures.keySet().removeAll(batch.keySet());
+      } catch (RuntimeException e) {
+        log.warn("Problem updating " + batch.size() + " samples, updating them one at a time", e);
+        batch.keySet().removeAll(sent);
+        failures.keySet().removeAll(sent);
+        if (!processEach(batch)) {
+          // nothing could be processed, so leave the rest for the next window
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * Samples that fail are left to be retried in a later window, so they do not hold up the rest.
+   *
+   * @return whether any of the samples could be processed
+   */
+  private boolean processEach(Map<String, Set<String>> batch) {
+    boolean processed = false;
+    for (Map.Entry<String, Set<String>> entry : batch.entrySet()) {
+      String accession = entry.getKey();
+      try {
+        process(Collections.singletonMap(accession, entry.getValue()), new HashSet<>());
+        failures.remove(accession);
+        processed = true;
+      } catch (RuntimeException e) {
+        int attempts = failures.merge(accession, 1, Integer::sum);
+        int windows = backoff(attempts);
+        log.warn(
+            "Problem updating "
+                + accession
+                + " after "
+                + attempts
+                + " attempts, retrying in "
+                + windows
+                + " windows",
+            e);
+        retries.merge(accession, new Retry(entry.getValue(), windows), Retry::merge);
+      }
     }
+    return processed;
   }
 
-  private List<Sample> updateInverseRelationships(
-      Sample sample, List<String> existingRelationshipTargets) {
-    List<Future<Optional<Sample>>> futures = new ArrayList<>();
+  // number of windows to wait after the given number of failed attempts
+  static int backoff(int attempts) {
+    return Math.min(1 << Math.min(attempts - 1, 30), MAX_BACKOFF_WINDOWS);
+  }
 
-    // remove deleted relationships
-    for (String accession : existingRelationshipTargets) {
-      futures.add(sampleReadService.fetchAsync(accession, Optional.empty()));
+  /** Records the accessions for the reindex pipeline, so they are not lost. */
+  private void record(Collection<String> accessions) {
+    Instant now = Instant.now();
+    try {
+      mongoSampleMessageRepository.save(
+          accessions.stream()
+              .map(accession -> MongoSampleMessage.build(accession, now))
+              .collect(Collectors.toList()));
+    } catch (RuntimeException e) {
+      log.error("Unable to record " + accessions + " for reindexing", e);
     }
+  }
 
-    for (Relationship relationship : sample.getRelationships()) {
-      if (relationship.getSource() != null
-          && relationship.getSource().equals(sample.getAccession())
-          && !existingRelationshipTargets.contains(sample.getAccession())) {
-        futures.add(sampleReadService.fetchAsync(relationship.getTarget(), Optional.empty()));
+  /**
+   * @param sent accessions of the samples sent to be indexed, added as each is sent, so that they
+   *     are not sent again if a later one fails
+   */
+  private void process(Map<String, Set<String>> batch, Set<String> sent) {
+    Map<String, Sample> fetched = new LinkedHashMap<>();
+    for (Sample sample : sampleReadService.fetchAll(batch.keySet(), Optional.empty())) {
+      fetched.put(sample.getAccession(), sample);
+    }
+
+    // for each sample we have, or had, a relationship to, update it to index this sample as an
+    // inverse relationship
+    Map<String, Set<String>> relatedAccessions = new HashMap<>();
+    Set<String> targets = new LinkedHashSet<>();
+    for (Sample sample : fetched.values()) {
+      Set<String> related = new LinkedHashSet<>(batch.get(sample.getAccession()));
+      for (Relationship relationship : sample.getRelationships()) {
+        if (relationship.getSource() != null
+            && relationship.getSource().equals(sample.getAccession())) {
+          related.add(relationship.getTarget());
+        }
+      }
+      relatedAccessions.put(sample.getAccession(), related);
+      targets.addAll(related);
+    }
+    targets.removeAll(fetched.keySet());
+    if (!targets.isEmpty()) {
+      for (Sample sample : sampleReadService.fetchAll(targets, Optional.empty())) {
+        fetched.put(sample.getAccession(), sample);
       }
     }
 
-    List<Sample> related = new ArrayList<>();
-    for (Future<Optional<Sample>> future : futures) {
-      try {
-        Optional<Sample> optionalSample = future.get();
-        if (optionalSample.isPresent()) {
-          related.add(optionalSample.get());
-          // todo if we  add inverse relationships we also have to think about deleting
-          // them
-          mongoSampleRepository.insertSampleToCollection(
-              sampleToMongoSampleConverter.convert(optionalSample.get()),
-              StaticViewWrapper.StaticView.SAMPLES_CURATED);
+    // save samples with curations and relationships in static view collection
+    mongoSampleRepository.insertSamplesToCollection(
+        fetched.values().stream()
+            .map(sampleToMongoSampleConverter::convert)
+            .collect(Collectors.toList()),
+        StaticViewWrapper.StaticView.SAMPLES_CURATED);
+    for (String accession : fetched.keySet()) {
+      curatedSampleCache.invalidate(accession);
+    }
+
+    // send the original samples with the extras as related samples
+    for (Map.Entry<String, Set<String>> entry : relatedAccessions.entrySet()) {
+      List<Sample> related = new ArrayList<>();
+      for (String accession : entry.getValue()) {
+        if (fetched.containsKey(accession)) {
+          related.add(fetched.get(accession));
         }
-      } catch (InterruptedException e) {
-        log.warn("Interrupted fetching future relationships", e);
-      } catch (ExecutionException e) {
-        log.error("Problem fetching future relationships", e);
       }
+      amqpTemplate.convertAndSend(
+          Messaging.exchangeForIndexingSolr,
+          "",
+          MessageContent.build(fetched.get(entry.getKey()), null, related, false));
+      sent.add(entry.getKey());
+    }
+    log.debug(
+        "Updated "
+            + relatedAccessions.size()
+            + " changed samples and "
+            + targets.size()
+            + " related samples");
+  }
+
+  @PreDestroy
+  public void shutdown() throws InterruptedException {
+    executorService.shutdown();
+    executorService.awaitTermination(1, TimeUnit.MINUTES);
+    // anything changed since the last window, and anything waiting to be retried
+    for (String accession : retries.keySet()) {
+      Retry retry = retries.remove(accession);
+      if (retry != null) {
+        pending.merge(accession, retry.existingRelationshipTargets, MessagingService::union);
+      }
+    }
+    flush();
+
+    // anything that still failed is left for the reindex pipeline
+    Set<String> accessions = new TreeSet<>(pending.keySet());
+    accessions.addAll(retries.keySet());
+    pending.values().forEach(accessions::addAll);
+    retries.values().forEach(retry -> accessions.addAll(retry.existingRelationshipTargets));
+    if (!accessions.isEmpty()) {
+      log.warn("Recording " + accessions.size() + " samples still waiting for reindexing");
+      record(accessions);
+    }
+  }
+
+  private static class Retry {
+    private final Set<String> existingRelationshipTargets;
+    // windows left to wait
+    private final int windows;
+
+    private Retry(Set<String> existingRelationshipTargets, int windows) {
+      this.existingRelationshipTargets = existingRelationshipTargets;
+      this.windows = windows;
+    }
+
+    private Retry waited() {
+      return new Retry(existingRelationshipTargets, windows - 1);
+    }
+
+    private Retry with(Set<String> targets) {
+      return new Retry(union(existingRelationshipTargets, targets), windows);
+    }
+
+    private static Retry merge(Retry previous, Retry retry) {
+      return retry.with(previous.existingRelationshipTargets);
     }
-    return related;
   }
 
   @Deprecated
@@ -11,10 +11,13 @@
 package uk.ac.ebi.biosamples.service;
 
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
 import java.util.Optional;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -85,28 +88,18 @@ public class SamplePageService {
     log.trace("Got solr page in " + ((endTime - startTime) / 1000000) + "ms");
 
     startTime = System.nanoTime();
-    Page<Future<Optional<Sample>>> pageFutureSample;
     StaticViewWrapper.StaticView staticViews =
         StaticViewWrapper.getStaticView(domains.isEmpty() ? null : domains, curationRepo);
-    pageFutureSample =
-        pageSolrSample.map(
-            ss -> sampleService.fetchAsync(ss.getAccession(), Optional.empty(), staticViews));
+    List<String> accessions =
+        pageSolrSample.getContent().stream()
+            .map(SolrSample::getAccession)
+            .collect(Collectors.toList());
+    Map<String, Sample> samples = new HashMap<>();
+    for (Sample sample : sampleService.fetchAll(accessions, Optional.empty(), staticViews)) {
+      samples.put(sample.getAccession(), sample);
+    }
 
-    Page<Sample> pageSample =
-        pageFutureSample.map(
-            ss -> {
-              try {
-                if (ss.get().isPresent()) {
-                  return ss.get().get();
-                } else {
-                  return null;
-                }
-              } catch (InterruptedException e) {
-                throw new RuntimeException(e);
-              } catch (ExecutionException e) {
-                throw new RuntimeException(e);
-              }
-            });
+    Page<Sample> pageSample = pageSolrSample.map(ss -> samples.get(ss.getAccession()));
     endTime = System.nanoTime();
     log.trace("Got mongo page content in " + ((endTime - startTime) / 1000000) + "ms");
     return pageSample;
@@ -127,30 +120,66 @@ public class SamplePageService {
 
     StaticViewWrapper.StaticView staticViews =
         StaticViewWrapper.getStaticView(domains.isEmpty() ? null : domains, curationRepo);
-    List<Future<Optional<Sample>>> listFutureSample;
-    listFutureSample =
-        cursorSolrSample.stream()
-            .map(s -> sampleService.fetchAsync(s.getAccession(), Optional.empty(), staticViews))
-            .collect(Collectors.toList());
-
-    List<Sample> listSample = collectSampleFutures(listFutureSample);
+    List<String> accessions =
+        cursorSolrSample.stream().map(SolrSample::getAccession).collect(Collectors.toList());
+    List<Sample> listSample = sampleService.fetchAll(accessions, Optional.empty(), staticViews);
 
     return new CursorArrayList<>(listSample, cursorSolrSample.getNextCursorMark());
   }
 
-  private List<Sample> collectSampleFutures(List<Future<Optional<Sample>>> listFutureSample) {
-    return listFutureSample.stream()
-        .map(
-            ss -> {
-              try {
-                return ss.get().get();
-              } catch (InterruptedException e) {
-                throw new RuntimeException(e);
-              } catch (ExecutionException e) {
-                throw new RuntimeException(e);
-              }
-            })
-        .collect(Collectors.toList());
+  /**
+   * Iterate over all the samples of a search, a batch at a time, following a solr cursor. Each
+   * batch is only fetched from solr and mongo when it is asked for, so no more than one batch is
+   * held at once and the caller controls how fast the search is read.
+   *
+   * @param size number of samples in each batch, capped as for the cursor pages
+   */
+  public Iterator<List<Sample>> getSampleBatchesByText(
+      String text,
+      Collection<Filter> filters,
+      Collection<String> domains,
+      int size,
+      String curationRepo) {
+    int batchSize = validatePageSize(size);
+    StaticViewWrapper.StaticView staticViews =
+        StaticViewWrapper.getStaticView(domains.isEmpty() ? null : domains, curationRepo);
+
+    return new Iterator<List<Sample>>() {
+      private String cursorMark = "*";
+      private List<SolrSample> next = null;
+      private boolean done = false;
+
+      @Override
+      public boolean hasNext() {
+        if (next == null && !done) {
+          CursorArrayList<SolrSample> cursorSolrSample =
+              solrSampleService.fetchSolrSampleByText(
+                  text, filters, domains, cursorMark, batchSize);
+          // solr returns the same cursor mark once there are no more results
+          done = cursorSolrSample.getNextCursorMark().equals(cursorMark);
+          cursorMark = cursorSolrSample.getNextCursorMark();
+          if (!cursorSolrSample.isEmpty()) {
+            next = cursorSolrSample;
+          } else {
+            done = true;
+          }
+        }
+        return next != null;
+      }
+
+      @Override
+      public List<Sample> next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        List<String> accessions =
+            next.stream().map(SolrSample::getAccession).collect(Collectors.toList());
+        next = null;
+        return sampleService.fetchAll(accessions, Optional.empty(), staticViews).stream()
+            .filter(Objects::nonNull)
+            .collect(Collectors.toList());
+      }
+    };
   }
 
   private String validateCursor(String cursorMark) {
@@ -62,6 +62,7 @@ public class SampleService {
   @Autowired private SolrSampleService solrSampleService;
   @Autowired private SampleReadService sampleReadService;
   @Autowired private MessagingService messagingSerivce;
+  @Autowired private CuratedSampleCache curatedSampleCache;
 
   /**
    * Throws an IllegalArgumentException of no sample with that accession exists
@@ -74,7 +75,11 @@ public class SampleService {
       String accession, Optional<List<String>> curationDomains, String curationRepo) {
     StaticViewWrapper.StaticView staticView =
         StaticViewWrapper.getStaticView(curationDomains.orElse(null), curationRepo);
-    return sampleReadService.fetch(accession, curationDomains, staticView);
+    return curatedSampleCache.get(
+        accession,
+        curationDomains,
+        staticView,
+        () -> sampleReadService.fetch(accession, curationDomains, staticView));
   }
 
   public Autocomplete getAutocomplete(
@@ -135,12 +140,9 @@ public class SampleService {
     return firstTimeMetadataAdded;
   }
 
-  // because the fetchUsing caches the sample, if an updated version is stored, we need to make
-  // sure
-  // that any cached version
-  // is removed.
-  // Note, pages of samples will not be cache busted, only single-accession sample retrieval
-  // @CacheEvict(cacheNames=WebappProperties.fetchUsing, key="#result.accession")
+  // because fetch caches the sample, if an updated version is stored, we need to make sure that
+  // any cached version is removed.
+  // Note, pages of samples are not cached, only single-accession sample retrieval
   public Sample store(Sample sample, boolean isFirstTimeMetadataAdded) {
     return store(sample, false, isFirstTimeMetadataAdded);
   }
@@ -171,6 +173,14 @@ public class SampleService {
       mongoSample = mongoSampleRepository.save(mongoSample);
       sample = mongoSampleToSampleConverter.convert(mongoSample);
 
+      // the inverse relationships of old and new relationship targets change too
+      List<String> touchedAccessions = new ArrayList<>(existingRelationshipTargets);
+      touchedAccessions.add(sample.getAccession());
+      for (MongoRelationship relationship : mongoSample.getRelationships()) {
+        touchedAccessions.add(relationship.getTarget());
+      }
+      curatedSampleCache.invalidateAll(touchedAccessions);
+
       // send a message for storage and further processing, send relationship targets to
       // identify
       // deleted relationships
@@ -203,6 +213,7 @@ public class SampleService {
     MongoSample mongoSample = structuredDataConverter.convert(newSample);
     mongoSample = mongoSampleRepository.save(mongoSample);
     newSample = mongoSampleToSampleConverter.convert(mongoSample);
+    curatedSampleCache.invalidate(newSample.getAccession());
 
     // return the newSample in case we have modified it i.e accessioned
     // do a fetch to return it with curation objects and inverse relationships
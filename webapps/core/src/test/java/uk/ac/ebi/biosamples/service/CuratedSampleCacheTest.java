@@ -0,0 +1,221 @@
+/*
+* Copyright 2019 EMBL - European Bioinformatics Institute
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+* file except in compliance with the License. You may obtain a copy of the License at
+* http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the
+* License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+* CONDITIONS OF ANY KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations under the License.
+*/
+package uk.ac.ebi.biosamples.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.boot.actuate.metrics.Metric;
+import uk.ac.ebi.biosamples.BioSamplesProperties;
+import uk.ac.ebi.biosamples.model.Curation;
+import uk.ac.ebi.biosamples.model.CurationLink;
+import uk.ac.ebi.biosamples.model.Relationship;
+import uk.ac.ebi.biosamples.model.Sample;
+import uk.ac.ebi.biosamples.model.StaticViewWrapper;
+import uk.ac.ebi.biosamples.mongo.model.MongoCurationLink;
+import uk.ac.ebi.biosamples.mongo.model.MongoSample;
+import uk.ac.ebi.biosamples.mongo.repo.MongoCurationLinkRepository;
+import uk.ac.ebi.biosamples.mongo.repo.MongoCurationRepository;
+import uk.ac.ebi.biosamples.mongo.repo.MongoSampleRepository;
+import uk.ac.ebi.biosamples.mongo.service.CurationLinkToMongoCurationLinkConverter;
+import uk.ac.ebi.biosamples.mongo.service.CurationToMongoCurationConverter;
+import uk.ac.ebi.biosamples.mongo.service.MongoCurationLinkToCurationLinkConverter;
+import uk.ac.ebi.biosamples.mongo.service.MongoSampleToSampleConverter;
+import uk.ac.ebi.biosamples.mongo.service.SampleToMongoSampleConverter;
+
+@RunWith(MockitoJUnitRunner.class)
+public class CuratedSampleCacheTest {
+
+  private static final String ACCESSION = "SAMEA1";
+
+  @Spy private CuratedSampleCache curatedSampleCache = new CuratedSampleCache(properties());
+
+  @Mock private SampleReadService sampleReadService;
+  @Mock private SampleValidator sampleValidator;
+  @Mock private MongoSampleRepository mongoSampleRepository;
+  @Mock private MongoSampleToSampleConverter mongoSampleToSampleConverter;
+  @Mock private SampleToMongoSampleConverter sampleToMongoSampleConverter;
+  @Mock private MessagingService messagingSerivce;
+  @Mock private MongoCurationRepository mongoCurationRepository;
+  @Mock private MongoCurationLinkRepository mongoCurationLinkRepository;
+  @Mock private CurationToMongoCurationConverter curationToMongoCurationConverter;
+  @Mock private CurationLinkToMongoCurationLinkConverter curationLinkToMongoCurationLinkConverter;
+  @Mock private MongoCurationLinkToCurationLinkConverter mongoCurationLinkToCurationLinkConverter;
+
+  @InjectMocks private SampleService sampleService;
+  @InjectMocks private CurationPersistService curationPersistService;
+
+  private final AtomicInteger fetches = new AtomicInteger();
+
+  @Test
+  public void caches_each_variant_of_a_sample() {
+    get(Optional.empty());
+    get(Optional.empty());
+    get(Optional.of(Collections.singletonList("self.curator")));
+    get(Optional.of(Collections.singletonList("self.curator")));
+
+    assertEquals(2, fetches.get());
+  }
+
+  @Test
+  public void hits_are_counted_for_the_requested_variant() {
+    get(Optional.empty());
+    get(Optional.empty());
+    // the sample is cached, but not this variant of it
+    get(Optional.of(Collections.singletonList("self.curator")));
+
+    assertEquals(1L, metric("cache.samples.hit"));
+    assertEquals(2L, metric("cache.samples.miss"));
+    assertEquals(1.0 / 3, (double) metric("cache.samples.hit.ratio"), 0.0001);
+  }
+
+  @Test
+  public void invalidate_removes_every_variant() {
+    get(Optional.empty());
+    get(Optional.of(Collections.singletonList("self.curator")));
+
+    curatedSampleCache.invalidate(ACCESSION);
+    get(Optional.empty());
+    get(Optional.of(Collections.singletonList("self.curator")));
+
+    assertEquals(4, fetches.get());
+  }
+
+  @Test
+  public void invalidate_leaves_other_samples_cached() {
+    get(Optional.empty());
+    curatedSampleCache.invalidateAll(Collections.singletonList("SAMEA2"));
+    get(Optional.empty());
+
+    assertEquals(1, fetches.get());
+  }
+
+  @Test
+  public void sample_fetched_before_a_concurrent_write_is_not_cached() {
+    // the write lands, and invalidates, between the fetch and the cache put
+    curatedSampleCache.get(
+        ACCESSION,
+        Optional.empty(),
+        null,
+        () -> {
+          Sample old = sample(ACCESSION, "old");
+          curatedSampleCache.invalidate(ACCESSION);
+          return Optional.of(old);
+        });
+
+    assertEquals("fetched", get(Optional.empty()).getName());
+    assertEquals(1, fetches.get());
+  }
+
+  @Test
+  public void saving_a_sample_invalidates_its_cached_version() {
+    MongoSample mongoOldSample = mock(MongoSample.class);
+    MongoSample mongoNewSample = mock(MongoSample.class);
+    Sample oldSample = sample(ACCESSION, "old");
+    Sample newSample = sample(ACCESSION, "new");
+    when(mongoSampleRepository.findOne(ACCESSION)).thenReturn(mongoOldSample);
+    when(mongoSampleToSampleConverter.convert(mongoOldSample)).thenReturn(oldSample);
+    when(sampleToMongoSampleConverter.convert(any(Sample.class))).thenReturn(mongoNewSample);
+    when(mongoSampleRepository.save(mongoNewSample)).thenReturn(mongoNewSample);
+    when(mongoSampleToSampleConverter.convert(mongoNewSample)).thenReturn(newSample);
+    when(sampleReadService.fetch(anyString(), any(), any()))
+        .thenReturn(Optional.of(oldSample))
+        .thenReturn(Optional.of(newSample));
+
+    assertEquals("old", sampleService.fetch(ACCESSION, Optional.empty(), null).get().getName());
+    assertEquals("new", sampleService.store(newSample, false).getName());
+    assertEquals("new", sampleService.fetch(ACCESSION, Optional.empty(), null).get().getName());
+    verify(sampleReadService, times(2)).fetch(anyString(), any(), any());
+  }
+
+  @Test
+  public void curation_link_writes_invalidate_the_sample_and_relationship_targets() {
+    when(mongoCurationLinkRepository.findOne(anyString()))
+        .thenReturn(mock(MongoCurationLink.class));
+    Curation curation =
+        Curation.build(
+            null,
+            null,
+            null,
+            null,
+            null,
+            Collections.singleton(Relationship.build(ACCESSION, "derived from", "SAMEA2")));
+    CurationLink curationLink =
+        CurationLink.build(ACCESSION, curation, "self.curator", Instant.now());
+
+    get(ACCESSION);
+    get("SAMEA2");
+    curationPersistService.store(curationLink);
+    get(ACCESSION);
+    get("SAMEA2");
+    assertEquals(4, fetches.get());
+
+    when(curationLinkToMongoCurationLinkConverter.convert(curationLink))
+        .thenReturn(mock(MongoCurationLink.class));
+    curationPersistService.delete(curationLink);
+    get(ACCESSION);
+    get("SAMEA2");
+    assertEquals(6, fetches.get());
+  }
+
+  private Number metric(String name) {
+    for (Metric<?> metric : curatedSampleCache.metrics()) {
+      if (metric.getName().equals(name)) {
+        return metric.getValue();
+      }
+    }
+    throw new AssertionError("No metric " + name);
+  }
+
+  private Sample get(Optional<List<String>> curationDomains) {
+    StaticViewWrapper.StaticView staticView =
+        StaticViewWrapper.getStaticView(curationDomains.orElse(null), null);
+    return curatedSampleCache
+        .get(ACCESSION, curationDomains, staticView, () -> fetch(ACCESSION))
+        .get();
+  }
+
+  private Sample get(String accession) {
+    return curatedSampleCache.get(accession, Optional.empty(), null, () -> fetch(accession)).get();
+  }
+
+  private Optional<Sample> fetch(String accession) {
+    fetches.incrementAndGet();
+    return Optional.of(sample(accession, "fetched"));
+  }
+
+  private static Sample sample(String accession, String name) {
+    return new Sample.Builder(name, accession).withDomain("self.test").build();
+  }
+
+  private static BioSamplesProperties properties() {
+    BioSamplesProperties properties = mock(BioSamplesProperties.class);
+    when(properties.getBiosamplesCoreSampleCacheMaxWeight()).thenReturn(10000L);
+    when(properties.getBiosamplesCoreSampleCacheTtl()).thenReturn(600);
+    return properties;
+  }
+}
@@ -0,0 +1,330 @@
+/*
+* Copyright 2019 EMBL - European Bioinformatics Institute
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+* file except in compliance with the License. You may obtain a copy of the License at
+* http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the
+* License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+* CONDITIONS OF ANY KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations under the License.
+*/
+package uk.ac.ebi.biosamples.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.*;
+import java.util.stream.Collectors;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.amqp.core.AmqpTemplate;
+import uk.ac.ebi.biosamples.BioSamplesProperties;
+import uk.ac.ebi.biosamples.MessageContent;
+import uk.ac.ebi.biosamples.Messaging;
+import uk.ac.ebi.biosamples.model.Relationship;
+import uk.ac.ebi.biosamples.model.Sample;
+import uk.ac.ebi.biosamples.model.StaticViewWrapper;
+import uk.ac.ebi.biosamples.mongo.model.MongoSample;
+import uk.ac.ebi.biosamples.mongo.model.MongoSampleMessage;
+import uk.ac.ebi.biosamples.mongo.repo.MongoSampleMessageRepository;
+import uk.ac.ebi.biosamples.mongo.repo.MongoSampleRepository;
+import uk.ac.ebi.biosamples.mongo.service.SampleToMongoSampleConverter;
+
+@RunWith(MockitoJUnitRunner.class)
+public class MessagingServiceTest {
+
+  @Mock SampleReadService sampleReadService;
+  @Mock AmqpTemplate amqpTemplate;
+  @Mock MongoSampleRepository mongoSampleRepository;
+  @Mock SampleToMongoSampleConverter sampleToMongoSampleConverter;
+  @Mock CuratedSampleCache curatedSampleCache;
+  @Mock MongoSampleMessageRepository mongoSampleMessageRepository;
+  @Mock BioSamplesProperties bioSamplesProperties;
+
+  // relationships of the stored samples, by source
+  private final Map<String, List<String>> relationships = new HashMap<>();
+  private final Set<String> unfetchable = new HashSet<>();
+  private final Set<String> unsendable = new HashSet<>();
+  private final List<Collection<String>> fetches = new ArrayList<>();
+  private final List<String> sent = new ArrayList<>();
+  private final Set<String> recorded = new TreeSet<>();
+
+  private MessagingService messagingService;
+
+  @Before
+  @SuppressWarnings("unchecked")
+  public void setUp() {
+    // only flush when the test says so
+    when(bioSamplesProperties.getBiosamplesCoreMessagingWindow()).thenReturn(3600000L);
+    when(sampleReadService.fetchAll(anyCollectionOf(String.class), eq(Optional.empty())))
+        .thenAnswer(
+            invocation -> {
+              Collection<String> accessions = (Collection<String>) invocation.getArguments()[0];
+              fetches.add(new ArrayList<>(accessions));
+              if (accessions.stream().anyMatch(unfetchable::contains)) {
+                throw new IllegalStateException("unable to fetch " + accessions);
+              }
+              return accessions.stream().map(this::sample).collect(Collectors.toList());
+            });
+    when(sampleToMongoSampleConverter.convert(any(Sample.class)))
+        .thenAnswer(
+            invocation -> {
+              MongoSample mongoSample = mock(MongoSample.class);
+              when(mongoSample.getAccession())
+                  .thenReturn(((Sample) invocation.getArguments()[0]).getAccession());
+              return mongoSample;
+            });
+    doAnswer(
+            invocation -> {
+              Sample sample = ((MessageContent) invocation.getArguments()[2]).getSample();
+              if (unsendable.contains(sample.getAccession())) {
+                throw new IllegalStateException("unable to send " + sample.getAccession());
+              }
+              sent.add(sample.getAccession());
+              return null;
+            })
+        .when(amqpTemplate)
+        .convertAndSend(eq(Messaging.exchangeForIndexingSolr), eq(""), any(MessageContent.class));
+    when(mongoSampleMessageRepository.save(any(Iterable.class)))
+        .thenAnswer(
+            invocation -> {
+              for (MongoSampleMessage message :
+                  (Iterable<MongoSampleMessage>) invocation.getArguments()[0]) {
+                recorded.add(message.getAccession());
+              }
+              return null;
+            });
+
+    messagingService = messagingService(100000);
+  }
+
+  @After
+  public void tearDown() throws InterruptedException {
+    messagingService.shutdown();
+  }
+
+  @Test
+  public void repeated_changes_to_a_sample_are_merged() {
+    messagingService.fetchThenSendMessage("SAMEA1", Collections.singletonList("SAMEA8"));
+    messagingService.fetchThenSendMessage("SAMEA1", Collections.singletonList("SAMEA9"));
+    messagingService.fetchThenSendMessage("SAMEA1");
+
+    messagingService.flush();
+
+    assertEquals(
+        Arrays.asList(Collections.singletonList("SAMEA1"), Arrays.asList("SAMEA8", "SAMEA9")),
+        sortedFetches());
+    assertEquals(Collections.singletonList("SAMEA1"), sent);
+  }
+
+  @Test
+  public void changes_are_processed_in_batches() {
+    for (int i = 1; i <= 1200; i++) {
+      messagingService.fetchThenSendMessage("SAMEA" + i);
+    }
+
+    messagingService.flush();
+
+    assertEquals(
+        Arrays.asList(500, 500, 200),
+        fetches.stream().map(Collection::size).collect(Collectors.toList()));
+    assertEquals(1200, new HashSet<>(sent).size());
+    assertEquals(1200, sent.size());
+    verify(mongoSampleRepository, times(3))
+        .insertSamplesToCollection(
+            anyCollectionOf(MongoSample.class), eq(StaticViewWrapper.StaticView.SAMPLES_CURATED));
+  }
+
+  @Test
+  public void changed_samples_and_their_targets_are_upserted_into_the_static_view() {
+    relationships.put("SAMEA1", Collections.singletonList("SAMEG1"));
+    relationships.put("SAMEA2", Collections.singletonList("SAMEG1"));
+    messagingService.fetchThenSendMessage("SAMEA1", Collections.singletonList("SAMEA9"));
+    messagingService.fetchThenSendMessage("SAMEA2");
+
+    messagingService.flush();
+
+    @SuppressWarnings("unchecked")
+    ArgumentCaptor<Collection<MongoSample>> upserted =
+        (ArgumentCaptor<Collection<MongoSample>>)
+            (ArgumentCaptor<?>) ArgumentCaptor.forClass(Collection.class);
+    verify(mongoSampleRepository)
+        .insertSamplesToCollection(
+            upserted.capture(), eq(StaticViewWrapper.StaticView.SAMPLES_CURATED));
+    List<String> accessions =
+        upserted.getValue().stream()
+            .map(MongoSample::getAccession)
+            .sorted()
+            .collect(Collectors.toList());
+    assertEquals(Arrays.asList("SAMEA1", "SAMEA2", "SAMEA9", "SAMEG1"), accessions);
+    for (String accession : accessions) {
+      verify(curatedSampleCache).invalidate(accession);
+    }
+    // the group is fetched once for both of its members
+    assertEquals(2, fetches.size());
+    assertEquals(Arrays.asList("SAMEA1", "SAMEA2"), sorted(sent));
+  }
+
+  @Test
+  public void failed_batch_is_processed_one_sample_at_a_time() {
+    unfetchable.add("SAMEA2");
+    messagingService.fetchThenSendMessage("SAMEA1");
+    messagingService.fetchThenSendMessage("SAMEA2");
+    messagingService.fetchThenSendMessage("SAMEA3");
+
+    messagingService.flush();
+
+    assertEquals(Arrays.asList("SAMEA1", "SAMEA3"), sorted(sent));
+  }
+
+  @Test
+  public void samples_sent_before_a_failure_are_not_sent_again() {
+    unsendable.add("SAMEA2");
+    for (int i = 1; i <= 10; i++) {
+      messagingService.fetchThenSendMessage("SAMEA" + i);
+    }
+
+    messagingService.flush();
+
+    assertEquals(9, sent.size());
+    assertEquals(9, new HashSet<>(sent).size());
+  }
+
+  @Test
+  public void failing_sample_is_retried_with_a_growing_backoff() {
+    unfetchable.add("SAMEA2");
+    messagingService.fetchThenSendMessage("SAMEA2");
+
+    // windows in which it was tried, as a batch and on its own
+    List<Integer> tried = new ArrayList<>();
+    for (int window = 1; window <= 64; window++) {
+      int before = fetches.size();
+      messagingService.flush();
+      if (fetches.size() > before) {
+        assertEquals(before + 2, fetches.size());
+        tried.add(window);
+      }
+    }
+
+    assertEquals(Arrays.asList(1, 2, 4, 8, 16, 32, 64), tried);
+    verify(amqpTemplate, never()).convertAndSend(anyString(), anyString(), any(Object.class));
+  }
+
+  @Test
+  public void backoff_is_capped_and_never_gives_up() {
+    assertEquals(1, MessagingService.backoff(1));
+    assertEquals(8, MessagingService.backoff(4));
+    assertEquals(MessagingService.MAX_BACKOFF_WINDOWS, MessagingService.backoff(11));
+    assertEquals(MessagingService.MAX_BACKOFF_WINDOWS, MessagingService.backoff(1000));
+  }
+
+  @Test
+  public void changes_to_a_failing_sample_wait_for_its_retry() {
+    unfetchable.add("SAMEA2");
+    messagingService.fetchThenSendMessage("SAMEA2");
+    messagingService.flush();
+    messagingService.flush();
+    fetches.clear();
+
+    unfetchable.clear();
+    messagingService.fetchThenSendMessage("SAMEA2", Collections.singletonList("SAMEA9"));
+    // waiting for the second retry
+    messagingService.flush();
+    assertEquals(Collections.emptyList(), fetches);
+    messagingService.flush();
+
+    assertEquals(
+        Arrays.asList(Collections.singletonList("SAMEA2"), Collections.singletonList("SAMEA9")),
+        sortedFetches());
+    assertEquals(Collections.singletonList("SAMEA2"), sent);
+  }
+
+  @Test
+  public void changes_beyond_the_maximum_are_recorded_for_reindexing() throws InterruptedException {
+    messagingService.shutdown();
+    messagingService = messagingService(3);
+    messagingService.fetchThenSendMessage("SAMEA1");
+    messagingService.fetchThenSendMessage("SAMEA2");
+    messagingService.fetchThenSendMessage("SAMEA3");
+    messagingService.fetchThenSendMessage("SAMEA4", Collections.singletonList("SAMEA9"));
+    // already waiting, so merged rather than recorded
+    messagingService.fetchThenSendMessage("SAMEA1");
+
+    messagingService.flush();
+
+    assertEquals(Arrays.asList("SAMEA1", "SAMEA2", "SAMEA3"), sorted(sent));
+    assertEquals(new TreeSet<>(Arrays.asList("SAMEA4", "SAMEA9")), recorded);
+  }
+
+  @Test
+  public void samples_still_failing_at_shutdown_are_recorded_for_reindexing()
+      throws InterruptedException {
+    unfetchable.add("SAMEA2");
+    messagingService.fetchThenSendMessage("SAMEA1");
+    messagingService.fetchThenSendMessage("SAMEA2", Collections.singletonList("SAMEA9"));
+    messagingService.flush();
+    assertEquals(Collections.emptySet(), recorded);
+
+    messagingService.shutdown();
+
+    assertEquals(Collections.singletonList("SAMEA1"), sent);
+    assertEquals(new TreeSet<>(Arrays.asList("SAMEA2", "SAMEA9")), recorded);
+  }
+
+  @Test
+  public void sample_that_recovers_is_sent() {
+    unfetchable.add("SAMEA2");
+    messagingService.fetchThenSendMessage("SAMEA2");
+    messagingService.flush();
+
+    unfetchable.clear();
+    messagingService.flush();
+
+    assertEquals(Collections.singletonList("SAMEA2"), sent);
+  }
+
+  private MessagingService messagingService(int maxPending) {
+    when(bioSamplesProperties.getBiosamplesCoreMessagingMaxPending()).thenReturn(maxPending);
+    return new MessagingService(
+        sampleReadService,
+        amqpTemplate,
+        mongoSampleRepository,
+        sampleToMongoSampleConverter,
+        curatedSampleCache,
+        mongoSampleMessageRepository,
+        bioSamplesProperties);
+  }
+
+  private Sample sample(String accession) {
+    Sample.Builder builder = new Sample.Builder("test", accession);
+    builder.withRelationships(
+        relationships.getOrDefault(accession, Collections.emptyList()).stream()
+            .map(target -> Relationship.build(accession, "member of", target))
+            .collect(Collectors.toList()));
+    return builder.build();
+  }
+
+  private List<List<String>> sortedFetches() {
+    return fetches.stream().map(this::sorted).collect(Collectors.toList());
+  }
+
+  private List<String> sorted(Collection<String> accessions) {
+    List<String> sorted = new ArrayList<>(accessions);
+    Collections.sort(sorted);
+    return sorted;
+  }
+}
@@ -15,6 +15,7 @@ import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.web.support.SpringBootServletInitializer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.data.mongodb.core.MongoOperations;
 import org.springframework.http.converter.HttpMessageConverter;
 import uk.ac.ebi.biosamples.model.Sample;
 import uk.ac.ebi.biosamples.mongo.MongoProperties;
@@ -49,13 +50,16 @@ public class Application extends SpringBootServletInitializer {
       MongoSampleRepository mongoSampleRepository,
       SampleToMongoSampleConverter sampleToMongoSampleConverter,
       MongoSampleToSampleConverter mongoSampleToSampleConverter,
+      MongoOperations mongoOperations,
       MongoProperties mongoProperties) {
     return new MongoAccessionService(
         mongoSampleRepository,
         sampleToMongoSampleConverter,
         mongoSampleToSampleConverter,
+        mongoOperations,
         "SAMEG",
         mongoProperties.getAccessionMinimum(),
-        mongoProperties.getAcessionQueueSize());
+        mongoProperties.getAccessionBlockSize(),
+        mongoProperties.getAccessionAttempts());
   }
 }